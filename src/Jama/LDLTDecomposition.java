@@ -0,0 +1,397 @@
+package Jama;
+
+   /** LDL' Decomposition of a symmetric indefinite matrix.
+   <P>
+   For a symmetric n-by-n matrix A, the LDL' decomposition with the
+   Bunch-Kaufman diagonal pivoting method is a unit lower triangular
+   matrix L, a block diagonal matrix D with 1-by-1 and 2-by-2 diagonal
+   blocks, and a permutation P so that P*A*P' = L*D*L'.
+   <P>
+   Only the lower triangle of A is stored, packed column by column into a
+   one-dimensional array: A(i,j) with i >= j is at index
+   i + j*(2*n-j-1)/2. The decomposition overwrites this array, so a
+   symmetric matrix requires about half the memory of a Matrix and of a
+   LUDecomposition, and the decomposition requires about half the
+   operations of a LUDecomposition. The algorithm follows the LAPACK
+   routines DSPTRF and DSPTRS.
+   <P>
+   The decomposition always exists, so the constructor will never fail.
+   Solving a system of equations will fail if isNonsingular() returns
+   false.
+   */
+
+public class LDLTDecomposition implements java.io.Serializable {
+
+        static final long serialVersionUID = 6408239021617318264L;
+
+/* ------------------------
+   Class variables
+ * ------------------------ */
+
+   /** Packed lower triangle with the multipliers of L and the blocks of D.
+   @serial internal array storage.
+   */
+   private double[] AP;
+
+   /** Row and column dimension (square matrix).
+   @serial matrix dimension.
+   */
+   private int n;
+
+   /** Pivot vector. If piv[k] >= 0, rows and columns k and piv[k] were
+   interchanged and D(k,k) is a 1-by-1 block. If piv[k] = piv[k+1] < 0,
+   rows and columns k+1 and -piv[k]-1 were interchanged and D(k:k+1,k:k+1)
+   is a 2-by-2 block.
+   @serial pivot vector.
+   */
+   private int[] piv;
+
+   /** Nonsingular flag.
+   @serial is nonsingular flag.
+   */
+   private boolean nonsingular;
+
+/* ------------------------
+   Constructors
+ * ------------------------ */
+
+   /** LDL' Decomposition of a packed symmetric matrix.
+   @param  AP  Lower triangle of a symmetric matrix, packed by columns.
+               This array is overwritten by the decomposition.
+   @param  n   Row and column dimension.
+   @exception  IllegalArgumentException Array length must be n*(n+1)/2.
+   */
+
+   public LDLTDecomposition (double[] AP, int n) {
+      if (AP.length != packedLength(n)) {
+         throw new IllegalArgumentException("Array length must be n*(n+1)/2.");
+      }
+      this.AP = AP;
+      this.n = n;
+      this.piv = new int[n];
+      decompose();
+   }
+
+   /** LDL' Decomposition of a symmetric matrix.
+   @param  A   Square, symmetric matrix. Only the lower triangle is used.
+   */
+
+   public LDLTDecomposition (Matrix A) {
+      this(pack(A), A.getRowDimension());
+   }
+
+/* ------------------------
+   Public Methods
+ * ------------------------ */
+
+   /** Length of the array for a packed symmetric matrix.
+   @param  n   Row and column dimension.
+   @return     n*(n+1)/2
+   @exception  IllegalArgumentException n*(n+1)/2 must not exceed the maximum
+               array length (n <= 65535).
+   */
+
+   public static int packedLength (int n) {
+      final long length = (long) n * (n + 1) / 2;
+      if (n < 0 || length > Integer.MAX_VALUE) {
+         throw new IllegalArgumentException("Matrix dimension " + n
+               + " too large for a packed array.");
+      }
+      return (int) length;
+   }
+
+   /** Index of an element in the packed lower triangle.
+   @param  i   Row index, i >= j.
+   @param  j   Column index.
+   @param  n   Row and column dimension.
+   @return     Index of A(i,j) in the packed array.
+   */
+
+   public static int packedIndex (int i, int j, int n) {
+      return i + (int) ((long) j * (2 * n - j - 1) / 2);
+   }
+
+   /** Is the matrix nonsingular?
+   @return     true if D, and hence A, is nonsingular.
+   */
+
+   public boolean isNonsingular () {
+      return nonsingular;
+   }
+
+   /** Return pivot vector
+   @return     piv
+   */
+
+   public int[] getPivot () {
+      return piv.clone();
+   }
+
+   /** Solve A*x = b in place
+   @param  b   Right hand side with n elements, overwritten by the solution x.
+   @exception  IllegalArgumentException Array length must agree.
+   @exception  RuntimeException  Matrix is singular.
+   */
+
+   public void solve (double[] b) {
+      if (b.length != n) {
+         throw new IllegalArgumentException("Array length must agree.");
+      }
+      if (!nonsingular) {
+         throw new RuntimeException("Matrix is singular.");
+      }
+
+      // Solve L*D*y = P*b
+      int k = 0;
+      while (k < n) {
+         final int kc = packedIndex(k, k, n);
+         if (piv[k] >= 0) {
+            // 1-by-1 diagonal block
+            swap(b, k, piv[k]);
+            final double bk = b[k];
+            for (int i = k + 1; i < n; i++) {
+               b[i] -= AP[kc + i - k] * bk;
+            }
+            b[k] = bk / AP[kc];
+            k++;
+         } else {
+            // 2-by-2 diagonal block
+            swap(b, k + 1, -piv[k] - 1);
+            final int kc1 = packedIndex(k + 1, k + 1, n);
+            final double bk = b[k];
+            final double bk1 = b[k + 1];
+            for (int i = k + 2; i < n; i++) {
+               b[i] -= AP[kc + i - k] * bk + AP[kc1 + i - k - 1] * bk1;
+            }
+            final double akm1k = AP[kc + 1];
+            final double akm1 = AP[kc] / akm1k;
+            final double ak = AP[kc1] / akm1k;
+            final double denom = akm1 * ak - 1.0;
+            final double bkm1 = bk / akm1k;
+            final double bkk = bk1 / akm1k;
+            b[k] = (ak * bkm1 - bkk) / denom;
+            b[k + 1] = (akm1 * bkk - bkm1) / denom;
+            k += 2;
+         }
+      }
+
+      // Solve L'*P*x = y
+      k = n - 1;
+      while (k >= 0) {
+         if (piv[k] >= 0) {
+            b[k] -= dotBelow(k, b);
+            swap(b, k, piv[k]);
+            k--;
+         } else {
+            b[k] -= dotBelow(k, b);
+            b[k - 1] -= dotBelow(k - 1, b, k + 1);
+            swap(b, k, -piv[k] - 1);
+            k -= 2;
+         }
+      }
+   }
+
+   /** Solve A*X = B
+   @param  B   A Matrix with n rows and any number of columns.
+   @return     X so that A*X = B
+   @exception  IllegalArgumentException Matrix row dimensions must agree.
+   @exception  RuntimeException  Matrix is singular.
+   */
+
+   public Matrix solve (Matrix B) {
+      if (B.getRowDimension() != n) {
+         throw new IllegalArgumentException("Matrix row dimensions must agree.");
+      }
+      final int nx = B.getColumnDimension();
+      Matrix Xmat = new Matrix(n, nx);
+      double[][] X = Xmat.getArray();
+      double[] b = new double[n];
+      for (int j = 0; j < nx; j++) {
+         for (int i = 0; i < n; i++) {
+            b[i] = B.get(i, j);
+         }
+         solve(b);
+         for (int i = 0; i < n; i++) {
+            X[i][j] = b[i];
+         }
+      }
+      return Xmat;
+   }
+
+/* ------------------------
+   Private Methods
+ * ------------------------ */
+
+   /** Bunch-Kaufman factorization of the packed lower triangle (DSPTRF). */
+
+   private void decompose () {
+      final double alpha = (1.0 + Math.sqrt(17.0)) / 8.0;
+      nonsingular = true;
+
+      int k = 0;
+      while (k < n) {
+         final int kc = packedIndex(k, k, n);
+         int kstep = 1;
+         int kp;
+
+         // Determine rows and columns to be interchanged and whether a
+         // 1-by-1 or 2-by-2 pivot block will be used
+         final double absakk = Math.abs(AP[kc]);
+         int imax = k;
+         double colmax = 0.0;
+         for (int i = k + 1; i < n; i++) {
+            final double v = Math.abs(AP[kc + i - k]);
+            if (v > colmax) {
+               colmax = v;
+               imax = i;
+            }
+         }
+
+         if (Math.max(absakk, colmax) == 0.0) {
+            // Column k is zero
+            nonsingular = false;
+            kp = k;
+         } else {
+            if (absakk >= alpha * colmax) {
+               // no interchange, use 1-by-1 pivot block
+               kp = k;
+            } else {
+               // rowmax is the largest off-diagonal element in row imax
+               double rowmax = 0.0;
+               for (int j = k; j < imax; j++) {
+                  rowmax = Math.max(rowmax, Math.abs(AP[packedIndex(imax, j, n)]));
+               }
+               final int kpc = packedIndex(imax, imax, n);
+               for (int i = imax + 1; i < n; i++) {
+                  rowmax = Math.max(rowmax, Math.abs(AP[kpc + i - imax]));
+               }
+
+               if (absakk >= alpha * colmax * (colmax / rowmax)) {
+                  // no interchange, use 1-by-1 pivot block
+                  kp = k;
+               } else if (Math.abs(AP[kpc]) >= alpha * rowmax) {
+                  // interchange rows and columns k and imax, use 1-by-1
+                  // pivot block
+                  kp = imax;
+               } else {
+                  // interchange rows and columns k+1 and imax, use 2-by-2
+                  // pivot block
+                  kp = imax;
+                  kstep = 2;
+               }
+            }
+
+            final int kk = k + kstep - 1;
+            if (kp != kk) {
+               // Interchange rows and columns kk and kp in the trailing
+               // submatrix A(k:n-1,k:n-1)
+               final int knc = packedIndex(kk, kk, n);
+               final int kpc = packedIndex(kp, kp, n);
+               for (int i = kp + 1; i < n; i++) {
+                  swap(AP, knc + i - kk, kpc + i - kp);
+               }
+               for (int j = kk + 1; j < kp; j++) {
+                  swap(AP, knc + j - kk, packedIndex(kp, j, n));
+               }
+               swap(AP, knc, kpc);
+               if (kstep == 2) {
+                  swap(AP, kc + 1, kc + kp - k);
+               }
+            }
+
+            // Update the trailing submatrix
+            if (kstep == 1) {
+               // A := A - L(k)*D(k)*L(k)' = A - W(k)*(1/D(k))*W(k)'
+               if (k < n - 1) {
+                  final double r1 = 1.0 / AP[kc];
+                  for (int j = k + 1; j < n; j++) {
+                     final double t = r1 * AP[kc + j - k];
+                     if (t != 0.0) {
+                        final int jc = packedIndex(j, j, n);
+                        for (int i = j; i < n; i++) {
+                           AP[jc + i - j] -= AP[kc + i - k] * t;
+                        }
+                     }
+                  }
+                  for (int i = k + 1; i < n; i++) {
+                     AP[kc + i - k] *= r1;
+                  }
+               }
+            } else {
+               // A := A - ( L(k) L(k+1) )*D(k)*( L(k) L(k+1) )'
+               //    = A - ( W(k) W(k+1) )*inv(D(k))*( W(k) W(k+1) )'
+               if (k < n - 2) {
+                  final int kc1 = packedIndex(k + 1, k + 1, n);
+                  double d21 = AP[kc + 1];
+                  final double d11 = AP[kc1] / d21;
+                  final double d22 = AP[kc] / d21;
+                  final double t = 1.0 / (d11 * d22 - 1.0);
+                  d21 = t / d21;
+                  for (int j = k + 2; j < n; j++) {
+                     final double ajk = AP[kc + j - k];
+                     final double ajk1 = AP[kc1 + j - k - 1];
+                     final double wk = d21 * (d11 * ajk - ajk1);
+                     final double wkp1 = d21 * (d22 * ajk1 - ajk);
+                     final int jc = packedIndex(j, j, n);
+                     for (int i = j; i < n; i++) {
+                        AP[jc + i - j] -= AP[kc + i - k] * wk
+                              + AP[kc1 + i - k - 1] * wkp1;
+                     }
+                     AP[kc + j - k] = wk;
+                     AP[kc1 + j - k - 1] = wkp1;
+                  }
+               }
+            }
+         }
+
+         // Store details of the interchanges
+         if (kstep == 1) {
+            piv[k] = kp;
+         } else {
+            piv[k] = piv[k + 1] = -kp - 1;
+         }
+         k += kstep;
+      }
+   }
+
+   /** Dot product of column j of L below the diagonal with b. */
+
+   private double dotBelow (int j, double[] b) {
+      return dotBelow(j, b, j + 1);
+   }
+
+   /** Dot product of L(first:n-1,j) with b(first:n-1). */
+
+   private double dotBelow (int j, double[] b, int first) {
+      final int jc = packedIndex(j, j, n);
+      double s = 0.0;
+      for (int i = first; i < n; i++) {
+         s += AP[jc + i - j] * b[i];
+      }
+      return s;
+   }
+
+   private static void swap (double[] a, int i, int j) {
+      final double t = a[i];
+      a[i] = a[j];
+      a[j] = t;
+   }
+
+   /** Packs the lower triangle of a square matrix. */
+
+   private static double[] pack (Matrix A) {
+      final int n = A.getRowDimension();
+      if (A.getColumnDimension() != n) {
+         throw new IllegalArgumentException("Matrix must be square.");
+      }
+      double[][] a = A.getArray();
+      double[] AP = new double[packedLength(n)];
+      int idx = 0;
+      for (int j = 0; j < n; j++) {
+         for (int i = j; i < n; i++) {
+            AP[idx++] = a[i][j];
+         }
+      }
+      return AP;
+   }
+}
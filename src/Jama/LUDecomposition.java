@@ -11,6 +11,9 @@ package Jama;
    singular, so the constructor will never fail.  The primary use of the
    LU decomposition is in the solution of square systems of simultaneous
    linear equations.  This will fail if isNonsingular() returns false.
+   <P>
+   Large square matrices are decomposed with a blocked algorithm that
+   updates the trailing matrix in parallel.
    */
 
 public class LUDecomposition implements java.io.Serializable {
@@ -21,6 +24,23 @@ public class LUDecomposition implements java.io.Serializable {
    Class variables
  * ------------------------ */
 
+   /** Minimum dimension of square matrices for the blocked algorithm.
+   */
+   private static final int BLOCKED_MIN_SIZE = 192;
+
+   /** Number of columns of a panel in the blocked algorithm.
+   */
+   private static final int BLOCK_SIZE = 48;
+
+   /** Number of columns of the trailing matrix updated in one pass, such
+   that the rows of the block of U stay in the cache.
+   */
+   private static final int UPDATE_TILE_COLUMNS = 512;
+
+   /** Number of rows of the trailing matrix updated by a single task.
+   */
+   private static final int UPDATE_TILE_ROWS = 32;
+
    /** Array for internal storage of decomposition.
    @serial internal array storage.
    */
@@ -49,8 +69,6 @@ public class LUDecomposition implements java.io.Serializable {
 
    public LUDecomposition (Matrix A) {
 
-   // Use a "left-looking", dot-product, Crout/Doolittle algorithm.
-
       LU = A.getArrayCopy();
       m = A.getRowDimension();
       n = A.getColumnDimension();
@@ -59,6 +77,16 @@ public class LUDecomposition implements java.io.Serializable {
          piv[i] = i;
       }
       pivsign = 1;
+
+      // Use a blocked, right-looking algorithm for large square matrices.
+
+      if (m == n && n >= BLOCKED_MIN_SIZE) {
+         decomposeBlocked();
+         return;
+      }
+
+   // Use a "left-looking", dot-product, Crout/Doolittle algorithm.
+
       double[] LUrowi;
       double[] LUcolj = new double[m];
 
@@ -114,6 +142,91 @@ public class LUDecomposition implements java.io.Serializable {
       }
    }
 
+/* ------------------------
+   Blocked algorithm.
+ * ------------------------ */
+
+   /** Blocked, right-looking LU decomposition of a square matrix with
+   partial pivoting. For each panel of BLOCK_SIZE columns, the panel is
+   factored, the block row of U is computed, and the trailing matrix is
+   updated with a matrix product. The trailing update requires most
+   operations; it is divided into tiles that are updated in parallel.
+   */
+
+   private void decomposeBlocked () {
+      for (int kb = 0; kb < n; kb += BLOCK_SIZE) {
+         final int k0 = kb;
+         final int ke = Math.min(kb + BLOCK_SIZE, n);
+
+         // Factor the panel LU[kb:n-1][kb:ke-1]. Rows are exchanged by
+         // swapping references, which exchanges complete rows.
+
+         for (int j = kb; j < ke; j++) {
+            int p = j;
+            for (int i = j+1; i < m; i++) {
+               if (Math.abs(LU[i][j]) > Math.abs(LU[p][j])) {
+                  p = i;
+               }
+            }
+            if (p != j) {
+               double[] t = LU[p]; LU[p] = LU[j]; LU[j] = t;
+               int k = piv[p]; piv[p] = piv[j]; piv[j] = k;
+               pivsign = -pivsign;
+            }
+            final double[] LUrowj = LU[j];
+            if (LUrowj[j] != 0.0) {
+               for (int i = j+1; i < m; i++) {
+                  final double[] LUrowi = LU[i];
+                  final double lij = LUrowi[j] /= LUrowj[j];
+                  for (int c = j+1; c < ke; c++) {
+                     LUrowi[c] -= lij*LUrowj[c];
+                  }
+               }
+            }
+         }
+         if (ke == n) {
+            break;
+         }
+
+         // Compute the block row of U: solve L11*U12 = A12.
+
+         for (int r = kb+1; r < ke; r++) {
+            final double[] LUrowr = LU[r];
+            for (int k = kb; k < r; k++) {
+               final double lrk = LUrowr[k];
+               final double[] LUrowk = LU[k];
+               for (int c = ke; c < n; c++) {
+                  LUrowr[c] -= lrk*LUrowk[c];
+               }
+            }
+         }
+
+         // Update the trailing matrix: A22 -= L21*U12.
+
+         final int nbrRowTiles = (m - ke + UPDATE_TILE_ROWS - 1) / UPDATE_TILE_ROWS;
+         java.util.stream.IntStream.range(0, nbrRowTiles).parallel().forEach(tile -> {
+            final int r0 = ke + tile * UPDATE_TILE_ROWS;
+            final int r1 = Math.min(r0 + UPDATE_TILE_ROWS, m);
+            for (int c0 = ke; c0 < n; c0 += UPDATE_TILE_COLUMNS) {
+               final int c1 = Math.min(c0 + UPDATE_TILE_COLUMNS, n);
+               for (int i = r0; i < r1; i++) {
+                  final double[] LUrowi = LU[i];
+                  for (int k = k0; k < ke; k++) {
+                     final double lik = LUrowi[k];
+                     if (lik == 0.0) {
+                        continue;
+                     }
+                     final double[] LUrowk = LU[k];
+                     for (int c = c0; c < c1; c++) {
+                        LUrowi[c] -= lik*LUrowk[c];
+                     }
+                  }
+               }
+            }
+         });
+      }
+   }
+
 /* ------------------------
    Temporary, experimental code.
    ------------------------ *\
@@ -1,14 +1,37 @@
 package au.monash.fit.mapanalyst.warp;
 
 import ika.geo.GeoImage;
-import ika.mapanalyst.MultiquadricInterpolation;
+import ika.geoexport.ImageExporter;
+import ika.mapanalyst.RadialBasisFunctionInterpolation;
+import java.awt.Rectangle;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import ika.transformation.Transformation;
+import ika.utils.FileUtils;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.concurrent.CancellationException;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.ImageReaderWriterSpi;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
 
 /**
  * Warping a source image to a destination image with a combination of an affine
- * and a multiquadric interpolation.
+ * and a radial basis function interpolation, which is either a multiquadric
+ * or a compactly supported interpolation.
  * 
  * Important: This is experimental and not included in the release version.
  *
@@ -17,6 +40,24 @@ import ika.transformation.Transformation;
  */
 public class ImageWarper {
 
+    /**
+     * Width and height of the tiles of the destination image that are warped
+     * in parallel.
+     */
+    private static final int TILE_SIZE = 256;
+
+    /**
+     * Coordinates of the pixels of a tile, reused by each thread.
+     */
+    private static final ThreadLocal<double[]> TILE_COORDS
+            = ThreadLocal.withInitial(() -> new double[TILE_SIZE * TILE_SIZE * 2]);
+
+    /**
+     * Default maximum error of the approximated mapping in pixels of the
+     * source image.
+     */
+    public static final double DEFAULT_MAX_ERROR = 0.1;
+
     /**
      * A transformation from the destination image to the source image.
      */
@@ -25,7 +66,7 @@ public class ImageWarper {
     /**
      * A transformation of the source image.
      */
-    private final MultiquadricInterpolation interpolation;
+    private final RadialBasisFunctionInterpolation interpolation;
 
     /**
      * The source image to transform
@@ -34,12 +75,38 @@ public class ImageWarper {
 
     private final double[][] controlPointsInDestinationImage;
 
+    /**
+     * Maximum error in pixels of the source image when the mapping from
+     * destination to source pixels is approximated with an adaptive mesh. If
+     * 0, the exact mapping is computed for every pixel.
+     */
+    private double maxError = DEFAULT_MAX_ERROR;
+
+    /**
+     * Kernel for resampling the source image.
+     */
+    private Resampling resampling = Resampling.BILINEAR;
+
+    /**
+     * Set by cancel() to stop warping.
+     */
+    private volatile boolean cancelled = false;
+
     public ImageWarper(Transformation dstToSrcTransformation,
-            MultiquadricInterpolation interpolation,
+            RadialBasisFunctionInterpolation interpolation,
             GeoImage srcGeoImage,
             double[][] controlPointsInDestinationImage) {
 
-        // TODO test for valid parameters
+        if (dstToSrcTransformation == null || interpolation == null) {
+            throw new IllegalArgumentException("invalid transformation");
+        }
+        if (srcGeoImage == null) {
+            throw new IllegalArgumentException("invalid source image");
+        }
+        if (controlPointsInDestinationImage == null
+                || controlPointsInDestinationImage.length == 0) {
+            throw new IllegalArgumentException("invalid control points");
+        }
         this.dstToSrcTransformation = dstToSrcTransformation;
         this.interpolation = interpolation;
         this.srcGeoImage = srcGeoImage;
@@ -47,43 +114,387 @@ public class ImageWarper {
     }
 
     /**
-     * Warp the source image to create the destination image.
+     * Warp the source image to create the destination image. The destination
+     * image is partitioned into tiles that are warped in parallel. Pixels are
+     * read from and written to the arrays of the image rasters.
      *
      * @return the new destination image
+     * @throws IllegalStateException if the source GeoImage does not contain
+     * an image
+     * @throws CancellationException if cancel() is called while warping
      */
     public GeoImage warp() {
-        Rectangle2D dstBounds = warpedBounds();
-        BufferedImage dstImage = createDestinationImage(dstBounds, srcGeoImage.getBufferedImage());
-        double cellSize = dstBounds.getWidth() / dstImage.getWidth();
-        double destinationWest = dstBounds.getMinX();
-        double destinationNorth = dstBounds.getMaxY();
-        GeoImage dstGeoImage = new GeoImage(dstImage, destinationWest, destinationNorth, cellSize);
-        double[] destXY = new double[2];
-        int dstImageWidth = dstImage.getWidth();
-        int dstImageHeight = dstImage.getHeight();
-        System.out.println("image size: " + dstImageHeight + " " + dstImageWidth);
-        for (int row = 0; row < dstImageHeight; row++) {
-            for (int col = 0; col < dstImageWidth; col++) {
-                destXY[0] = destinationWest + (col + 0.5) * cellSize;
-                destXY[1] = destinationNorth - (row + 0.5) * cellSize;
-                double[] srcXY = dstToSrcTransformation.transform(destXY);
-                interpolation.transform(srcXY, 1);
-//                // Convert srcPxX/srcPxY from meters to pixels.
-//                int srcPxX = (int) Math.round(srcXY[0]);
-//                int srcPxY = (int) Math.round(srcXY[1]);
-                
-                //if (srcPxX >= 0 && srcPxX < dstImageWidth && srcPxY >= 0 && srcPxY < dstImageHeight) {
-                if (srcGeoImage.getBounds2D().contains(srcXY[0], srcXY[1])) {
-                    int argb = srcGeoImage.getBilinearInterpol(srcXY[0], srcXY[1]);
-                    dstImage.setRGB(col, row, argb);
-                }
-                // System.out.println(srcPxX + " " + srcPxY);
+        BufferedImage srcImage = srcGeoImage.getBufferedImage();
+        if (srcImage == null) {
+            throw new IllegalStateException("no source image");
+        }
+        Destination d = new Destination(srcImage.getWidth(), srcImage.getHeight());
+        BufferedImage dstImage = new BufferedImage(d.width, d.height, BufferedImage.TYPE_INT_ARGB);
+        GeoImage dstGeoImage = new GeoImage(dstImage, d.west, d.north, d.cellSize);
 
+        WarpMesh mesh = createMesh(d);
+        SourceRaster src = new SourceRaster(srcImage);
+        WritableRaster dstRaster = dstImage.getRaster();
+        int[] dst = ((DataBufferInt) dstRaster.getDataBuffer()).getData();
+        int dstScanlineStride = ((SinglePixelPackedSampleModel) dstRaster.getSampleModel()).getScanlineStride();
+
+        int tileCols = (d.width + TILE_SIZE - 1) / TILE_SIZE;
+        int tileRows = (d.height + TILE_SIZE - 1) / TILE_SIZE;
+        IntStream.range(0, tileCols * tileRows).parallel().forEach(tile -> {
+            if (cancelled) {
+                throw new CancellationException();
             }
-        }
+            int firstCol = (tile % tileCols) * TILE_SIZE;
+            int firstRow = (tile / tileCols) * TILE_SIZE;
+            int nbrCols = Math.min(TILE_SIZE, d.width - firstCol);
+            int nbrRows = Math.min(TILE_SIZE, d.height - firstRow);
+            double[] coords = TILE_COORDS.get();
+            sourcePixels(mesh, d, firstCol, firstRow, nbrCols, nbrRows, coords);
+            sample(src, 0, 0, src.getWidth(), src.getHeight(), coords,
+                    nbrCols, nbrRows, dst, firstRow * dstScanlineStride + firstCol,
+                    dstScanlineStride, resampling);
+        });
         return dstGeoImage;
     }
 
+    /**
+     * Warps a source image file to a destination image file without loading
+     * either image into memory. Destination tiles are computed one row of
+     * tiles at a time. For each tile, the required region of the source image
+     * is read with ImageReadParam.setSourceRegion(). The tiles are passed to a
+     * TIFF writer (with tiles of TILE_SIZE pixels) or a PNG writer, and a World
+     * file with the georeferencing of the destination image is written. Peak
+     * memory use therefore depends on the width of the destination image and
+     * the tile size, but not on the height of the images. Source images should
+     * be stored in a format that allows for efficient reading of regions, such
+     * as tiled or stripped TIFF files.
+     *
+     * The georeferencing of the source image is taken from the source GeoImage
+     * passed to the constructor, which does not need to contain an image.
+     *
+     * @param srcFile the source image file
+     * @param dstFile the destination image file with a tif, tiff or png
+     * extension. An existing file is replaced.
+     * @throws IOException if the source image cannot be read or the
+     * destination image cannot be written
+     * @throws CancellationException if cancel() is called while warping
+     */
+    public void warp(File srcFile, File dstFile) throws IOException {
+        String extension = FileUtils.getFileExtension(dstFile.getName()).toLowerCase();
+        final String formatName;
+        final String worldFileExtension;
+        switch (extension) {
+            case "tif":
+            case "tiff":
+                formatName = "tiff";
+                worldFileExtension = "tfw";
+                break;
+            case "png":
+                formatName = "png";
+                worldFileExtension = "pgw";
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported image format");
+        }
+        ImageWriter writer = preferred(ImageIO.getImageWritersByFormatName(formatName),
+                ImageWriter::getOriginatingProvider);
+        if (writer == null) {
+            throw new IOException("No image writer for " + formatName);
+        }
+
+        Destination d;
+        try (ImageInputStream in = ImageIO.createImageInputStream(srcFile)) {
+            ImageReader reader = in == null ? null : preferred(ImageIO.getImageReaders(in),
+                    ImageReader::getOriginatingProvider);
+            if (reader == null) {
+                throw new IOException("Cannot read " + srcFile.getName());
+            }
+            try {
+                reader.setInput(in, true, true);
+                d = warp(reader, writer, dstFile);
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            writer.dispose();
+        }
+
+        String worldFilePath = FileUtils.replaceExtension(dstFile.getPath(), worldFileExtension);
+        ImageExporter.writeWorldFile(worldFilePath, d.cellSize, d.cellSize, d.west, d.north);
+    }
+
+    /**
+     * Returns the preferred image reader or writer for a format. The plugins
+     * of the JDK are preferred over other plugins, such as the TIFF plugin of
+     * the bundled JAI Image I/O library. That plugin writes incomplete tiles
+     * at the right and bottom borders, which the TIFF reader of the JDK
+     * cannot read, and it does not correctly read TIFF files with alpha
+     * written by the JDK.
+     *
+     * @param iterator available readers or writers
+     * @param provider returns the service provider of a reader or writer
+     * @return the preferred reader or writer, or null if there is none
+     */
+    static <T> T preferred(Iterator<T> iterator,
+            Function<T, ImageReaderWriterSpi> provider) {
+        T first = null;
+        while (iterator.hasNext()) {
+            T t = iterator.next();
+            ImageReaderWriterSpi spi = provider.apply(t);
+            String format = spi == null ? null : spi.getNativeImageMetadataFormatName();
+            if (format != null && format.startsWith("javax_imageio_")) {
+                return t;
+            }
+            if (first == null) {
+                first = t;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Warps the image of an image reader and writes it with an image writer.
+     *
+     * @param reader reader with input
+     * @param writer writer without output
+     * @param dstFile the destination image file
+     * @return the geometry of the destination image
+     * @throws IOException if the image cannot be read or written
+     */
+    private Destination warp(ImageReader reader, ImageWriter writer, File dstFile)
+            throws IOException {
+        final int srcWidth = reader.getWidth(0);
+        final int srcHeight = reader.getHeight(0);
+        Destination d = new Destination(srcWidth, srcHeight);
+        WarpMesh mesh = createMesh(d);
+
+        WarpedImage dstImage = new WarpedImage(d.width, d.height, TILE_SIZE,
+                (firstCol, firstRow, nbrCols, nbrRows, dst, dstScanlineStride) -> {
+                    if (cancelled) {
+                        throw new CancellationException();
+                    }
+                    double[] coords = TILE_COORDS.get();
+                    sourcePixels(mesh, d, firstCol, firstRow, nbrCols, nbrRows, coords);
+                    Rectangle region = sourceRegion(coords, nbrCols * nbrRows,
+                            srcWidth, srcHeight, resampling.radius());
+                    if (region.isEmpty()) {
+                        return;
+                    }
+                    BufferedImage regionImage;
+                    synchronized (reader) {
+                        ImageReadParam param = reader.getDefaultReadParam();
+                        param.setSourceRegion(region);
+                        regionImage = reader.read(0, param);
+                    }
+                    SourceRaster src = new SourceRaster(regionImage);
+                    sample(src, region.x, region.y, srcWidth, srcHeight, coords,
+                            nbrCols, nbrRows, dst, 0, dstScanlineStride, resampling);
+                });
+
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (param.canWriteTiles()) {
+            param.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setTiling(TILE_SIZE, TILE_SIZE, 0, 0);
+        }
+        if (dstFile.exists() && !dstFile.delete()) {
+            throw new IOException("Cannot replace " + dstFile.getName());
+        }
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(dstFile)) {
+            if (out == null) {
+                throw new IOException("Cannot write " + dstFile.getName());
+            }
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(dstImage, null, null), param);
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        return d;
+    }
+
+    /**
+     * Creates the mesh approximating the mapping from destination pixels to
+     * source pixels.
+     *
+     * @param d geometry of the destination image
+     * @return the mesh, or null if the exact mapping is to be computed for
+     * every pixel
+     */
+    private WarpMesh createMesh(Destination d) {
+        if (maxError > 0) {
+            return new WarpMesh(dstToSrcTransformation, interpolation, srcGeoImage,
+                    d.west, d.north, d.cellSize, d.width, d.height,
+                    controlPointsInDestinationImage, maxError);
+        }
+        return null;
+    }
+
+    /**
+     * Computes the source pixel coordinates of the centres of the pixels of a
+     * rectangular tile of the destination image.
+     *
+     * @param mesh mesh approximating the mapping, or null if the exact mapping
+     * is computed for every pixel
+     * @param d geometry of the destination image
+     * @param firstCol first column of the tile
+     * @param firstRow first row of the tile
+     * @param nbrCols number of columns in the tile
+     * @param nbrRows number of rows in the tile
+     * @param coords receives the source pixel coordinates, x and y
+     * alternating, row by row
+     */
+    private void sourcePixels(WarpMesh mesh, Destination d,
+            int firstCol, int firstRow, int nbrCols, int nbrRows, double[] coords) {
+        if (mesh != null) {
+            mesh.sourcePixels(firstCol, firstRow, nbrCols, nbrRows, coords);
+            return;
+        }
+        for (int r = 0, i = 0; r < nbrRows; r++) {
+            double y = d.north - (firstRow + r + 0.5) * d.cellSize;
+            for (int c = 0; c < nbrCols; c++) {
+                coords[i++] = d.west + (firstCol + c + 0.5) * d.cellSize;
+                coords[i++] = y;
+            }
+        }
+        int nbrPts = nbrRows * nbrCols;
+        dstToSrcTransformation.transform(coords, nbrPts);
+        interpolation.transform(coords, nbrPts);
+        final double srcWest = srcGeoImage.getX();
+        final double srcNorth = srcGeoImage.getY();
+        final double srcPixelSizeX = srcGeoImage.getPixelSizeX();
+        final double srcPixelSizeY = srcGeoImage.getPixelSizeY();
+        for (int i = 0; i < nbrPts * 2; i += 2) {
+            coords[i] = (coords[i] - srcWest) / srcPixelSizeX;
+            coords[i + 1] = (srcNorth - coords[i + 1]) / srcPixelSizeY;
+        }
+    }
+
+    /**
+     * Returns the region of the source image required for sampling a tile.
+     *
+     * @param coords source pixel coordinates of the tile
+     * @param nbrPts number of pixels in the tile
+     * @param srcWidth number of columns of the source image
+     * @param srcHeight number of rows of the source image
+     * @param radius number of pixels on each side of a point required for
+     * resampling
+     * @return the region, which is empty if the tile does not overlap the
+     * source image
+     */
+    private static Rectangle sourceRegion(double[] coords, int nbrPts,
+            int srcWidth, int srcHeight, int radius) {
+        int minCol = Integer.MAX_VALUE, maxCol = Integer.MIN_VALUE;
+        int minRow = Integer.MAX_VALUE, maxRow = Integer.MIN_VALUE;
+        for (int i = 0; i < nbrPts * 2; i += 2) {
+            double col = coords[i];
+            double row = coords[i + 1];
+            if (col >= 0 && col < srcWidth && row >= 0 && row < srcHeight) {
+                minCol = Math.min(minCol, (int) col);
+                maxCol = Math.max(maxCol, (int) col);
+                minRow = Math.min(minRow, (int) row);
+                maxRow = Math.max(maxRow, (int) row);
+            }
+        }
+        if (minCol > maxCol) {
+            return new Rectangle();
+        }
+        // include the neighbours required for resampling
+        minCol = Math.max(minCol - radius, 0);
+        minRow = Math.max(minRow - radius, 0);
+        maxCol = Math.min(maxCol + radius, srcWidth - 1);
+        maxRow = Math.min(maxRow + radius, srcHeight - 1);
+        return new Rectangle(minCol, minRow, maxCol - minCol + 1, maxRow - minRow + 1);
+    }
+
+    /**
+     * Samples the source image for a rectangular tile of the destination
+     * image. Destination pixels that are outside of the source image are not
+     * changed.
+     *
+     * @param src source pixels
+     * @param srcCol0 column of the first pixel of src in the source image
+     * @param srcRow0 row of the first pixel of src in the source image
+     * @param srcWidth number of columns of the source image
+     * @param srcHeight number of rows of the source image
+     * @param coords source pixel coordinates of the tile
+     * @param nbrCols number of columns in the tile
+     * @param nbrRows number of rows in the tile
+     * @param dst pixels of the destination image
+     * @param dstOffset index of the first pixel of the tile in dst
+     * @param dstScanlineStride number of array elements per destination row
+     * @param resampling kernel for resampling the source image
+     */
+    private static void sample(SourceRaster src, int srcCol0, int srcRow0,
+            int srcWidth, int srcHeight, double[] coords,
+            int nbrCols, int nbrRows,
+            int[] dst, int dstOffset, int dstScanlineStride,
+            Resampling resampling) {
+        for (int r = 0, i = 0; r < nbrRows; r++) {
+            int dstID = dstOffset + r * dstScanlineStride;
+            for (int c = 0; c < nbrCols; c++, i += 2, dstID++) {
+                double col = coords[i];
+                double row = coords[i + 1];
+                if (col >= 0 && col < srcWidth && row >= 0 && row < srcHeight) {
+                    dst[dstID] = src.resample(col - srcCol0, row - srcRow0, resampling);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops a warp that is running in another thread. The warp throws a
+     * CancellationException after finishing the tiles that are being
+     * computed.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Returns the maximum error in pixels of the source image when the
+     * mapping is approximated with an adaptive mesh.
+     *
+     * @return the maximum error, or 0 if the mapping is not approximated
+     */
+    public double getMaxError() {
+        return maxError;
+    }
+
+    /**
+     * Sets the maximum error in pixels of the source image. If larger than 0,
+     * the mapping is exactly computed at the nodes of an adaptive mesh only,
+     * which is considerably faster for large images.
+     *
+     * @param maxError the maximum error, or 0 for computing the exact
+     * mapping for every pixel.
+     */
+    public void setMaxError(double maxError) {
+        if (maxError < 0 || Double.isNaN(maxError)) {
+            throw new IllegalArgumentException("invalid maximum error");
+        }
+        this.maxError = maxError;
+    }
+
+    /**
+     * Returns the kernel for resampling the source image.
+     *
+     * @return the resampling kernel
+     */
+    public Resampling getResampling() {
+        return resampling;
+    }
+
+    /**
+     * Sets the kernel for resampling the source image.
+     *
+     * @param resampling nearest neighbour, bilinear, bicubic or Lanczos
+     */
+    public void setResampling(Resampling resampling) {
+        if (resampling == null) {
+            throw new IllegalArgumentException("invalid resampling");
+        }
+        this.resampling = resampling;
+    }
+
     /**
      * Finds the bounding box of the destination image.
      *
@@ -116,22 +527,35 @@ public class ImageWarper {
     }
 
     /**
-     * Creates the destination image, which will have approximately the same
-     * total number of pixels as the source image.
-     *
-     * @param dstBounds bounding box for the destination image
-     * @param sourceImage the source image
-     * @return
-     */
-    private BufferedImage createDestinationImage(Rectangle2D dstBounds, BufferedImage sourceImage) {
-        int nbrPixels = sourceImage.getHeight() * sourceImage.getWidth();
-        double destinationImageRatio = dstBounds.getWidth() / dstBounds.getHeight();
-        double destinationImageHeight = Math.sqrt(nbrPixels / destinationImageRatio);
-        double destinationImageWidth = nbrPixels / destinationImageHeight;
-        int w = (int) Math.ceil(destinationImageWidth);
-        int h = (int) Math.ceil(destinationImageHeight);
-        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
-        return img;
+     * Geometry of the destination image, which will have approximately the
+     * same total number of pixels as the source image.
+     */
+    private final class Destination {
+
+        private final double west;
+        private final double north;
+        private final double cellSize;
+        private final int width;
+        private final int height;
+
+        /**
+         * Computes the geometry of the destination image.
+         *
+         * @param srcWidth number of columns of the source image
+         * @param srcHeight number of rows of the source image
+         */
+        private Destination(int srcWidth, int srcHeight) {
+            Rectangle2D dstBounds = warpedBounds();
+            double nbrPixels = (double) srcWidth * srcHeight;
+            double destinationImageRatio = dstBounds.getWidth() / dstBounds.getHeight();
+            double destinationImageHeight = Math.sqrt(nbrPixels / destinationImageRatio);
+            double destinationImageWidth = nbrPixels / destinationImageHeight;
+            width = (int) Math.ceil(destinationImageWidth);
+            height = (int) Math.ceil(destinationImageHeight);
+            cellSize = dstBounds.getWidth() / width;
+            west = dstBounds.getMinX();
+            north = dstBounds.getMaxY();
+        }
     }
 
 }
@@ -0,0 +1,242 @@
+/*
+ * ProgressiveImageWarper.java
+ */
+package au.monash.fit.mapanalyst.warp;
+
+import ika.geo.GeoImage;
+import ika.mapanalyst.RadialBasisFunctionInterpolation;
+import ika.transformation.Transformation;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Warps an image progressively. The image is first warped at a coarse level
+ * of a pyramid of downsampled source images, which results in a fast preview.
+ * Finer levels are then warped in a background thread. Each warped level is
+ * passed to a consumer, which can replace the previously displayed image. The
+ * last warped level has the full resolution of the source image.
+ *
+ * A progressive warp can be cancelled, for example, when control points
+ * change.
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+public class ProgressiveImageWarper {
+
+    /**
+     * Maximum width and height in pixels of the coarsest pyramid level.
+     */
+    public static final int PREVIEW_SIZE = 512;
+
+    private final Transformation dstToSrcTransformation;
+    private final RadialBasisFunctionInterpolation interpolation;
+    private final GeoImage srcGeoImage;
+    private final double[][] controlPointsInDestinationImage;
+    private final double maxError;
+    private final Resampling resampling;
+
+    /**
+     * Receives warped images, coarse levels first.
+     */
+    private final Consumer<GeoImage> consumer;
+
+    /**
+     * The warper of the level that is currently warped.
+     */
+    private volatile ImageWarper currentWarper;
+
+    private volatile boolean cancelled = false;
+    private volatile boolean done = false;
+
+    /**
+     * Creates a progressive warper. Call start() to warp the image.
+     *
+     * @param dstToSrcTransformation transformation from the destination image
+     * to the source image
+     * @param interpolation interpolation applied after the transformation
+     * @param srcGeoImage the source image
+     * @param controlPointsInDestinationImage control points
+     * @param maxError maximum error of the approximated mapping in pixels of
+     * the source image; see ImageWarper.setMaxError()
+     * @param resampling kernel for resampling the source image
+     * @param consumer receives the warped images. Called from the thread
+     * calling start() for the coarsest level, and from a background thread for
+     * all other levels.
+     */
+    public ProgressiveImageWarper(Transformation dstToSrcTransformation,
+            RadialBasisFunctionInterpolation interpolation,
+            GeoImage srcGeoImage,
+            double[][] controlPointsInDestinationImage,
+            double maxError, Resampling resampling,
+            Consumer<GeoImage> consumer) {
+        if (srcGeoImage == null || srcGeoImage.getBufferedImage() == null
+                || resampling == null || consumer == null) {
+            throw new IllegalArgumentException();
+        }
+        if (maxError < 0 || Double.isNaN(maxError)) {
+            throw new IllegalArgumentException("invalid maximum error");
+        }
+        this.dstToSrcTransformation = dstToSrcTransformation;
+        this.interpolation = interpolation;
+        this.srcGeoImage = srcGeoImage;
+        this.controlPointsInDestinationImage = controlPointsInDestinationImage;
+        this.maxError = maxError;
+        this.resampling = resampling;
+        this.consumer = consumer;
+    }
+
+    /**
+     * Warps the coarsest pyramid level in the calling thread and passes it to
+     * the consumer, then starts a background thread for warping finer levels.
+     */
+    public void start() {
+        // number of pyramid levels; level 0 is the source image
+        BufferedImage srcImage = srcGeoImage.getBufferedImage();
+        int levels = 1;
+        while (Math.max(srcImage.getWidth(), srcImage.getHeight()) >> (levels - 1) > PREVIEW_SIZE) {
+            levels++;
+        }
+        final int nbrLevels = levels;
+
+        // the preview only samples a fraction of the source pixels
+        GeoImage preview = srcGeoImage;
+        if (nbrLevels > 1) {
+            preview = downsample(srcGeoImage, 1 << (nbrLevels - 1));
+        }
+        if (!warpLevel(preview) || nbrLevels == 1) {
+            done = true;
+            return;
+        }
+
+        Thread thread = new Thread(() -> {
+            try {
+                // build the pyramid, each level from the next finer level
+                GeoImage[] pyramid = new GeoImage[nbrLevels - 1];
+                pyramid[0] = srcGeoImage;
+                for (int level = 1; level < nbrLevels - 1 && !cancelled; level++) {
+                    pyramid[level] = downsample(pyramid[level - 1], 2);
+                }
+                for (int level = nbrLevels - 2; level >= 0; level--) {
+                    if (!warpLevel(pyramid[level])) {
+                        break;
+                    }
+                    pyramid[level] = null;
+                }
+            } catch (RuntimeException | OutOfMemoryError e) {
+                Logger.getLogger(ProgressiveImageWarper.class.getName()).log(Level.SEVERE, null, e);
+            } finally {
+                done = true;
+            }
+        }, "Progressive image warp");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Warps a level of the pyramid and passes it to the consumer.
+     *
+     * @param geoImage the downsampled source image
+     * @return false if the warp has been cancelled
+     */
+    private boolean warpLevel(GeoImage geoImage) {
+        ImageWarper warper = new ImageWarper(dstToSrcTransformation, interpolation,
+                geoImage, controlPointsInDestinationImage);
+        warper.setMaxError(maxError);
+        warper.setResampling(resampling);
+        currentWarper = warper;
+        if (cancelled) {
+            return false;
+        }
+        try {
+            GeoImage warped = warper.warp();
+            if (cancelled) {
+                return false;
+            }
+            consumer.accept(warped);
+            return true;
+        } catch (CancellationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Stops warping. Warped images that have not yet been passed to the
+     * consumer are discarded.
+     */
+    public void cancel() {
+        cancelled = true;
+        ImageWarper warper = currentWarper;
+        if (warper != null) {
+            warper.cancel();
+        }
+    }
+
+    /**
+     * Returns whether the warp has been cancelled.
+     *
+     * @return true if cancel() has been called
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns whether all levels have been warped, or the warp has stopped.
+     *
+     * @return true if no more images will be passed to the consumer
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Downsamples an image by averaging the four central pixels of blocks of
+     * factor x factor pixels. With a factor of 2, all pixels are averaged.
+     *
+     * @param geoImage the image to downsample
+     * @param factor the downsampling factor, a power of two
+     * @return a new image with the same georeferenced extent
+     */
+    static GeoImage downsample(GeoImage geoImage, int factor) {
+        SourceRaster src = new SourceRaster(geoImage.getBufferedImage());
+        final int srcWidth = src.getWidth();
+        final int srcHeight = src.getHeight();
+        final int width = (srcWidth + factor - 1) / factor;
+        final int height = (srcHeight + factor - 1) / factor;
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int[] dst = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        for (int row = 0; row < height; row++) {
+            final int r0 = Math.min(row * factor + factor / 2 - 1, srcHeight - 1);
+            final int r1 = Math.min(r0 + 1, srcHeight - 1);
+            for (int col = 0; col < width; col++) {
+                final int c0 = Math.min(col * factor + factor / 2 - 1, srcWidth - 1);
+                final int c1 = Math.min(c0 + 1, srcWidth - 1);
+                dst[row * width + col] = average(src.argb(c0, r0), src.argb(c1, r0),
+                        src.argb(c0, r1), src.argb(c1, r1));
+            }
+        }
+        GeoImage downsampled = new GeoImage(image, geoImage.getX(), geoImage.getY(),
+                geoImage.getPixelSizeX() * srcWidth / width);
+        downsampled.setPixelSizeY(geoImage.getPixelSizeY() * srcHeight / height);
+        return downsampled;
+    }
+
+    /**
+     * Averages four ARGB colors channel by channel.
+     */
+    private static int average(int c1, int c2, int c3, int c4) {
+        int argb = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int sum = ((c1 >>> shift) & 0xff) + ((c2 >>> shift) & 0xff)
+                    + ((c3 >>> shift) & 0xff) + ((c4 >>> shift) & 0xff);
+            argb |= ((sum + 2) >> 2) << shift;
+        }
+        return argb;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Resampling.java
+ */
+package au.monash.fit.mapanalyst.warp;
+
+/**
+ * Resampling kernels for warping images. Kernel weights are precomputed for
+ * SUBPIXELS positions between two pixels and stored as fixed-point integers,
+ * such that resampling only requires integer arithmetic.
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+public enum Resampling {
+
+    /**
+     * Nearest neighbour, the value of the pixel containing the point.
+     */
+    NEAREST(1),
+    /**
+     * Bilinear interpolation of 2 x 2 pixels.
+     */
+    BILINEAR(2),
+    /**
+     * Bicubic Catmull-Rom interpolation of 4 x 4 pixels.
+     */
+    BICUBIC(4),
+    /**
+     * Lanczos interpolation of 6 x 6 pixels (with a = 3).
+     */
+    LANCZOS(6);
+
+    /**
+     * Number of fractional bits of the weights.
+     */
+    static final int WEIGHT_BITS = 14;
+
+    /**
+     * Number of precomputed positions between two pixels.
+     */
+    static final int SUBPIXELS = 256;
+
+    /**
+     * Number of pixels in each direction that contribute to a resampled
+     * value.
+     */
+    final int taps;
+
+    /**
+     * Weights for SUBPIXELS + 1 positions with taps weights each. The weights
+     * of each position add up to 1 &lt;&lt; WEIGHT_BITS.
+     */
+    final int[] weights;
+
+    private Resampling(int taps) {
+        this.taps = taps;
+        this.weights = new int[(SUBPIXELS + 1) * taps];
+        double[] w = new double[taps];
+        for (int s = 0; s <= SUBPIXELS; s++) {
+            double frac = (double) s / SUBPIXELS;
+            double sum = 0;
+            for (int k = 0; k < taps; k++) {
+                // distance between the point and the pixel contributing tap k
+                w[k] = kernel(frac + (taps / 2 - 1) - k);
+                sum += w[k];
+            }
+            // round normalized weights and assign the rounding error to the
+            // largest weight
+            int intSum = 0;
+            int largest = 0;
+            for (int k = 0; k < taps; k++) {
+                int v = (int) Math.round(w[k] / sum * (1 << WEIGHT_BITS));
+                weights[s * taps + k] = v;
+                intSum += v;
+                if (w[k] > w[largest]) {
+                    largest = k;
+                }
+            }
+            weights[s * taps + largest] += (1 << WEIGHT_BITS) - intSum;
+        }
+    }
+
+    /**
+     * Evaluates the kernel.
+     *
+     * @param x distance from the centre of the kernel in pixels
+     * @return the weight
+     */
+    private double kernel(double x) {
+        x = Math.abs(x);
+        switch (taps) {
+            case 1:
+                return 1;
+            case 2:
+                return x < 1 ? 1 - x : 0;
+            case 4:
+                if (x < 1) {
+                    return (1.5 * x - 2.5) * x * x + 1;
+                }
+                return x < 2 ? ((-0.5 * x + 2.5) * x - 4) * x + 2 : 0;
+            default:
+                if (x < 1e-9) {
+                    return 1;
+                }
+                final double a = taps / 2;
+                if (x >= a) {
+                    return 0;
+                }
+                final double px = Math.PI * x;
+                return a * Math.sin(px) * Math.sin(px / a) / (px * px);
+        }
+    }
+
+    /**
+     * Returns the number of pixels on each side of a point that are required
+     * for resampling.
+     *
+     * @return the number of pixels
+     */
+    int radius() {
+        return taps / 2;
+    }
+}
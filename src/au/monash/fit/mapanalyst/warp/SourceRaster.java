@@ -0,0 +1,298 @@
+/*
+ * SourceRaster.java
+ */
+package au.monash.fit.mapanalyst.warp;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Read-only access to the pixels of a source image for warping. Pixels are
+ * read directly from the int[] or byte[] array of the image raster, which
+ * avoids the color model conversions of BufferedImage.getRGB(). Images that
+ * are not stored as packed integers, interleaved bytes or 8-bit indexed colors
+ * are converted once to an ARGB image.
+ *
+ * Instances are immutable and can be shared by multiple threads.
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+final class SourceRaster {
+
+    /**
+     * Pixels are stored as packed ARGB integers.
+     */
+    private static final int INT_ARGB = 0;
+
+    /**
+     * Pixels are stored as packed RGB integers.
+     */
+    private static final int INT_RGB = 1;
+
+    /**
+     * Pixels are stored as interleaved gray, RGB or RGBA bytes.
+     */
+    private static final int BYTE_COMPONENTS = 2;
+
+    /**
+     * Pixels are stored as byte indices into a color palette.
+     */
+    private static final int BYTE_INDEXED = 3;
+
+    private final int format;
+    private final int width;
+    private final int height;
+    private final int[] intData;
+    private final byte[] byteData;
+
+    /**
+     * Color palette for indexed images with 256 entries.
+     */
+    private final int[] palette;
+
+    /**
+     * Index of the first pixel in the data array.
+     */
+    private final int offset;
+    private final int scanlineStride;
+    private final int pixelStride;
+    private final int redOffset;
+    private final int greenOffset;
+    private final int blueOffset;
+
+    /**
+     * Offset of the alpha byte, or -1 if the image is opaque.
+     */
+    private final int alphaOffset;
+
+    /**
+     * Creates a source raster for an image. The pixels of the image are not
+     * copied if the image is of a supported type.
+     *
+     * @param image the source image
+     */
+    SourceRaster(BufferedImage image) {
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+            case BufferedImage.TYPE_BYTE_GRAY:
+            case BufferedImage.TYPE_BYTE_INDEXED:
+                break;
+            default:
+                image = toARGB(image);
+        }
+
+        WritableRaster raster = image.getRaster();
+        width = image.getWidth();
+        height = image.getHeight();
+        int translateX = raster.getSampleModelTranslateX();
+        int translateY = raster.getSampleModelTranslateY();
+
+        if (raster.getDataBuffer() instanceof DataBufferInt) {
+            DataBufferInt dataBuffer = (DataBufferInt) raster.getDataBuffer();
+            SinglePixelPackedSampleModel sampleModel
+                    = (SinglePixelPackedSampleModel) raster.getSampleModel();
+            format = image.getType() == BufferedImage.TYPE_INT_ARGB ? INT_ARGB : INT_RGB;
+            intData = dataBuffer.getData();
+            byteData = null;
+            palette = null;
+            scanlineStride = sampleModel.getScanlineStride();
+            pixelStride = 1;
+            offset = dataBuffer.getOffset() - translateY * scanlineStride - translateX;
+            redOffset = greenOffset = blueOffset = alphaOffset = 0;
+        } else {
+            DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+            ComponentSampleModel sampleModel
+                    = (ComponentSampleModel) raster.getSampleModel();
+            int[] bandOffsets = sampleModel.getBandOffsets();
+            intData = null;
+            byteData = dataBuffer.getData();
+            scanlineStride = sampleModel.getScanlineStride();
+            pixelStride = sampleModel.getPixelStride();
+            offset = dataBuffer.getOffset() - translateY * scanlineStride
+                    - translateX * pixelStride;
+            if (image.getType() == BufferedImage.TYPE_BYTE_INDEXED) {
+                format = BYTE_INDEXED;
+                IndexColorModel colorModel = (IndexColorModel) image.getColorModel();
+                palette = new int[256];
+                colorModel.getRGBs(palette);
+            } else {
+                format = BYTE_COMPONENTS;
+                palette = null;
+            }
+            if (bandOffsets.length >= 3) {
+                redOffset = bandOffsets[0];
+                greenOffset = bandOffsets[1];
+                blueOffset = bandOffsets[2];
+            } else {
+                redOffset = greenOffset = blueOffset = bandOffsets[0];
+            }
+            alphaOffset = bandOffsets.length == 4 ? bandOffsets[3] : -1;
+        }
+    }
+
+    /**
+     * Copies an image to a new image with packed ARGB pixels. The colors are
+     * identical to BufferedImage.getRGB(), which can differ by one from the
+     * colors of an image drawn with Graphics2D.
+     *
+     * @param image the image to convert
+     * @return the new image
+     */
+    private static BufferedImage toARGB(BufferedImage image) {
+        final int w = image.getWidth();
+        final int h = image.getHeight();
+        BufferedImage argbImage = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        int[] row = new int[w];
+        for (int y = 0; y < h; y++) {
+            image.getRGB(0, y, w, 1, row, 0, w);
+            argbImage.setRGB(0, y, w, 1, row, 0, w);
+        }
+        return argbImage;
+    }
+
+    /**
+     * Returns the number of columns.
+     *
+     * @return the width of the image in pixels
+     */
+    int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the number of rows.
+     *
+     * @return the height of the image in pixels
+     */
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the color of a pixel.
+     *
+     * @param col column of the pixel, must be inside the image
+     * @param row row of the pixel, must be inside the image
+     * @return the color as packed ARGB integer
+     */
+    int argb(int col, int row) {
+        switch (format) {
+            case INT_ARGB:
+                return intData[offset + row * scanlineStride + col];
+            case INT_RGB:
+                return intData[offset + row * scanlineStride + col] | 0xff000000;
+            case BYTE_INDEXED:
+                return palette[byteData[offset + row * scanlineStride + col * pixelStride] & 0xff];
+            default:
+                int i = offset + row * scanlineStride + col * pixelStride;
+                int a = alphaOffset < 0 ? 0xff : byteData[i + alphaOffset] & 0xff;
+                return a << 24
+                        | (byteData[i + redOffset] & 0xff) << 16
+                        | (byteData[i + greenOffset] & 0xff) << 8
+                        | (byteData[i + blueOffset] & 0xff);
+        }
+    }
+
+    /**
+     * Resamples the image at a point with fixed-point arithmetic. The centre
+     * of the pixel in the top left corner is at 0.5/0.5. Pixels along the
+     * borders are replicated.
+     *
+     * @param col horizontal position in pixels, between 0 and the width
+     * @param row vertical position in pixels, between 0 and the height
+     * @param resampling the resampling kernel
+     * @return the resampled color as packed ARGB integer
+     */
+    int resample(double col, double row, Resampling resampling) {
+        if (resampling == Resampling.NEAREST) {
+            return argb(clamp((int) col, width), clamp((int) row, height));
+        }
+
+        // first pixel contributing to the resampled value and position
+        // between pixels
+        final int taps = resampling.taps;
+        final double u = col - 0.5;
+        final double v = row - 0.5;
+        final int cu = (int) Math.floor(u);
+        final int cv = (int) Math.floor(v);
+        final int su = (int) ((u - cu) * Resampling.SUBPIXELS + 0.5);
+        final int sv = (int) ((v - cv) * Resampling.SUBPIXELS + 0.5);
+        final int firstCol = cu - (taps / 2 - 1);
+        final int firstRow = cv - (taps / 2 - 1);
+        final int[] weights = resampling.weights;
+
+        // separable convolution: weighted sums of rows, then of columns
+        long a = 0, r = 0, g = 0, b = 0;
+        for (int j = 0; j < taps; j++) {
+            final int wy = weights[sv * taps + j];
+            if (wy == 0) {
+                continue;
+            }
+            final int y = clamp(firstRow + j, height);
+            int rowA = 0, rowR = 0, rowG = 0, rowB = 0;
+            if (intData != null) {
+                // fast path for packed integers
+                final int rowOffset = offset + y * scanlineStride;
+                for (int i = 0; i < taps; i++) {
+                    final int wx = weights[su * taps + i];
+                    final int argb = intData[rowOffset + clamp(firstCol + i, width)];
+                    rowA += wx * (format == INT_ARGB ? argb >>> 24 : 0xff);
+                    rowR += wx * ((argb >> 16) & 0xff);
+                    rowG += wx * ((argb >> 8) & 0xff);
+                    rowB += wx * (argb & 0xff);
+                }
+            } else if (format == BYTE_COMPONENTS) {
+                // fast path for interleaved bytes
+                final int rowOffset = offset + y * scanlineStride;
+                for (int i = 0; i < taps; i++) {
+                    final int wx = weights[su * taps + i];
+                    final int id = rowOffset + clamp(firstCol + i, width) * pixelStride;
+                    rowA += wx * (alphaOffset < 0 ? 0xff : byteData[id + alphaOffset] & 0xff);
+                    rowR += wx * (byteData[id + redOffset] & 0xff);
+                    rowG += wx * (byteData[id + greenOffset] & 0xff);
+                    rowB += wx * (byteData[id + blueOffset] & 0xff);
+                }
+            } else {
+                for (int i = 0; i < taps; i++) {
+                    final int wx = weights[su * taps + i];
+                    final int argb = argb(clamp(firstCol + i, width), y);
+                    rowA += wx * (argb >>> 24);
+                    rowR += wx * ((argb >> 16) & 0xff);
+                    rowG += wx * ((argb >> 8) & 0xff);
+                    rowB += wx * (argb & 0xff);
+                }
+            }
+            a += (long) wy * rowA;
+            r += (long) wy * rowR;
+            g += (long) wy * rowG;
+            b += (long) wy * rowB;
+        }
+        return toByte(a) << 24 | toByte(r) << 16 | toByte(g) << 8 | toByte(b);
+    }
+
+    /**
+     * Converts a fixed-point value with 2 * WEIGHT_BITS fractional bits to an
+     * integer between 0 and 255.
+     */
+    private static int toByte(long v) {
+        final int i = (int) ((v + (1L << (2 * Resampling.WEIGHT_BITS - 1)))
+                >> (2 * Resampling.WEIGHT_BITS));
+        return i < 0 ? 0 : (i > 255 ? 255 : i);
+    }
+
+    /**
+     * Clamps a column or row index to the image.
+     */
+    private static int clamp(int i, int size) {
+        return i < 0 ? 0 : (i >= size ? size - 1 : i);
+    }
+}
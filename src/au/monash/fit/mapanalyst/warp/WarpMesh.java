@@ -0,0 +1,461 @@
+/*
+ * WarpMesh.java
+ */
+package au.monash.fit.mapanalyst.warp;
+
+import ika.geo.GeoImage;
+import ika.mapanalyst.RadialBasisFunctionInterpolation;
+import ika.transformation.Transformation;
+
+/**
+ * An adaptive mesh over the destination image that approximates the mapping
+ * from destination pixels to source pixels. The exact mapping (an affine
+ * transformation followed by a radial basis function interpolation) is only
+ * computed at the nodes of the mesh. Inside a cell, source pixel coordinates
+ * are bilinearly interpolated from the four corner nodes.
+ *
+ * The mesh starts with square cells of CELL_SIZE pixels. The exact mapping is
+ * computed at the midpoints of the four edges and at the centre of a cell,
+ * and, if the interpolation is not differentiable at the control points, at
+ * the points of the cell closest to control points inside or near the cell.
+ * If the bilinear approximation deviates by more than half the tolerance from
+ * the exact mapping at any of these points, the cell is subdivided into four
+ * cells, which reuse the exact values as corner nodes. A cell of one pixel is
+ * exact. The margin accounts for larger deviations between the tested points.
+ *
+ * Instances are immutable and can be used by multiple threads.
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+final class WarpMesh {
+
+    /**
+     * Initial size of cells in pixels. Must be a power of two.
+     */
+    static final int CELL_SIZE = 32;
+
+    /**
+     * Maximum number of subdivisions of a cell.
+     */
+    private static final int MAX_DEPTH = Integer.numberOfTrailingZeros(CELL_SIZE);
+
+    /**
+     * The tested points may deviate from the exact mapping by this fraction
+     * of the tolerance. The deviation between the tested points is larger
+     * where the curvature of the mapping varies inside a cell.
+     */
+    private static final double TESTED_FRACTION = 0.5;
+
+    /**
+     * Control points farther from a cell than this fraction of the cell size
+     * are not tested.
+     */
+    private static final double KINK_DISTANCE = 0.5;
+
+    /**
+     * Buffers reused by each thread.
+     */
+    private static final ThreadLocal<Scratch> SCRATCH
+            = ThreadLocal.withInitial(Scratch::new);
+
+    private static final class Scratch {
+
+        /**
+         * Source pixel coordinates of 3x3 nodes of a cell for each level of
+         * subdivision. The corner nodes are known, the other five nodes are
+         * computed when testing the cell.
+         */
+        private final double[][] levels = new double[MAX_DEPTH + 1][3 * 3 * 2];
+
+        /**
+         * The five nodes of a cell that are tested.
+         */
+        private final double[] points = new double[5 * 2];
+
+        /**
+         * Corner nodes of the initial cells of a tile.
+         */
+        private double[] nodes = new double[0];
+
+        private double[] ensureNodes(int nbrNodes) {
+            if (nodes.length < nbrNodes * 2) {
+                nodes = new double[nbrNodes * 2];
+            }
+            return nodes;
+        }
+    }
+
+    private final Transformation dstToSrcTransformation;
+    private final RadialBasisFunctionInterpolation interpolation;
+
+    /**
+     * Maximum deviation from the exact mapping at the tested points in source
+     * pixels.
+     */
+    private final double testedTolerance;
+
+    private final double dstWest;
+    private final double dstNorth;
+    private final double dstCellSize;
+    private final double srcWest;
+    private final double srcNorth;
+    private final double srcPixelSizeX;
+    private final double srcPixelSizeY;
+
+    /**
+     * Number of initial cells in a row of the mesh.
+     */
+    private final int meshCols;
+
+    /**
+     * Number of initial cells in a column of the mesh.
+     */
+    private final int meshRows;
+
+    /**
+     * Destination pixel coordinates of the points where the interpolation is
+     * not differentiable, sorted by initial cell. x and y alternate.
+     */
+    private final double[] kinks;
+
+    /**
+     * Index of the first kink of each initial cell in kinks. The kinks of cell
+     * i are between kinkStart[i] and kinkStart[i + 1].
+     */
+    private final int[] kinkStart;
+
+    /**
+     * Creates a mesh.
+     *
+     * @param dstToSrcTransformation affine transformation from the
+     * destination image to the source image
+     * @param interpolation interpolation applied after the affine
+     * transformation
+     * @param srcGeoImage the source image
+     * @param dstWest left border of the destination image
+     * @param dstNorth top border of the destination image
+     * @param dstCellSize size of a destination pixel
+     * @param dstWidth number of columns of the destination image
+     * @param dstHeight number of rows of the destination image
+     * @param controlPointsInDestinationImage the control points
+     * @param tolerance maximum deviation from the exact mapping in source
+     * pixels
+     */
+    WarpMesh(Transformation dstToSrcTransformation,
+            RadialBasisFunctionInterpolation interpolation,
+            GeoImage srcGeoImage,
+            double dstWest, double dstNorth, double dstCellSize,
+            int dstWidth, int dstHeight,
+            double[][] controlPointsInDestinationImage,
+            double tolerance) {
+        if (tolerance <= 0 || Double.isNaN(tolerance)) {
+            throw new IllegalArgumentException("invalid tolerance");
+        }
+        this.dstToSrcTransformation = dstToSrcTransformation;
+        this.interpolation = interpolation;
+        this.testedTolerance = tolerance * TESTED_FRACTION;
+        this.dstWest = dstWest;
+        this.dstNorth = dstNorth;
+        this.dstCellSize = dstCellSize;
+        this.srcWest = srcGeoImage.getX();
+        this.srcNorth = srcGeoImage.getY();
+        this.srcPixelSizeX = srcGeoImage.getPixelSizeX();
+        this.srcPixelSizeY = srcGeoImage.getPixelSizeY();
+        this.meshCols = (dstWidth + CELL_SIZE - 1) / CELL_SIZE;
+        this.meshRows = (dstHeight + CELL_SIZE - 1) / CELL_SIZE;
+
+        // sort the control points by initial cell
+        kinkStart = new int[meshCols * meshRows + 1];
+        if (interpolation.getNonDifferentiablePoints() == null
+                || controlPointsInDestinationImage == null) {
+            kinks = new double[0];
+            return;
+        }
+        int nbrKinks = controlPointsInDestinationImage.length;
+        int[] cellIDs = new int[nbrKinks];
+        for (int i = 0; i < nbrKinks; i++) {
+            cellIDs[i] = cellID(controlPointsInDestinationImage[i]);
+            if (cellIDs[i] >= 0) {
+                kinkStart[cellIDs[i] + 1]++;
+            }
+        }
+        for (int i = 0; i < meshCols * meshRows; i++) {
+            kinkStart[i + 1] += kinkStart[i];
+        }
+        kinks = new double[kinkStart[meshCols * meshRows] * 2];
+        int[] nextKink = kinkStart.clone();
+        for (int i = 0; i < nbrKinks; i++) {
+            if (cellIDs[i] >= 0) {
+                int k = nextKink[cellIDs[i]]++;
+                kinks[k * 2] = dstCol(controlPointsInDestinationImage[i][0]);
+                kinks[k * 2 + 1] = dstRow(controlPointsInDestinationImage[i][1]);
+            }
+        }
+    }
+
+    /**
+     * Returns the initial cell containing a point.
+     *
+     * @param pt the point in destination coordinates
+     * @return the cell ID or -1 if the point is outside of the mesh
+     */
+    private int cellID(double[] pt) {
+        double col = Math.floor(dstCol(pt[0]) / CELL_SIZE);
+        double row = Math.floor(dstRow(pt[1]) / CELL_SIZE);
+        if (col < 0 || col >= meshCols || row < 0 || row >= meshRows) {
+            return -1;
+        }
+        return (int) row * meshCols + (int) col;
+    }
+
+    /**
+     * Converts a horizontal destination coordinate to a column, such that the
+     * centre of the first pixel is at 0.
+     */
+    private double dstCol(double x) {
+        return (x - dstWest) / dstCellSize - 0.5;
+    }
+
+    /**
+     * Converts a vertical destination coordinate to a row, such that the
+     * centre of the first pixel is at 0.
+     */
+    private double dstRow(double y) {
+        return (dstNorth - y) / dstCellSize - 0.5;
+    }
+
+    /**
+     * Computes the exact mapping from destination pixels to source pixels.
+     *
+     * @param points destination column and row of the pixel centres, x and y
+     * alternating. Replaced with source pixel coordinates.
+     * @param nbrPts number of points
+     */
+    private void exact(double[] points, int nbrPts) {
+        for (int i = 0; i < nbrPts * 2; i += 2) {
+            points[i] = dstWest + (points[i] + 0.5) * dstCellSize;
+            points[i + 1] = dstNorth - (points[i + 1] + 0.5) * dstCellSize;
+        }
+        dstToSrcTransformation.transform(points, nbrPts);
+        interpolation.transform(points, nbrPts);
+        for (int i = 0; i < nbrPts * 2; i += 2) {
+            points[i] = (points[i] - srcWest) / srcPixelSizeX;
+            points[i + 1] = (srcNorth - points[i + 1]) / srcPixelSizeY;
+        }
+    }
+
+    /**
+     * Computes source pixel coordinates for a rectangular tile of the
+     * destination image.
+     *
+     * @param firstCol first column of the tile, a multiple of CELL_SIZE
+     * @param firstRow first row of the tile, a multiple of CELL_SIZE
+     * @param nbrCols number of columns in the tile
+     * @param nbrRows number of rows in the tile
+     * @param coords receives the source pixel coordinates, x and y
+     * alternating, row by row.
+     */
+    void sourcePixels(int firstCol, int firstRow, int nbrCols, int nbrRows,
+            double[] coords) {
+        if (firstCol % CELL_SIZE != 0 || firstRow % CELL_SIZE != 0) {
+            throw new IllegalArgumentException("tile not aligned with mesh");
+        }
+        Scratch scratch = SCRATCH.get();
+
+        // exact mapping at the corners of the initial cells of the tile
+        int cellCols = (nbrCols + CELL_SIZE - 1) / CELL_SIZE;
+        int cellRows = (nbrRows + CELL_SIZE - 1) / CELL_SIZE;
+        int nodeCols = cellCols + 1;
+        int nbrNodes = nodeCols * (cellRows + 1);
+        double[] nodes = scratch.ensureNodes(nbrNodes);
+        for (int r = 0, i = 0; r <= cellRows; r++) {
+            for (int c = 0; c <= cellCols; c++) {
+                nodes[i++] = firstCol + c * CELL_SIZE;
+                nodes[i++] = firstRow + r * CELL_SIZE;
+            }
+        }
+        exact(nodes, nbrNodes);
+
+        double[] level = scratch.levels[0];
+        for (int r = 0; r < cellRows; r++) {
+            for (int c = 0; c < cellCols; c++) {
+                int tl = (r * nodeCols + c) * 2;
+                int bl = tl + nodeCols * 2;
+                setNode(level, 0, 0, nodes, tl);
+                setNode(level, 2, 0, nodes, tl + 2);
+                setNode(level, 0, 2, nodes, bl);
+                setNode(level, 2, 2, nodes, bl + 2);
+                int cellID = ((firstRow / CELL_SIZE) + r) * meshCols
+                        + (firstCol / CELL_SIZE) + c;
+                refine(scratch, 0, cellID, firstCol + c * CELL_SIZE,
+                        firstRow + r * CELL_SIZE, CELL_SIZE,
+                        firstCol, firstRow, nbrCols, nbrRows, coords);
+            }
+        }
+    }
+
+    /**
+     * Tests a cell and either subdivides it or fills its pixels with
+     * interpolated source pixel coordinates.
+     *
+     * @param scratch buffers
+     * @param depth subdivision level; the corner nodes of the cell are stored
+     * in scratch.levels[depth]
+     * @param cellID ID of the initial cell containing this cell
+     * @param x0 column of the top left corner
+     * @param y0 row of the top left corner
+     * @param size width and height of the cell in pixels
+     * @param firstCol first column of the tile
+     * @param firstRow first row of the tile
+     * @param nbrCols number of columns in the tile
+     * @param nbrRows number of rows in the tile
+     * @param coords receives the source pixel coordinates of the tile
+     */
+    private void refine(Scratch scratch, int depth, int cellID,
+            int x0, int y0, int size,
+            int firstCol, int firstRow, int nbrCols, int nbrRows,
+            double[] coords) {
+
+        double[] level = scratch.levels[depth];
+        if (size > 1 && exceedsTolerance(scratch, level, cellID, x0, y0, size)) {
+            int h = size / 2;
+            double[] child = scratch.levels[depth + 1];
+            for (int cy = 0; cy < 2; cy++) {
+                for (int cx = 0; cx < 2; cx++) {
+                    if (x0 + cx * h >= firstCol + nbrCols
+                            || y0 + cy * h >= firstRow + nbrRows) {
+                        continue;
+                    }
+                    for (int ny = 0; ny < 2; ny++) {
+                        for (int nx = 0; nx < 2; nx++) {
+                            int parent = ((cy + ny) * 3 + cx + nx) * 2;
+                            setNode(child, nx * 2, ny * 2, level, parent);
+                        }
+                    }
+                    refine(scratch, depth + 1, cellID, x0 + cx * h, y0 + cy * h, h,
+                            firstCol, firstRow, nbrCols, nbrRows, coords);
+                }
+            }
+            return;
+        }
+
+        // bilinear interpolation of the corner nodes
+        final double tlX = level[0], tlY = level[1];
+        final double trX = level[4], trY = level[5];
+        final double blX = level[12], blY = level[13];
+        final double brX = level[16], brY = level[17];
+        int cols = Math.min(size, firstCol + nbrCols - x0);
+        int rows = Math.min(size, firstRow + nbrRows - y0);
+        for (int j = 0; j < rows; j++) {
+            double v = (double) j / size;
+            double leftX = tlX + (blX - tlX) * v;
+            double leftY = tlY + (blY - tlY) * v;
+            double rightX = trX + (brX - trX) * v;
+            double rightY = trY + (brY - trY) * v;
+            int i = ((y0 + j - firstRow) * nbrCols + x0 - firstCol) * 2;
+            for (int k = 0; k < cols; k++) {
+                double u = (double) k / size;
+                coords[i++] = leftX + (rightX - leftX) * u;
+                coords[i++] = leftY + (rightY - leftY) * u;
+            }
+        }
+    }
+
+    /**
+     * Computes the exact mapping at the five nodes of the cell that are not
+     * corners, and close to control points, and tests whether the bilinear
+     * interpolation of the corners deviates by more than the tested
+     * tolerance.
+     *
+     * @param scratch buffers
+     * @param level 3x3 nodes of the cell with known corners. The other nodes
+     * are computed.
+     * @param cellID ID of the initial cell containing this cell
+     * @param x0 column of the top left corner
+     * @param y0 row of the top left corner
+     * @param size width and height of the cell in pixels
+     * @return true if the cell needs to be subdivided
+     */
+    private boolean exceedsTolerance(Scratch scratch, double[] level, int cellID,
+            int x0, int y0, int size) {
+        int h = size / 2;
+        double[] pts = scratch.points;
+        pts[0] = x0 + h;      // top
+        pts[1] = y0;
+        pts[2] = x0;          // left
+        pts[3] = y0 + h;
+        pts[4] = x0 + h;      // centre
+        pts[5] = y0 + h;
+        pts[6] = x0 + size;   // right
+        pts[7] = y0 + h;
+        pts[8] = x0 + h;      // bottom
+        pts[9] = y0 + size;
+        exact(pts, 5);
+        setNode(level, 1, 0, pts, 0);
+        setNode(level, 0, 1, pts, 2);
+        setNode(level, 1, 1, pts, 4);
+        setNode(level, 2, 1, pts, 6);
+        setNode(level, 1, 2, pts, 8);
+
+        double maxErr = 0;
+        for (int i = 0; i < 2; i++) {
+            double tl = level[i], tr = level[4 + i];
+            double bl = level[12 + i], br = level[16 + i];
+            maxErr = Math.max(maxErr, Math.abs(level[2 + i] - (tl + tr) / 2));
+            maxErr = Math.max(maxErr, Math.abs(level[6 + i] - (tl + bl) / 2));
+            maxErr = Math.max(maxErr, Math.abs(level[8 + i] - (tl + tr + bl + br) / 4));
+            maxErr = Math.max(maxErr, Math.abs(level[10 + i] - (tr + br) / 2));
+            maxErr = Math.max(maxErr, Math.abs(level[14 + i] - (bl + br) / 2));
+        }
+        if (maxErr > testedTolerance) {
+            return true;
+        }
+
+        // control points inside or close to the cell, which can be in this
+        // initial cell or one of its neighbours. The mapping is strongly
+        // curved close to a control point, so the point of the cell closest
+        // to the control point is tested.
+        final int meshCol = cellID % meshCols;
+        final int meshRow = cellID / meshCols;
+        for (int r = Math.max(0, meshRow - 1); r <= Math.min(meshRows - 1, meshRow + 1); r++) {
+            for (int c = Math.max(0, meshCol - 1); c <= Math.min(meshCols - 1, meshCol + 1); c++) {
+                final int neighbourID = r * meshCols + c;
+                for (int k = kinkStart[neighbourID]; k < kinkStart[neighbourID + 1]; k++) {
+                    final double kx = kinks[k * 2];
+                    final double ky = kinks[k * 2 + 1];
+                    final double px = Math.max(x0, Math.min(x0 + size, kx));
+                    final double py = Math.max(y0, Math.min(y0 + size, ky));
+                    if (Math.abs(px - kx) > KINK_DISTANCE * size
+                            || Math.abs(py - ky) > KINK_DISTANCE * size) {
+                        continue;
+                    }
+                    final double u = (px - x0) / size;
+                    final double v = (py - y0) / size;
+                    pts[0] = px;
+                    pts[1] = py;
+                    exact(pts, 1);
+                    for (int i = 0; i < 2; i++) {
+                        double top = level[i] + (level[4 + i] - level[i]) * u;
+                        double bottom = level[12 + i] + (level[16 + i] - level[12 + i]) * u;
+                        if (Math.abs(pts[i] - (top + (bottom - top) * v)) > testedTolerance) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copies the source pixel coordinates of a node to the 3x3 nodes of a
+     * cell.
+     */
+    private static void setNode(double[] level, int col, int row,
+            double[] src, int srcID) {
+        int i = (row * 3 + col) * 2;
+        level[i] = src[srcID];
+        level[i + 1] = src[srcID + 1];
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * WarpedImage.java
+ */
+package au.monash.fit.mapanalyst.warp;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Vector;
+import java.util.stream.IntStream;
+
+/**
+ * An ARGB image with tiles that are only computed when an image writer
+ * requests them. The tiles of one row of tiles are computed in parallel and
+ * retained until a tile of another row is requested. Image writers that
+ * request pixels row by row or tile by tile therefore never hold more than one
+ * row of tiles in memory.
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+final class WarpedImage implements RenderedImage {
+
+    /**
+     * Computes the pixels of a tile.
+     */
+    interface TileRenderer {
+
+        /**
+         * Computes the pixels of a tile.
+         *
+         * @param firstCol first column of the tile
+         * @param firstRow first row of the tile
+         * @param nbrCols number of columns in the tile
+         * @param nbrRows number of rows in the tile
+         * @param dst receives the ARGB pixels of the tile, starting at index 0
+         * @param dstScanlineStride number of array elements per row of dst
+         * @throws IOException if source pixels cannot be read
+         */
+        void render(int firstCol, int firstRow, int nbrCols, int nbrRows,
+                int[] dst, int dstScanlineStride) throws IOException;
+    }
+
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final ColorModel colorModel = ColorModel.getRGBdefault();
+    private final SampleModel sampleModel;
+    private final TileRenderer renderer;
+
+    /**
+     * The cached row of tiles.
+     */
+    private WritableRaster[] band;
+
+    /**
+     * Index of the cached row of tiles, or -1.
+     */
+    private int bandRow = -1;
+
+    /**
+     * Creates an image.
+     *
+     * @param width number of columns
+     * @param height number of rows
+     * @param tileSize width and height of tiles in pixels
+     * @param renderer computes the pixels of tiles
+     */
+    WarpedImage(int width, int height, int tileSize, TileRenderer renderer) {
+        if (width <= 0 || height <= 0 || tileSize <= 0) {
+            throw new IllegalArgumentException("invalid image size");
+        }
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.renderer = renderer;
+        this.sampleModel = colorModel.createCompatibleSampleModel(tileSize, tileSize);
+    }
+
+    @Override
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return java.awt.Image.UndefinedProperty;
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return null;
+    }
+
+    @Override
+    public ColorModel getColorModel() {
+        return colorModel;
+    }
+
+    @Override
+    public SampleModel getSampleModel() {
+        return sampleModel;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getMinX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinY() {
+        return 0;
+    }
+
+    @Override
+    public int getNumXTiles() {
+        return (width + tileSize - 1) / tileSize;
+    }
+
+    @Override
+    public int getNumYTiles() {
+        return (height + tileSize - 1) / tileSize;
+    }
+
+    @Override
+    public int getMinTileX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinTileY() {
+        return 0;
+    }
+
+    @Override
+    public int getTileWidth() {
+        return tileSize;
+    }
+
+    @Override
+    public int getTileHeight() {
+        return tileSize;
+    }
+
+    @Override
+    public int getTileGridXOffset() {
+        return 0;
+    }
+
+    @Override
+    public int getTileGridYOffset() {
+        return 0;
+    }
+
+    /**
+     * Returns a tile. The row of tiles containing the tile is computed if it
+     * is not the cached row.
+     *
+     * @param tileX column of the tile
+     * @param tileY row of the tile
+     * @return the tile
+     * @throws UncheckedIOException if source pixels cannot be read
+     */
+    @Override
+    public synchronized Raster getTile(int tileX, int tileY) {
+        if (tileX < 0 || tileX >= getNumXTiles() || tileY < 0 || tileY >= getNumYTiles()) {
+            throw new IllegalArgumentException("invalid tile");
+        }
+        if (tileY != bandRow) {
+            band = null;
+            band = renderBand(tileY);
+            bandRow = tileY;
+        }
+        return band[tileX];
+    }
+
+    /**
+     * Computes a row of tiles in parallel.
+     *
+     * @param tileY row of tiles
+     * @return the tiles
+     */
+    private WritableRaster[] renderBand(int tileY) {
+        final int firstRow = tileY * tileSize;
+        final int nbrRows = Math.min(tileSize, height - firstRow);
+        final WritableRaster[] tiles = new WritableRaster[getNumXTiles()];
+        IntStream.range(0, tiles.length).parallel().forEach(tileX -> {
+            int firstCol = tileX * tileSize;
+            int nbrCols = Math.min(tileSize, width - firstCol);
+            WritableRaster tile = Raster.createWritableRaster(sampleModel,
+                    new Point(firstCol, firstRow));
+            int[] dst = ((DataBufferInt) tile.getDataBuffer()).getData();
+            try {
+                renderer.render(firstCol, firstRow, nbrCols, nbrRows, dst, tileSize);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            tiles[tileX] = tile;
+        });
+        return tiles;
+    }
+
+    /**
+     * Returns the entire image. This computes all tiles and should be avoided
+     * for large images.
+     *
+     * @return the image
+     */
+    @Override
+    public Raster getData() {
+        return getData(new Rectangle(0, 0, width, height));
+    }
+
+    @Override
+    public Raster getData(Rectangle rect) {
+        WritableRaster raster = colorModel.createCompatibleWritableRaster(
+                rect.width, rect.height).createWritableTranslatedChild(rect.x, rect.y);
+        return copyData(raster);
+    }
+
+    @Override
+    public WritableRaster copyData(WritableRaster raster) {
+        if (raster == null) {
+            raster = colorModel.createCompatibleWritableRaster(width, height);
+        }
+        Rectangle rect = raster.getBounds().intersection(new Rectangle(0, 0, width, height));
+        if (rect.isEmpty()) {
+            return raster;
+        }
+        int firstTileX = rect.x / tileSize;
+        int lastTileX = (rect.x + rect.width - 1) / tileSize;
+        int firstTileY = rect.y / tileSize;
+        int lastTileY = (rect.y + rect.height - 1) / tileSize;
+        for (int tileY = firstTileY; tileY <= lastTileY; tileY++) {
+            for (int tileX = firstTileX; tileX <= lastTileX; tileX++) {
+                Raster tile = getTile(tileX, tileY);
+                Rectangle r = tile.getBounds().intersection(rect);
+                raster.setRect(0, 0, tile.createChild(r.x, r.y, r.width, r.height,
+                        r.x, r.y, null));
+            }
+        }
+        return raster;
+    }
+}
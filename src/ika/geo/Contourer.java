@@ -8,22 +8,56 @@
 package ika.geo;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
+ * Extracts contour lines from a GeoGrid with the marching squares algorithm.
+ *
+ * A single sweep over the grid finds the range of contour levels crossing each
+ * cell, and sorts the cells by levels. The levels are then contoured in
+ * parallel: each cell crossed by a level contributes one or two line segments,
+ * which are looked up in a table of the 16 possible configurations of the cell
+ * corners. Segments sharing a cell edge are joined to contour lines. Both steps
+ * take time proportional to the number of cells and segments. Cells with
+ * missing values (NaN) at a corner are not contoured.
  *
  * @author jenny
  */
 public class Contourer {
-    
+
+    /**
+     * Line segments for the configurations of cell corners. Corners above the
+     * contour level set bits: 1 upper left, 2 upper right, 4 lower right, 8
+     * lower left. Edges of a cell: 0 top, 1 right, 2 bottom, 3 left. Each pair
+     * of edges is a segment connecting the intersections with the two edges.
+     * Configurations 5 and 10 are saddles, which are resolved with the value at
+     * the centre of the cell; this table is for a centre below the level.
+     */
+    private static final int[][] SEGMENTS = {
+        {}, {3, 0}, {0, 1}, {3, 1},
+        {1, 2}, {3, 0, 1, 2}, {0, 2}, {3, 2},
+        {2, 3}, {0, 2}, {0, 1, 2, 3}, {1, 2},
+        {1, 3}, {0, 1}, {3, 0}, {}
+    };
+
+    /**
+     * Segments for the saddle configurations 5 and 10 with a centre above the
+     * contour level.
+     */
+    private static final int[] SADDLE_5_HIGH_CENTRE = {0, 1, 2, 3};
+    private static final int[] SADDLE_10_HIGH_CENTRE = {3, 0, 1, 2};
+
     private GeoGrid geoGrid;
-    boolean[][] flags;
     private float interval;
     /**
      * Flag for special treatement for degrees containing degree values 0..360
      * Which cause problems for cells that have values over high-noon.
      */
     private boolean treatDegreeJump = false;
-    
+
     /** Creates a new instance of Contourer */
     public Contourer() {
     }
@@ -42,319 +76,509 @@ public class Contourer {
 
     }
 
+    /**
+     * Extracts contour lines for all multiples of the interval between the
+     * minimum and the maximum value of the grid. If degree jumps are treated,
+     * level 0 is contoured first. Levels with fewer than two contour lines are
+     * not included.
+     *
+     * @return Contour lines for each level.
+     */
     public ArrayList< ArrayList <double[][]> > contour() {
 
-        ArrayList< ArrayList <double[][]> > contours = new ArrayList< ArrayList <double[][]> >();
         float[] minMax = geoGrid.getMinMax();
         float firstContourLevel = (float)Math.ceil(minMax[0]/interval)*interval;
         float lastContourLevel = (float)Math.floor(minMax[1]/interval)*interval;
-        int nbrIntervals = (int)((lastContourLevel - firstContourLevel) / interval + 1);
-        
+        int nbrIntervals = Math.max(0,
+                (int)((lastContourLevel - firstContourLevel) / interval + 1));
+
+        final int nbrLevels = nbrIntervals + (treatDegreeJump ? 1 : 0);
+        final float[] levels = new float[nbrLevels];
+        int levelID = 0;
         if (treatDegreeJump) {
-            ArrayList<double[][]> levelContours = contour(0.f);
-            if (levelContours.size() > 1) {
-                contours.add(levelContours);
-            }
+            levels[levelID++] = 0.f;
         }
-        
         for (int i = 0; i < nbrIntervals; ++i) {
-            float contourLevel = firstContourLevel + i * this.interval;
-            ArrayList<double[][]> levelContours = contour(contourLevel);
-            if (levelContours.size() > 1) {
-                contours.add(levelContours);
-            }
+            levels[levelID++] = firstContourLevel + i * this.interval;
         }
 
+        List<ArrayList<double[][]>> levelContours = contour(levels);
+        ArrayList< ArrayList <double[][]> > contours = new ArrayList< ArrayList <double[][]> >();
+        for (ArrayList<double[][]> lines : levelContours) {
+            if (lines.size() > 1) {
+                contours.add(lines);
+            }
+        }
         return contours;
 
     }
-    
+
+    /**
+     * Extracts contour lines for a single level.
+     *
+     * @param level The contour level.
+     * @return The contour lines.
+     */
     public ArrayList<double[][]> contour(float level) {
-        
-        final int nbrCellsX = this.geoGrid.getCols() - 1;
-        final int nbrCellsY = this.geoGrid.getRows() - 1;
-        float[][] grid = this.geoGrid.getGrid();
-        double west = this.geoGrid.getWest();
-        double north = this.geoGrid.getNorth();
-        float cellSize = (float)this.geoGrid.getMeshSize();
-        
-        for (int i = 0; i < this.flags.length; i++)
-            java.util.Arrays.fill(this.flags[i], false);
-
-        ArrayList< double[][] > contours = new ArrayList< double[][] >();
-        for (int y = 0; y < nbrCellsY; y++) {
-            boolean[] flag_row = flags[y];
-            for (int x = 0; x < nbrCellsX; x++) {
-                if (flag_row[x] == false) {
-                    double[][] contour = this.traceContour(grid, new int[]{x, y}, level, west, north, cellSize);
-                    if (contour.length > 1) {
-                        contours.add(contour);
-                    }
+        return contour(new float[]{level}).get(0);
+    }
+
+    /**
+     * Extracts contour lines for a set of levels.
+     *
+     * @param levels The contour levels.
+     * @return The contour lines for each level, in the order of levels.
+     */
+    private List<ArrayList<double[][]>> contour(float[] levels) {
+        final int cols = geoGrid.getCols();
+        final int rows = geoGrid.getRows();
+        final float[][] grid = geoGrid.getGrid();
+        final int nbrLevels = levels.length;
+
+        // levels sorted by value, such that the levels crossing a cell are a
+        // continuous range
+        final Integer[] order = new Integer[nbrLevels];
+        for (int i = 0; i < nbrLevels; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Float.compare(levels[a], levels[b]));
+        final float[] sortedLevels = new float[nbrLevels];
+        for (int i = 0; i < nbrLevels; i++) {
+            sortedLevels[i] = levels[order[i]];
+        }
+
+        // single sweep: find the range of sorted levels crossing each cell
+        final int nbrCells = Math.max(0, cols - 1) * Math.max(0, rows - 1);
+        final int[] firstLevel = new int[nbrCells];
+        final int[] lastLevel = new int[nbrCells];
+        final int[] cellsPerLevel = new int[nbrLevels + 1];
+        final float[] v = new float[4];
+        for (int y = 0, cell = 0; y < rows - 1; y++) {
+            for (int x = 0; x < cols - 1; x++, cell++) {
+                firstLevel[cell] = 0;
+                lastLevel[cell] = -1;
+                if (!cornerValues(grid, x, y, v)) {
+                    continue;
+                }
+                final float min = Math.min(Math.min(v[0], v[1]), Math.min(v[2], v[3]));
+                final float max = Math.max(Math.max(v[0], v[1]), Math.max(v[2], v[3]));
+                // a cell is crossed by levels with min <= level < max
+                final int first = lowerBound(sortedLevels, min);
+                final int last = lowerBound(sortedLevels, max) - 1;
+                firstLevel[cell] = first;
+                lastLevel[cell] = last;
+                for (int l = first; l <= last; l++) {
+                    cellsPerLevel[l + 1]++;
                 }
             }
         }
 
-        return contours;
+        // sort cells by levels
+        for (int l = 0; l < nbrLevels; l++) {
+            cellsPerLevel[l + 1] += cellsPerLevel[l];
+        }
+        final int[] levelCells = new int[cellsPerLevel[nbrLevels]];
+        final int[] fill = Arrays.copyOf(cellsPerLevel, nbrLevels);
+        for (int cell = 0; cell < nbrCells; cell++) {
+            for (int l = firstLevel[cell]; l <= lastLevel[cell]; l++) {
+                levelCells[fill[l]++] = cell;
+            }
+        }
 
-    }
-    
-    private double[][] traceContour(float[][] grid, int[]xy, float level,
-            double west, double north, float cellSize) {
-        
-        float[] pt = new float[2];
-        int[]xy_copy = new int[]{xy[0], xy[1]};
-        final int cols = grid[0].length;
-        final int rows = grid.length;
-        ArrayList<double[]> contour = new ArrayList<double[]>();
-
-        // first trace contour in backward direction
-        while (xy_copy[0] >= 0 &&
-                xy_copy[0] < cols - 1 &&
-                xy_copy[1] >= 0 &&
-                xy_copy[1] < rows - 1 &&
-                this.next(false, grid, xy_copy, level, west, north, cellSize, pt)) {
-
-            contour.add(0, new double[]{pt[0], pt[1]});
+        // contour levels in parallel
+        List<ArrayList<double[][]>> sortedContours = IntStream.range(0, nbrLevels)
+                .parallel()
+                .mapToObj(l -> traceLevel(grid, cols, sortedLevels[l], levelCells,
+                        cellsPerLevel[l], cellsPerLevel[l + 1]))
+                .collect(Collectors.toList());
+
+        List<ArrayList<double[][]>> contours = new ArrayList<>(nbrLevels);
+        for (int i = 0; i < nbrLevels; i++) {
+            contours.add(null);
         }
-        
-        // reset the flag for the passed point xy
-        flags[xy[1]][xy[0]] = false;
-        
-        // then trace contour in forward direction
-        while (xy[0] >= 0 &&
-                xy[0] < cols - 1 &&
-                xy[1] >= 0 &&
-                xy[1] < rows - 1 &&
-                this.next(true, grid, xy, level, west, north, cellSize, pt)) {
-            contour.add(new double[]{pt[0], pt[1]});
+        for (int i = 0; i < nbrLevels; i++) {
+            contours.set(order[i], sortedContours.get(i));
         }
+        return contours;
+    }
 
-        return contour.toArray(new double[][]{});
+    /**
+     * Returns the index of the first level that is equal to or larger than a
+     * value.
+     */
+    private static int lowerBound(float[] sortedLevels, float value) {
+        int lo = 0, hi = sortedLevels.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (sortedLevels[mid] < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
     }
-    
-    private boolean next(boolean forward, float[][] grid, int[]xy, float level,
-            double west, double north, float cellSize, float[] pt) {
-        
-        final int x = xy[0];
-        final int y = xy[1];
-        
-        if (this.flags[y][x] == true)
-            return false;
-        this.flags[y][x] = true;
-        
-        float v0 = grid[y+1][x];  // lower left
-        if (Float.isNaN(v0))
-            return false;
-        float v1 = grid[y+1][x+1];// lower right
-        if (Float.isNaN(v1))
-            return false;
-        float v2 = grid[y][x];    // upper left
-        if (Float.isNaN(v2))
-            return false;
-        float v3 = grid[y][x+1];  // upper right
-        if (Float.isNaN(v3))
+
+    /**
+     * Reads the values at the corners of a cell, and adjusts them for degree
+     * jumps.
+     *
+     * @param v Receives the values: upper left, upper right, lower right,
+     * lower left.
+     * @return False if a corner has no value.
+     */
+    private boolean cornerValues(float[][] grid, int x, int y, float[] v) {
+        v[0] = grid[y][x];
+        v[1] = grid[y][x + 1];
+        v[2] = grid[y + 1][x + 1];
+        v[3] = grid[y + 1][x];
+        if (Float.isNaN(v[0]) || Float.isNaN(v[1])
+                || Float.isNaN(v[2]) || Float.isNaN(v[3])) {
             return false;
-        
-        if (this.treatDegreeJump) {
+        }
 
-            float v0d = v0 - 180;
-            float v1d = v1 - 180;
-            float v2d = v2 - 180;
-            float v3d = v3 - 180;
-            
-            final boolean adjustCell =
-                    (v0d > 0 && v1d < 0 && v0d - v1d > 90)
-                    || (v0d < 0 && v1d > 0 && v1d - v0d > 90)
-                    || (v0d > 0 && v2d < 0 && v0d - v2d > 90)
-                    || (v0d < 0 && v2d > 0 && v2d - v0d > 90)
-                    || (v0d > 0 && v3d < 0 && v0d - v3d > 90)
-                    || (v0d < 0 && v3d > 0 && v3d - v0d > 90)
-                    
-                    || (v1d > 0 && v2d < 0 && v1d - v2d > 90)
-                    || (v1d < 0 && v2d > 0 && v2d - v1d > 90)
-                    || (v1d > 0 && v3d < 0 && v1d - v3d > 90)
-                    || (v1d < 0 && v3d > 0 && v3d - v1d > 90)
-                    
-                    || (v2d > 0 && v3d < 0 && v2d - v3d > 90)
-                    || (v2d < 0 && v3d > 0 && v3d - v2d > 90);
-            
+        if (this.treatDegreeJump) {
+            // a cell with two corners on either side of 180 degrees that are
+            // more than 90 degrees apart contains the jump from 360 to 0.
+            boolean adjustCell = false;
+            for (int i = 0; i < 4 && !adjustCell; i++) {
+                final float vi = v[i] - 180;
+                for (int j = i + 1; j < 4; j++) {
+                    final float vj = v[j] - 180;
+                    if ((vi > 0 && vj < 0 && vi - vj > 90)
+                            || (vi < 0 && vj > 0 && vj - vi > 90)) {
+                        adjustCell = true;
+                        break;
+                    }
+                }
+            }
             if (adjustCell) {
-                
-                if (v0 > 180)
-                    v0 -= 360;
-                if (v1 > 180)
-                    v1 -= 360;
-                if (v2 > 180)
-                    v2 -= 360;
-                if (v3 > 180)
-                    v3 -= 360;
+                for (int i = 0; i < 4; i++) {
+                    if (v[i] > 180) {
+                        v[i] -= 360;
+                    }
+                }
             }
         }
-        
-        if (!forward) {
-            v0 = -v0;
-            v1 = -v1;
-            v2 = -v2;
-            v3 = -v3;
-            level = -level;
+        return true;
+    }
+
+    /**
+     * Extracts the contour lines of one level.
+     *
+     * @param cells Cells crossed by the level, in row-major order.
+     * @param firstCell Index of the first cell of this level in cells.
+     * @param endCell Index after the last cell of this level in cells.
+     */
+    private ArrayList<double[][]> traceLevel(float[][] grid, int cols, float level,
+            int[] cells, int firstCell, int endCell) {
+
+        final double west = geoGrid.getWest();
+        final double north = geoGrid.getNorth();
+        final double cellSize = geoGrid.getMeshSize();
+
+        // line segments with the identifiers of the intersected cell edges
+        // and the coordinates of the two end points
+        IntBuffer segmentEdges = new IntBuffer(8);
+        DoubleBuffer segmentPoints = new DoubleBuffer(16);
+        final float[] v = new float[4];
+        final double[] xy = new double[2];
+        for (int i = firstCell; i < endCell; i++) {
+            final int cell = cells[i];
+            final int x = cell % (cols - 1);
+            final int y = cell / (cols - 1);
+            cornerValues(grid, x, y, v);
+            int config = 0;
+            for (int c = 0; c < 4; c++) {
+                if (v[c] > level) {
+                    config |= 1 << c;
+                }
+            }
+            int[] segments = SEGMENTS[config];
+            if (config == 5 || config == 10) {
+                final float centre = (v[0] + v[1] + v[2] + v[3]) / 4;
+                if (centre > level) {
+                    segments = config == 5 ? SADDLE_5_HIGH_CENTRE : SADDLE_10_HIGH_CENTRE;
+                }
+            }
+            for (int s = 0; s < segments.length; s++) {
+                final int edge = segments[s];
+                segmentEdges.add(edgeID(x, y, edge, cols));
+                intersection(x, y, edge, v, level, xy);
+                segmentPoints.add(west + xy[0] * cellSize);
+                segmentPoints.add(north - xy[1] * cellSize);
+            }
         }
-        
-        int code = 0;
-        if (v0 > level)
-            code ^= 1;
-        if (v1 > level)
-            code ^= 2;
-        if (v2 > level)
-            code ^= 4;
-        if (v3 > level)
-            code ^= 8;
-        if (code == 0 || code == 15)
-            return false;
-        
-        pt[0] = (float)(west + xy[0] * cellSize);
-        pt[1] = (float)(north - xy[1] * cellSize);
-        
-        switch (code) {
+
+        return joinSegments(segmentEdges, segmentPoints);
+    }
+
+    /**
+     * Returns a unique identifier for an edge of a cell. Cells sharing an edge
+     * receive the same identifier.
+     */
+    private static int edgeID(int x, int y, int edge, int cols) {
+        switch (edge) {
+            case 0: // top: horizontal edge right of node x/y
+                return (y * cols + x) * 2;
+            case 1: // right: vertical edge below node x+1/y
+                return (y * cols + x + 1) * 2 + 1;
+            case 2: // bottom: horizontal edge right of node x/y+1
+                return ((y + 1) * cols + x) * 2;
+            default: // left: vertical edge below node x/y
+                return (y * cols + x) * 2 + 1;
+        }
+    }
+
+    /**
+     * Computes the intersection of a level with an edge of a cell in grid
+     * coordinates. Horizontal edges are interpolated from left to right, and
+     * vertical edges from top to bottom, such that cells sharing an edge
+     * compute identical intersections.
+     */
+    private static void intersection(int x, int y, int edge, float[] v, float level,
+            double[] xy) {
+        switch (edge) {
+            case 0:
+                xy[0] = x + interpol(level, v[0], v[1]);
+                xy[1] = y;
+                break;
             case 1:
-                pt[1] -= interpol(level, v2, v0) * cellSize;;
-                xy[0]--;
+                xy[0] = x + 1;
+                xy[1] = y + interpol(level, v[1], v[2]);
                 break;
-                
             case 2:
-                pt[0] += interpol(level, v0, v1) * cellSize;
-                pt[1] -= cellSize;
-                xy[1]++;
-                break;
-                
-            case 3:
-                pt[1] -= interpol(level, v2, v0) * cellSize;
-                xy[0]--;
-                break;
-                
-            case 4:
-                pt[0] += interpol(level, v2, v3) * cellSize;
-                xy[1]--;
-                break;
-                
-            case 5:
-                pt[0] += interpol(level, v2, v3) * cellSize;
-                xy[1]--;
-                break;
-                
-            case 7:
-                pt[0] += interpol(level, v2, v3) * cellSize;
-                xy[1]--;
-                break;
-                
-            case 8:
-                pt[0] += cellSize;
-                pt[1] -= interpol(level, v3, v1) * cellSize;
-                xy[0]++;
-                break;
-                
-            case 10:
-                pt[0] += interpol(level, v0, v1) * cellSize;
-                pt[1] -= cellSize;
-                xy[1]++;
-                break;
-                
-            case 11:
-                pt[1] -= interpol(level, v2, v0) * cellSize;
-                xy[0]--;
+                xy[0] = x + interpol(level, v[3], v[2]);
+                xy[1] = y + 1;
                 break;
-                
-            case 12:
-                pt[0] += cellSize;
-                pt[1] -= interpol(level, v3, v1) * cellSize;
-                xy[0]++;
-                break;
-                
-            case 13:
-                pt[0] += cellSize;
-                pt[1] -= interpol(level, v3, v1) * cellSize;
-                xy[0]++;
-                break;
-                
-            case 14:
-                pt[0] += interpol(level, v0, v1) * cellSize;
-                pt[1] -= cellSize;
-                xy[1]++;
-                break;
-                
-            /*
-            case 6:
-            case 9:
-             */
-                
+            default:
+                xy[0] = x;
+                xy[1] = y + interpol(level, v[0], v[3]);
         }
-        return true;
     }
-    
+
     static final private float interpol(float level, float v0, float v1) {
         return (level - v0) / (v1 - v0);
     }
-    
+
+    /**
+     * Joins line segments sharing an edge identifier to contour lines. Each
+     * edge identifier is shared by at most two segment ends.
+     *
+     * @param segmentEdges Edge identifiers, two per segment.
+     * @param segmentPoints Coordinates of end points, four per segment.
+     * @return The contour lines.
+     */
+    private static ArrayList<double[][]> joinSegments(IntBuffer segmentEdges,
+            DoubleBuffer segmentPoints) {
+
+        final int nbrEnds = segmentEdges.size();
+        ArrayList<double[][]> contours = new ArrayList<double[][]>();
+        if (nbrEnds == 0) {
+            return contours;
+        }
+
+        // link segment ends on the same edge with an open addressing hash
+        // table of edge identifiers
+        final int[] partner = new int[nbrEnds];
+        Arrays.fill(partner, -1);
+        int capacity = Integer.highestOneBit(Math.max(nbrEnds * 2, 2) - 1) << 1;
+        final int[] keys = new int[capacity];
+        final int[] ends = new int[capacity];
+        Arrays.fill(ends, -1);
+        final int mask = capacity - 1;
+        for (int end = 0; end < nbrEnds; end++) {
+            final int edge = segmentEdges.get(end);
+            int slot = (edge * 0x9E3779B9) >>> 1 & mask;
+            while (ends[slot] >= 0 && keys[slot] != edge) {
+                slot = (slot + 1) & mask;
+            }
+            if (ends[slot] < 0) {
+                keys[slot] = edge;
+                ends[slot] = end;
+            } else if (partner[ends[slot]] < 0) {
+                partner[ends[slot]] = end;
+                partner[end] = ends[slot];
+            }
+        }
+
+        // follow linked segments in both directions from each segment not yet
+        // part of a line
+        final boolean[] visited = new boolean[nbrEnds / 2];
+        DoubleDeque line = new DoubleDeque();
+        for (int segment = 0; segment < visited.length; segment++) {
+            if (visited[segment]) {
+                continue;
+            }
+            visited[segment] = true;
+            line.clear();
+            line.addLast(segmentPoints, segment * 2);
+            line.addLast(segmentPoints, segment * 2 + 1);
+
+            // forward from the second end of the segment
+            boolean closed = false;
+            int end = partner[segment * 2 + 1];
+            while (end >= 0) {
+                final int s = end / 2;
+                if (visited[s]) {
+                    closed = s == segment;
+                    break;
+                }
+                visited[s] = true;
+                final int other = end ^ 1;
+                line.addLast(segmentPoints, other);
+                end = partner[other];
+            }
+
+            // backward from the first end of the segment
+            if (closed) {
+                line.addLast(segmentPoints, segment * 2);
+            } else {
+                end = partner[segment * 2];
+                while (end >= 0) {
+                    final int s = end / 2;
+                    if (visited[s]) {
+                        break;
+                    }
+                    visited[s] = true;
+                    final int other = end ^ 1;
+                    line.addFirst(segmentPoints, other);
+                    end = partner[other];
+                }
+            }
+            contours.add(line.toArray());
+        }
+        return contours;
+    }
+
     public GeoGrid getGeoGrid() {
         return geoGrid;
     }
-    
+
     public void setGeoGrid(GeoGrid geoGrid) {
         this.geoGrid = geoGrid;
-        this.flags = new boolean[geoGrid.getRows()][geoGrid.getCols()];
     }
-   
+
     public float getInterval() {
         return interval;
     }
-    
+
     public void setInterval(float interval) {
         this.interval = interval;
     }
-    
+
     public boolean isTreatDegreeJump() {
         return treatDegreeJump;
     }
-    
+
     public void setTreatDegreeJump(boolean treatDegreeJump) {
         this.treatDegreeJump = treatDegreeJump;
     }
-    
-    /*
-    public static void main(String[] params) {
-        GeoGrid geoGrid = new GeoGrid(3, 3, 1);
-        geoGrid.setWest(0);
-        geoGrid.setNorth(2);
-        geoGrid.setMeshSize(1);
-        float[][] grid = geoGrid.getGrid();
-        for (int i = 0; i < 3; i++) {
-            for (int j = 0; j < 3; j++) {
-                grid[i][j] = 0.999999f;
+
+    /**
+     * A growable array of integers.
+     */
+    private static final class IntBuffer {
+
+        private int[] data;
+        private int size = 0;
+
+        private IntBuffer(int capacity) {
+            data = new int[capacity];
+        }
+
+        private void add(int i) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
             }
+            data[size++] = i;
+        }
+
+        private int get(int i) {
+            return data[i];
         }
-        grid[1][1] = 0.000001f;
-     
-     
-        grid[0][0] = 0;
-        grid[0][1] = 1;
-        grid[0][2] = 2;
-        grid[1][0] = 1;
-        grid[1][1] = 2;
-        grid[1][2] = 3;
-        grid[2][0] = 2;
-        grid[2][1] = 3;
-        grid[2][2] = 4;
-     
-        Contourer contourer = new Contourer();
-        contourer.setGeoGrid(geoGrid);
-        contourer.setInterval(0.5f);
-        contourer.contour();
-     
-        ika.geoexport.GeoSetExporter exporter = new ika.geoexport.SVGExporter();
-        try {
-            exporter.export(contourer.getGeoSet(), "/Users/jenny/Desktop/contours.svg");
-        } catch (Exception exc) {
-            exc.printStackTrace();
+
+        private int size() {
+            return size;
         }
     }
+
+    /**
+     * A growable array of doubles.
      */
-}
\ No newline at end of file
+    private static final class DoubleBuffer {
+
+        private double[] data;
+        private int size = 0;
+
+        private DoubleBuffer(int capacity) {
+            data = new double[capacity];
+        }
+
+        private void add(double d) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = d;
+        }
+    }
+
+    /**
+     * A double-ended queue of points, stored as alternating x and y
+     * coordinates in a growable array.
+     */
+    private static final class DoubleDeque {
+
+        private double[] xy = new double[64];
+        private int head = 32;
+        private int tail = 32;
+
+        private void clear() {
+            head = tail = xy.length / 2;
+        }
+
+        /**
+         * Appends a point stored at a position in a buffer of points.
+         */
+        private void addLast(DoubleBuffer points, int pt) {
+            if (tail + 2 > xy.length) {
+                grow();
+            }
+            xy[tail++] = points.data[pt * 2];
+            xy[tail++] = points.data[pt * 2 + 1];
+        }
+
+        /**
+         * Prepends a point stored at a position in a buffer of points.
+         */
+        private void addFirst(DoubleBuffer points, int pt) {
+            if (head < 2) {
+                grow();
+            }
+            xy[--head] = points.data[pt * 2 + 1];
+            xy[--head] = points.data[pt * 2];
+        }
+
+        /**
+         * Doubles the capacity and centres the points.
+         */
+        private void grow() {
+            final int size = tail - head;
+            double[] newXY = new double[xy.length * 2];
+            final int newHead = (newXY.length - size) / 2 & ~1;
+            System.arraycopy(xy, head, newXY, newHead, size);
+            xy = newXY;
+            head = newHead;
+            tail = newHead + size;
+        }
+
+        private double[][] toArray() {
+            double[][] pts = new double[(tail - head) / 2][2];
+            for (int i = 0; i < pts.length; i++) {
+                pts[i][0] = xy[head + i * 2];
+                pts[i][1] = xy[head + i * 2 + 1];
+            }
+            return pts;
+        }
+    }
+}
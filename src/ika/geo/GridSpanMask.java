@@ -0,0 +1,273 @@
+/*
+ * GridSpanMask.java
+ */
+package ika.geo;
+
+import java.util.Arrays;
+
+/**
+ * A mask of the nodes of a GeoGrid that are inside a polygon. The polygon is
+ * rasterized with a scanline algorithm: the intersections of each grid row
+ * with the polygon edges are sorted, and pairs of consecutive intersections
+ * delimit a span of nodes inside the polygon. Testing whether a node is inside
+ * the polygon then only requires a search among the spans of its row, which
+ * for convex polygons contain a single span.
+ *
+ * Nodes are inside the polygon according to the even-odd rule. The result is
+ * identical to GeometryUtils.pointInPolygon() for the position of the node,
+ * that is, west + col * meshSize and north - row * meshSize. The mask is
+ * immutable and can be queried concurrently by multiple threads.
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+public class GridSpanMask {
+
+    private final int cols;
+    private final int rows;
+
+    /**
+     * Spans of nodes inside the polygon. Span i covers the columns
+     * spans[2 * i] to spans[2 * i + 1] - 1.
+     */
+    private final int[] spans;
+
+    /**
+     * Index of the first span of each row, with one additional element.
+     */
+    private final int[] rowStart;
+
+    /**
+     * Creates a mask for the geometry of a grid.
+     *
+     * @param polygon The vertices of the polygon. The first and the last vertex
+     * may be identical.
+     * @param grid The grid. Only the geometry of the grid is used.
+     */
+    public GridSpanMask(double[][] polygon, GeoGrid grid) {
+        this(polygon, grid.getWest(), grid.getNorth(), grid.getMeshSize(),
+                grid.getCols(), grid.getRows());
+    }
+
+    /**
+     * Creates a mask for a grid geometry.
+     *
+     * @param polygon The vertices of the polygon. The first and the last vertex
+     * may be identical.
+     * @param west Horizontal coordinate of the first column.
+     * @param north Vertical coordinate of the first row.
+     * @param meshSize Distance between two nodes.
+     * @param cols Number of columns.
+     * @param rows Number of rows.
+     */
+    public GridSpanMask(double[][] polygon, double west, double north,
+            double meshSize, int cols, int rows) {
+        if (polygon == null || polygon.length < 3) {
+            throw new IllegalArgumentException("invalid polygon");
+        }
+        if (cols < 0 || rows < 0 || !(meshSize > 0)) {
+            throw new IllegalArgumentException("invalid grid");
+        }
+        this.cols = cols;
+        this.rows = rows;
+
+        // count the intersections of edges with each row
+        final int nbrEdges = polygon.length;
+        int[] crossingStart = new int[rows + 1];
+        for (int i = 0; i < nbrEdges; i++) {
+            final double[] p1 = polygon[i == 0 ? nbrEdges - 1 : i - 1];
+            final double[] p2 = polygon[i];
+            final int r0 = firstRow(p1[1], p2[1], north, meshSize);
+            final int r1 = lastRow(p1[1], p2[1], north, meshSize);
+            for (int r = r0; r <= r1; r++) {
+                crossingStart[r + 1]++;
+            }
+        }
+        for (int r = 0; r < rows; r++) {
+            crossingStart[r + 1] += crossingStart[r];
+        }
+
+        // horizontal coordinates of the intersections, sorted by rows
+        double[] crossings = new double[crossingStart[rows]];
+        int[] fill = Arrays.copyOf(crossingStart, rows);
+        for (int i = 0; i < nbrEdges; i++) {
+            final double[] p1 = polygon[i == 0 ? nbrEdges - 1 : i - 1];
+            final double[] p2 = polygon[i];
+            final double x1 = p1[0], y1 = p1[1], x2 = p2[0], y2 = p2[1];
+            final int r0 = firstRow(y1, y2, north, meshSize);
+            final int r1 = lastRow(y1, y2, north, meshSize);
+            for (int r = r0; r <= r1; r++) {
+                final double y = north - r * meshSize;
+                crossings[fill[r]++] = (x1 - x2) * (y - y2) / (y1 - y2) + x2;
+            }
+        }
+
+        // convert pairs of intersections to spans of columns
+        rowStart = new int[rows + 1];
+        int[] spanBuffer = new int[Math.max(2, crossings.length)];
+        int nbrSpans = 0;
+        for (int r = 0; r < rows; r++) {
+            final int first = crossingStart[r];
+            final int last = crossingStart[r + 1];
+            Arrays.sort(crossings, first, last);
+            for (int i = first; i + 1 < last; i += 2) {
+                // a node is inside if crossings[i] <= x < crossings[i + 1]
+                final int c0 = firstColumn(crossings[i], west, meshSize);
+                final int c1 = firstColumn(crossings[i + 1], west, meshSize);
+                if (c0 < c1) {
+                    spanBuffer[nbrSpans * 2] = c0;
+                    spanBuffer[nbrSpans * 2 + 1] = c1;
+                    nbrSpans++;
+                }
+            }
+            rowStart[r + 1] = nbrSpans;
+        }
+        spans = Arrays.copyOf(spanBuffer, nbrSpans * 2);
+    }
+
+    /**
+     * Returns the first row intersecting an edge. A row at y intersects an
+     * edge if min(y1, y2) &lt;= y &lt; max(y1, y2).
+     */
+    private int firstRow(double y1, double y2, double north, double meshSize) {
+        final double maxY = Math.max(y1, y2);
+        int r = (int) Math.max(0, Math.min(rows, Math.ceil((north - maxY) / meshSize)));
+        // correct for rounding errors
+        while (r > 0 && north - (r - 1) * meshSize < maxY) {
+            r--;
+        }
+        while (r < rows && north - r * meshSize >= maxY) {
+            r++;
+        }
+        return r;
+    }
+
+    /**
+     * Returns the last row intersecting an edge, or a row smaller than
+     * firstRow() if no row intersects the edge.
+     */
+    private int lastRow(double y1, double y2, double north, double meshSize) {
+        final double minY = Math.min(y1, y2);
+        int r = (int) Math.max(-1, Math.min(rows - 1, Math.floor((north - minY) / meshSize)));
+        // correct for rounding errors
+        while (r < rows - 1 && north - (r + 1) * meshSize >= minY) {
+            r++;
+        }
+        while (r >= 0 && north - r * meshSize < minY) {
+            r--;
+        }
+        return r;
+    }
+
+    /**
+     * Returns the first column at or east of a horizontal coordinate, between
+     * 0 and the number of columns.
+     */
+    private int firstColumn(double x, double west, double meshSize) {
+        int c = (int) Math.max(0, Math.min(cols, Math.ceil((x - west) / meshSize)));
+        // correct for rounding errors
+        while (c > 0 && west + (c - 1) * meshSize >= x) {
+            c--;
+        }
+        while (c < cols && west + c * meshSize < x) {
+            c++;
+        }
+        return c;
+    }
+
+    /**
+     * Returns the number of columns of the grid.
+     *
+     * @return The number of columns.
+     */
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * Returns the number of rows of the grid.
+     *
+     * @return The number of rows.
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Tests whether a node is inside the polygon.
+     *
+     * @param col The column of the node.
+     * @param row The row of the node.
+     * @return True if the node is inside the polygon, false if it is outside
+     * of the polygon or the grid.
+     */
+    public boolean contains(int col, int row) {
+        if (row < 0 || row >= rows) {
+            return false;
+        }
+        for (int i = rowStart[row]; i < rowStart[row + 1]; i++) {
+            if (col < spans[i * 2]) {
+                return false;
+            }
+            if (col < spans[i * 2 + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tests whether any node of a block of nodes is inside the polygon.
+     *
+     * @param c0 The first column of the block.
+     * @param r0 The first row of the block.
+     * @param c1 The last column of the block.
+     * @param r1 The last row of the block.
+     * @return True if at least one node is inside the polygon.
+     */
+    public boolean intersects(int c0, int r0, int c1, int r1) {
+        for (int r = Math.max(0, r0); r <= r1 && r < rows; r++) {
+            for (int i = rowStart[r]; i < rowStart[r + 1]; i++) {
+                if (spans[i * 2] > c1) {
+                    break;
+                }
+                if (spans[i * 2 + 1] > c0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of spans of nodes inside the polygon in a row.
+     *
+     * @param row The row.
+     * @return The number of spans.
+     */
+    public int getNumberOfSpans(int row) {
+        return rowStart[row + 1] - rowStart[row];
+    }
+
+    /**
+     * Returns the first column of a span.
+     *
+     * @param row The row.
+     * @param span The index of the span in the row.
+     * @return The first column inside the polygon.
+     */
+    public int getSpanStart(int row, int span) {
+        return spans[(rowStart[row] + span) * 2];
+    }
+
+    /**
+     * Returns the end of a span.
+     *
+     * @param row The row.
+     * @param span The index of the span in the row.
+     * @return The first column after the span that is outside the polygon.
+     */
+    public int getSpanEnd(int row, int span) {
+        return spans[(rowStart[row] + span) * 2 + 1];
+    }
+}
@@ -42,16 +42,31 @@ public class ImageExporter {
     }
     
     private static void writeWorldFile(String worldFilePath, GeoImage geoImage)
+    throws IOException{
+        writeWorldFile(worldFilePath, geoImage.getPixelSizeX(),
+                geoImage.getPixelSizeY(), geoImage.getX(), geoImage.getY());
+    }
+    
+    /**
+     * Writes a World file for an image that is not rotated.
+     * @param worldFilePath The path to the World file.
+     * @param pixelSizeX Horizontal size of a pixel.
+     * @param pixelSizeY Vertical size of a pixel.
+     * @param west Horizontal coordinate of the top left corner of the image.
+     * @param north Vertical coordinate of the top left corner of the image.
+     */
+    public static void writeWorldFile(String worldFilePath, double pixelSizeX,
+            double pixelSizeY, double west, double north)
     throws IOException{
         
         try (PrintWriter writer = new PrintWriter(new BufferedWriter(
                 new FileWriter(worldFilePath)))) {
-            writer.println(geoImage.getPixelSizeX());
+            writer.println(pixelSizeX);
             writer.println(0);
             writer.println(0);
-            writer.println(-geoImage.getPixelSizeY());
-            writer.println(geoImage.getX());
-            writer.println(geoImage.getY());
+            writer.println(-pixelSizeY);
+            writer.println(west);
+            writer.println(north);
         }
     }
     
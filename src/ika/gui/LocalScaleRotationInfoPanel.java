@@ -7,7 +7,6 @@ package ika.gui;
 
 import ika.geo.osm.Projector;
 import ika.map.tools.*;
-import java.awt.geom.*;
 import java.text.*;
 import ika.mapanalyst.Manager;
 import ika.mapanalyst.LinkManager;
@@ -173,8 +172,7 @@ public class LocalScaleRotationInfoPanel
                 return false;
             }
 
-            Rectangle2D boundsOldMap = linkManager.getOldPointsGeoSet().getBounds2D();
-            isolines.computeScaleAndRotation(x, y, ptsNew, ptsOld, boundsOldMap, mapScale, scaleRot);
+            isolines.computeScaleAndRotation(x, y, ptsNew, ptsOld, mapScale, scaleRot);
 
             if (Float.isNaN(scaleRot[0]) || Float.isNaN(scaleRot[1])) {
                 return false;
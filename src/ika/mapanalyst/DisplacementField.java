@@ -0,0 +1,530 @@
+/*
+ * DisplacementField.java
+ */
+package ika.mapanalyst;
+
+import java.awt.geom.Rectangle2D;
+import java.util.stream.IntStream;
+
+/**
+ * Approximation of an interpolation by rasters of displacements. The
+ * displacements of the interpolation are computed once for the nodes of
+ * rasters, and the displacement of a point is then interpolated from the
+ * nearest nodes. This replaces the sum over all control points by a small
+ * number of operations per point, which pays off when a very large number of
+ * points is transformed, such as the pixels of a large image.
+ *
+ * The rasters adapt to a maximum error. The area is recursively divided into
+ * quadrants, and each quadrant is covered by a small raster. The exact
+ * displacement is computed at the center of each cell and at the midpoint of
+ * each cell edge, where the error of the lookup is largest, and, where the
+ * interpolation is not differentiable, at the points of the cells closest to
+ * these points, which can be inside the quadrant or close to it. If the
+ * largest difference to the looked up displacement exceeds half the maximum
+ * error, the quadrant is divided. The margin accounts for larger differences
+ * between the tested points. Where the error is still too large after a
+ * maximum number of divisions, typically very close to a control point of a
+ * multiquadric interpolation, and outside the area, points are transformed
+ * with the exact interpolation.
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+public class DisplacementField extends RadialBasisFunctionInterpolation {
+
+    /**
+     * Method for interpolating displacements between raster nodes.
+     */
+    public enum Lookup {
+
+        /**
+         * Bilinear interpolation of the four nearest nodes.
+         */
+        BILINEAR,
+        /**
+         * Bicubic (Catmull-Rom) interpolation of the sixteen nearest nodes,
+         * which usually requires fewer divisions than bilinear interpolation
+         * for the same error.
+         */
+        BICUBIC
+    }
+
+    /**
+     * Number of cells along each side of the raster of a quadrant.
+     */
+    private static final int CELLS = 8;
+
+    /**
+     * Number of nodes along each side of the raster of a quadrant.
+     */
+    private static final int NODES = CELLS + 1;
+
+    /**
+     * Maximum number of recursive divisions of the area.
+     */
+    private static final int MAX_DEPTH = 10;
+
+    /**
+     * Quadrants are computed in parallel up to this depth.
+     */
+    private static final int MAX_PARALLEL_DEPTH = 3;
+
+    /**
+     * The tested points may deviate from the exact interpolation by this
+     * fraction of the maximum error.
+     */
+    private static final double TESTED_FRACTION = 0.5;
+
+    /**
+     * Points where the interpolation is not differentiable that are farther
+     * from a cell than this fraction of the cell size are not tested.
+     */
+    private static final double KINK_DISTANCE = 0.5;
+
+    /**
+     * A quadrant of the area. A quadrant is either divided into four
+     * quadrants, or has a raster of displacements, or is transformed with the
+     * exact interpolation.
+     */
+    private static final class Quadrant {
+
+        /**
+         * The four quadrants in the order south-west, south-east, north-west,
+         * north-east, or null.
+         */
+        private Quadrant[] children;
+
+        /**
+         * Displacements of the nodes in x and y direction, stored row by row
+         * from south to north, or null.
+         */
+        private double[] dx, dy;
+
+        /**
+         * Largest difference between the exact and the looked up
+         * displacements.
+         */
+        private double error;
+    }
+
+    /**
+     * The approximated interpolation.
+     */
+    private final RadialBasisFunctionInterpolation interpolation;
+
+    /**
+     * The lookup method.
+     */
+    private final Lookup lookup;
+
+    /**
+     * Lower left corner of the area.
+     */
+    private final double west, south;
+
+    /**
+     * Width and height of the square area.
+     */
+    private final double size;
+
+    /**
+     * The quadrant covering the entire area.
+     */
+    private final Quadrant root;
+
+    /**
+     * Creates rasters of displacements for an interpolation.
+     *
+     * @param interpolation The interpolation to approximate.
+     * @param bounds The area covered by the rasters.
+     * @param maxError The maximum difference between looked up and exact
+     * coordinates, in units of the transformed coordinates.
+     * @param lookup The method for interpolating between raster nodes.
+     */
+    public DisplacementField(RadialBasisFunctionInterpolation interpolation,
+            Rectangle2D bounds, double maxError, Lookup lookup) {
+        if (interpolation == null || bounds == null || lookup == null
+                || !(maxError > 0)) {
+            throw new IllegalArgumentException();
+        }
+        this.interpolation = interpolation;
+        this.lookup = lookup;
+        this.west = bounds.getMinX();
+        this.south = bounds.getMinY();
+        final double s = Math.max(bounds.getWidth(), bounds.getHeight());
+        this.size = s > 0 ? s : 1;
+
+        // points inside or close to the area where the interpolation is not
+        // differentiable
+        double[][] kinks = interpolation.getNonDifferentiablePoints();
+        double[] kinkX = new double[kinks == null ? 0 : kinks.length];
+        double[] kinkY = new double[kinkX.length];
+        for (int i = 0; i < kinkX.length; i++) {
+            kinkX[i] = kinks[i][0];
+            kinkY[i] = kinks[i][1];
+        }
+        double[][] close = closeKinks(kinkX, kinkY, west, south, size);
+        this.root = build(west, south, size, 0, null, null, close[0], close[1],
+                maxError);
+    }
+
+    /**
+     * Copy constructor for scaledCopy.
+     */
+    private DisplacementField(DisplacementField field, double factor) {
+        this.interpolation = field.interpolation.scaledCopy(factor);
+        this.lookup = field.lookup;
+        this.west = field.west;
+        this.south = field.south;
+        this.size = field.size;
+        this.root = scaledCopy(field.root, factor);
+    }
+
+    private static Quadrant scaledCopy(Quadrant quadrant, double factor) {
+        Quadrant copy = new Quadrant();
+        copy.error = quadrant.error * Math.abs(factor);
+        if (quadrant.children != null) {
+            copy.children = new Quadrant[4];
+            for (int i = 0; i < 4; i++) {
+                copy.children[i] = scaledCopy(quadrant.children[i], factor);
+            }
+        } else if (quadrant.dx != null) {
+            copy.dx = scale(quadrant.dx, factor);
+            copy.dy = scale(quadrant.dy, factor);
+        }
+        return copy;
+    }
+
+    /**
+     * Creates a quadrant, and divides it recursively until the maximum error
+     * is reached.
+     *
+     * @param qWest Western border of the quadrant.
+     * @param qSouth Southern border of the quadrant.
+     * @param qSize Size of the quadrant.
+     * @param depth Number of divisions.
+     * @param nodeDx Displacements in x direction of the nodes, or null if
+     * they are not known.
+     * @param nodeDy Displacements in y direction of the nodes, or null.
+     * @param kinkX Horizontal coordinates of points inside or close to the
+     * quadrant where the interpolation is not differentiable.
+     * @param kinkY Vertical coordinates of these points.
+     * @param maxError The maximum error.
+     * @return The new quadrant.
+     */
+    private Quadrant build(double qWest, double qSouth, double qSize, int depth,
+            double[] nodeDx, double[] nodeDy,
+            double[] kinkX, double[] kinkY, double maxError) {
+
+        final double cellSize = qSize / CELLS;
+        final int nbrNodes = NODES * NODES;
+        Quadrant quadrant = new Quadrant();
+        if (nodeDx != null) {
+            quadrant.dx = nodeDx;
+            quadrant.dy = nodeDy;
+        } else {
+            // exact displacements of the nodes
+            double[] coords = new double[nbrNodes * 2];
+            for (int r = 0, i = 0; r < NODES; r++) {
+                for (int c = 0; c < NODES; c++) {
+                    coords[i++] = qWest + c * cellSize;
+                    coords[i++] = qSouth + r * cellSize;
+                }
+            }
+            double[] nodes = coords.clone();
+            interpolation.transform(coords, 0, nbrNodes);
+            quadrant.dx = new double[nbrNodes];
+            quadrant.dy = new double[nbrNodes];
+            for (int i = 0; i < nbrNodes; i++) {
+                quadrant.dx[i] = coords[i * 2] - nodes[i * 2];
+                quadrant.dy[i] = coords[i * 2 + 1] - nodes[i * 2 + 1];
+            }
+        }
+
+        // Test points are the points of a raster with a fraction of the cell
+        // size that are not nodes, and the points of cells closest to kinks.
+        // Bilinear lookup is least accurate at cell centers and edge
+        // midpoints; bicubic lookup is also tested at quarter positions. The
+        // displacement is strongly curved close to a kink, which can be in a
+        // neighbouring cell or quadrant.
+        final int sub = lookup == Lookup.BILINEAR ? 2 : 4;
+        final int testNodes = sub * CELLS + 1;
+        final int nbrGridTests = testNodes * testNodes - nbrNodes;
+        final double kinkDist = KINK_DISTANCE * cellSize;
+        double[] tests = new double[(nbrGridTests + kinkX.length * 4) * 2];
+        int i = 0;
+        for (int r = 0; r < testNodes; r++) {
+            for (int c = 0; c < testNodes; c++) {
+                if (r % sub != 0 || c % sub != 0) {
+                    tests[i++] = qWest + c * cellSize / sub;
+                    tests[i++] = qSouth + r * cellSize / sub;
+                }
+            }
+        }
+        for (int k = 0; k < kinkX.length; k++) {
+            final int c0 = cell(kinkX[k] - kinkDist - qWest, cellSize);
+            final int c1 = cell(kinkX[k] + kinkDist - qWest, cellSize);
+            final int r0 = cell(kinkY[k] - kinkDist - qSouth, cellSize);
+            final int r1 = cell(kinkY[k] + kinkDist - qSouth, cellSize);
+            for (int r = r0; r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    final double cellWest = qWest + c * cellSize;
+                    final double cellSouth = qSouth + r * cellSize;
+                    if (i == tests.length) {
+                        tests = java.util.Arrays.copyOf(tests, tests.length * 2);
+                    }
+                    tests[i++] = Math.max(cellWest, Math.min(cellWest + cellSize, kinkX[k]));
+                    tests[i++] = Math.max(cellSouth, Math.min(cellSouth + cellSize, kinkY[k]));
+                }
+            }
+        }
+        final int nbrTests = i / 2;
+        double[] exact = java.util.Arrays.copyOf(tests, i);
+        interpolation.transform(exact, 0, nbrTests);
+        double maxDiff = 0;
+        for (int t = 0; t < nbrTests; t++) {
+            final double fx = (tests[t * 2] - qWest) / cellSize;
+            final double fy = (tests[t * 2 + 1] - qSouth) / cellSize;
+            final double x = tests[t * 2] + lookup(quadrant.dx, fx, fy);
+            final double y = tests[t * 2 + 1] + lookup(quadrant.dy, fx, fy);
+            maxDiff = Math.max(maxDiff, Math.abs(exact[t * 2] - x));
+            maxDiff = Math.max(maxDiff, Math.abs(exact[t * 2 + 1] - y));
+        }
+        quadrant.error = maxDiff;
+        if (maxDiff <= maxError * TESTED_FRACTION) {
+            return quadrant;
+        }
+
+        // use the exact interpolation
+        final double[] dx = quadrant.dx;
+        final double[] dy = quadrant.dy;
+        quadrant.dx = quadrant.dy = null;
+        quadrant.error = 0;
+        if (depth == MAX_DEPTH) {
+            return quadrant;
+        }
+
+        // the nodes and the test points provide the nodes of the quadrants
+        final double[] testDx = new double[testNodes * testNodes];
+        final double[] testDy = new double[testNodes * testNodes];
+        for (int r = 0, t = 0, j = 0; r < testNodes; r++) {
+            for (int c = 0; c < testNodes; c++, j++) {
+                if (r % sub != 0 || c % sub != 0) {
+                    testDx[j] = exact[t * 2] - tests[t * 2];
+                    testDy[j] = exact[t * 2 + 1] - tests[t * 2 + 1];
+                    t++;
+                } else {
+                    testDx[j] = dx[(r / sub) * NODES + c / sub];
+                    testDy[j] = dy[(r / sub) * NODES + c / sub];
+                }
+            }
+        }
+
+        // divide into four quadrants
+        final double half = qSize / 2;
+        quadrant.children = new Quadrant[4];
+        IntStream children = IntStream.range(0, 4);
+        if (depth < MAX_PARALLEL_DEPTH) {
+            children = children.parallel();
+        }
+        children.forEach(q -> {
+            final double w = qWest + (q & 1) * half;
+            final double s = qSouth + (q >> 1) * half;
+            double[][] close = closeKinks(kinkX, kinkY, w, s, half);
+            // position of the first node in the raster of test points
+            final int c0 = (q & 1) * CELLS * sub / 2;
+            final int r0 = (q >> 1) * CELLS * sub / 2;
+            final int step = sub / 2;
+            double[] childDx = new double[nbrNodes];
+            double[] childDy = new double[nbrNodes];
+            for (int r = 0, j = 0; r < NODES; r++) {
+                for (int c = 0; c < NODES; c++, j++) {
+                    final int t = (r0 + r * step) * testNodes + c0 + c * step;
+                    childDx[j] = testDx[t];
+                    childDy[j] = testDy[t];
+                }
+            }
+            quadrant.children[q] = build(w, s, half, depth + 1, childDx, childDy,
+                    close[0], close[1], maxError);
+        });
+        return quadrant;
+    }
+
+    /**
+     * Returns the column or row of the cell containing a position, clamped to
+     * the raster.
+     */
+    private static int cell(double d, double cellSize) {
+        return Math.max(0, Math.min(CELLS - 1, (int) Math.floor(d / cellSize)));
+    }
+
+    /**
+     * Selects the points where the interpolation is not differentiable that
+     * are inside a quadrant or close enough to be tested for the quadrant.
+     *
+     * @param kinkX Horizontal coordinates of the points.
+     * @param kinkY Vertical coordinates of the points.
+     * @param qWest Western border of the quadrant.
+     * @param qSouth Southern border of the quadrant.
+     * @param qSize Size of the quadrant.
+     * @return The horizontal and vertical coordinates of the selected points.
+     */
+    private static double[][] closeKinks(double[] kinkX, double[] kinkY,
+            double qWest, double qSouth, double qSize) {
+        final double d = KINK_DISTANCE * qSize / CELLS;
+        int n = 0;
+        double[] x = new double[kinkX.length];
+        double[] y = new double[kinkX.length];
+        for (int k = 0; k < kinkX.length; k++) {
+            if (kinkX[k] >= qWest - d && kinkY[k] >= qSouth - d
+                    && kinkX[k] <= qWest + qSize + d && kinkY[k] <= qSouth + qSize + d) {
+                x[n] = kinkX[k];
+                y[n++] = kinkY[k];
+            }
+        }
+        return new double[][]{java.util.Arrays.copyOf(x, n), java.util.Arrays.copyOf(y, n)};
+    }
+
+    /**
+     * Returns the largest difference between looked up and exact coordinates
+     * found when the rasters were created.
+     *
+     * @return The error in units of the transformed coordinates.
+     */
+    public double getError() {
+        return error(root);
+    }
+
+    private static double error(Quadrant quadrant) {
+        if (quadrant.children == null) {
+            return quadrant.error;
+        }
+        double error = 0;
+        for (Quadrant child : quadrant.children) {
+            error = Math.max(error, error(child));
+        }
+        return error;
+    }
+
+    @Override
+    public DisplacementField scaledCopy(double factor) {
+        return new DisplacementField(this, factor);
+    }
+
+    @Override
+    protected void transform(double[][] points, int firstPt, int nbrPts) {
+        final int endPt = firstPt + nbrPts;
+        for (int i = firstPt; i < endPt; i++) {
+            if (!addDisplacement(points[i], 0)) {
+                interpolation.transform(points, i, 1);
+            }
+        }
+    }
+
+    @Override
+    protected void transform(double[] coords, int firstPt, int nbrPts) {
+        final int endPt = firstPt + nbrPts;
+        for (int i = firstPt; i < endPt; i++) {
+            if (!addDisplacement(coords, i * 2)) {
+                interpolation.transform(coords, i, 1);
+            }
+        }
+    }
+
+    /**
+     * Adds the looked up displacement to a point.
+     *
+     * @param xy Array containing the point.
+     * @param offset Position of the x coordinate in xy. The y coordinate is
+     * at offset + 1.
+     * @return false if the point was not changed, because it is outside the
+     * area or the exact interpolation is required.
+     */
+    private boolean addDisplacement(double[] xy, int offset) {
+        final double x = xy[offset];
+        final double y = xy[offset + 1];
+        if (!(x >= west && y >= south && x <= west + size && y <= south + size)) {
+            return false;
+        }
+        Quadrant quadrant = root;
+        double qWest = west, qSouth = south, qSize = size;
+        while (quadrant.children != null) {
+            qSize /= 2;
+            int q = 0;
+            if (x >= qWest + qSize) {
+                qWest += qSize;
+                q = 1;
+            }
+            if (y >= qSouth + qSize) {
+                qSouth += qSize;
+                q += 2;
+            }
+            quadrant = quadrant.children[q];
+        }
+        if (quadrant.dx == null) {
+            return false;
+        }
+        final double cellSize = qSize / CELLS;
+        final double fx = (x - qWest) / cellSize;
+        final double fy = (y - qSouth) / cellSize;
+        xy[offset] = x + lookup(quadrant.dx, fx, fy);
+        xy[offset + 1] = y + lookup(quadrant.dy, fx, fy);
+        return true;
+    }
+
+    /**
+     * Interpolates a value in a raster.
+     *
+     * @param v The values of the raster nodes.
+     * @param fx Horizontal position in cells between 0 and CELLS.
+     * @param fy Vertical position in cells between 0 and CELLS.
+     * @return The interpolated value.
+     */
+    private double lookup(double[] v, double fx, double fy) {
+        final int c = Math.max(0, Math.min((int) fx, CELLS - 1));
+        final int r = Math.max(0, Math.min((int) fy, CELLS - 1));
+        final double tx = fx - c;
+        final double ty = fy - r;
+        if (lookup == Lookup.BILINEAR) {
+            final int i = r * NODES + c;
+            final double v0 = v[i] + tx * (v[i + 1] - v[i]);
+            final double v1 = v[i + NODES] + tx * (v[i + NODES + 1] - v[i + NODES]);
+            return v0 + ty * (v1 - v0);
+        }
+
+        // Catmull-Rom spline, with nodes repeated along the border
+        final int c0 = Math.max(c - 1, 0);
+        final int c3 = Math.min(c + 2, CELLS);
+        final double wx0 = catmullRomWeight(-1, tx);
+        final double wx1 = catmullRomWeight(0, tx);
+        final double wx2 = catmullRomWeight(1, tx);
+        final double wx3 = catmullRomWeight(2, tx);
+        double sum = 0;
+        for (int k = -1; k <= 2; k++) {
+            final int row = Math.max(0, Math.min(CELLS, r + k)) * NODES;
+            final double p = wx0 * v[row + c0] + wx1 * v[row + c]
+                    + wx2 * v[row + c + 1] + wx3 * v[row + c3];
+            sum += p * catmullRomWeight(k, ty);
+        }
+        return sum;
+    }
+
+    /**
+     * Weight of the value at index k in {-1, 0, 1, 2} of a Catmull-Rom
+     * spline.
+     */
+    private static double catmullRomWeight(int k, double t) {
+        final double t2 = t * t;
+        final double t3 = t2 * t;
+        switch (k) {
+            case -1:
+                return 0.5 * (-t3 + 2 * t2 - t);
+            case 0:
+                return 0.5 * (3 * t3 - 5 * t2 + 2);
+            case 1:
+                return 0.5 * (-3 * t3 + 4 * t2 + t);
+            default:
+                return 0.5 * (t3 - t2);
+        }
+    }
+}
@@ -1,18 +1,27 @@
 package ika.mapanalyst;
 
+import ika.geo.GeoObject;
 import ika.geo.GeoPath;
 import ika.geo.GeoSet;
 import ika.geo.GeoText;
 import ika.geo.VectorSymbol;
 import ika.geo.osm.OpenStreetMap;
+import ika.utils.ConvexPolygonClipper;
 import ika.utils.CoordinateFormatter;
 import ika.utils.Median;
+import ika.utils.PointIndex;
+import ika.utils.PreparedPolygon;
 import java.awt.Color;
 import java.awt.geom.Rectangle2D;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * DistortionGrid.java
@@ -59,11 +68,27 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
     private int clipWithHull;
     private double[][] oldClipPolygon;
     private double[][] newClipPolygon;
+    /**
+     * custom clip polygons with edge indices, built when first needed
+     */
+    private transient PreparedPolygon preparedOldClipPolygon;
+    private transient PreparedPolygon preparedNewClipPolygon;
+    /**
+     * transformed grid nodes for quickly changing the mesh size
+     */
+    private transient GridNodeCache gridNodeCache;
     // the minium and maximum number of lines that the grid can contain in
     // one direction.
     private final static int MIN_NODES = 4;
     private final static int MAX_NODES = 1000;
     private final static int DEF_NODES = 15;
+
+    /**
+     * Buffer for lines clipped with a convex polygon, one for each thread.
+     */
+    private static final ThreadLocal<ConvexPolygonClipper.Lines> CLIPPED_LINES
+            = ThreadLocal.withInitial(ConvexPolygonClipper.Lines::new);
+
     /**
      * text size of coordinate labels
      */
@@ -154,6 +179,9 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
         public double west;
         public double south;
         public double meshSize;
+        // number of cells between the origin and the west and south border
+        public int cellsLeft;
+        public int cellsBottom;
 
         public Grid(Rectangle2D ptsExtension, double meshSize) throws MapAnalyzerException {
 
@@ -284,7 +312,7 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
 
             // numbers of cells left of 0
             // use floor and not rounding for negative values
-            int cellsLeft = (int) Math.floor((extension.getMinX()) / meshSize);
+            this.cellsLeft = (int) Math.floor((extension.getMinX()) / meshSize);
             // number of cells right of 0
             int cellsRight = (int) Math.ceil((extension.getMaxX()) / meshSize);
             // number of nodes is 1 larger than number of cells
@@ -293,7 +321,7 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
             // apply offset of grid
             this.west = cellsLeft * meshSize + getScaledOffsetX();
 
-            int cellsBottom = (int) Math.floor((extension.getMinY()) / meshSize);
+            this.cellsBottom = (int) Math.floor((extension.getMinY()) / meshSize);
             int cellsTop = (int) Math.ceil((extension.getMaxY()) / meshSize);
             this.numberNodesY = cellsTop - cellsBottom + 1;
             this.south = cellsBottom * meshSize + getScaledOffsetY();
@@ -319,7 +347,7 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
     @Override
     public void analyzeMap() throws MapAnalyzerException {
 
-        final MultiquadricInterpolation multiQuad = params.getMultiquadricInterpolation();
+        final RadialBasisFunctionInterpolation multiQuad = params.getInterpolation();
         if (multiQuad == null) {
             throw new MapAnalyzerException("Undefined Interpolation", this);
         }
@@ -404,31 +432,44 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
             grid = new Grid(params.getSrcPointsExtension(), scaledMeshSize);
         }
 
-        // get the convex hulls around the two point sets
-        double[][] srcHull;
-        double[][] dstHull;
+        // get the convex hulls around the two point sets, which are clipped
+        // with a faster algorithm than custom polygons. Hulls with fewer than
+        // 3 vertices, for example around collinear or identical points, are
+        // clipped as custom polygons.
+        ConvexPolygonClipper srcConvexHull = null;
+        ConvexPolygonClipper dstConvexHull = null;
+        PreparedPolygon srcClipPolygon = null;
+        PreparedPolygon dstClipPolygon = null;
         switch (clipWithHull) {
             case 1: //1: clip with convex hull
-                dstHull = params.getDstPointsHull();
-                srcHull = params.getSrcPointsHull();
+                double[][] dstHull = params.getDstPointsHull();
+                double[][] srcHull = params.getSrcPointsHull();
+                if (dstHull != null && dstHull.length >= 3) {
+                    dstConvexHull = new ConvexPolygonClipper(dstHull);
+                } else if (dstHull != null && dstHull.length > 0) {
+                    dstClipPolygon = new PreparedPolygon(dstHull);
+                }
+                if (srcHull != null && srcHull.length >= 3) {
+                    srcConvexHull = new ConvexPolygonClipper(srcHull);
+                } else if (srcHull != null && srcHull.length > 0) {
+                    srcClipPolygon = new PreparedPolygon(srcHull);
+                }
                 break;
             case 2: // 2: clip with custom polygon
                 if (params.isAnalyzeOldMap()) {
-                    srcHull = null;
-                    dstHull = oldClipPolygon;
+                    dstClipPolygon = getPreparedOldClipPolygon();
                 } else {
-                    srcHull = null;
-                    dstHull = newClipPolygon;
+                    dstClipPolygon = getPreparedNewClipPolygon();
                 }
                 break;
             default: // 0: no clipping
-                srcHull = null;
-                dstHull = null;
+                break;
         }
 
         // reference distance for uncertainty visualisation
         // use upper quartile of distances to closest neighbors of points in the destination map
-        double uncertaintyRefDistance = quantileDistanceToClosestPoint(params.getDstPoints(), uncertaintyQuantile);
+        double uncertaintyRefDistance = quantileDistanceToClosestPoint(params.getDstPoints(),
+                params.getDstPointsIndex(), uncertaintyQuantile);
 
         // the uncertainty reference distance is at least as long as the size of a grid mesh
         double s = getScaledMeshSize();
@@ -442,20 +483,22 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
         createVerticalLinesFromGrid(
                 grid,
                 sourceGeoSet,
-                srcHull,
+                srcClipPolygon,
+                srcConvexHull,
                 !params.isAnalyzeOldMap(),
                 false,
                 uncertaintyRefDistance);
         createHorizontalLinesFromGrid(
                 grid,
                 sourceGeoSet,
-                srcHull,
+                srcClipPolygon,
+                srcConvexHull,
                 !params.isAnalyzeOldMap(),
                 false,
                 uncertaintyRefDistance);
 
         // apply an affine transformation to the grid
-        params.getTransformation().transform(grid.grid);
+        params.getTransformation().transformParallel(grid.grid);
 
         // Create GeoPaths from the undistorted transformed grid and add them 
         // to the destination map if required.
@@ -463,32 +506,47 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
             createVerticalLinesFromGrid(
                     grid,
                     destGeoSet,
-                    dstHull,
+                    dstClipPolygon,
+                    dstConvexHull,
                     params.isAnalyzeOldMap(),
                     true,
                     uncertaintyRefDistance);
             createHorizontalLinesFromGrid(
                     grid, destGeoSet,
-                    dstHull,
+                    dstClipPolygon,
+                    dstConvexHull,
                     params.isAnalyzeOldMap(),
                     true,
                     uncertaintyRefDistance);
         }
 
-        // apply a multiquadric interpolation to the grid
-        multiQuad.transform(grid.grid);
+        // apply a multiquadric interpolation to the grid. Nodes of regular
+        // grids are cached, as the mesh size is often changed interactively.
+        if (isGeographicalGrid(params)) {
+            multiQuad.transformParallel(grid.grid);
+        } else {
+            if (gridNodeCache == null) {
+                gridNodeCache = new GridNodeCache();
+            }
+            gridNodeCache.transform(params, getExaggeration(), grid.meshSize,
+                    getScaledOffsetX(), getScaledOffsetY(),
+                    grid.cellsLeft, grid.cellsBottom,
+                    grid.numberNodesX, grid.numberNodesY, grid.grid);
+        }
 
         // Create GeoPaths from the distorted grid and add them to the destination map
         createVerticalLinesFromGrid(
                 grid,
                 destGeoSet,
-                dstHull,
+                dstClipPolygon,
+                dstConvexHull,
                 params.isAnalyzeOldMap(),
                 true,
                 uncertaintyRefDistance);
         createHorizontalLinesFromGrid(
                 grid, destGeoSet,
-                dstHull,
+                dstClipPolygon,
+                dstConvexHull,
                 params.isAnalyzeOldMap(),
                 true,
                 uncertaintyRefDistance);
@@ -499,25 +557,28 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
      * neighbor, and then computes the median of these distances.
      *
      * @param pts points
+     * @param index spatial index of pts
      * @param quantile quantile to compute, between 0 and 1
      * @return the median distance to the closest neighbor for all points in the
      * destination map.
      */
-    private static double quantileDistanceToClosestPoint(double[][] pts, double quantile) {
+    private static double quantileDistanceToClosestPoint(double[][] pts,
+            PointIndex index, double quantile) {
         // square distance to closest neighbor for each point
         double[] shortestDistSquared = new double[pts.length];
 
-        // find square distance to closest neighbor for each point
+        // find square distance to closest neighbor for each point. The two
+        // nearest points include the point itself.
+        int[] closest = new int[2];
+        double[] closestDistSq = new double[2];
         for (int i = 0; i < pts.length; i++) {
+            int n = index.kNearest(pts[i][0], pts[i][1], 2, closest, closestDistSq);
             shortestDistSquared[i] = Double.MAX_VALUE;
-            for (int j = 0; j < pts.length; j++) {
-                if (i == j) {
-                    continue;
+            for (int j = 0; j < n; j++) {
+                if (closest[j] != i) {
+                    shortestDistSquared[i] = closestDistSq[j];
+                    break;
                 }
-                double dx = pts[i][0] - pts[j][0];
-                double dy = pts[i][1] - pts[j][1];
-                double dsq = dx * dx + dy * dy;
-                shortestDistSquared[i] = Math.min(shortestDistSquared[i], dsq);
             }
         }
 
@@ -527,35 +588,35 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
     /**
      * Returns the distance to the closest point.
      *
-     * @param pts points to search closest point
+     * @param index spatial index of points to search closest point
      * @param xy position in destination map
+     * @param closest buffer for the index of the closest point
+     * @param closestDistSq buffer for the squared distance of the closest point
      * @return shortest distance
      */
-    private static double distanceToClosestPoint(double[][] pts, double x, double y) {
-        double shortestDistSq = Double.MAX_VALUE;
-
-        // find square distance to each point
-        for (double[] pt : pts) {
-            double dx = pt[0] - x;
-            double dy = pt[1] - y;
-            double dsq = dx * dx + dy * dy;
-            shortestDistSq = Math.min(shortestDistSq, dsq);
+    private static double distanceToClosestPoint(PointIndex index, double x, double y,
+            int[] closest, double[] closestDistSq) {
+        if (index.kNearest(x, y, 1, closest, closestDistSq) == 0) {
+            return Double.MAX_VALUE;
         }
-        return Math.sqrt(shortestDistSq);
+        return Math.sqrt(closestDistSq[0]);
     }
 
     /**
      * Returns the distance to the closest point of two point sets.
      *
-     * @param ptSet1 point set 1
-     * @param ptSet2 point set 2
+     * @param index1 spatial index of point set 1
+     * @param index2 spatial index of point set 2
      * @param xy position in destination map
+     * @param closest buffer for the index of the closest point
+     * @param closestDistSq buffer for the squared distance of the closest point
      * @return shortest distance
      */
-    private static double distanceToClosestPoint(double[][] ptSet1,
-            double[][] ptSet2, double x, double y) {
-        return Math.min(distanceToClosestPoint(ptSet1, x, y),
-                distanceToClosestPoint(ptSet2, x, y));
+    private static double distanceToClosestPoint(PointIndex index1,
+            PointIndex index2, double x, double y,
+            int[] closest, double[] closestDistSq) {
+        return Math.min(distanceToClosestPoint(index1, x, y, closest, closestDistSq),
+                distanceToClosestPoint(index2, x, y, closest, closestDistSq));
     }
 
     /**
@@ -618,10 +679,10 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
      * @param label text for the label
      * @param xy position
      * @param labelVerticalLine true if the label is for a vertical grid line
-     * @param geoSet the destination for the new GeoText
+     * @param geoObjects the destination for the new GeoText
      */
     private void addLabel(String label, double[] xy,
-            boolean labelVerticalLine, GeoSet geoSet) {
+            boolean labelVerticalLine, List<GeoObject> geoObjects) {
 
         double dx = 0;
         double dy = 0;
@@ -637,7 +698,7 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
         geoText.setCenterVer(!labelVerticalLine);
         geoText.setScaleInvariant(true);
         geoText.setSelectable(false);
-        geoSet.addGeoObject(geoText);
+        geoObjects.add(geoText);
     }
 
     /**
@@ -646,13 +707,13 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
      * @param pt1 start point of line
      * @param pt2 end point of line
      * @param labelStr the label
-     * @param geoSet destination for new GeoText
+     * @param geoObjects destination for new GeoText
      * @param gridInOldMap true if the grid is in the old map
      */
     private void addVerticalLabel(double[] pt1,
             double[] pt2,
             String labelStr,
-            GeoSet geoSet,
+            List<GeoObject> geoObjects,
             boolean gridInOldMap) {
 
         double[] xy = new double[2]; // label position
@@ -671,7 +732,7 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
             xy = params.getProjector().intermediate2OSM(xy);
         }
 
-        addLabel(labelStr, xy, true, geoSet);
+        addLabel(labelStr, xy, true, geoObjects);
     }
 
     /**
@@ -680,13 +741,13 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
      * @param pt1 start point of line
      * @param pt2 end point of line
      * @param labelStr the label
-     * @param geoSet destination for new GeoText
+     * @param geoObjects destination for new GeoText
      * @param gridInOldMap true if the grid is in the old map
      */
     private void addHorizontalLabel(double[] pt1,
             double[] pt2,
             String labelStr,
-            GeoSet geoSet,
+            List<GeoObject> geoObjects,
             boolean gridInOldMap) {
 
         double[] xy = new double[2]; // label position
@@ -705,14 +766,16 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
             xy = params.getProjector().intermediate2OSM(xy);
         }
 
-        addLabel(labelStr, xy, false, geoSet);
+        addLabel(labelStr, xy, false, geoObjects);
     }
 
     /**
      *
      * @param polyline
      * @param polygon
-     * @param geoSet
+     * @param convexPolygon if not null, the polyline is clipped with this
+     * convex polygon instead of polygon
+     * @param geoObjects
      * @param useBezier
      * @param gridInOldMap
      * @param gridInDestinationMap true if the grid is for the destination map,
@@ -725,8 +788,9 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
      * @return
      */
     private double[][] clipLine(double[][] polyline,
-            double[][] polygon,
-            GeoSet geoSet,
+            PreparedPolygon polygon,
+            ConvexPolygonClipper convexPolygon,
+            List<GeoObject> geoObjects,
             boolean useBezier,
             boolean gridInOldMap,
             boolean gridInDestinationMap,
@@ -734,8 +798,17 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
             double uncertaintyRefDistance) {
 
         // clip the polyline with the mask polygon
-        java.util.Vector lines = ika.utils.GeometryUtils.clipPolylineWithPolygon(
-                polyline, polygon);
+        List<double[][]> lines;
+        if (convexPolygon != null) {
+            ConvexPolygonClipper.Lines clippedLines = CLIPPED_LINES.get();
+            int nbrLines = convexPolygon.clip(polyline, polyline.length, clippedLines);
+            lines = new ArrayList<>(nbrLines);
+            for (int i = 0; i < nbrLines; i++) {
+                lines.add(clippedLines.toArray(i));
+            }
+        } else {
+            lines = polygon.clipPolyline(polyline);
+        }
 
         if (lines.size() < 1) {
             return null;
@@ -746,15 +819,15 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
             if (lines.get(i) == null) {
                 continue;
             }
-            double[][] line = (double[][]) lines.get(i);
-            addGridLine(line, geoSet, useBezier, gridInOldMap,
+            double[][] line = lines.get(i);
+            addGridLine(line, geoObjects, useBezier, gridInOldMap,
                     gridInDestinationMap, pathName, uncertaintyRefDistance);
         }
 
         // return the first and the last point of the clipped lines
-        double[][] firstLine = (double[][]) lines.get(0);
+        double[][] firstLine = lines.get(0);
         double[] firstPoint = firstLine[0];
-        double[][] lastLine = (double[][]) lines.get(lines.size() - 1);
+        double[][] lastLine = lines.get(lines.size() - 1);
         double[] lastPoint = lastLine[lastLine.length - 1];
         double[][] extremaPoints = new double[][]{firstPoint, lastPoint};
         return extremaPoints;
@@ -792,7 +865,7 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
      * uncertainty.
      *
      * @param line coordinates of the line
-     * @param geoSet destination line
+     * @param geoObjects destination for new lines
      * @param useBezier smoothed lines
      * @param gridInOldMap true if grid is for the old map
      * @param gridInDestinationMap true if the grid is for the destination map,
@@ -804,7 +877,7 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
      * the map with the distorted grid. If zero, uncertainty is not visualized.
      */
     private void addGridLine(double[][] line,
-            GeoSet geoSet,
+            List<GeoObject> geoObjects,
             boolean useBezier,
             boolean gridInOldMap,
             boolean gridInDestinationMap,
@@ -832,14 +905,18 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
 
             // if the grid is for an OSM map, the dst and transformed src points are 
             // in an intermediate coordinate system.
-            double[][] dstPoints = params.getDstPoints();
-            double[][] srcPointsTrans = params.getTransformedSourcePoints();
+            PointIndex dstPoints = params.getDstPointsIndex();
+            PointIndex srcPointsTrans = params.getTransformedSourcePointsIndex();
+            int[] closest = new int[1];
+            double[] closestDistSq = new double[1];
 
             int firstPoint = 0;
-            double d = distanceToClosestPoint(srcPointsTrans, dstPoints, line[firstPoint][0], line[firstPoint][1]);
+            double d = distanceToClosestPoint(srcPointsTrans, dstPoints,
+                    line[firstPoint][0], line[firstPoint][1], closest, closestDistSq);
             boolean uncertain = d > uncertaintyRefDistance;
             for (int i = 1; i < line.length; i++) {
-                d = distanceToClosestPoint(srcPointsTrans, dstPoints, line[i][0], line[i][1]);
+                d = distanceToClosestPoint(srcPointsTrans, dstPoints,
+                        line[i][0], line[i][1], closest, closestDistSq);
                 boolean nextIsUncertain = d > uncertaintyRefDistance;
                 if (uncertain != nextIsUncertain || i == line.length - 1) {
                     int nbrPts = i - firstPoint;
@@ -848,7 +925,7 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
                     }
                     if (nbrPts >= 2) {
                         GeoPath p = gridLineToGeoPath(line, firstPoint, nbrPts, useBezier, lineName);
-                        geoSet.addGeoObject(p);
+                        geoObjects.add(p);
                         if (uncertain) {
                             p.setVectorSymbol(uncertainVectorSymbol);
                         }
@@ -872,7 +949,7 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
             } else {
                 geoPath.straightLines(line, 0, line.length);
             }
-            geoSet.addGeoObject(geoPath);
+            geoObjects.add(geoPath);
         }
     }
 
@@ -882,7 +959,9 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
      * @param line coordinates of line
      * @param mask clip line with this mask polygon. If null, no clipping is
      * applied.
-     * @param geoSet destination for new line
+     * @param convexMask if not null, the line is clipped with this convex
+     * polygon instead of mask
+     * @param geoObjects destination for new line and label
      * @param useBezier if true, the new line is smooth
      * @param labelString label for the line
      * @param lineName name for the new GeoLine
@@ -896,8 +975,9 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
      * the map with the distorted grid. If zero, uncertainty is not visualized.
      */
     private void clipAndAddPath(double[][] line,
-            double[][] mask,
-            GeoSet geoSet,
+            PreparedPolygon mask,
+            ConvexPolygonClipper convexMask,
+            List<GeoObject> geoObjects,
             boolean useBezier,
             String labelString,
             String lineName,
@@ -907,28 +987,28 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
             double uncertaintyRefDistance) {
 
         // clip the line with the mask.
-        if (mask != null) {
-            double[][] extremaPoints = clipLine(line, mask, geoSet, useBezier,
+        if (mask != null || convexMask != null) {
+            double[][] extremaPoints = clipLine(line, mask, convexMask, geoObjects, useBezier,
                     gridInOldMap, gridInDestinationMap, lineName, uncertaintyRefDistance);
             if (labelString != null && extremaPoints != null) {
                 if (horizontalLabel) {
                     addHorizontalLabel(extremaPoints[0], extremaPoints[1],
-                            labelString, geoSet, gridInOldMap);
+                            labelString, geoObjects, gridInOldMap);
                 } else {
                     addVerticalLabel(extremaPoints[0], extremaPoints[1],
-                            labelString, geoSet, gridInOldMap);
+                            labelString, geoObjects, gridInOldMap);
                 }
             }
         } else { // no mask: add the whole line
-            addGridLine(line, geoSet, useBezier, gridInOldMap,
+            addGridLine(line, geoObjects, useBezier, gridInOldMap,
                     gridInDestinationMap, lineName, uncertaintyRefDistance);
             if (labelString != null) {
                 if (horizontalLabel) {
                     addHorizontalLabel(line[0], line[line.length - 1],
-                            labelString, geoSet, gridInOldMap);
+                            labelString, geoObjects, gridInOldMap);
                 } else {
                     addVerticalLabel(line[0], line[line.length - 1],
-                            labelString, geoSet, gridInOldMap);
+                            labelString, geoObjects, gridInOldMap);
                 }
             }
         }
@@ -982,6 +1062,8 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
      * @param grid grid geometry
      * @param geoSet destination for new grid lines
      * @param mask mask to clip grid lines with
+     * @param convexMask if not null, grid lines are clipped with this convex
+     * polygon instead of mask
      * @param gridInOldMap true if the gird is for the old map
      * @param gridInDestinationMap true if the grid is for the destination map,
      * which shows the distorted grid.
@@ -993,7 +1075,8 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
     private void createVerticalLinesFromGrid(
             Grid grid,
             GeoSet geoSet,
-            double[][] mask,
+            PreparedPolygon mask,
+            ConvexPolygonClipper convexMask,
             boolean gridInOldMap,
             boolean gridInDestinationMap,
             double uncertaintyRefDistance) {
@@ -1006,32 +1089,33 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
         // draw the distorted grid with interpolated bezier curves.
         boolean useBezier = (gridInOldMap == params.isAnalyzeOldMap());
 
-        double[][] line = new double[grid.numberNodesY][2];
-        for (int i = 0, lineID = 0; i < grid.grid.length; i += grid.numberNodesY, lineID++) {
-            int ptID = 0;
-            for (int y = i; y < i + grid.numberNodesY; y++) {
-                line[ptID][0] = grid.grid[y][0];
-                line[ptID][1] = grid.grid[y][1];
-                ++ptID;
-            }
-
-            // prepare label
+        // prepare labels. Formatters are not thread-safe.
+        final int nbrLines = grid.numberNodesX;
+        String[] lineNames = new String[nbrLines];
+        String[] labels = new String[nbrLines];
+        for (int lineID = 0; lineID < nbrLines; lineID++) {
             boolean placeLabel = this.labelSize > 0 && lineID % this.labelSequence == 0;
-            double labelVal = grid.verticalLabels[i / grid.numberNodesY];
+            double labelVal = grid.verticalLabels[lineID];
             labelVal += horizontalLabelOffset(params, grid);
-            String coordStr = coordinateFormatter.formatShort(labelVal);
-
-            String labelStr = null;
+            lineNames[lineID] = coordinateFormatter.formatShort(labelVal);
             if (placeLabel) {
-                labelStr = coordStr;
+                labels[lineID] = lineNames[lineID];
                 if (isGeographicalGrid(params)) {
-                    labelStr += "\u00B0";
+                    labels[lineID] += "\u00B0";
                 }
             }
-
-            clipAndAddPath(line, mask, geoSet, useBezier, labelStr, coordStr, false,
-                    gridInOldMap, gridInDestinationMap, uncertaintyRefDistance);
         }
+
+        addLines(nbrLines, lineID -> {
+            double[][] line = new double[grid.numberNodesY][2];
+            final int first = lineID * grid.numberNodesY;
+            for (int ptID = 0; ptID < grid.numberNodesY; ptID++) {
+                line[ptID][0] = grid.grid[first + ptID][0];
+                line[ptID][1] = grid.grid[first + ptID][1];
+            }
+            return line;
+        }, labels, lineNames, false, mask, convexMask, geoSet, useBezier,
+                gridInOldMap, gridInDestinationMap, uncertaintyRefDistance);
     }
 
     /**
@@ -1040,6 +1124,8 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
      * @param grid grid geometry
      * @param geoSet destination for new grid lines
      * @param mask mask to clip grid lines with
+     * @param convexMask if not null, grid lines are clipped with this convex
+     * polygon instead of mask
      * @param gridInOldMap true if the gird is for the old map
      * @param gridInDestinationMap true if the grid is for the destination map,
      * which shows the distorted grid.
@@ -1050,7 +1136,8 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
      */
     private void createHorizontalLinesFromGrid(
             Grid grid, GeoSet geoSet,
-            double[][] mask,
+            PreparedPolygon mask,
+            ConvexPolygonClipper convexMask,
             boolean gridInOldMap,
             boolean gridInDestinationMap,
             double uncertaintyRefDistance) {
@@ -1063,28 +1150,86 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
         // draw the distorted grid with interpolated bezier curves.
         boolean useBezier = (gridInOldMap == params.isAnalyzeOldMap());
 
-        double[][] line = new double[grid.numberNodesX][2];
-        for (int y = 0; y < grid.numberNodesY; y++) {
-            for (int x = 0; x < grid.numberNodesX; x++) {
-                int row = y + x * grid.numberNodesY;
-                line[x][0] = grid.grid[row][0];
-                line[x][1] = grid.grid[row][1];
-            }
-
+        // prepare labels. Formatters are not thread-safe.
+        final int nbrLines = grid.numberNodesY;
+        String[] lineNames = new String[nbrLines];
+        String[] labels = new String[nbrLines];
+        for (int y = 0; y < nbrLines; y++) {
             boolean placeLabel = this.labelSize > 0 && y % this.labelSequence == 0;
             double labelVal = grid.horizontalLabels[y];
             labelVal += verticalLabelOffset(params, grid);
-            String coordStr = coordinateFormatter.formatShort(labelVal);
-            String labelStr = null;
+            lineNames[y] = coordinateFormatter.formatShort(labelVal);
             if (placeLabel) {
-                labelStr = coordStr;
+                labels[y] = lineNames[y];
                 if (isGeographicalGrid(params)) {
-                    labelStr += "\u00B0";
+                    labels[y] += "\u00B0";
                 }
             }
+        }
 
-            clipAndAddPath(line, mask, geoSet, useBezier, labelStr, coordStr, true,
-                    gridInOldMap, gridInDestinationMap, uncertaintyRefDistance);
+        addLines(nbrLines, y -> {
+            double[][] line = new double[grid.numberNodesX][2];
+            for (int x = 0; x < grid.numberNodesX; x++) {
+                int row = y + x * grid.numberNodesY;
+                line[x][0] = grid.grid[row][0];
+                line[x][1] = grid.grid[row][1];
+            }
+            return line;
+        }, labels, lineNames, true, mask, convexMask, geoSet, useBezier,
+                gridInOldMap, gridInDestinationMap, uncertaintyRefDistance);
+    }
+
+    /**
+     * Clips grid lines, converts them to GeoPaths and places labels. Lines are
+     * processed in parallel, and the resulting GeoObjects are added to the
+     * GeoSet in the order of the lines.
+     *
+     * @param nbrLines number of lines
+     * @param lineFactory returns new coordinates of a line for a line ID
+     * @param labels labels for the lines; null elements for lines without label
+     * @param lineNames names for the new GeoPaths
+     * @param horizontalLabel true if the lines are horizontal
+     * @param mask clip lines with this mask polygon. If null, no clipping is
+     * applied.
+     * @param convexMask if not null, lines are clipped with this convex polygon
+     * instead of mask
+     * @param geoSet destination for new lines and labels
+     * @param useBezier if true, the new lines are smooth
+     * @param gridInOldMap true if grid is for the old map
+     * @param gridInDestinationMap true if the grid is for the destination map,
+     * which shows the distorted grid.
+     * @param uncertaintyRefDistance see clipAndAddPath
+     */
+    private void addLines(int nbrLines,
+            IntFunction<double[][]> lineFactory,
+            String[] labels,
+            String[] lineNames,
+            boolean horizontalLabel,
+            PreparedPolygon mask,
+            ConvexPolygonClipper convexMask,
+            GeoSet geoSet,
+            boolean useBezier,
+            boolean gridInOldMap,
+            boolean gridInDestinationMap,
+            double uncertaintyRefDistance) {
+
+        List<List<GeoObject>> geoObjectsPerLine = IntStream.range(0, nbrLines)
+                .parallel()
+                .mapToObj(lineID -> {
+                    List<GeoObject> geoObjects = new ArrayList<>();
+                    clipAndAddPath(lineFactory.apply(lineID), mask, convexMask, geoObjects,
+                            useBezier, labels[lineID], lineNames[lineID],
+                            horizontalLabel, gridInOldMap, gridInDestinationMap,
+                            uncertaintyRefDistance);
+                    return geoObjects;
+                })
+                .collect(Collectors.toList());
+
+        // add to the GeoSet in the calling thread
+        for (List<GeoObject> geoObjects : geoObjectsPerLine) {
+            for (GeoObject geoObject : geoObjects) {
+                geoSet.addGeoObject(geoObject);
+            }
         }
     }
 
@@ -1193,6 +1338,22 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
         return oldClipPolygon;
     }
 
+    /**
+     * Returns the custom clip polygon for the old map with an edge index.
+     *
+     * @return the prepared polygon, or null if there is no valid polygon
+     */
+    private PreparedPolygon getPreparedOldClipPolygon() {
+        if (oldClipPolygon == null || oldClipPolygon.length < 3) {
+            return null;
+        }
+        if (preparedOldClipPolygon == null
+                || preparedOldClipPolygon.getPolygon() != oldClipPolygon) {
+            preparedOldClipPolygon = new PreparedPolygon(oldClipPolygon);
+        }
+        return preparedOldClipPolygon;
+    }
+
     public boolean hasOldClipPolygon() {
         return this.oldClipPolygon != null;
     }
@@ -1205,6 +1366,22 @@ public class DistortionGrid extends MapAnalyzer implements Serializable {
         return newClipPolygon;
     }
 
+    /**
+     * Returns the custom clip polygon for the new map with an edge index.
+     *
+     * @return the prepared polygon, or null if there is no valid polygon
+     */
+    private PreparedPolygon getPreparedNewClipPolygon() {
+        if (newClipPolygon == null || newClipPolygon.length < 3) {
+            return null;
+        }
+        if (preparedNewClipPolygon == null
+                || preparedNewClipPolygon.getPolygon() != newClipPolygon) {
+            preparedNewClipPolygon = new PreparedPolygon(newClipPolygon);
+        }
+        return preparedNewClipPolygon;
+    }
+
     public boolean hasNewClipPolygon() {
         return this.newClipPolygon != null;
     }
@@ -20,6 +20,13 @@ public class GeometryTransformer extends MapAnalyzer implements java.io.Serializ
     private GeoSet oldSourceGeoSet;
     private GeoSet newSourceGeoSet;
     
+    /**
+     * Maximum error when the interpolation is approximated with a raster of
+     * displacements. If 0, the exact interpolation is computed for every
+     * vertex.
+     */
+    private double maxDisplacementError = 0;
+    
     /** Creates a new instance of GeometryTransformer */
     public GeometryTransformer() {
         this.oldSourceGeoSet = new GeoSet();
@@ -45,15 +52,21 @@ public class GeometryTransformer extends MapAnalyzer implements java.io.Serializ
             return;
         
         final Transformation transformation = params.getTransformation();
-        final MultiquadricInterpolation multiQuadra =
-                params.getMultiquadricInterpolation();
+        final RadialBasisFunctionInterpolation multiQuadra =
+                params.getInterpolation();
         GeoSet transformedGeoSet= transformation.transform(sourceGeoSet);
         if (transformation == null
                 || multiQuadra == null
                 || transformedGeoSet == null)
             return;
         
-        transformedGeoSet = multiQuadra.transform(transformedGeoSet);
+        RadialBasisFunctionInterpolation interpolation = multiQuadra;
+        java.awt.geom.Rectangle2D bounds = transformedGeoSet.getBounds2D();
+        if (maxDisplacementError > 0 && bounds != null) {
+            interpolation = new DisplacementField(multiQuadra, bounds,
+                    maxDisplacementError, DisplacementField.Lookup.BILINEAR);
+        }
+        transformedGeoSet = interpolation.transformParallel(transformedGeoSet);
         if (transformedGeoSet == null)
             return;
         
@@ -77,6 +90,31 @@ public class GeometryTransformer extends MapAnalyzer implements java.io.Serializ
             this.newSourceGeoSet.removeAllGeoObjects();
     }
     
+    /**
+     * Returns the maximum error when the interpolation is approximated with a
+     * raster of displacements.
+     *
+     * @return the maximum error, or 0 if the interpolation is not approximated
+     */
+    public double getMaxDisplacementError() {
+        return maxDisplacementError;
+    }
+
+    /**
+     * Sets the maximum error when the interpolation is approximated with a
+     * raster of displacements. The approximation is considerably faster for
+     * drawings with a large number of vertices.
+     *
+     * @param maxDisplacementError the maximum error in units of the map, or 0
+     * for computing the exact interpolation for every vertex.
+     */
+    public void setMaxDisplacementError(double maxDisplacementError) {
+        if (maxDisplacementError < 0 || Double.isNaN(maxDisplacementError)) {
+            throw new IllegalArgumentException("invalid maximum error");
+        }
+        this.maxDisplacementError = maxDisplacementError;
+    }
+    
     public GeoSet getOldSourceGeoSet() {
         return oldSourceGeoSet;
     }
@@ -0,0 +1,245 @@
+/*
+ * GridNodeCache.java
+ */
+package ika.mapanalyst;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+
+/**
+ * A cache for the nodes of a distortion grid transformed to the destination
+ * map. When only the mesh size of the grid changes, the nodes of a grid with a
+ * mesh size that is an integer multiple of the cached mesh size are taken from
+ * the cache instead of evaluating the interpolation for every node.
+ *
+ * The first grid is cached as it is. When the mesh size then changes, the
+ * nodes are computed for a finer base mesh, such that most following mesh
+ * sizes are multiples of the base mesh. The base mesh is a tenth of the mesh
+ * size if this results in a reasonable number of nodes. The cache is reset
+ * when the control points, the transformation, the interpolation, the
+ * exaggeration or the offset of the grid change.
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+final class GridNodeCache {
+
+    /**
+     * Candidate ratios between a mesh size and the base mesh size, largest
+     * first. With a ratio of 10, common mesh sizes such as 1000, 1500, 2500,
+     * 5000 and 7500 are all multiples of the base mesh size.
+     */
+    private static final int[] REFINEMENTS = {10, 5, 2};
+
+    /**
+     * Maximum number of nodes of the base mesh.
+     */
+    private static final int MAX_NODES = 256 * 256;
+
+    /**
+     * Relative tolerance for testing whether a mesh size is an integer multiple
+     * of the base mesh size.
+     */
+    private static final double MULTIPLE_TOLERANCE = 1e-9;
+
+    // the parameters the cached nodes were computed with
+    private double[][] srcPoints;
+    private double[][] dstPoints;
+    private double[][] transformedSourcePoints;
+    private boolean analyzeOldMap;
+    private Class<?> transformationClass;
+    private Class<?> interpolationClass;
+    private double exaggeration;
+
+    // the lattice of the cached nodes. Node (col, row) is at
+    // (col * meshSize + offsetX, row * meshSize + offsetY).
+    private double meshSize;
+    private double offsetX, offsetY;
+    private int firstCol, firstRow, nbrCols, nbrRows;
+
+    /**
+     * Transformed nodes, x and y alternating, columns first. Null if the cache
+     * is empty.
+     */
+    private double[] nodes;
+
+    GridNodeCache() {
+    }
+
+    /**
+     * Transforms the nodes of a grid with the interpolation. Cached nodes are
+     * used if possible.
+     *
+     * @param params the visualization parameters
+     * @param exaggeration exaggeration of the interpolation
+     * @param meshSize the mesh size of the grid
+     * @param offsetX horizontal offset of the grid
+     * @param offsetY vertical offset of the grid
+     * @param firstCol column of the western grid line. Node (col, row) of the
+     * untransformed grid is at (col * meshSize + offsetX, row * meshSize +
+     * offsetY).
+     * @param firstRow row of the southern grid line
+     * @param nbrCols number of vertical grid lines
+     * @param nbrRows number of horizontal grid lines
+     * @param grid the grid nodes with the affine transformation applied,
+     * columns first. The nodes are replaced by the transformed nodes.
+     */
+    void transform(VisualizationParameters params, double exaggeration,
+            double meshSize, double offsetX, double offsetY,
+            int firstCol, int firstRow, int nbrCols, int nbrRows, double[][] grid) {
+
+        final boolean sameParameters = nodes != null && isCachedFor(params, exaggeration)
+                && offsetX == this.offsetX && offsetY == this.offsetY;
+        if (sameParameters && copyFromCache(meshSize, firstCol, firstRow,
+                nbrCols, nbrRows, params, grid)) {
+            return;
+        }
+
+        params.getInterpolation().transformParallel(grid);
+
+        // if the mesh size has changed, compute a finer base mesh for
+        // following mesh sizes, otherwise cache this grid
+        if (!sameParameters
+                || !cacheBaseMesh(params, exaggeration, meshSize, offsetX, offsetY)) {
+            setParameters(params, exaggeration, meshSize, offsetX, offsetY);
+            setNodes(firstCol, firstRow, nbrCols, nbrRows, grid);
+        }
+    }
+
+    /**
+     * Returns whether the cached nodes were computed with the same control
+     * points, transformation and interpolation.
+     */
+    private boolean isCachedFor(VisualizationParameters params, double exaggeration) {
+        return analyzeOldMap == params.isAnalyzeOldMap()
+                && exaggeration == this.exaggeration
+                && transformationClass == params.getTransformation().getClass()
+                && interpolationClass == params.getInterpolation().getClass()
+                && Arrays.deepEquals(srcPoints, params.getSrcPoints())
+                && Arrays.deepEquals(dstPoints, params.getDstPoints())
+                && Arrays.deepEquals(transformedSourcePoints,
+                        params.getTransformedSourcePoints());
+    }
+
+    private void setParameters(VisualizationParameters params, double exaggeration,
+            double meshSize, double offsetX, double offsetY) {
+        srcPoints = copy(params.getSrcPoints());
+        dstPoints = copy(params.getDstPoints());
+        transformedSourcePoints = copy(params.getTransformedSourcePoints());
+        analyzeOldMap = params.isAnalyzeOldMap();
+        transformationClass = params.getTransformation().getClass();
+        interpolationClass = params.getInterpolation().getClass();
+        this.exaggeration = exaggeration;
+        this.meshSize = meshSize;
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+    }
+
+    /**
+     * Copies cached nodes to a grid if the mesh size is a multiple of the
+     * cached mesh size. Nodes outside of the cached lattice are transformed.
+     *
+     * @return true if the grid has been filled, false otherwise
+     */
+    private boolean copyFromCache(double meshSize, int firstCol, int firstRow,
+            int nbrCols, int nbrRows, VisualizationParameters params, double[][] grid) {
+        final double ratio = meshSize / this.meshSize;
+        final long k = Math.round(ratio);
+        if (k < 1 || Math.abs(ratio - k) > MULTIPLE_TOLERANCE * ratio) {
+            return false;
+        }
+
+        // copy cached nodes, and collect the nodes outside of the cache
+        int[] missing = new int[nbrCols * nbrRows];
+        int nbrMissing = 0;
+        for (int c = 0; c < nbrCols; c++) {
+            final long col = (firstCol + c) * k - this.firstCol;
+            for (int r = 0; r < nbrRows; r++) {
+                final long row = (firstRow + r) * k - this.firstRow;
+                final int i = c * nbrRows + r;
+                if (col < 0 || col >= this.nbrCols || row < 0 || row >= this.nbrRows) {
+                    missing[nbrMissing++] = i;
+                } else {
+                    final int j = (int) (col * this.nbrRows + row) * 2;
+                    grid[i][0] = nodes[j];
+                    grid[i][1] = nodes[j + 1];
+                }
+            }
+        }
+
+        // transform nodes along the border outside of the cache
+        if (nbrMissing > 0) {
+            double[][] missingNodes = new double[nbrMissing][];
+            for (int m = 0; m < nbrMissing; m++) {
+                missingNodes[m] = grid[missing[m]];
+            }
+            params.getInterpolation().transformParallel(missingNodes);
+        }
+        return true;
+    }
+
+    /**
+     * Computes and caches the nodes of a base mesh that is finer than a mesh
+     * size and covers the source points.
+     *
+     * @return false if the base mesh would have too many nodes
+     */
+    private boolean cacheBaseMesh(VisualizationParameters params, double exaggeration,
+            double meshSize, double offsetX, double offsetY) {
+        final Rectangle2D ext = params.getSrcPointsExtension();
+        for (int refinement : REFINEMENTS) {
+            final double baseMeshSize = meshSize / refinement;
+            final int col0 = (int) Math.floor(ext.getMinX() / baseMeshSize);
+            final int col1 = (int) Math.ceil(ext.getMaxX() / baseMeshSize);
+            final int row0 = (int) Math.floor(ext.getMinY() / baseMeshSize);
+            final int row1 = (int) Math.ceil(ext.getMaxY() / baseMeshSize);
+            final long cols = col1 - col0 + 1L;
+            final long rows = row1 - row0 + 1L;
+            if (cols * rows > MAX_NODES) {
+                continue;
+            }
+            double[][] base = new double[(int) (cols * rows)][2];
+            for (int c = 0; c < cols; c++) {
+                for (int r = 0; r < rows; r++) {
+                    double[] node = base[(int) (c * rows + r)];
+                    node[0] = (col0 + c) * baseMeshSize + offsetX;
+                    node[1] = (row0 + r) * baseMeshSize + offsetY;
+                }
+            }
+            params.getTransformation().transformParallel(base);
+            params.getInterpolation().transformParallel(base);
+
+            setParameters(params, exaggeration, baseMeshSize, offsetX, offsetY);
+            setNodes(col0, row0, (int) cols, (int) rows, base);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Stores transformed nodes and the lattice they belong to.
+     */
+    private void setNodes(int firstCol, int firstRow, int nbrCols, int nbrRows,
+            double[][] grid) {
+        this.firstCol = firstCol;
+        this.firstRow = firstRow;
+        this.nbrCols = nbrCols;
+        this.nbrRows = nbrRows;
+        nodes = new double[grid.length * 2];
+        for (int i = 0; i < grid.length; i++) {
+            nodes[i * 2] = grid[i][0];
+            nodes[i * 2 + 1] = grid[i][1];
+        }
+    }
+
+    private static double[][] copy(double[][] points) {
+        if (points == null) {
+            return null;
+        }
+        double[][] copy = new double[points.length][];
+        for (int i = 0; i < points.length; i++) {
+            copy[i] = points[i].clone();
+        }
+        return copy;
+    }
+}
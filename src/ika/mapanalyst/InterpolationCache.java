@@ -0,0 +1,137 @@
+/*
+ * InterpolationCache.java
+ */
+package ika.mapanalyst;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * A cache for interpolations of the displacements between control points.
+ * Graphics are often regenerated without changing the control points, for
+ * example, when a symbol or the exaggeration of the distortion grid changes.
+ * The interpolation is then taken from the cache instead of solving a system
+ * of equations. The cached interpolations are computed with an exaggeration
+ * factor of 1; a different exaggeration only scales the coefficients.
+ *
+ * An entry is identified by a hash of the coordinates of the control points,
+ * the direction of the transformation (from the new map to the old map or
+ * vice versa), and the type of interpolation. The coordinates are compared
+ * when the hash matches.
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+final class InterpolationCache {
+
+    /**
+     * Maximum number of cached interpolations. Each transformation direction
+     * and each type of interpolation requires one entry.
+     */
+    private static final int MAX_ENTRIES = 4;
+
+    /**
+     * The cached interpolations, most recently used first.
+     */
+    private final LinkedList<Entry> entries = new LinkedList<>();
+
+    private static final class Entry {
+
+        private final int hash;
+        private final double[][] srcPoints;
+        private final double[][] dstPoints;
+        private final boolean visInOldMap;
+        private final boolean compactlySupported;
+        private final RadialBasisFunctionInterpolation interpolation;
+
+        private Entry(int hash, double[][] srcPoints, double[][] dstPoints,
+                boolean visInOldMap, boolean compactlySupported,
+                RadialBasisFunctionInterpolation interpolation) {
+            this.hash = hash;
+            this.srcPoints = srcPoints;
+            this.dstPoints = dstPoints;
+            this.visInOldMap = visInOldMap;
+            this.compactlySupported = compactlySupported;
+            this.interpolation = interpolation;
+        }
+    }
+
+    InterpolationCache() {
+    }
+
+    /**
+     * Returns a cached interpolation.
+     *
+     * @param srcPoints The control points transformed to the destination map.
+     * @param dstPoints The control points in the destination map.
+     * @param visInOldMap The direction of the transformation.
+     * @param compactlySupported The type of interpolation.
+     * @param exaggeration Exaggeration factor for the differences between
+     * source and destination points.
+     * @return The interpolation, or null if it is not in the cache.
+     */
+    RadialBasisFunctionInterpolation get(double[][] srcPoints, double[][] dstPoints,
+            boolean visInOldMap, boolean compactlySupported, double exaggeration) {
+        final int hash = hash(srcPoints, dstPoints);
+        Iterator<Entry> iterator = entries.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.hash == hash
+                    && entry.visInOldMap == visInOldMap
+                    && entry.compactlySupported == compactlySupported
+                    && Arrays.deepEquals(entry.srcPoints, srcPoints)
+                    && Arrays.deepEquals(entry.dstPoints, dstPoints)) {
+                iterator.remove();
+                entries.addFirst(entry);
+                return exaggerate(entry.interpolation, exaggeration);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds an interpolation to the cache, and removes the least recently used
+     * interpolation if the cache is full.
+     *
+     * @param srcPoints The control points transformed to the destination map.
+     * The points are copied.
+     * @param dstPoints The control points in the destination map. The points
+     * are copied.
+     * @param visInOldMap The direction of the transformation.
+     * @param compactlySupported The type of interpolation.
+     * @param interpolation The interpolation computed with an exaggeration
+     * factor of 1.
+     * @param exaggeration Exaggeration factor for the differences between
+     * source and destination points.
+     * @return The interpolation scaled by the exaggeration factor.
+     */
+    RadialBasisFunctionInterpolation put(double[][] srcPoints, double[][] dstPoints,
+            boolean visInOldMap, boolean compactlySupported,
+            RadialBasisFunctionInterpolation interpolation, double exaggeration) {
+        entries.addFirst(new Entry(hash(srcPoints, dstPoints), copy(srcPoints),
+                copy(dstPoints), visInOldMap, compactlySupported, interpolation));
+        while (entries.size() > MAX_ENTRIES) {
+            entries.removeLast();
+        }
+        return exaggerate(interpolation, exaggeration);
+    }
+
+    private static RadialBasisFunctionInterpolation exaggerate(
+            RadialBasisFunctionInterpolation interpolation, double exaggeration) {
+        return exaggeration == 1 ? interpolation
+                : interpolation.scaledCopy(exaggeration);
+    }
+
+    private static double[][] copy(double[][] points) {
+        double[][] copy = new double[points.length][];
+        for (int i = 0; i < points.length; i++) {
+            copy[i] = points[i].clone();
+        }
+        return copy;
+    }
+
+    private static int hash(double[][] srcPoints, double[][] dstPoints) {
+        return 31 * Arrays.deepHashCode(srcPoints) + Arrays.deepHashCode(dstPoints);
+    }
+}
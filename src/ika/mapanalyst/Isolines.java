@@ -7,8 +7,11 @@
 package ika.mapanalyst;
 
 import java.awt.geom.*;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import ika.transformation.*;
 import ika.geo.*;
+import ika.utils.PointIndex;
 import java.util.ArrayList;
 
 /**
@@ -19,7 +22,16 @@ public class Isolines extends MapAnalyzer {
 
     private static final long serialVersionUID = -8528113106597981486L;
 
-    private final static int GRID_SIZE = 80;
+    /**
+     * Default number of grid cells along the longer side of the grids.
+     */
+    public final static int DEFAULT_GRID_SIZE = 160;
+
+    /**
+     * Number of grid cells of documents created before the grid size could be
+     * changed.
+     */
+    private final static int LEGACY_GRID_SIZE = 80;
     private final static double WEIGHT_AT_MAX_DIST = 0.001;
 
     private VectorSymbol isoscalesVectorSymbol;
@@ -42,12 +54,20 @@ public class Isolines extends MapAnalyzer {
 
     private boolean analyzeOldMap;
 
-    private double[][] closeSrcPts, closeDstPts;
-    private TransformationWeightedHelmert transformation
-            = new TransformationWeightedHelmert();
+    /**
+     * Scratch buffers for computing scale and rotation, one per thread.
+     */
+    private static final ThreadLocal<Scratch> SCRATCH
+            = ThreadLocal.withInitial(Scratch::new);
 
     private double radiusOfInfluence = 10000;
 
+    /**
+     * Number of grid cells along the longer side of the scale and rotation
+     * grids.
+     */
+    private int gridSize = DEFAULT_GRID_SIZE;
+
     private final static double MIN_RADIUS_OF_INFLUENCE_PERC = 0.1;
     private final static double MAX_RADIUS_OF_INFLUENCE_PERC = 0.6;
 
@@ -66,6 +86,15 @@ public class Isolines extends MapAnalyzer {
         this.isorotationVectorSymbol.setScaleInvariant(true);
     }
 
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+
+        // older documents without gridSize used a fixed size
+        if (gridSize == 0) {
+            gridSize = LEGACY_GRID_SIZE;
+        }
+    }
+
     @Override
     public String getName() {
         return "Isolines";
@@ -98,7 +127,7 @@ public class Isolines extends MapAnalyzer {
             final double pointsWidth = ptsBounds.getWidth();
             final double pointsHeight = ptsBounds.getHeight();
             final double pointsMaxExtension = Math.max(pointsWidth, pointsHeight);
-            final double meshSize = pointsMaxExtension / Isolines.GRID_SIZE;
+            final double meshSize = pointsMaxExtension / this.gridSize;
             final int cols = (int) Math.round(pointsWidth / meshSize);
             final int rows = (int) Math.round(pointsHeight / meshSize);
             this.scaleGeoGrid = new GeoGrid(cols, rows, meshSize, Float.NaN);
@@ -125,36 +154,46 @@ public class Isolines extends MapAnalyzer {
             final float[][] rotGrid = rotationGeoGrid.getGrid();
             final double[][] srcPts = params.getSrcPoints();
             final double[][] dstPts = params.getDstPoints();
+            final PointIndex dstIndex = params.getDstPointsIndex();
             final double[][] dstHull = params.getDstPointsHull();
 
-            float[] scaleRot = new float[2];
-
-            // fill the two grids with scale and rotation values.
-            for (int r = 0; r < rows; r++) {
-                final double y = gridNorth - r * meshSize;
-                final float[] scaleGrid_row = scaleGrid[r];
-                final float[] rotGrid_row = rotGrid[r];
-                for (int c = 0; c < cols; c++) {
-                    final double x = gridWest + c * meshSize;
-
-                    // test if point is inside convex hull around points
-                    // could possibly be accelerated by first testing against bounding box!
-                    if (!ika.utils.GeometryUtils.pointInPolygon(x, y, dstHull)) {
-                        continue;
+            final boolean invertScale = this.analyzeOldMap;
+
+            // fill the two grids with scale and rotation values. Values are
+            // computed where isolines pass and interpolated elsewhere. Nodes
+            // are computed in parallel, each thread with its own scratch
+            // buffers.
+            if (dstHull != null && dstHull.length >= 3) {
+                // nodes inside the convex hull around points
+                final GridSpanMask mask = new GridSpanMask(dstHull, scaleGeoGrid);
+                AdaptiveGridSampler sampler = new AdaptiveGridSampler(
+                        new float[][][]{scaleGrid, rotGrid},
+                        new float[]{isoscaleInterval, isorotationInterval},
+                        new boolean[]{false, true});
+                sampler.sample(new AdaptiveGridSampler.Evaluator() {
+                    @Override
+                    public void evaluate(int c, int r, float[] values) {
+                        // test if point is inside convex hull around points
+                        if (!mask.contains(c, r)) {
+                            values[0] = values[1] = Float.NaN;
+                            return;
+                        }
+
+                        final double x = gridWest + c * meshSize;
+                        final double y = gridNorth - r * meshSize;
+                        final Scratch scratch = SCRATCH.get();
+                        final float[] scaleRot = scratch.scaleRot;
+                        computeScaleAndRotation(x, y, srcPts, dstPts, dstIndex,
+                                cutOffDistSqr, k, scratch, scaleRot);
+                        values[0] = invertScale ? 1.f / scaleRot[0] : scaleRot[0];
+                        values[1] = scaleRot[1];
                     }
 
-                    computeScaleAndRotation(x, y, srcPts, dstPts,
-                            cutOffDistSqr, k, scaleRot);
-
-                    // write scale and rotation to grids
-                    if (analyzeOldMap) {
-                        scaleGrid_row[c] = 1.f / scaleRot[0];
-                        rotGrid_row[c] = scaleRot[1];
-                    } else {
-                        scaleGrid_row[c] = scaleRot[0];
-                        rotGrid_row[c] = scaleRot[1];
+                    @Override
+                    public boolean mayHaveValues(int c0, int r0, int c1, int r1) {
+                        return mask.intersects(c0, r0, c1, r1);
                     }
-                }
+                });
             }
 
             /*            long end = timer.nanoTime();
@@ -221,53 +260,105 @@ public class Isolines extends MapAnalyzer {
         }
     }
 
+    /**
+     * Computes the local scale and rotation at a point.
+     *
+     * @param x horizontal coordinate of the point
+     * @param y vertical coordinate of the point
+     * @param srcPts control points in the other map
+     * @param dstPts control points in the map containing x/y
+     * @param mapScale scale factor applied to the radius of influence
+     * @param scaleRot receives the scale factor and the rotation in degrees
+     */
     public void computeScaleAndRotation(double x, double y,
-            double[][] srcPts, double[][] dstPts, Rectangle2D ptsBounds,
-            double mapScale, float[] scaleRot) {
+            double[][] srcPts, double[][] dstPts, double mapScale,
+            float[] scaleRot) {
+        WeightedHelmertAccumulator helmert = new WeightedHelmertAccumulator();
+        computeScaleAndRotation(x, y, srcPts, dstPts, mapScale, helmert);
+        helmert.getScaleAndRotation(scaleRot);
+    }
+
+    /**
+     * Fits a weighted Helmert transformation to the control points around a
+     * point. Points closer than the radius of influence are weighted with a
+     * Gaussian function of their distance. The accumulator also provides the
+     * standard deviations of scale and rotation.
+     *
+     * @param x horizontal coordinate of the point
+     * @param y vertical coordinate of the point
+     * @param srcPts control points in the other map
+     * @param dstPts control points in the map containing x/y
+     * @param mapScale scale factor applied to the radius of influence
+     * @param helmert receives the weighted pairs of points. Previous content is
+     * removed.
+     */
+    public void computeScaleAndRotation(double x, double y,
+            double[][] srcPts, double[][] dstPts, double mapScale,
+            WeightedHelmertAccumulator helmert) {
 
         // compute parameters for selecting points
         final double r = this.radiusOfInfluence / mapScale;
         final double cutOffDistSqr = r * r;
         final double k = -Math.log(Isolines.WEIGHT_AT_MAX_DIST) / cutOffDistSqr;
 
-        // compute scale and rotation for point x/y
-        this.computeScaleAndRotation(x, y, srcPts, dstPts, cutOffDistSqr, k, scaleRot);
-    }
-
-    private final void computeScaleAndRotation(double x, double y,
-            double[][] srcPts, double[][] dstPts, double cutOffDistSqr, double k,
-            float[] scaleRot) {
-
-        // prepare space for points. These arrays must be large enough to hold
-        // all available points.
-        if (this.closeSrcPts == null
-                || this.closeSrcPts.length != srcPts.length) {
-            this.closeSrcPts = new double[srcPts.length][3];
-            this.closeDstPts = new double[srcPts.length][2];
-        }
-
-        int nbrPts = 0;
-        for (int i = 0; i < srcPts.length; ++i) {
-            double[] dstPts_row = dstPts[i];
-            final double dx = x - dstPts_row[0];
-            final double dy = y - dstPts_row[1];
+        // a single point does not justify building a spatial index
+        helmert.reset();
+        for (int i = 0; i < dstPts.length; i++) {
+            final double dx = dstPts[i][0] - x;
+            final double dy = dstPts[i][1] - y;
             final double distSqr = dx * dx + dy * dy;
             if (distSqr < cutOffDistSqr) {
-                this.closeDstPts[nbrPts][0] = dstPts[i][0];
-                this.closeDstPts[nbrPts][1] = dstPts[i][1];
-                this.closeSrcPts[nbrPts][0] = srcPts[i][0];
-                this.closeSrcPts[nbrPts][1] = srcPts[i][1];
-                this.closeSrcPts[nbrPts][2] = Math.exp(-k * distSqr);
-                nbrPts++;
+                helmert.add(srcPts[i][0], srcPts[i][1], dstPts[i][0], dstPts[i][1],
+                        Math.exp(-k * distSqr));
             }
         }
+    }
 
-        if (nbrPts < 2) {
-            scaleRot[0] = scaleRot[1] = Float.NaN;
-            return;
+    private static void computeScaleAndRotation(double x, double y,
+            double[][] srcPts, double[][] dstPts, PointIndex dstIndex,
+            double cutOffDistSqr, double k, Scratch scratch, float[] scaleRot) {
+
+        scratch.ensureCapacity(srcPts.length);
+        final int[] closeIndices = scratch.closeIndices;
+        final double[] closeDistSqr = scratch.closeDistSqr;
+        final WeightedHelmertAccumulator helmert = scratch.helmert;
+        helmert.reset();
+
+        // only visit points in the grid cells of the index around x/y
+        final int nbrCandidates = dstIndex.withinRadius(x, y,
+                Math.sqrt(cutOffDistSqr), closeIndices, closeDistSqr);
+        for (int j = 0; j < nbrCandidates; ++j) {
+            final int i = closeIndices[j];
+            final double distSqr = closeDistSqr[j];
+            if (distSqr < cutOffDistSqr) {
+                helmert.add(srcPts[i][0], srcPts[i][1], dstPts[i][0], dstPts[i][1],
+                        Math.exp(-k * distSqr));
+            }
         }
+        helmert.getScaleAndRotation(scaleRot);
+    }
 
-        this.transformation.initWithPoints(closeDstPts, closeSrcPts, nbrPts, scaleRot);
+    /**
+     * Buffers for the points around a grid node and the transformation fitted
+     * to them. Each thread uses its own instance.
+     */
+    private static final class Scratch {
+
+        private int[] closeIndices;
+        private double[] closeDistSqr;
+        private final float[] scaleRot = new float[2];
+        private final WeightedHelmertAccumulator helmert
+                = new WeightedHelmertAccumulator();
+
+        /**
+         * Makes sure the buffers can hold a number of points.
+         */
+        private void ensureCapacity(int nbrPts) {
+            if (closeIndices == null || closeIndices.length < nbrPts) {
+                closeIndices = new int[nbrPts];
+                closeDistSqr = new double[nbrPts];
+            }
+        }
     }
 
     public VectorSymbol getIsoscalesVectorSymbol() {
@@ -363,6 +454,32 @@ public class Isolines extends MapAnalyzer {
         return new float[]{scale, rot};
     }
 
+    /**
+     * Returns the number of grid cells along the longer side of the scale and
+     * rotation grids.
+     *
+     * @return the number of cells
+     */
+    public int getGridSize() {
+        return gridSize;
+    }
+
+    /**
+     * Sets the number of grid cells along the longer side of the scale and
+     * rotation grids. Larger grids result in smoother isolines. Only nodes
+     * close to isolines are computed, so that the computation time grows
+     * approximately linearly with the grid size. The grid size is not shown in
+     * the user interface.
+     *
+     * @param gridSize the number of cells, at least 2
+     */
+    public void setGridSize(int gridSize) {
+        if (gridSize < 2) {
+            throw new IllegalArgumentException("invalid grid size");
+        }
+        this.gridSize = gridSize;
+    }
+
     public double getRadiusOfInfluence() {
         return radiusOfInfluence;
     }
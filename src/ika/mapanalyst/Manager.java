@@ -1,6 +1,8 @@
 package ika.mapanalyst;
 
 import au.monash.fit.mapanalyst.warp.ImageWarper;
+import au.monash.fit.mapanalyst.warp.ProgressiveImageWarper;
+import au.monash.fit.mapanalyst.warp.Resampling;
 import com.jhlabs.map.Ellipsoid;
 import com.jhlabs.map.proj.Projection;
 import com.jhlabs.map.proj.TCEAProjection;
@@ -48,6 +50,52 @@ public final class Manager implements Serializable {
     private transient Projection projection = new TCEAProjection(); // FIXME transient
     private transient boolean automaticCentralLongitude = true; // FIXME transient
 
+    /**
+     * Solver for the multiquadric interpolation, which is retained between
+     * computations to update the solution when a single point changes.
+     */
+    private transient MultiquadricSolver multiquadricSolver;
+
+    /**
+     * For more control points, the coefficients of the multiquadric
+     * interpolation are computed with an iterative solver, because the
+     * distance matrix would require too much memory.
+     */
+    private static final int MAX_POINTS_FOR_DIRECT_SOLVER = 10000;
+
+    /**
+     * If true, displacements are interpolated with a compactly supported
+     * radial basis function instead of the multiquadric function.
+     */
+    private boolean compactlySupportedInterpolation = false;
+
+    /**
+     * Interpolations of recently used sets of control points, which are reused
+     * when graphics are regenerated without changing control points.
+     */
+    private transient InterpolationCache interpolationCache;
+
+    /**
+     * The progressive warp of the old map, or null.
+     */
+    private transient ProgressiveImageWarper progressiveWarper;
+
+    /**
+     * Incremented for each new or cancelled progressive warp. Warped images of
+     * older warps are discarded.
+     */
+    private transient int warpGeneration = 0;
+
+    /**
+     * The control points of the progressive warp.
+     */
+    private transient double[][][] warpControlPoints;
+
+    /**
+     * Cancels the progressive warp when control points change.
+     */
+    private transient GeoSetChangeListener warpCancellationListener;
+
     /**
      * Constructs a new manager.
      */
@@ -276,16 +324,34 @@ public final class Manager implements Serializable {
             getDistortionGrid().setMeshSizeScale(transformation.getScale());
         }
 
-        // initialize the multiquadric interpolation
-        MultiquadricInterpolation multiquadricInterpol;
+        // initialize the multiquadric or compactly supported interpolation
+        RadialBasisFunctionInterpolation interpol;
         try {
-            multiquadricInterpol = new MultiquadricInterpolation();
             double exaggeration = getDistortionGrid().getExaggeration();
-            multiquadricInterpol.solveCoefficients(transformedSourcePoints, dstPoints,
-                    exaggeration);
+            if (interpolationCache == null) {
+                interpolationCache = new InterpolationCache();
+            }
+            interpol = interpolationCache.get(transformedSourcePoints, dstPoints,
+                    visInOldMap, compactlySupportedInterpolation, exaggeration);
+            if (interpol == null) {
+                // coefficients are computed without exaggeration, which
+                // scales the coefficients linearly
+                if (compactlySupportedInterpolation) {
+                    WendlandInterpolation wendlandInterpol = new WendlandInterpolation();
+                    wendlandInterpol.solveCoefficients(transformedSourcePoints,
+                            dstPoints, 1);
+                    interpol = wendlandInterpol;
+                } else {
+                    interpol = multiquadricInterpolation(transformedSourcePoints,
+                            dstPoints, 1);
+                }
+                interpol = interpolationCache.put(transformedSourcePoints,
+                        dstPoints, visInOldMap, compactlySupportedInterpolation,
+                        interpol, exaggeration);
+            }
         } catch (Exception e) { // catch exception due to ill conditioned matrix.
             Logger.getLogger(Manager.class.getName()).log(Level.SEVERE, null, e);
-            multiquadricInterpol = null;
+            interpol = null;
             if (!GraphicsEnvironment.isHeadless()) {
                 String msg = "A system of linear equations cannot be solved. "
                         + "Some visualizations can therefore not be generated.";
@@ -319,13 +385,45 @@ public final class Manager implements Serializable {
                 newPointsHull,
                 transformedSourcePoints,
                 visInOldMap,
-                multiquadricInterpol,
+                interpol,
                 oldCoordinateFormatter, newCoordinateFormatter,
                 projector,
                 isUsingOpenStreetMap());
         return params;
     }
 
+    /**
+     * Computes the coefficients of a multiquadric interpolation. Large sets of
+     * points are solved iteratively, smaller sets with a direct solver that is
+     * retained to update the solution when a single point changes.
+     *
+     * @param srcPoints The control points transformed to the destination map.
+     * @param dstPoints The control points in the destination map.
+     * @param exaggeration Exaggeration factor for the differences between
+     * source and destination points.
+     * @return The interpolation.
+     */
+    private MultiquadricInterpolation multiquadricInterpolation(
+            double[][] srcPoints, double[][] dstPoints, double exaggeration) {
+        MultiquadricInterpolation multiquadricInterpol = new MultiquadricInterpolation();
+        if (dstPoints.length > MAX_POINTS_FOR_DIRECT_SOLVER) {
+            multiquadricSolver = null;
+            MultiquadricIterativeSolver solver = new MultiquadricIterativeSolver();
+            multiquadricInterpol.solveCoefficients(srcPoints, dstPoints,
+                    exaggeration, solver);
+            Logger.getLogger(Manager.class.getName()).log(
+                    solver.isConverged() ? Level.INFO : Level.WARNING,
+                    solver.getConvergenceReport());
+        } else {
+            if (multiquadricSolver == null) {
+                multiquadricSolver = new MultiquadricSolver();
+            }
+            multiquadricInterpol.solveCoefficients(srcPoints, dstPoints,
+                    exaggeration, multiquadricSolver);
+        }
+        return multiquadricInterpol;
+    }
+
     /**
      * Analyze the map and generate graphics visualizing the results.
      */
@@ -343,15 +441,74 @@ public final class Manager implements Serializable {
     }
 
     public void warpMap() {
+        warpMap(ImageWarper.DEFAULT_MAX_ERROR);
+    }
+
+    /**
+     * Warps the old map to the new map. A preview is first warped from a
+     * downsampled old map; finer versions are warped in a background thread
+     * and replace the new map when they are ready. The warp is cancelled when
+     * control points change or when this method is called again.
+     *
+     * @param tolerance Maximum error in pixels of the old map. The mapping
+     * between the two maps is exactly computed at the nodes of an adaptive
+     * mesh and interpolated between nodes. If 0, the exact mapping is computed
+     * for every pixel.
+     */
+    public void warpMap(double tolerance) {
+        cancelWarp();
         VisualizationParameters params = visParams(true, null, null);
-        
-        ImageWarper imageWarper = new ImageWarper(
+        warpControlPoints = linkManager.getLinkedPointsCopy(createProjector());
+        registerWarpCancellationListener();
+
+        final int generation = warpGeneration;
+        progressiveWarper = new ProgressiveImageWarper(
                 params.getTransformation(),
-                params.getMultiquadricInterpolation(),
+                params.getInterpolation(),
                 getOldMap(),
-                params.getSrcPoints());
-        GeoImage warpedGeoImage = imageWarper.warp();
-        setNewMap(warpedGeoImage);
+                params.getSrcPoints(),
+                tolerance, Resampling.BILINEAR,
+                warpedGeoImage -> javax.swing.SwingUtilities.invokeLater(() -> {
+                    if (generation == warpGeneration) {
+                        setNewMap(warpedGeoImage);
+                    }
+                }));
+        progressiveWarper.start();
+    }
+
+    /**
+     * Stops the progressive warp of the old map. Warped images that have not
+     * been displayed yet are discarded.
+     */
+    public void cancelWarp() {
+        warpGeneration++;
+        if (progressiveWarper != null) {
+            progressiveWarper.cancel();
+            progressiveWarper = null;
+        }
+    }
+
+    /**
+     * Registers a listener with the points of both maps that cancels the
+     * progressive warp when control points change.
+     */
+    private void registerWarpCancellationListener() {
+        if (warpCancellationListener == null) {
+            warpCancellationListener = geoSet -> {
+                if (progressiveWarper != null && !progressiveWarper.isDone()
+                        && !Arrays.deepEquals(warpControlPoints,
+                                linkManager.getLinkedPointsCopy(createProjector()))) {
+                    cancelWarp();
+                }
+            };
+        }
+        // remove first to avoid registering the listener twice
+        GeoSet oldPoints = linkManager.getOldPointsGeoSet();
+        GeoSet newPoints = linkManager.getNewPointsGeoSet();
+        oldPoints.removeGeoSetChangeListener(warpCancellationListener);
+        newPoints.removeGeoSetChangeListener(warpCancellationListener);
+        oldPoints.addGeoSetChangeListener(warpCancellationListener);
+        newPoints.addGeoSetChangeListener(warpCancellationListener);
     }
 
     private String getTransformationReport(Transformation transformation) {
@@ -512,6 +669,34 @@ public final class Manager implements Serializable {
                 mapComponent, false);
     }
 
+    /**
+     * Returns whether displacements are interpolated with a compactly
+     * supported radial basis function.
+     *
+     * @return true for the compactly supported function, false for the
+     * multiquadric function.
+     */
+    public boolean isCompactlySupportedInterpolation() {
+        return compactlySupportedInterpolation;
+    }
+
+    /**
+     * Sets whether displacements are interpolated with a compactly supported
+     * radial basis function. The compactly supported function is considerably
+     * faster for large numbers of control points, but the displacement is 0
+     * far from control points.
+     *
+     * This option is deliberately not exposed in the user interface, which
+     * only offers the multiquadric function, and is meant for scripts and
+     * experiments with very large numbers of control points.
+     *
+     * @param compactlySupportedInterpolation true for the compactly supported
+     * function, false for the multiquadric function.
+     */
+    public void setCompactlySupportedInterpolation(boolean compactlySupportedInterpolation) {
+        this.compactlySupportedInterpolation = compactlySupportedInterpolation;
+    }
+
     public boolean isShowInOldMap() {
         return this.showErrorInOldMap;
     }
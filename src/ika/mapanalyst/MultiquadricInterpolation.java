@@ -4,8 +4,6 @@
 package ika.mapanalyst;
 
 import Jama.*;
-import java.awt.geom.*;
-import ika.geo.*;
 
 /**
  * Multiquadric transformation defined by two sets of points. The two sets of
@@ -20,13 +18,46 @@ import ika.geo.*;
  *
  * @author Bernhard Jenny, Institute of Cartography, ETH Zurich.
  */
-public class MultiquadricInterpolation {
+public class MultiquadricInterpolation extends RadialBasisFunctionInterpolation {
 
+    /**
+     * Coefficients of the interpolation in x direction.
+     */
     private double[] aCoeffArray;
 
+    /**
+     * Coefficients of the interpolation in y direction.
+     */
     private double[] bCoeffArray;
 
-    private double[][] srcControlPoints;
+    /**
+     * Horizontal coordinates of the control points. The control points are
+     * stored in separate arrays for x and y (and not as an array of
+     * xy-arrays), such that the evaluation kernel traverses contiguous memory.
+     */
+    private double[] ctrlX;
+
+    /**
+     * Vertical coordinates of the control points.
+     */
+    private double[] ctrlY;
+
+    /**
+     * Minimum number of control points for using a tree code. For fewer
+     * points, the exact sum is faster to compute.
+     */
+    private static final int MIN_POINTS_FOR_TREE_CODE = 256;
+
+    /**
+     * Maximum error of transformed coordinates when a tree code is used for
+     * evaluating the interpolation. If 0, the exact sum is always computed.
+     */
+    private double treeCodeTolerance = 0;
+
+    /**
+     * Hierarchical evaluator, or null if the exact sum is computed.
+     */
+    private MultiquadricTreeCode treeCode;
 
     public MultiquadricInterpolation() {
     }
@@ -47,194 +78,311 @@ public class MultiquadricInterpolation {
             throw new IllegalArgumentException();
         }
 
-        this.srcControlPoints = srcPoints;
-
         int nbrPts = srcPoints.length;
+        setControlPoints(srcPoints);
 
         // differences between the two sets of points
-        double[][] u = new double[nbrPts][1];   // differences in x direction
-        double[][] w = new double[nbrPts][1];   // differences in y direction
+        double[] u = new double[nbrPts];   // differences in x direction
+        double[] w = new double[nbrPts];   // differences in y direction
         for (int i = 0; i < nbrPts; i++) {
-            u[i][0] = (dstPoints[i][0] - srcPoints[i][0]) * exaggerationFactor;
-            w[i][0] = (dstPoints[i][1] - srcPoints[i][1]) * exaggerationFactor;
+            u[i] = (dstPoints[i][0] - srcPoints[i][0]) * exaggerationFactor;
+            w[i] = (dstPoints[i][1] - srcPoints[i][1]) * exaggerationFactor;
         }
 
-        // Fill coefficient matrix D (see Beineke p. 30).
-        // Java automatically initializes arrays of doubles with 0.
-        // So there is no need to initialize the elements on the diagonal with 0.
-        double[][] D = new double[nbrPts][nbrPts];
+        // solve u = Da and w = Db for a and b, and store a and b
+        LDLTDecomposition decomposition = new LDLTDecomposition(
+                distanceMatrix(srcPoints), nbrPts);
+        decomposition.solve(u);
+        decomposition.solve(w);
+        this.aCoeffArray = u;
+        this.bCoeffArray = w;
 
-        // D is square and symmetric
-        for (int i = 0; i < nbrPts; i++) {
-            for (int j = i + 1; j < nbrPts; j++) {
-                final double dx = srcPoints[i][0] - srcPoints[j][0];
-                final double dy = srcPoints[i][1] - srcPoints[j][1];
-                D[i][j] = D[j][i] = Math.sqrt(dx * dx + dy * dy);
-            }
-        }
+        initTreeCode();
+    }
 
-        // solve u = Da and w = Db for a and b
-        LUDecomposition luDecomposition = new LUDecomposition(new Matrix(D));
-        Matrix mat_a = luDecomposition.solve(new Matrix(u));
-        Matrix mat_b = luDecomposition.solve(new Matrix(w));
+    /**
+     * Compute the coefficients for the multiquadric interpolation with a
+     * solver that updates the solution of a previous call when a single control
+     * point has been added, moved or removed.
+     *
+     * @param srcPoints The control point set of the start coordinate system.
+     * This set needs to be transformed to the destination coordinate system
+     * before calling this method.
+     * @param dstPoints The control points set of the destination coordinate
+     * system.
+     * @param exaggerationFactor Exaggeration factor for the differences
+     * between source and destination points.
+     * @param solver The solver, which retains its decomposition between calls.
+     */
+    public void solveCoefficients(double[][] srcPoints, double[][] dstPoints,
+            double exaggerationFactor, MultiquadricSolver solver) {
 
-        // store a and b
-        this.aCoeffArray = new double[nbrPts];
-        this.bCoeffArray = new double[nbrPts];
-        final double[][] a = mat_a.getArray();
-        final double[][] b = mat_b.getArray();
-        for (int i = 0; i < nbrPts; i++) {
-            this.aCoeffArray[i] = a[i][0];
-            this.bCoeffArray[i] = b[i][0];
+        if (srcPoints.length == 0 || srcPoints.length != dstPoints.length) {
+            throw new IllegalArgumentException();
         }
+
+        double[][] coef = solver.solve(srcPoints, dstPoints, exaggerationFactor);
+        setControlPoints(srcPoints);
+        this.aCoeffArray = coef[0];
+        this.bCoeffArray = coef[1];
+        initTreeCode();
     }
 
     /**
-     * Transforms a set of points.
+     * Compute the coefficients for the multiquadric interpolation with an
+     * iterative solver that does not store the distance matrix. This is
+     * intended for large sets of control points. The solver reports the
+     * convergence of the iterations.
      *
-     * @param points The points to be transformed as a an array[n] of
-     * xy-arrays[2]. points is changed, i.e. the old values are replaced by the
-     * new values.
+     * @param srcPoints The control point set of the start coordinate system.
+     * This set needs to be transformed to the destination coordinate system
+     * before calling this method.
+     * @param dstPoints The control points set of the destination coordinate
+     * system.
+     * @param exaggerationFactor Exaggeration factor for the differences
+     * between source and destination points.
+     * @param solver The iterative solver with tolerance and maximum number of
+     * iterations.
      */
-    public void transform(double[][] points) {
+    public void solveCoefficients(double[][] srcPoints, double[][] dstPoints,
+            double exaggerationFactor, MultiquadricIterativeSolver solver) {
 
-        final int nbrPts = points.length;
+        if (srcPoints.length == 0 || srcPoints.length != dstPoints.length) {
+            throw new IllegalArgumentException();
+        }
 
-        double corrX, corrY;
+        double[][] coef = solver.solve(srcPoints, dstPoints, exaggerationFactor);
+        setControlPoints(srcPoints);
+        this.aCoeffArray = coef[0];
+        this.bCoeffArray = coef[1];
+        initTreeCode();
+    }
 
-        // loop over all points
-        for (int i = 0; i < nbrPts; i++) {
-            corrX = corrY = 0;
+    @Override
+    public MultiquadricInterpolation scaledCopy(double factor) {
+        MultiquadricInterpolation copy = new MultiquadricInterpolation();
+        copy.ctrlX = ctrlX;
+        copy.ctrlY = ctrlY;
+        copy.aCoeffArray = scale(aCoeffArray, factor);
+        copy.bCoeffArray = scale(bCoeffArray, factor);
+        copy.treeCodeTolerance = treeCodeTolerance;
+        copy.initTreeCode();
+        return copy;
+    }
 
-            // for each point: compute the distance to each control point
-            for (int j = 0; j < this.aCoeffArray.length; j++) {
-                final double dx = points[i][0] - this.srcControlPoints[j][0];
-                final double dy = points[i][1] - this.srcControlPoints[j][1];
-                final double d = Math.sqrt(dx * dx + dy * dy);
+    /**
+     * Returns the control points. The multiquadric function is a cone, which
+     * is not differentiable at its center.
+     *
+     * @return The control points as an array of xy-arrays.
+     */
+    @Override
+    public double[][] getNonDifferentiablePoints() {
+        if (ctrlX == null) {
+            return null;
+        }
+        double[][] points = new double[ctrlX.length][];
+        for (int i = 0; i < ctrlX.length; i++) {
+            points[i] = new double[]{ctrlX[i], ctrlY[i]};
+        }
+        return points;
+    }
 
-                corrX += this.aCoeffArray[j] * d;
-                corrY += this.bCoeffArray[j] * d;
+    /**
+     * Fill coefficient matrix D (see Beineke p. 30). D is square and symmetric
+     * with 0 on the diagonal. Only the lower triangle is stored, packed by
+     * columns as required by LDLTDecomposition, which requires half the memory
+     * of a full matrix.
+     *
+     * @param points The control points.
+     * @return The packed lower triangle of D.
+     */
+    static double[] distanceMatrix(double[][] points) {
+        final int nbrPts = points.length;
+        double[] D = new double[LDLTDecomposition.packedLength(nbrPts)];
+        int idx = 0;
+        for (int j = 0; j < nbrPts; j++) {
+            final double xj = points[j][0];
+            final double yj = points[j][1];
+            // Java automatically initializes arrays of doubles with 0.
+            idx++;
+            for (int i = j + 1; i < nbrPts; i++) {
+                final double dx = points[i][0] - xj;
+                final double dy = points[i][1] - yj;
+                D[idx++] = Math.sqrt(dx * dx + dy * dy);
             }
-
-            points[i][0] += corrX;
-            points[i][1] += corrY;
         }
+        return D;
     }
 
     /**
-     * Transforms a set of points.
+     * Copies the control points to the internal arrays.
      *
-     * @param coords The points to be transformed as a an array of x-y pairs.
-     * This array is changed, i.e. the old values are replaced by the new
-     * values.
-     * @param nbrPts The number of xy pairs that will be transformed.
+     * @param srcPoints The control points.
      */
-    public void transform(double[] coords, int nbrPts) {
-        double corrX, corrY;
-        for (int i = 0; i < nbrPts; ++i) {
-            corrX = corrY = 0;
-
-            for (int j = 0; j < this.aCoeffArray.length; j++) {
-
-                // compute the distance to each control point
-                final double dx = coords[i * 2] - this.srcControlPoints[j][0];
-                final double dy = coords[i * 2 + 1] - this.srcControlPoints[j][1];
-                final double d = Math.sqrt(dx * dx + dy * dy);
+    private void setControlPoints(double[][] srcPoints) {
+        final int nbrPts = srcPoints.length;
+        this.ctrlX = new double[nbrPts];
+        this.ctrlY = new double[nbrPts];
+        for (int i = 0; i < nbrPts; i++) {
+            this.ctrlX[i] = srcPoints[i][0];
+            this.ctrlY[i] = srcPoints[i][1];
+        }
+    }
 
-                corrX += this.aCoeffArray[j] * d;
-                corrY += this.bCoeffArray[j] * d;
-            }
+    /**
+     * Returns the maximum error of transformed coordinates when the
+     * interpolation is evaluated with a tree code.
+     *
+     * @return the tolerance, or 0 if the exact sum is always computed.
+     */
+    public double getTreeCodeTolerance() {
+        return treeCodeTolerance;
+    }
 
-            coords[i * 2] += corrX;
-            coords[i * 2 + 1] += corrY;
+    /**
+     * Sets the maximum error of transformed coordinates. If the tolerance is
+     * larger than 0 and there is a large number of control points, the
+     * interpolation is evaluated with a tree code, which groups far-away
+     * control points. This accelerates the transformation of large numbers of
+     * points from O(points x control points) to O((points + control points)
+     * log control points). The tree code pays off for several thousand
+     * control points.
+     *
+     * This is an internal setting that is not exposed to users, and the
+     * application always computes the exact sum. The tolerance limits an
+     * estimate of the truncation error of the tree code, not a proven bound
+     * (see MultiquadricTreeCode), so the error can slightly exceed the
+     * tolerance. MultiquadricIterativeSolver uses the tree code for its
+     * matrix-vector products independently of this setting.
+     *
+     * @param tolerance maximum error in units of the destination coordinate
+     * system. If 0, the exact sum is always computed.
+     */
+    public void setTreeCodeTolerance(double tolerance) {
+        if (tolerance < 0 || Double.isNaN(tolerance)) {
+            throw new IllegalArgumentException("invalid tree code tolerance");
         }
+        this.treeCodeTolerance = tolerance;
+        initTreeCode();
     }
 
     /**
-     * Transforms a GeneralPath.
-     */
-    public GeneralPath transform(GeneralPath generalPath) {
-        java.awt.geom.PathIterator pi = generalPath.getPathIterator(null);
-        double[] coords = new double[6];
-        int segmentType;
-
-        GeneralPath newGeneralPath = new GeneralPath();
-        while (pi.isDone() == false) {
-            segmentType = pi.currentSegment(coords);
-            switch (segmentType) {
-                case java.awt.geom.PathIterator.SEG_CLOSE:
-                    newGeneralPath.closePath();
-                    break;
-                case java.awt.geom.PathIterator.SEG_LINETO:
-                    transform(coords, 1);
-                    newGeneralPath.lineTo((float) coords[0], (float) coords[1]);
-                    break;
-                case java.awt.geom.PathIterator.SEG_MOVETO:
-                    transform(coords, 1);
-                    newGeneralPath.moveTo((float) coords[0], (float) coords[1]);
-                    break;
-                case java.awt.geom.PathIterator.SEG_QUADTO:
-                    transform(coords, 2);
-                    newGeneralPath.quadTo((float) coords[0], (float) coords[1],
-                            (float) coords[2], (float) coords[3]);
-                    break;
-                case java.awt.geom.PathIterator.SEG_CUBICTO:
-                    transform(coords, 3);
-                    newGeneralPath.curveTo((float) coords[0], (float) coords[1],
-                            (float) coords[2], (float) coords[3],
-                            (float) coords[4], (float) coords[5]);
-                    break;
-                default:
-                    throw new IllegalArgumentException();
-            }
-            // move to next segment
-            pi.next();
+     * Builds the tree code if a tolerance is set and there is a sufficiently
+     * large number of control points.
+     */
+    private void initTreeCode() {
+        treeCode = null;
+        if (treeCodeTolerance <= 0 || aCoeffArray == null
+                || aCoeffArray.length < MIN_POINTS_FOR_TREE_CODE) {
+            return;
         }
-
-        return newGeneralPath;
+        final int nbrPts = aCoeffArray.length;
+        treeCode = new MultiquadricTreeCode(ctrlX, ctrlY, aCoeffArray, bCoeffArray,
+                nbrPts, treeCodeTolerance);
     }
 
-    public GeoPath transform(GeoPath geoPath) {
-        if (geoPath == null) {
-            throw new IllegalArgumentException();
+    /**
+     * Transforms a range of a set of points.
+     *
+     * @param points The points to be transformed as a an array[n] of
+     * xy-arrays[2]. points is changed, i.e. the old values are replaced by the
+     * new values.
+     * @param firstPt The first point to transform.
+     * @param nbrPts The number of points to transform.
+     */
+    @Override
+    protected void transform(double[][] points, int firstPt, int nbrPts) {
+
+        if (treeCode != null) {
+            treeCode.transform(points, firstPt, nbrPts);
+            return;
         }
 
-        GeoPath newGeoPath = new GeoPath();
-        newGeoPath.setPath(this.transform(geoPath.getPath()));
-        newGeoPath.setVectorSymbol(geoPath.getVectorSymbol().copy());
-        return newGeoPath;
+        final int endPt = firstPt + nbrPts;
+        for (int i = firstPt; i < endPt; i++) {
+            addCorrection(points[i], 0);
+        }
     }
 
-    public GeoPoint transform(GeoPoint geoPoint) {
-        if (geoPoint == null) {
-            throw new IllegalArgumentException();
+    /**
+     * Transforms a range of a set of points.
+     *
+     * @param coords The points to be transformed as a an array of x-y pairs.
+     * This array is changed, i.e. the old values are replaced by the new
+     * values.
+     * @param firstPt The first xy pair to transform.
+     * @param nbrPts The number of xy pairs that will be transformed.
+     */
+    @Override
+    protected void transform(double[] coords, int firstPt, int nbrPts) {
+        if (treeCode != null) {
+            treeCode.transform(coords, firstPt, nbrPts);
+            return;
         }
-        double point[] = {geoPoint.getX(), geoPoint.getY()};
-        this.transform(point, 1);
-        GeoPoint newGeoPoint = new GeoPoint(point[0], point[1]);
-        return newGeoPoint;
-    }
 
-    public GeoSet transform(GeoSet geoSet) {
-        if (geoSet == null) {
-            throw new IllegalArgumentException();
+        final int endPt = firstPt + nbrPts;
+        for (int i = firstPt; i < endPt; ++i) {
+            addCorrection(coords, i * 2);
         }
+    }
 
-        GeoSet newGeoSet = new GeoSet();
-        final int nbrGeoObjects = geoSet.getNumberOfChildren();
-        for (int i = 0; i < nbrGeoObjects; ++i) {
-            GeoObject geoObject = geoSet.getGeoObject(i);
-            GeoObject transformedGeoObj = null;
-            if (geoObject instanceof GeoSet) {
-                transformedGeoObj = this.transform((GeoSet) geoObject);
-            } else if (geoObject instanceof GeoPath) {
-                transformedGeoObj = this.transform((GeoPath) geoObject);
-            } else if (geoObject instanceof GeoPoint) {
-                transformedGeoObj = this.transform((GeoPoint) geoObject);
-            }
-            newGeoSet.addGeoObject(transformedGeoObj);
+    /**
+     * Evaluation kernel: computes the interpolated displacement for a single
+     * point by summing over all control points, and adds it to the point. The
+     * loop is unrolled by four with independent sums, which shortens the chain
+     * of dependent additions and lets the JIT compiler pipeline (and possibly
+     * vectorize) the square roots. No memory is allocated.
+     *
+     * @param xy Array containing the point.
+     * @param offset Position of the x coordinate in xy. The y coordinate is
+     * at offset + 1.
+     */
+    private void addCorrection(double[] xy, int offset) {
+        final double[] cx = this.ctrlX;
+        final double[] cy = this.ctrlY;
+        final double[] a = this.aCoeffArray;
+        final double[] b = this.bCoeffArray;
+        final int n = a.length;
+        final int n4 = n & ~3;
+        final double x = xy[offset];
+        final double y = xy[offset + 1];
+
+        double corrX0 = 0, corrX1 = 0, corrX2 = 0, corrX3 = 0;
+        double corrY0 = 0, corrY1 = 0, corrY2 = 0, corrY3 = 0;
+        int j = 0;
+        for (; j < n4; j += 4) {
+            final double dx0 = x - cx[j];
+            final double dy0 = y - cy[j];
+            final double dx1 = x - cx[j + 1];
+            final double dy1 = y - cy[j + 1];
+            final double dx2 = x - cx[j + 2];
+            final double dy2 = y - cy[j + 2];
+            final double dx3 = x - cx[j + 3];
+            final double dy3 = y - cy[j + 3];
+            final double d0 = Math.sqrt(dx0 * dx0 + dy0 * dy0);
+            final double d1 = Math.sqrt(dx1 * dx1 + dy1 * dy1);
+            final double d2 = Math.sqrt(dx2 * dx2 + dy2 * dy2);
+            final double d3 = Math.sqrt(dx3 * dx3 + dy3 * dy3);
+            corrX0 += a[j] * d0;
+            corrY0 += b[j] * d0;
+            corrX1 += a[j + 1] * d1;
+            corrY1 += b[j + 1] * d1;
+            corrX2 += a[j + 2] * d2;
+            corrY2 += b[j + 2] * d2;
+            corrX3 += a[j + 3] * d3;
+            corrY3 += b[j + 3] * d3;
+        }
+        for (; j < n; j++) {
+            final double dx = x - cx[j];
+            final double dy = y - cy[j];
+            final double d = Math.sqrt(dx * dx + dy * dy);
+            corrX0 += a[j] * d;
+            corrY0 += b[j] * d;
         }
-        return newGeoSet;
+
+        xy[offset] = x + ((corrX0 + corrX1) + (corrX2 + corrX3));
+        xy[offset + 1] = y + ((corrY0 + corrY1) + (corrY2 + corrY3));
     }
 
     /**
@@ -0,0 +1,583 @@
+/*
+ * MultiquadricIterativeSolver.java
+ */
+package ika.mapanalyst;
+
+import Jama.LUDecomposition;
+import Jama.Matrix;
+import ika.utils.PointIndex;
+import java.util.stream.IntStream;
+
+/**
+ * Solves the system of linear equations for the coefficients of a
+ * multiquadric interpolation with the iterative GMRES method, without storing
+ * the n x n distance matrix D. This allows for computing multiquadric
+ * interpolations for large sets of control points, for which D cannot be
+ * allocated.
+ *
+ * Products of D with a vector are computed on the fly, either exactly (in
+ * parallel) or approximately with a MultiquadricTreeCode for large point sets.
+ *
+ * GMRES is right-preconditioned with an approximate inverse of D that is
+ * computed from local neighbourhoods: for each control point, the
+ * multiquadric system for its nearest neighbours is solved for a unit value at
+ * the point and zero values at the neighbours. D times the resulting local
+ * approximate cardinal functions is close to the identity, and GMRES
+ * converges in a small number of iterations. The local systems are not
+ * augmented with polynomial conditions, because the approximate inverse would
+ * then be singular: the coefficients of every column would sum to zero, while
+ * the multiquadric interpolation has no polynomial part.
+ *
+ * See Beatson, R. K., Cherrie, J. B., and Mouat, C. T. (1999): Fast fitting of
+ * radial basis functions: Methods based on preconditioned GMRES iteration.
+ * Advances in Computational Mathematics, 11, 253-270.
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+public class MultiquadricIterativeSolver {
+
+    /**
+     * Default relative residual at which iterations stop.
+     */
+    public static final double DEFAULT_TOLERANCE = 1e-8;
+
+    /**
+     * Default maximum number of iterations.
+     */
+    public static final int DEFAULT_MAX_ITERATIONS = 500;
+
+    /**
+     * Number of iterations after which GMRES is restarted.
+     */
+    private static final int RESTART = 50;
+
+    /**
+     * Number of nearest neighbours for the local approximate inverse.
+     */
+    private static final int NBR_NEIGHBOURS = 30;
+
+    /**
+     * Minimum number of control points for computing matrix-vector products
+     * with a tree code.
+     */
+    private static final int MIN_POINTS_FOR_TREE_CODE = 5000;
+
+    /**
+     * Accuracy of tree code matrix-vector products relative to the requested
+     * tolerance.
+     */
+    private static final double TREE_CODE_ACCURACY = 1e-3;
+
+    /**
+     * Number of rows of a matrix-vector product computed by a single task.
+     */
+    private static final int PARALLEL_CHUNK_SIZE = 256;
+
+    /**
+     * Relative residual at which iterations stop.
+     */
+    private double tolerance = DEFAULT_TOLERANCE;
+
+    /**
+     * Maximum number of iterations.
+     */
+    private int maxIterations = DEFAULT_MAX_ITERATIONS;
+
+    /**
+     * If true, matrix-vector products are approximated with a tree code for
+     * large point sets.
+     */
+    private boolean useTreeCode = true;
+
+    /**
+     * Number of iterations of the last solve.
+     */
+    private int iterations;
+
+    /**
+     * Relative residual of the last solve, the larger of the two systems.
+     */
+    private double relativeResidual;
+
+    /**
+     * Control points of the current solve.
+     */
+    private double[] ctrlX, ctrlY;
+
+    /**
+     * Preconditioner: indices and values of the local approximate inverse.
+     * Column i of the preconditioner has NBR_NEIGHBOURS (or fewer) non-zero
+     * values at precIdx[i * k + l].
+     */
+    private int[] precIdx;
+    private double[] precVal;
+    private int precK;
+
+    public MultiquadricIterativeSolver() {
+    }
+
+    /**
+     * Returns the relative residual at which iterations stop.
+     *
+     * @return The tolerance.
+     */
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Sets the relative residual at which iterations stop.
+     *
+     * @param tolerance The tolerance, larger than 0 and smaller than 1.
+     */
+    public void setTolerance(double tolerance) {
+        if (!(tolerance > 0 && tolerance < 1)) {
+            throw new IllegalArgumentException("invalid tolerance " + tolerance);
+        }
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Returns the maximum number of iterations.
+     *
+     * @return The maximum number of iterations.
+     */
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    /**
+     * Sets the maximum number of iterations.
+     *
+     * @param maxIterations The maximum number of iterations, at least 1.
+     */
+    public void setMaxIterations(int maxIterations) {
+        if (maxIterations < 1) {
+            throw new IllegalArgumentException("invalid maximum number of iterations");
+        }
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * Returns whether matrix-vector products are approximated with a tree
+     * code for large point sets.
+     *
+     * @return true if a tree code is used.
+     */
+    public boolean isUseTreeCode() {
+        return useTreeCode;
+    }
+
+    /**
+     * Sets whether matrix-vector products are approximated with a tree code
+     * for large point sets.
+     *
+     * @param useTreeCode true if a tree code is to be used.
+     */
+    public void setUseTreeCode(boolean useTreeCode) {
+        this.useTreeCode = useTreeCode;
+    }
+
+    /**
+     * Returns the number of iterations of the last call to solve().
+     *
+     * @return The number of iterations.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Returns the relative residual ||f - D a|| / ||f|| of the last call to
+     * solve(), as estimated by GMRES. This is the larger residual of the
+     * systems for the x and the y direction.
+     *
+     * @return The relative residual.
+     */
+    public double getRelativeResidual() {
+        return relativeResidual;
+    }
+
+    /**
+     * Returns whether the last call to solve() reached the tolerance within
+     * the maximum number of iterations.
+     *
+     * @return true if the iterations converged.
+     */
+    public boolean isConverged() {
+        return relativeResidual <= tolerance;
+    }
+
+    /**
+     * Returns a description of the convergence of the last call to solve().
+     *
+     * @return A description for logging.
+     */
+    public String getConvergenceReport() {
+        return (isConverged() ? "GMRES converged" : "GMRES did not converge")
+                + " after " + iterations + " iterations, relative residual "
+                + relativeResidual + " (tolerance " + tolerance + ")";
+    }
+
+    /**
+     * Compute the coefficients for the multiquadric interpolation.
+     *
+     * @param srcPoints The control point set of the start coordinate system.
+     * This set needs to be transformed to the destination coordinate system
+     * before calling this method.
+     * @param dstPoints The control points set of the destination coordinate
+     * system.
+     * @param exaggerationFactor Exaggeration factor for the differences
+     * between source and destination points.
+     * @return The coefficients for the x and the y direction in an array[2][n].
+     */
+    public double[][] solve(double[][] srcPoints, double[][] dstPoints,
+            double exaggerationFactor) {
+
+        if (srcPoints.length == 0 || srcPoints.length != dstPoints.length) {
+            throw new IllegalArgumentException();
+        }
+
+        final int n = srcPoints.length;
+        ctrlX = new double[n];
+        ctrlY = new double[n];
+        double[][] f = new double[2][n];
+        for (int i = 0; i < n; i++) {
+            ctrlX[i] = srcPoints[i][0];
+            ctrlY[i] = srcPoints[i][1];
+            f[0][i] = (dstPoints[i][0] - srcPoints[i][0]) * exaggerationFactor;
+            f[1][i] = (dstPoints[i][1] - srcPoints[i][1]) * exaggerationFactor;
+        }
+
+        initPreconditioner();
+        double[][] coef = gmres(f);
+
+        // release memory
+        ctrlX = ctrlY = null;
+        precIdx = null;
+        precVal = null;
+        return coef;
+    }
+
+    /**
+     * Computes the local approximate inverse of D.
+     */
+    private void initPreconditioner() {
+        final int n = ctrlX.length;
+        final int k = Math.min(NBR_NEIGHBOURS, n);
+        final PointIndex index = new PointIndex(ctrlX, ctrlY);
+        precK = k;
+        precIdx = new int[n * k];
+        precVal = new double[n * k];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            int[] nb = new int[k];
+            double[] distSq = new double[k];
+            final int nbrNb = index.kNearest(ctrlX[i], ctrlY[i], k, nb, distSq);
+
+            // make sure point i is the first neighbour (with duplicate
+            // points, another point may be found first)
+            for (int l = 0; l < nbrNb; l++) {
+                if (nb[l] == i) {
+                    nb[l] = nb[0];
+                    nb[0] = i;
+                    break;
+                }
+            }
+
+            double[] lambda = localCardinalFunction(nb, nbrNb);
+            for (int l = 0; l < k; l++) {
+                precIdx[i * k + l] = nb[l];
+                precVal[i * k + l] = 0;
+            }
+            if (lambda == null) {
+                // identity column
+                precVal[i * k] = 1;
+            } else {
+                System.arraycopy(lambda, 0, precVal, i * k, nbrNb);
+            }
+        });
+    }
+
+    /**
+     * Solves the multiquadric system for a set of neighbouring points with a
+     * unit value at the first point and zero values at the other points.
+     *
+     * @param nb Indices of the points.
+     * @param nbrNb Number of points.
+     * @return The coefficients, or null if the system is singular.
+     */
+    private double[] localCardinalFunction(int[] nb, int nbrNb) {
+        double[][] A = new double[nbrNb][nbrNb];
+        for (int r = 0; r < nbrNb; r++) {
+            final double xr = ctrlX[nb[r]];
+            final double yr = ctrlY[nb[r]];
+            for (int c = r + 1; c < nbrNb; c++) {
+                final double dx = xr - ctrlX[nb[c]];
+                final double dy = yr - ctrlY[nb[c]];
+                A[r][c] = A[c][r] = Math.sqrt(dx * dx + dy * dy);
+            }
+        }
+        double[][] rhs = new double[nbrNb][1];
+        rhs[0][0] = 1;
+        LUDecomposition lu = new LUDecomposition(new Matrix(A));
+        if (!lu.isNonsingular()) {
+            return null;
+        }
+        double[] lambda = new double[nbrNb];
+        double[][] sol = lu.solve(new Matrix(rhs)).getArray();
+        for (int l = 0; l < nbrNb; l++) {
+            if (!Double.isFinite(sol[l][0])) {
+                return null;
+            }
+            lambda[l] = sol[l][0];
+        }
+        return lambda;
+    }
+
+    /**
+     * Multiplies the preconditioner with two vectors.
+     *
+     * @param y The two vectors.
+     * @return The products in a new array.
+     */
+    private double[][] precondition(double[][] y) {
+        final int n = ctrlX.length;
+        final int k = precK;
+        double[][] c = new double[2][n];
+        for (int i = 0; i < n; i++) {
+            final double y0 = y[0][i];
+            final double y1 = y[1][i];
+            for (int l = i * k; l < (i + 1) * k; l++) {
+                final int j = precIdx[l];
+                c[0][j] += precVal[l] * y0;
+                c[1][j] += precVal[l] * y1;
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Multiplies D with two vectors without storing D.
+     *
+     * @param c The two vectors.
+     * @return The products in a new array.
+     */
+    private double[][] multiply(double[][] c) {
+        final int n = ctrlX.length;
+        double[][] y = new double[2][n];
+
+        if (useTreeCode && n >= MIN_POINTS_FOR_TREE_CODE) {
+            // |D c| is bounded by the sum of |c| times the diameter of the
+            // point set
+            double sumAbs = 0;
+            for (int i = 0; i < n; i++) {
+                sumAbs += Math.abs(c[0][i]) + Math.abs(c[1][i]);
+            }
+            double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE;
+            double minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+            for (int i = 0; i < n; i++) {
+                minX = Math.min(minX, ctrlX[i]);
+                maxX = Math.max(maxX, ctrlX[i]);
+                minY = Math.min(minY, ctrlY[i]);
+                maxY = Math.max(maxY, ctrlY[i]);
+            }
+            final double diameter = Math.hypot(maxX - minX, maxY - minY);
+            final double tol = TREE_CODE_ACCURACY * tolerance * sumAbs * diameter;
+            if (tol > 0) {
+                MultiquadricTreeCode treeCode = new MultiquadricTreeCode(
+                        ctrlX, ctrlY, c[0], c[1], n, tol);
+                double[] coords = new double[n * 2];
+                for (int i = 0; i < n; i++) {
+                    coords[i * 2] = ctrlX[i];
+                    coords[i * 2 + 1] = ctrlY[i];
+                }
+                treeCode.transform(coords, 0, n);
+                for (int i = 0; i < n; i++) {
+                    y[0][i] = coords[i * 2] - ctrlX[i];
+                    y[1][i] = coords[i * 2 + 1] - ctrlY[i];
+                }
+                return y;
+            }
+        }
+
+        final int nbrChunks = (n + PARALLEL_CHUNK_SIZE - 1) / PARALLEL_CHUNK_SIZE;
+        IntStream.range(0, nbrChunks).parallel().forEach(chunk -> {
+            final int end = Math.min(n, (chunk + 1) * PARALLEL_CHUNK_SIZE);
+            for (int i = chunk * PARALLEL_CHUNK_SIZE; i < end; i++) {
+                final double x = ctrlX[i];
+                final double yi = ctrlY[i];
+                double s0 = 0, s1 = 0;
+                for (int j = 0; j < n; j++) {
+                    final double dx = x - ctrlX[j];
+                    final double dy = yi - ctrlY[j];
+                    final double d = Math.sqrt(dx * dx + dy * dy);
+                    s0 += d * c[0][j];
+                    s1 += d * c[1][j];
+                }
+                y[0][i] = s0;
+                y[1][i] = s1;
+            }
+        });
+        return y;
+    }
+
+    /**
+     * Restarted GMRES with right preconditioning for the two systems D a = u
+     * and D b = w. The two systems are iterated in lockstep, such that each
+     * iteration requires a single pass over all pairs of points.
+     *
+     * @param f The right-hand sides u and w.
+     * @return The solutions a and b.
+     */
+    private double[][] gmres(double[][] f) {
+        final int n = ctrlX.length;
+        final int m = Math.min(RESTART, n);
+        double[][] x = new double[2][n];
+        double[] fNorm = {norm(f[0]), norm(f[1])};
+        double[] res = new double[2];
+        iterations = 0;
+
+        // Arnoldi basis, Hessenberg matrix, Givens rotations and residual
+        // vector of each system
+        double[][][] V = new double[2][m + 1][];
+        double[][][] H = new double[2][m + 1][m];
+        double[][] cs = new double[2][m];
+        double[][] sn = new double[2][m];
+        double[][] g = new double[2][m + 1];
+
+        while (true) {
+            // r = f - D x
+            double[][] r = multiply(x);
+            for (int s = 0; s < 2; s++) {
+                for (int i = 0; i < n; i++) {
+                    r[s][i] = f[s][i] - r[s][i];
+                }
+            }
+
+            boolean[] active = new boolean[2];
+            for (int s = 0; s < 2; s++) {
+                final double beta = norm(r[s]);
+                res[s] = fNorm[s] == 0 ? 0 : beta / fNorm[s];
+                active[s] = res[s] > tolerance;
+                g[s] = new double[m + 1];
+                g[s][0] = beta;
+                V[s][0] = r[s];
+                if (beta > 0) {
+                    scale(V[s][0], 1 / beta);
+                }
+            }
+            if ((!active[0] && !active[1]) || iterations >= maxIterations) {
+                break;
+            }
+
+            // Arnoldi iterations
+            int[] dim = new int[2];
+            for (int j = 0; j < m && iterations < maxIterations; j++) {
+                if (!active[0] && !active[1]) {
+                    break;
+                }
+                iterations++;
+                double[][] v = new double[2][];
+                for (int s = 0; s < 2; s++) {
+                    v[s] = active[s] ? V[s][j] : new double[n];
+                }
+                double[][] w = multiply(precondition(v));
+                for (int s = 0; s < 2; s++) {
+                    if (!active[s]) {
+                        continue;
+                    }
+                    // modified Gram-Schmidt
+                    for (int i = 0; i <= j; i++) {
+                        final double h = dot(w[s], V[s][i]);
+                        H[s][i][j] = h;
+                        axpy(-h, V[s][i], w[s]);
+                    }
+                    final double h = norm(w[s]);
+                    H[s][j + 1][j] = h;
+                    V[s][j + 1] = w[s];
+                    if (h > 0) {
+                        scale(V[s][j + 1], 1 / h);
+                    }
+
+                    // apply previous Givens rotations and compute a new one
+                    for (int i = 0; i < j; i++) {
+                        final double t = cs[s][i] * H[s][i][j] + sn[s][i] * H[s][i + 1][j];
+                        H[s][i + 1][j] = -sn[s][i] * H[s][i][j] + cs[s][i] * H[s][i + 1][j];
+                        H[s][i][j] = t;
+                    }
+                    final double rr = Math.hypot(H[s][j][j], H[s][j + 1][j]);
+                    cs[s][j] = rr == 0 ? 1 : H[s][j][j] / rr;
+                    sn[s][j] = rr == 0 ? 0 : H[s][j + 1][j] / rr;
+                    H[s][j][j] = rr;
+                    H[s][j + 1][j] = 0;
+                    g[s][j + 1] = -sn[s][j] * g[s][j];
+                    g[s][j] = cs[s][j] * g[s][j];
+                    dim[s] = j + 1;
+
+                    res[s] = Math.abs(g[s][j + 1]) / fNorm[s];
+                    if (res[s] <= tolerance || h == 0) {
+                        active[s] = false;
+                    }
+                }
+            }
+
+            // update the solutions: x += M V y, with H y = g
+            double[][] vy = new double[2][n];
+            for (int s = 0; s < 2; s++) {
+                final int k = dim[s];
+                double[] y = new double[k];
+                for (int i = k - 1; i >= 0; i--) {
+                    double t = g[s][i];
+                    for (int l = i + 1; l < k; l++) {
+                        t -= H[s][i][l] * y[l];
+                    }
+                    y[i] = H[s][i][i] == 0 ? 0 : t / H[s][i][i];
+                }
+                for (int i = 0; i < k; i++) {
+                    axpy(y[i], V[s][i], vy[s]);
+                }
+            }
+            double[][] dx = precondition(vy);
+            for (int s = 0; s < 2; s++) {
+                axpy(1, dx[s], x[s]);
+            }
+
+            // the residuals are known from the Givens rotations, so only
+            // restart if a system has not converged
+            if ((!active[0] && !active[1]) || iterations >= maxIterations) {
+                break;
+            }
+        }
+
+        relativeResidual = Math.max(res[0], res[1]);
+        return x;
+    }
+
+    private static double dot(double[] a, double[] b) {
+        double s = 0;
+        for (int i = 0; i < a.length; i++) {
+            s += a[i] * b[i];
+        }
+        return s;
+    }
+
+    private static double norm(double[] a) {
+        return Math.sqrt(dot(a, a));
+    }
+
+    private static void scale(double[] a, double s) {
+        for (int i = 0; i < a.length; i++) {
+            a[i] *= s;
+        }
+    }
+
+    /**
+     * y += a * x
+     */
+    private static void axpy(double a, double[] x, double[] y) {
+        for (int i = 0; i < x.length; i++) {
+            y[i] += a * x[i];
+        }
+    }
+}
@@ -0,0 +1,684 @@
+/*
+ * MultiquadricSolver.java
+ */
+package ika.mapanalyst;
+
+import Jama.LDLTDecomposition;
+import Jama.LUDecomposition;
+import Jama.Matrix;
+import java.util.ArrayList;
+
+/**
+ * Solves the system of linear equations for the coefficients of a
+ * multiquadric interpolation, and updates the solution when a single control
+ * point is added, moved or removed.
+ *
+ * The solver keeps the LDL' decomposition of the distance matrix of a base set
+ * of control points. When a single point changes, the decomposition is not
+ * recomputed. Instead, removed base points are constrained to a zero
+ * coefficient, and added points border the base system. The bordered system is
+ * solved with the base decomposition and a small capacitance system
+ * (Sherman-Morrison-Woodbury). This costs O(n^2) operations instead of O(n^3)
+ * for a new decomposition. After a number of updates, or when the residual of
+ * the updated solution indicates numerical drift, the decomposition is
+ * recomputed for the current control points.
+ *
+ * The source points passed to solve() are usually transformed to the
+ * destination map with a Helmert transformation that is adjusted to the control
+ * points, and changing one point changes the transformation and therefore all
+ * transformed points. A Helmert transformation scales all distances by the
+ * same factor, so the distance matrix of the base system can still be used.
+ * The solver therefore searches for a similarity transformation between the
+ * current and the new points, with which all but the changed point match. If
+ * there is no such transformation (for example, with an affine transformation),
+ * or if more than one point changed, the decomposition is recomputed.
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+public class MultiquadricSolver {
+
+    /**
+     * For fewer points, a new decomposition is computed for every change.
+     */
+    private static final int MIN_POINTS_FOR_UPDATES = 8;
+
+    /**
+     * Maximum number of added and removed points, after which the
+     * decomposition is recomputed.
+     */
+    private static final int MAX_UPDATES = 32;
+
+    /**
+     * Maximum relative residual of an updated solution. If exceeded, the
+     * decomposition is recomputed.
+     */
+    private static final double DRIFT_TOLERANCE = 1e-8;
+
+    /**
+     * Maximum distance relative to the extent of the points between a point
+     * transformed by the similarity transformation and the new position of the
+     * point, for considering the point unchanged.
+     */
+    private static final double SIMILARITY_TOLERANCE = 1e-9;
+
+    /**
+     * Decomposition of the distance matrix of the base points, or null.
+     */
+    private LDLTDecomposition baseDecomposition;
+
+    /**
+     * Horizontal coordinates of the base points in the reference frame. The
+     * reference frame is the frame of the points when the decomposition was
+     * computed.
+     */
+    private double[] baseX;
+
+    /**
+     * Vertical coordinates of the base points in the reference frame.
+     */
+    private double[] baseY;
+
+    /**
+     * Indices of base points that have been removed.
+     */
+    private final ArrayList<Integer> removedIDs = new ArrayList<>();
+
+    /**
+     * For each removed base point i: the solution of D0 z = e_i, where D0 is
+     * the distance matrix of the base points, and e_i is the i-th unit vector.
+     */
+    private final ArrayList<double[]> removedZ = new ArrayList<>();
+
+    /**
+     * Added points as xy-arrays in the reference frame.
+     */
+    private final ArrayList<double[]> addedPoints = new ArrayList<>();
+
+    /**
+     * For each added point: the solution of D0 z = d, where d contains the
+     * distances between the added point and the base points.
+     */
+    private final ArrayList<double[]> addedZ = new ArrayList<>();
+
+    /**
+     * Identifiers of the current points in the order of the points passed to
+     * solve(). A positive value or 0 is the index of a base point, a negative
+     * value -(j + 1) is the index j of an added point.
+     */
+    private int[] currentIDs;
+
+    /**
+     * Similarity transformation from the reference frame to the frame of the
+     * points last passed to solve(): x' = a * x - b * y + tx and
+     * y' = b * x + a * y + ty.
+     */
+    private double simA, simB, simTx, simTy;
+
+    /**
+     * True if the last solution was computed by updating the decomposition.
+     */
+    private boolean lastSolveIncremental;
+
+    /**
+     * Type of change detected by findChange().
+     */
+    private enum Change {
+        NONE, MOVE, ADD, REMOVE
+    }
+
+    /**
+     * The change detected by findChange().
+     */
+    private Change change;
+
+    /**
+     * Index of the changed point in the current points. For an added point,
+     * the index in the new points.
+     */
+    private int changeIndex;
+
+    public MultiquadricSolver() {
+    }
+
+    /**
+     * Compute the coefficients for the multiquadric interpolation. If the
+     * source points differ from the source points of the last call by a
+     * similarity transformation and a single added, moved or removed point,
+     * the coefficients are computed by updating the existing decomposition.
+     *
+     * @param srcPoints The control point set of the start coordinate system.
+     * This set needs to be transformed to the destination coordinate system
+     * before calling this method.
+     * @param dstPoints The control points set of the destination coordinate
+     * system.
+     * @param exaggerationFactor Exaggeration factor for the differences
+     * between source and destination points.
+     * @return The coefficients for the x and the y direction in an array[2][n].
+     */
+    public double[][] solve(double[][] srcPoints, double[][] dstPoints,
+            double exaggerationFactor) {
+
+        if (srcPoints.length == 0 || srcPoints.length != dstPoints.length) {
+            throw new IllegalArgumentException();
+        }
+
+        lastSolveIncremental = update(srcPoints);
+        if (lastSolveIncremental) {
+            try {
+                double[][] coef = solveCurrent(srcPoints, dstPoints, exaggerationFactor);
+                if (coef != null) {
+                    return coef;
+                }
+            } catch (RuntimeException exc) {
+                // singular capacitance matrix
+            }
+            lastSolveIncremental = false;
+        }
+
+        decompose(srcPoints);
+        return solveCurrent(srcPoints, dstPoints, exaggerationFactor);
+    }
+
+    /**
+     * Returns whether the last call to solve() updated an existing
+     * decomposition instead of computing a new decomposition.
+     *
+     * @return true if the decomposition was updated.
+     */
+    public boolean isLastSolveIncremental() {
+        return lastSolveIncremental;
+    }
+
+    /**
+     * Computes the decomposition of the distance matrix for a set of points.
+     * The frame of the points becomes the reference frame.
+     *
+     * @param points The points.
+     */
+    private void decompose(double[][] points) {
+        baseDecomposition = null;
+        removedIDs.clear();
+        removedZ.clear();
+        addedPoints.clear();
+        addedZ.clear();
+
+        final int nbrPts = points.length;
+        baseX = new double[nbrPts];
+        baseY = new double[nbrPts];
+        currentIDs = new int[nbrPts];
+        for (int i = 0; i < nbrPts; i++) {
+            baseX[i] = points[i][0];
+            baseY[i] = points[i][1];
+            currentIDs[i] = i;
+        }
+        simA = 1;
+        simB = simTx = simTy = 0;
+
+        baseDecomposition = new LDLTDecomposition(
+                MultiquadricInterpolation.distanceMatrix(points), nbrPts);
+    }
+
+    /**
+     * Updates the decomposition for a new set of points, if the new points
+     * differ from the current points by a similarity transformation and a
+     * single changed point.
+     *
+     * @param points The new points.
+     * @return true if the decomposition has been updated, false if a new
+     * decomposition is required.
+     */
+    private boolean update(double[][] points) {
+        if (baseDecomposition == null || !baseDecomposition.isNonsingular()
+                || currentIDs.length < MIN_POINTS_FOR_UPDATES
+                || points.length < MIN_POINTS_FOR_UPDATES
+                || !findChange(points)) {
+            return false;
+        }
+
+        switch (change) {
+            case NONE:
+                return true;
+            case MOVE: {
+                final int id = currentIDs[changeIndex];
+                final double[] pt = toReferenceFrame(points[changeIndex]);
+                if (id >= 0) {
+                    if (!canAddUpdates(2)) {
+                        return false;
+                    }
+                    removeBasePoint(id);
+                    currentIDs[changeIndex] = addPoint(pt);
+                } else {
+                    addedPoints.set(-id - 1, pt);
+                    addedZ.set(-id - 1, solveBase(distancesToBase(pt)));
+                }
+                return true;
+            }
+            case ADD: {
+                if (!canAddUpdates(1)) {
+                    return false;
+                }
+                final int id = addPoint(toReferenceFrame(points[changeIndex]));
+                int[] ids = new int[currentIDs.length + 1];
+                System.arraycopy(currentIDs, 0, ids, 0, changeIndex);
+                ids[changeIndex] = id;
+                System.arraycopy(currentIDs, changeIndex, ids, changeIndex + 1,
+                        currentIDs.length - changeIndex);
+                currentIDs = ids;
+                return true;
+            }
+            case REMOVE: {
+                final int id = currentIDs[changeIndex];
+                if (id >= 0) {
+                    if (!canAddUpdates(1)) {
+                        return false;
+                    }
+                    removeBasePoint(id);
+                } else {
+                    removeAddedPoint(-id - 1);
+                }
+                int[] ids = new int[currentIDs.length - 1];
+                System.arraycopy(currentIDs, 0, ids, 0, changeIndex);
+                System.arraycopy(currentIDs, changeIndex + 1, ids, changeIndex,
+                        ids.length - changeIndex);
+                currentIDs = ids;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the base decomposition can be updated with additional
+     * added or removed points.
+     *
+     * @param nbrUpdates The number of additional added or removed points.
+     * @return true if the maximum number of updates is not exceeded.
+     */
+    private boolean canAddUpdates(int nbrUpdates) {
+        return removedIDs.size() + addedPoints.size() + nbrUpdates <= MAX_UPDATES;
+    }
+
+    /**
+     * Removes a base point by constraining its coefficient to 0.
+     *
+     * @param id The index of the base point.
+     */
+    private void removeBasePoint(int id) {
+        double[] e = new double[baseX.length];
+        e[id] = 1;
+        removedIDs.add(id);
+        removedZ.add(solveBase(e));
+    }
+
+    /**
+     * Adds a point that borders the base system.
+     *
+     * @param pt The point in the reference frame.
+     * @return The identifier of the new point.
+     */
+    private int addPoint(double[] pt) {
+        addedPoints.add(pt);
+        addedZ.add(solveBase(distancesToBase(pt)));
+        return -addedPoints.size();
+    }
+
+    /**
+     * Removes an added point.
+     *
+     * @param j The index of the added point.
+     */
+    private void removeAddedPoint(int j) {
+        addedPoints.remove(j);
+        addedZ.remove(j);
+        for (int k = 0; k < currentIDs.length; k++) {
+            if (currentIDs[k] < -j - 1) {
+                currentIDs[k]++;
+            }
+        }
+    }
+
+    /**
+     * Solves D0 z = d with the base decomposition.
+     *
+     * @param d The right-hand side, overwritten by the solution.
+     * @return The solution z.
+     */
+    private double[] solveBase(double[] d) {
+        baseDecomposition.solve(d);
+        return d;
+    }
+
+    /**
+     * Computes the distances between a point and all base points.
+     *
+     * @param pt The point in the reference frame.
+     * @return The distances.
+     */
+    private double[] distancesToBase(double[] pt) {
+        final int n = baseX.length;
+        double[] d = new double[n];
+        for (int i = 0; i < n; i++) {
+            final double dx = pt[0] - baseX[i];
+            final double dy = pt[1] - baseY[i];
+            d[i] = Math.sqrt(dx * dx + dy * dy);
+        }
+        return d;
+    }
+
+    /**
+     * Transforms a point from the frame of the new points to the reference
+     * frame with the inverse of the similarity transformation.
+     *
+     * @param pt The point.
+     * @return A new xy-array.
+     */
+    private double[] toReferenceFrame(double[] pt) {
+        final double dx = pt[0] - simTx;
+        final double dy = pt[1] - simTy;
+        final double s2 = simA * simA + simB * simB;
+        return new double[]{
+            (simA * dx + simB * dy) / s2,
+            (simA * dy - simB * dx) / s2
+        };
+    }
+
+    /**
+     * Returns a coordinate of a current point in the reference frame.
+     *
+     * @param k The index of the point.
+     * @param dim 0 for x, 1 for y.
+     * @return The coordinate.
+     */
+    private double currentCoordinate(int k, int dim) {
+        final int id = currentIDs[k];
+        if (id >= 0) {
+            return dim == 0 ? baseX[id] : baseY[id];
+        }
+        return addedPoints.get(-id - 1)[dim];
+    }
+
+    /**
+     * Searches for a similarity transformation between the current points and
+     * the new points, with which all points except for at most one added,
+     * moved or removed point match. The similarity transformation is computed
+     * from the first two and the last two points.
+     *
+     * @param points The new points.
+     * @return true if a similarity transformation has been found. The
+     * transformation and the change are stored in fields.
+     */
+    private boolean findChange(double[][] points) {
+        final int nCur = currentIDs.length;
+        final int nNew = points.length;
+        final int diff = nNew - nCur;
+        if (Math.abs(diff) > 1) {
+            return false;
+        }
+
+        double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (double[] pt : points) {
+            minX = Math.min(minX, pt[0]);
+            maxX = Math.max(maxX, pt[0]);
+            minY = Math.min(minY, pt[1]);
+            maxY = Math.max(maxY, pt[1]);
+        }
+        final double tol = SIMILARITY_TOLERANCE * Math.max(maxX - minX, maxY - minY);
+
+        return matchPoints(points, 0, 1, 0, 1, diff, tol)
+                || matchPoints(points, nCur - 1, nCur - 2, nNew - 1, nNew - 2, diff, tol);
+    }
+
+    /**
+     * Computes a similarity transformation from two pairs of corresponding
+     * points, and tests whether the current and the new points match with at
+     * most one changed point.
+     *
+     * @param points The new points.
+     * @param cur0 Index of the first current point.
+     * @param cur1 Index of the second current point.
+     * @param new0 Index of the new point corresponding to cur0.
+     * @param new1 Index of the new point corresponding to cur1.
+     * @param diff Number of new points minus number of current points.
+     * @param tol Maximum distance between corresponding points.
+     * @return true if the points match.
+     */
+    private boolean matchPoints(double[][] points, int cur0, int cur1,
+            int new0, int new1, int diff, double tol) {
+
+        // complex division (q1 - q0) / (p1 - p0)
+        final double px = currentCoordinate(cur1, 0) - currentCoordinate(cur0, 0);
+        final double py = currentCoordinate(cur1, 1) - currentCoordinate(cur0, 1);
+        final double qx = points[new1][0] - points[new0][0];
+        final double qy = points[new1][1] - points[new0][1];
+        final double p2 = px * px + py * py;
+        if (p2 == 0) {
+            return false;
+        }
+        final double a = (qx * px + qy * py) / p2;
+        final double b = (qy * px - qx * py) / p2;
+        if (a == 0 && b == 0) {
+            return false;
+        }
+        final double x0 = currentCoordinate(cur0, 0);
+        final double y0 = currentCoordinate(cur0, 1);
+        final double tx = points[new0][0] - (a * x0 - b * y0);
+        final double ty = points[new0][1] - (b * x0 + a * y0);
+
+        final int nCur = currentIDs.length;
+        final int nNew = points.length;
+        final double tol2 = tol * tol;
+        int changedCur = -1;
+        int i = 0, j = 0;
+        while (i < nCur && j < nNew) {
+            final double x = currentCoordinate(i, 0);
+            final double y = currentCoordinate(i, 1);
+            final double dx = a * x - b * y + tx - points[j][0];
+            final double dy = b * x + a * y + ty - points[j][1];
+            if (dx * dx + dy * dy <= tol2) {
+                i++;
+                j++;
+                continue;
+            }
+            if (changedCur >= 0) {
+                return false;
+            }
+            switch (diff) {
+                case 0:
+                    changedCur = i;
+                    i++;
+                    j++;
+                    break;
+                case 1:
+                    changedCur = j;
+                    j++;
+                    break;
+                default:
+                    changedCur = i;
+                    i++;
+            }
+        }
+
+        // a point added after or removed from the end of the list
+        if (changedCur < 0 && diff == 1 && j == nNew - 1) {
+            changedCur = nNew - 1;
+        } else if (changedCur < 0 && diff == -1 && i == nCur - 1) {
+            changedCur = nCur - 1;
+        } else if (i != nCur || j != nNew) {
+            return false;
+        }
+
+        simA = a;
+        simB = b;
+        simTx = tx;
+        simTy = ty;
+        changeIndex = changedCur;
+        if (changedCur < 0) {
+            change = Change.NONE;
+        } else {
+            change = diff == 0 ? Change.MOVE : (diff == 1 ? Change.ADD : Change.REMOVE);
+        }
+        return true;
+    }
+
+    /**
+     * Computes the coefficients for the current points with the base
+     * decomposition and the bordered system for added and removed points.
+     *
+     * @param srcPoints The source points in the frame of the new points.
+     * @param dstPoints The destination points.
+     * @param exaggerationFactor Exaggeration factor.
+     * @return The coefficients for the x and the y direction in an array[2][n],
+     * or null if the residual of an updated solution is too large.
+     */
+    private double[][] solveCurrent(double[][] srcPoints, double[][] dstPoints,
+            double exaggerationFactor) {
+
+        // distances between the new points are the distances in the
+        // reference frame scaled by the scale of the similarity transformation
+        final double scale = Math.hypot(simA, simB);
+        final int n = currentIDs.length;
+        final int n0 = baseX.length;
+        final int nAdded = addedPoints.size();
+        final int nRemoved = removedIDs.size();
+
+        // right-hand sides in the reference frame
+        double[][] f = new double[2][n];
+        for (int k = 0; k < n; k++) {
+            f[0][k] = (dstPoints[k][0] - srcPoints[k][0]) * exaggerationFactor / scale;
+            f[1][k] = (dstPoints[k][1] - srcPoints[k][1]) * exaggerationFactor / scale;
+        }
+
+        // solve the base system for the right-hand sides of the base points
+        double[][] fBase = new double[n0][2];
+        int[] addedToCurrent = new int[nAdded];
+        for (int k = 0; k < n; k++) {
+            final int id = currentIDs[k];
+            if (id >= 0) {
+                fBase[id][0] = f[0][k];
+                fBase[id][1] = f[1][k];
+            } else {
+                addedToCurrent[-id - 1] = k;
+            }
+        }
+        double[][] zf = baseDecomposition.solve(new Matrix(fBase)).getArray();
+
+        // solve the capacitance system for the coefficients of added points
+        // and the Lagrange multipliers of removed points
+        final int m = nAdded + nRemoved;
+        double[][] c = new double[m][2];
+        if (m > 0) {
+            double[][] K = new double[m][m];
+            double[][] rhs = new double[m][2];
+            for (int q = 0; q < nRemoved; q++) {
+                final int id = removedIDs.get(q);
+                for (int j = 0; j < nAdded; j++) {
+                    K[q][j] = -addedZ.get(j)[id];
+                }
+                for (int p = 0; p < nRemoved; p++) {
+                    K[q][nAdded + p] = removedZ.get(p)[id];
+                }
+                rhs[q][0] = -zf[id][0];
+                rhs[q][1] = -zf[id][1];
+            }
+            for (int a = 0; a < nAdded; a++) {
+                final int row = nRemoved + a;
+                final double[] pt = addedPoints.get(a);
+                final double[] d = distancesToBase(pt);
+                for (int j = 0; j < nAdded; j++) {
+                    final double[] ptj = addedPoints.get(j);
+                    K[row][j] = Math.hypot(pt[0] - ptj[0], pt[1] - ptj[1])
+                            - dot(d, addedZ.get(j));
+                }
+                for (int p = 0; p < nRemoved; p++) {
+                    K[row][nAdded + p] = dot(d, removedZ.get(p));
+                }
+                double s0 = 0, s1 = 0;
+                for (int i = 0; i < n0; i++) {
+                    s0 += d[i] * zf[i][0];
+                    s1 += d[i] * zf[i][1];
+                }
+                rhs[row][0] = f[0][addedToCurrent[a]] - s0;
+                rhs[row][1] = f[1][addedToCurrent[a]] - s1;
+            }
+            c = new LUDecomposition(new Matrix(K)).solve(new Matrix(rhs)).getArray();
+
+            // correct the solution of the base system
+            for (int j = 0; j < nAdded; j++) {
+                addScaled(zf, addedZ.get(j), -c[j][0], -c[j][1]);
+            }
+            for (int p = 0; p < nRemoved; p++) {
+                addScaled(zf, removedZ.get(p), c[nAdded + p][0], c[nAdded + p][1]);
+            }
+        }
+
+        // coefficients in the order of the current points
+        double[][] coef = new double[2][n];
+        for (int k = 0; k < n; k++) {
+            final int id = currentIDs[k];
+            final double[] ck = id >= 0 ? zf[id] : c[-id - 1];
+            coef[0][k] = ck[0];
+            coef[1][k] = ck[1];
+        }
+
+        if (m > 0 && !isResidualSmall(coef, f)) {
+            return null;
+        }
+        return coef;
+    }
+
+    /**
+     * Tests whether the residual of a solution of the current system is small.
+     *
+     * @param coef The solution in an array[2][n].
+     * @param f The right-hand sides in an array[2][n].
+     * @return true if the largest residual relative to the magnitude of the
+     * summed terms is smaller than DRIFT_TOLERANCE.
+     */
+    private boolean isResidualSmall(double[][] coef, double[][] f) {
+        final int n = currentIDs.length;
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int k = 0; k < n; k++) {
+            x[k] = currentCoordinate(k, 0);
+            y[k] = currentCoordinate(k, 1);
+        }
+        double maxResidual = 0;
+        double maxMagnitude = 0;
+        for (int k = 0; k < n; k++) {
+            double r0 = -f[0][k], r1 = -f[1][k];
+            double m0 = Math.abs(f[0][k]), m1 = Math.abs(f[1][k]);
+            for (int l = 0; l < n; l++) {
+                final double dx = x[k] - x[l];
+                final double dy = y[k] - y[l];
+                final double d = Math.sqrt(dx * dx + dy * dy);
+                r0 += d * coef[0][l];
+                r1 += d * coef[1][l];
+                m0 += Math.abs(d * coef[0][l]);
+                m1 += Math.abs(d * coef[1][l]);
+            }
+            maxResidual = Math.max(maxResidual, Math.max(Math.abs(r0), Math.abs(r1)));
+            maxMagnitude = Math.max(maxMagnitude, Math.max(m0, m1));
+        }
+        return maxResidual <= DRIFT_TOLERANCE * maxMagnitude;
+    }
+
+    private static double dot(double[] a, double[] b) {
+        double s = 0;
+        for (int i = 0; i < a.length; i++) {
+            s += a[i] * b[i];
+        }
+        return s;
+    }
+
+    /**
+     * Adds a scaled vector to the two columns of a matrix.
+     */
+    private static void addScaled(double[][] m, double[] v, double s0, double s1) {
+        for (int i = 0; i < v.length; i++) {
+            m[i][0] += v[i] * s0;
+            m[i][1] += v[i] * s1;
+        }
+    }
+}
@@ -0,0 +1,493 @@
+/*
+ * MultiquadricTreeCode.java
+ */
+package ika.mapanalyst;
+
+/**
+ * Hierarchical (tree code) evaluator for the sums of a multiquadric
+ * interpolation. The control points are organized in a quadtree. For a cluster
+ * of control points that is far away from an evaluated point, the sum over all
+ * control points in the cluster is replaced by a far-field (multipole)
+ * expansion of the kernel sqrt(dx*dx + dy*dy) around the center of the
+ * cluster. Nearby clusters are summed exactly.
+ *
+ * Points are treated as complex numbers. With z the evaluated point and w a
+ * control point, both relative to the center of the cluster, the kernel is
+ * |z - w| = |z| (1 - w/z)^(1/2) (1 - conj(w/z))^(1/2). Expanding the two
+ * square roots into binomial series gives
+ * |z - w| = |z| sum(c_k c_l w^k conj(w)^l z^-k conj(z)^-l), with the sum over
+ * all k + l <= p. The horizontal and vertical coefficients are combined to a
+ * complex coefficient q = a + ib, such that a single expansion computes both
+ * displacements. The moments sum(q w^k conj(w)^l) are computed once per
+ * cluster.
+ *
+ * The truncation error of an expansion of order p is estimated from the
+ * magnitudes of the moments of the two following orders. A strict bound
+ * (sum(|q|) rho (rho/r)^p) would be far too pessimistic, because the
+ * coefficients of a multiquadric interpolation are large and cancel out. The
+ * tolerance is distributed among clusters proportionally to their number of
+ * control points. For each cluster the smallest order p is selected such that
+ * the estimated error does not exceed the share of the tolerance. If no order
+ * up to MAX_ORDER - 2 is sufficient, the cluster is subdivided.
+ *
+ * Evaluation of M points requires approximately O(M log N) operations for N
+ * control points, construction of the tree requires O(N log N) operations.
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+public class MultiquadricTreeCode {
+
+    /**
+     * Clusters with this many or fewer control points are not subdivided.
+     */
+    private static final int MAX_POINTS_PER_LEAF = 24;
+
+    /**
+     * Maximum order of the far-field expansions.
+     */
+    private static final int MAX_ORDER = 14;
+
+    /**
+     * Number of moments stored for each cluster: one for each k + l <= MAX_ORDER.
+     */
+    private static final int NBR_MOMENTS = (MAX_ORDER + 1) * (MAX_ORDER + 2) / 2;
+
+    /**
+     * Maximum ratio between the radius of a cluster and the distance to an
+     * evaluated point for using an expansion.
+     */
+    private static final double MAX_THETA = 0.5;
+
+    /**
+     * Binomial series coefficients c_k of (1 - t)^(1/2).
+     */
+    private static final double[] C = new double[MAX_ORDER + 1];
+
+    static {
+        C[0] = 1;
+        for (int k = 1; k <= MAX_ORDER; k++) {
+            C[k] = C[k - 1] * (k - 1.5) / k;
+        }
+    }
+
+    /**
+     * A cluster of control points.
+     */
+    private static final class Node {
+
+        // control points in this cluster are stored at first..first+count-1
+        int first, count;
+        // center of the cluster
+        double cx, cy;
+        // maximum distance between center and a control point of the cluster
+        double radius;
+        // real and imaginary parts of the moments c_k c_l sum(q w^k conj(w)^l),
+        // ordered by k + l, then by k
+        double[] momentsRe, momentsIm;
+        // sum of the absolute values of all moments with k + l = n
+        double[] orderNorms;
+        // four sub-clusters or null
+        Node[] children;
+    }
+
+    /**
+     * Horizontal coordinates of control points, ordered by cluster.
+     */
+    private final double[] x;
+
+    /**
+     * Vertical coordinates of control points, ordered by cluster.
+     */
+    private final double[] y;
+
+    /**
+     * Coefficients for the horizontal displacement, ordered by cluster.
+     */
+    private final double[] a;
+
+    /**
+     * Coefficients for the vertical displacement, ordered by cluster.
+     */
+    private final double[] b;
+
+    /**
+     * The root of the quadtree.
+     */
+    private final Node root;
+
+    /**
+     * Maximum error of the computed displacement.
+     */
+    private final double tolerance;
+
+    /**
+     * Share of the tolerance for each control point.
+     */
+    private final double tolerancePerPoint;
+
+    /**
+     * Creates a new tree code evaluator. The passed arrays are not changed and
+     * no reference to them is retained.
+     *
+     * @param ctrlX horizontal coordinates of the control points
+     * @param ctrlY vertical coordinates of the control points
+     * @param aCoeff coefficients for the horizontal displacement
+     * @param bCoeff coefficients for the vertical displacement
+     * @param nbrPts number of control points
+     * @param tolerance maximum absolute error of the computed displacements in
+     * units of the control points. Must be larger than 0.
+     */
+    public MultiquadricTreeCode(double[] ctrlX, double[] ctrlY,
+            double[] aCoeff, double[] bCoeff, int nbrPts, double tolerance) {
+
+        if (nbrPts < 1 || !(tolerance > 0)) {
+            throw new IllegalArgumentException();
+        }
+
+        this.tolerance = tolerance;
+        this.x = new double[nbrPts];
+        this.y = new double[nbrPts];
+        this.a = new double[nbrPts];
+        this.b = new double[nbrPts];
+        System.arraycopy(ctrlX, 0, this.x, 0, nbrPts);
+        System.arraycopy(ctrlY, 0, this.y, 0, nbrPts);
+        System.arraycopy(aCoeff, 0, this.a, 0, nbrPts);
+        System.arraycopy(bCoeff, 0, this.b, 0, nbrPts);
+
+        this.tolerancePerPoint = tolerance / nbrPts;
+
+        this.root = buildTree(0, nbrPts, 0);
+    }
+
+    /**
+     * Returns the maximum error of computed displacements.
+     *
+     * @return the tolerance
+     */
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Recursively builds a cluster and its sub-clusters. The control points of
+     * the cluster are reordered such that the points of each sub-cluster are
+     * stored in a contiguous range.
+     *
+     * @param first index of the first control point
+     * @param count number of control points
+     * @param depth depth of the new cluster in the tree
+     * @return the new cluster
+     */
+    private Node buildTree(int first, int count, int depth) {
+        final Node node = new Node();
+        node.first = first;
+        node.count = count;
+        final int end = first + count;
+
+        // bounding box
+        double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = first; i < end; i++) {
+            minX = Math.min(minX, x[i]);
+            maxX = Math.max(maxX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxY = Math.max(maxY, y[i]);
+        }
+        node.cx = (minX + maxX) / 2;
+        node.cy = (minY + maxY) / 2;
+
+        double radiusSqr = 0;
+        for (int i = first; i < end; i++) {
+            final double dx = x[i] - node.cx;
+            final double dy = y[i] - node.cy;
+            radiusSqr = Math.max(radiusSqr, dx * dx + dy * dy);
+        }
+        node.radius = Math.sqrt(radiusSqr);
+
+        // moments are not needed for the root, which always contains the
+        // evaluated point, and leaves, which are cheap to sum
+        if (depth > 0 && count > MAX_POINTS_PER_LEAF / 2) {
+            computeMoments(node);
+        }
+
+        // stop subdividing if the cluster is small or if all points are
+        // identical. Limit the depth of the tree to avoid excessive recursion
+        // for clustered points.
+        if (count <= MAX_POINTS_PER_LEAF || radiusSqr == 0 || depth > 48) {
+            return node;
+        }
+
+        // partition into four quadrants around the center of the bounding box
+        final int splitY = partition(first, end, node.cy, false);
+        final int splitX1 = partition(first, splitY, node.cx, true);
+        final int splitX2 = partition(splitY, end, node.cx, true);
+        final int[] bounds = {first, splitX1, splitY, splitX2, end};
+        node.children = new Node[4];
+        int nbrChildren = 0;
+        for (int i = 0; i < 4; i++) {
+            final int childCount = bounds[i + 1] - bounds[i];
+            if (childCount > 0) {
+                node.children[nbrChildren++] = buildTree(bounds[i], childCount, depth + 1);
+            }
+        }
+        if (nbrChildren < 4) {
+            node.children = java.util.Arrays.copyOf(node.children, nbrChildren);
+        }
+        return node;
+    }
+
+    /**
+     * Reorders control points such that all points with a coordinate smaller
+     * than a split value are placed before all other points.
+     *
+     * @param first first point to reorder
+     * @param end index after the last point to reorder
+     * @param split the split value
+     * @param horizontal if true, horizontal coordinates are compared,
+     * otherwise vertical coordinates are compared
+     * @return index of the first point with a coordinate larger or equal to
+     * split
+     */
+    private int partition(int first, int end, double split, boolean horizontal) {
+        final double[] c = horizontal ? x : y;
+        int i = first;
+        int j = end - 1;
+        while (i <= j) {
+            if (c[i] < split) {
+                i++;
+            } else {
+                swap(i, j--);
+            }
+        }
+        return i;
+    }
+
+    private void swap(int i, int j) {
+        double t = x[i];
+        x[i] = x[j];
+        x[j] = t;
+        t = y[i];
+        y[i] = y[j];
+        y[j] = t;
+        t = a[i];
+        a[i] = a[j];
+        a[j] = t;
+        t = b[i];
+        b[i] = b[j];
+        b[j] = t;
+    }
+
+    /**
+     * Computes the weighted moments of a cluster.
+     *
+     * @param node the cluster
+     */
+    private void computeMoments(Node node) {
+        final double[] re = new double[NBR_MOMENTS];
+        final double[] im = new double[NBR_MOMENTS];
+        final double[] wPowRe = new double[MAX_ORDER + 1];
+        final double[] wPowIm = new double[MAX_ORDER + 1];
+        final int end = node.first + node.count;
+        for (int i = node.first; i < end; i++) {
+            // powers of w
+            final double wRe = x[i] - node.cx;
+            final double wIm = y[i] - node.cy;
+            wPowRe[0] = 1;
+            wPowIm[0] = 0;
+            for (int k = 1; k <= MAX_ORDER; k++) {
+                wPowRe[k] = wPowRe[k - 1] * wRe - wPowIm[k - 1] * wIm;
+                wPowIm[k] = wPowRe[k - 1] * wIm + wPowIm[k - 1] * wRe;
+            }
+
+            // q w^k conj(w)^l
+            final double qRe = a[i];
+            final double qIm = b[i];
+            int m = 0;
+            for (int n = 0; n <= MAX_ORDER; n++) {
+                for (int k = 0; k <= n; k++, m++) {
+                    final int l = n - k;
+                    // w^k conj(w)^l
+                    final double tRe = wPowRe[k] * wPowRe[l] + wPowIm[k] * wPowIm[l];
+                    final double tIm = wPowIm[k] * wPowRe[l] - wPowRe[k] * wPowIm[l];
+                    re[m] += qRe * tRe - qIm * tIm;
+                    im[m] += qRe * tIm + qIm * tRe;
+                }
+            }
+        }
+
+        // include the binomial coefficients
+        final double[] orderNorms = new double[MAX_ORDER + 1];
+        int m = 0;
+        for (int n = 0; n <= MAX_ORDER; n++) {
+            for (int k = 0; k <= n; k++, m++) {
+                final double c = C[k] * C[n - k];
+                re[m] *= c;
+                im[m] *= c;
+                orderNorms[n] += Math.hypot(re[m], im[m]);
+            }
+        }
+        node.momentsRe = re;
+        node.momentsIm = im;
+        node.orderNorms = orderNorms;
+    }
+
+    /**
+     * Returns the order of the expansion required for approximating a cluster
+     * at a given distance.
+     *
+     * @param node the cluster
+     * @param r distance between the center of the cluster and the evaluated
+     * point
+     * @return the order, or -1 if the cluster cannot be approximated
+     */
+    private int expansionOrder(Node node, double r) {
+        final double maxError = tolerancePerPoint * node.count;
+        final double[] orderNorms = node.orderNorms;
+        final double u = 1 / r;
+        // term of order n is r * orderNorms[n] / r^n
+        double uPow = u;
+        for (int p = 1; p <= MAX_ORDER - 2; p++) {
+            final double next = orderNorms[p + 1] * uPow;
+            final double nextButOne = orderNorms[p + 2] * uPow * u;
+            if (next + nextButOne <= maxError) {
+                return p;
+            }
+            uPow *= u;
+        }
+        return -1;
+    }
+
+    /**
+     * Accumulates the horizontal and vertical displacement of a point caused
+     * by the control points of a cluster.
+     *
+     * @param node the cluster
+     * @param px horizontal coordinate of the point
+     * @param py vertical coordinate of the point
+     * @param corr the two displacements are added to corr[0] and corr[1]
+     */
+    private void accumulate(Node node, double px, double py, double[] corr) {
+
+        // far-field expansion if the point is well separated from the cluster
+        // and the truncation error of the expansion is sufficiently small
+        if (node.momentsRe != null) {
+            final double zRe = px - node.cx;
+            final double zIm = py - node.cy;
+            final double rSqr = zRe * zRe + zIm * zIm;
+            final double rho = node.radius;
+            if (rho * rho < MAX_THETA * MAX_THETA * rSqr) {
+                final double r = Math.sqrt(rSqr);
+                final int p = expansionOrder(node, r);
+                if (p > 0) {
+                    expand(node, zRe / rSqr, -zIm / rSqr, r, p, corr);
+                    return;
+                }
+            }
+        }
+
+        if (node.children == null) {
+            // exact sum over all control points of the leaf
+            double corrX = 0;
+            double corrY = 0;
+            final int end = node.first + node.count;
+            for (int j = node.first; j < end; j++) {
+                final double dx = px - x[j];
+                final double dy = py - y[j];
+                final double d = Math.sqrt(dx * dx + dy * dy);
+                corrX += a[j] * d;
+                corrY += b[j] * d;
+            }
+            corr[0] += corrX;
+            corr[1] += corrY;
+        } else {
+            for (Node child : node.children) {
+                accumulate(child, px, py, corr);
+            }
+        }
+    }
+
+    /**
+     * Evaluates the far-field expansion of a cluster. The expansion is
+     * evaluated as sum_k(u^k sum_l(M_kl conj(u)^l)) with two nested Horner
+     * schemes.
+     *
+     * @param node the cluster
+     * @param uRe real part of u = 1/z
+     * @param uIm imaginary part of u = 1/z
+     * @param r |z|
+     * @param p order of the expansion
+     * @param corr the real part of the expansion is added to corr[0], the
+     * imaginary part to corr[1]
+     */
+    private static void expand(Node node, double uRe, double uIm, double r,
+            int p, double[] corr) {
+        final double[] momentsRe = node.momentsRe;
+        final double[] momentsIm = node.momentsIm;
+        double sumRe = 0;
+        double sumIm = 0;
+        for (int k = p; k >= 0; k--) {
+            // inner sum over l with Horner scheme in conj(u)
+            double innerRe = 0;
+            double innerIm = 0;
+            for (int l = p - k; l >= 0; l--) {
+                final int n = k + l;
+                final int m = n * (n + 1) / 2 + k;
+                final double re = innerRe * uRe + innerIm * uIm;
+                final double im = innerIm * uRe - innerRe * uIm;
+                innerRe = re + momentsRe[m];
+                innerIm = im + momentsIm[m];
+            }
+            // outer Horner scheme in u
+            final double re = sumRe * uRe - sumIm * uIm;
+            final double im = sumRe * uIm + sumIm * uRe;
+            sumRe = re + innerRe;
+            sumIm = im + innerIm;
+        }
+        corr[0] += r * sumRe;
+        corr[1] += r * sumIm;
+    }
+
+    /**
+     * Transforms a range of a set of points. Can be called concurrently by
+     * multiple threads.
+     *
+     * @param points The points to be transformed as a an array[n] of
+     * xy-arrays[2]. points is changed, i.e. the old values are replaced by the
+     * new values.
+     * @param firstPt The first point to transform.
+     * @param nbrPts The number of points to transform.
+     */
+    public void transform(double[][] points, int firstPt, int nbrPts) {
+        final double[] corr = new double[2];
+        final int endPt = firstPt + nbrPts;
+        for (int i = firstPt; i < endPt; ++i) {
+            final double[] point = points[i];
+            corr[0] = corr[1] = 0;
+            accumulate(root, point[0], point[1], corr);
+            point[0] += corr[0];
+            point[1] += corr[1];
+        }
+    }
+
+    /**
+     * Transforms a range of a set of points. Can be called concurrently by
+     * multiple threads.
+     *
+     * @param coords The points to be transformed as a an array of x-y pairs.
+     * This array is changed, i.e. the old values are replaced by the new
+     * values.
+     * @param firstPt The first xy pair to transform.
+     * @param nbrPts The number of xy pairs that will be transformed.
+     */
+    public void transform(double[] coords, int firstPt, int nbrPts) {
+        final double[] corr = new double[2];
+        final int endPt = firstPt + nbrPts;
+        for (int i = firstPt; i < endPt; ++i) {
+            corr[0] = corr[1] = 0;
+            accumulate(root, coords[i * 2], coords[i * 2 + 1], corr);
+            coords[i * 2] += corr[0];
+            coords[i * 2 + 1] += corr[1];
+        }
+    }
+}
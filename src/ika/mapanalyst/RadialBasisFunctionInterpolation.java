@@ -0,0 +1,278 @@
+/*
+ * RadialBasisFunctionInterpolation.java
+ */
+package ika.mapanalyst;
+
+import java.awt.geom.*;
+import ika.geo.*;
+import java.util.stream.IntStream;
+
+/**
+ * Interpolation of the displacements between two sets of control points with
+ * radial basis functions. The two sets of points need to be in a common
+ * coordinate system. Derived classes compute the coefficients and the
+ * displacement of points; this class transforms arrays of points and
+ * geometry, sequentially or in parallel.
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+public abstract class RadialBasisFunctionInterpolation {
+
+    /**
+     * Number of points transformed by a single task when points are
+     * transformed in parallel. The coordinates of 1024 points occupy 16 KB,
+     * which fits into the level 1 cache.
+     */
+    private static final int PARALLEL_CHUNK_SIZE = 1024;
+
+    /**
+     * Returns a copy of this interpolation with displacements multiplied by a
+     * factor. The coefficients are linear in the displacements of the control
+     * points, so the copy is computed by scaling the coefficients, without
+     * solving a system of equations.
+     *
+     * @param factor The factor for the displacements.
+     * @return A new interpolation.
+     */
+    public abstract RadialBasisFunctionInterpolation scaledCopy(double factor);
+
+    /**
+     * Returns the points where the interpolated displacement is not
+     * differentiable. Approximations of the interpolation test their accuracy
+     * at these points.
+     *
+     * @return The points as an array of xy-arrays, or null if the
+     * displacement is differentiable everywhere.
+     */
+    public double[][] getNonDifferentiablePoints() {
+        return null;
+    }
+
+    /**
+     * Returns a new array with the elements of an array multiplied by a
+     * factor.
+     *
+     * @param v The array to scale. Not changed.
+     * @param factor The factor.
+     * @return The new array.
+     */
+    protected static double[] scale(double[] v, double factor) {
+        double[] scaled = new double[v.length];
+        for (int i = 0; i < v.length; i++) {
+            scaled[i] = v[i] * factor;
+        }
+        return scaled;
+    }
+
+    /**
+     * Transforms a set of points.
+     *
+     * @param points The points to be transformed as a an array[n] of
+     * xy-arrays[2]. points is changed, i.e. the old values are replaced by the
+     * new values.
+     */
+    public void transform(double[][] points) {
+        transform(points, 0, points.length);
+    }
+
+    /**
+     * Transforms a range of a set of points. This method must be thread-safe.
+     *
+     * @param points The points to be transformed as a an array[n] of
+     * xy-arrays[2]. points is changed, i.e. the old values are replaced by the
+     * new values.
+     * @param firstPt The first point to transform.
+     * @param nbrPts The number of points to transform.
+     */
+    protected abstract void transform(double[][] points, int firstPt, int nbrPts);
+
+    /**
+     * Transforms a set of points.
+     *
+     * @param coords The points to be transformed as a an array of x-y pairs.
+     * This array is changed, i.e. the old values are replaced by the new
+     * values.
+     * @param nbrPts The number of xy pairs that will be transformed.
+     */
+    public void transform(double[] coords, int nbrPts) {
+        transform(coords, 0, nbrPts);
+    }
+
+    /**
+     * Transforms a range of a set of points. This method must be thread-safe.
+     *
+     * @param coords The points to be transformed as a an array of x-y pairs.
+     * This array is changed, i.e. the old values are replaced by the new
+     * values.
+     * @param firstPt The first xy pair to transform.
+     * @param nbrPts The number of xy pairs that will be transformed.
+     */
+    protected abstract void transform(double[] coords, int firstPt, int nbrPts);
+
+    /**
+     * Transforms a set of points using all available processors. The points
+     * are split into chunks that are transformed in parallel. The result is
+     * identical to the result of transform(double[][]).
+     *
+     * @param points The points to be transformed as a an array[n] of
+     * xy-arrays[2]. points is changed, i.e. the old values are replaced by the
+     * new values.
+     */
+    public void transformParallel(double[][] points) {
+        final int nbrPts = points.length;
+        final int nbrChunks = (nbrPts + PARALLEL_CHUNK_SIZE - 1) / PARALLEL_CHUNK_SIZE;
+        if (nbrChunks < 2) {
+            transform(points, 0, nbrPts);
+            return;
+        }
+        IntStream.range(0, nbrChunks).parallel().forEach(chunk -> {
+            final int firstPt = chunk * PARALLEL_CHUNK_SIZE;
+            transform(points, firstPt, Math.min(PARALLEL_CHUNK_SIZE, nbrPts - firstPt));
+        });
+    }
+
+    /**
+     * Transforms a set of points using all available processors. The points
+     * are split into chunks that are transformed in parallel. The result is
+     * identical to the result of transform(double[], int).
+     *
+     * @param coords The points to be transformed as a an array of x-y pairs.
+     * This array is changed, i.e. the old values are replaced by the new
+     * values.
+     * @param nbrPts The number of xy pairs that will be transformed.
+     */
+    public void transformParallel(double[] coords, int nbrPts) {
+        final int nbrChunks = (nbrPts + PARALLEL_CHUNK_SIZE - 1) / PARALLEL_CHUNK_SIZE;
+        if (nbrChunks < 2) {
+            transform(coords, 0, nbrPts);
+            return;
+        }
+        IntStream.range(0, nbrChunks).parallel().forEach(chunk -> {
+            final int firstPt = chunk * PARALLEL_CHUNK_SIZE;
+            transform(coords, firstPt, Math.min(PARALLEL_CHUNK_SIZE, nbrPts - firstPt));
+        });
+    }
+
+    /**
+     * Transforms a GeneralPath.
+     */
+    public GeneralPath transform(GeneralPath generalPath) {
+        java.awt.geom.PathIterator pi = generalPath.getPathIterator(null);
+        double[] coords = new double[6];
+        int segmentType;
+
+        GeneralPath newGeneralPath = new GeneralPath();
+        while (pi.isDone() == false) {
+            segmentType = pi.currentSegment(coords);
+            switch (segmentType) {
+                case java.awt.geom.PathIterator.SEG_CLOSE:
+                    newGeneralPath.closePath();
+                    break;
+                case java.awt.geom.PathIterator.SEG_LINETO:
+                    transform(coords, 1);
+                    newGeneralPath.lineTo((float) coords[0], (float) coords[1]);
+                    break;
+                case java.awt.geom.PathIterator.SEG_MOVETO:
+                    transform(coords, 1);
+                    newGeneralPath.moveTo((float) coords[0], (float) coords[1]);
+                    break;
+                case java.awt.geom.PathIterator.SEG_QUADTO:
+                    transform(coords, 2);
+                    newGeneralPath.quadTo((float) coords[0], (float) coords[1],
+                            (float) coords[2], (float) coords[3]);
+                    break;
+                case java.awt.geom.PathIterator.SEG_CUBICTO:
+                    transform(coords, 3);
+                    newGeneralPath.curveTo((float) coords[0], (float) coords[1],
+                            (float) coords[2], (float) coords[3],
+                            (float) coords[4], (float) coords[5]);
+                    break;
+                default:
+                    throw new IllegalArgumentException();
+            }
+            // move to next segment
+            pi.next();
+        }
+
+        return newGeneralPath;
+    }
+
+    public GeoPath transform(GeoPath geoPath) {
+        if (geoPath == null) {
+            throw new IllegalArgumentException();
+        }
+
+        GeoPath newGeoPath = new GeoPath();
+        newGeoPath.setPath(this.transform(geoPath.getPath()));
+        newGeoPath.setVectorSymbol(geoPath.getVectorSymbol().copy());
+        return newGeoPath;
+    }
+
+    public GeoPoint transform(GeoPoint geoPoint) {
+        if (geoPoint == null) {
+            throw new IllegalArgumentException();
+        }
+        final double[] point = {geoPoint.getX(), geoPoint.getY()};
+        this.transform(point, 1);
+        GeoPoint newGeoPoint = new GeoPoint(point[0], point[1]);
+        return newGeoPoint;
+    }
+
+    public GeoSet transform(GeoSet geoSet) {
+        if (geoSet == null) {
+            throw new IllegalArgumentException();
+        }
+
+        GeoSet newGeoSet = new GeoSet();
+        final int nbrGeoObjects = geoSet.getNumberOfChildren();
+        for (int i = 0; i < nbrGeoObjects; ++i) {
+            GeoObject geoObject = geoSet.getGeoObject(i);
+            GeoObject transformedGeoObj = null;
+            if (geoObject instanceof GeoSet) {
+                transformedGeoObj = this.transform((GeoSet) geoObject);
+            } else if (geoObject instanceof GeoPath) {
+                transformedGeoObj = this.transform((GeoPath) geoObject);
+            } else if (geoObject instanceof GeoPoint) {
+                transformedGeoObj = this.transform((GeoPoint) geoObject);
+            }
+            newGeoSet.addGeoObject(transformedGeoObj);
+        }
+        return newGeoSet;
+    }
+
+    /**
+     * Transforms all GeoObjects of a GeoSet using all available processors.
+     * The result is identical to the result of transform(GeoSet).
+     *
+     * @param geoSet the GeoSet to transform. Not changed.
+     * @return a new GeoSet with transformed GeoObjects in the same order.
+     */
+    public GeoSet transformParallel(GeoSet geoSet) {
+        if (geoSet == null) {
+            throw new IllegalArgumentException();
+        }
+
+        final int nbrGeoObjects = geoSet.getNumberOfChildren();
+        GeoObject[] transformedGeoObjects = IntStream.range(0, nbrGeoObjects)
+                .parallel()
+                .mapToObj(i -> {
+                    GeoObject geoObject = geoSet.getGeoObject(i);
+                    if (geoObject instanceof GeoSet) {
+                        return this.transformParallel((GeoSet) geoObject);
+                    } else if (geoObject instanceof GeoPath) {
+                        return this.transform((GeoPath) geoObject);
+                    } else if (geoObject instanceof GeoPoint) {
+                        return this.transform((GeoPoint) geoObject);
+                    }
+                    return null;
+                })
+                .toArray(GeoObject[]::new);
+
+        GeoSet newGeoSet = new GeoSet();
+        for (GeoObject transformedGeoObj : transformedGeoObjects) {
+            newGeoSet.addGeoObject(transformedGeoObj);
+        }
+        return newGeoSet;
+    }
+}
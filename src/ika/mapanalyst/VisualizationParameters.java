@@ -10,6 +10,7 @@ import ika.geo.osm.Projector;
 import java.awt.geom.*;
 import ika.transformation.Transformation;
 import ika.utils.CoordinateFormatter;
+import ika.utils.PointIndex;
 
 /**
  *
@@ -24,7 +25,7 @@ public final class VisualizationParameters {
     private final double[][] newPointsHull;
     private final double[][] transformedSourcePoints;
     private final boolean analyzeOldMap;
-    private final MultiquadricInterpolation multiquadricInterpolation;
+    private final RadialBasisFunctionInterpolation interpolation;
 
     // format of coordinate labels added to  distortion grid of old map
     private final CoordinateFormatter oldCoordinateFormatter;
@@ -35,6 +36,11 @@ public final class VisualizationParameters {
     private final Projector projector;
     private final boolean OSM;
 
+    // spatial indices of the control points, shared by all analyzers
+    private final PointIndex oldPointsIndex;
+    private final PointIndex newPointsIndex;
+    private final PointIndex transformedSourcePointsIndex;
+
     /**
      * Creates a new instance of VisualizationParameters
      */
@@ -45,7 +51,7 @@ public final class VisualizationParameters {
             double[][] newPointsHull,
             double[][] transformedSourcePoints,
             boolean analyzeOldMap,
-            MultiquadricInterpolation multiquadricInterpolation,
+            RadialBasisFunctionInterpolation interpolation,
             CoordinateFormatter oldCoordinateFormatter,
             CoordinateFormatter newCoordinateFormatter,
             Projector projector,
@@ -58,11 +64,15 @@ public final class VisualizationParameters {
         this.newPointsHull = newPointsHull;
         this.transformedSourcePoints = transformedSourcePoints;
         this.analyzeOldMap = analyzeOldMap;
-        this.multiquadricInterpolation = multiquadricInterpolation;
+        this.interpolation = interpolation;
         this.oldCoordinateFormatter = oldCoordinateFormatter;
         this.newCoordinateFormatter = newCoordinateFormatter;
         this.projector = projector;
         this.OSM = OSM;
+        this.oldPointsIndex = oldPoints == null ? null : new PointIndex(oldPoints);
+        this.newPointsIndex = newPoints == null ? null : new PointIndex(newPoints);
+        this.transformedSourcePointsIndex = transformedSourcePoints == null
+                ? null : new PointIndex(transformedSourcePoints);
     }
 
     protected Transformation getTransformation() {
@@ -89,6 +99,22 @@ public final class VisualizationParameters {
         return analyzeOldMap ? oldPoints : newPoints;
     }
 
+    /**
+     * Returns a spatial index of the points of the map that will NOT contain
+     * the generated graphics. Point indices correspond to getSrcPoints().
+     */
+    protected PointIndex getSrcPointsIndex() {
+        return analyzeOldMap ? newPointsIndex : oldPointsIndex;
+    }
+
+    /**
+     * Returns a spatial index of the points of the map that will contain the
+     * generated graphics. Point indices correspond to getDstPoints().
+     */
+    protected PointIndex getDstPointsIndex() {
+        return analyzeOldMap ? oldPointsIndex : newPointsIndex;
+    }
+
     protected Rectangle2D getSrcPointsExtension() {
         return Manager.findBoundingBox(analyzeOldMap ? newPoints : oldPoints);
     }
@@ -117,12 +143,20 @@ public final class VisualizationParameters {
         return transformedSourcePoints;
     }
 
+    /**
+     * Returns a spatial index of the transformed source points. Point indices
+     * correspond to getTransformedSourcePoints().
+     */
+    protected PointIndex getTransformedSourcePointsIndex() {
+        return transformedSourcePointsIndex;
+    }
+
     protected boolean isAnalyzeOldMap() {
         return analyzeOldMap;
     }
 
-    protected MultiquadricInterpolation getMultiquadricInterpolation() {
-        return multiquadricInterpolation;
+    protected RadialBasisFunctionInterpolation getInterpolation() {
+        return interpolation;
     }
 
     protected CoordinateFormatter getOldCoordinateFormatter() {
@@ -0,0 +1,518 @@
+/*
+ * WendlandInterpolation.java
+ */
+package ika.mapanalyst;
+
+import ika.utils.PointIndex;
+import java.util.stream.IntStream;
+
+/**
+ * Interpolation with Wendland's compactly supported radial basis function
+ * phi(r) = (1 - r)^4 (4r + 1) for r < 1, and phi(r) = 0 otherwise, where r is
+ * the distance divided by the support radius. Unlike the multiquadric
+ * function, each control point only influences points within the support
+ * radius. The system of linear equations is therefore sparse, and a point is
+ * transformed with the few control points found in a spatial index. For a
+ * constant number of control points per support, both the computation of the
+ * coefficients and the transformation of points require time proportional to
+ * the number of points, which makes this interpolation suitable for tens of
+ * thousands of control points.
+ *
+ * The function is positive definite in the plane, so the sparse system is
+ * symmetric and positive definite, and is solved with conjugate gradients
+ * preconditioned with an incomplete Cholesky factorization.
+ * The displacement is 0 farther than the support radius from all control
+ * points.
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+public class WendlandInterpolation extends RadialBasisFunctionInterpolation {
+
+    /**
+     * The automatic support radius is the mean distance between a control
+     * point and its NBR_NEIGHBOURS-th nearest neighbour.
+     */
+    private static final int NBR_NEIGHBOURS = 8;
+
+    /**
+     * Default relative residual of the conjugate gradient iterations.
+     */
+    public static final double DEFAULT_TOLERANCE = 1e-10;
+
+    /**
+     * Minimum number of conjugate gradient iterations before the iterations
+     * are considered to diverge. The number of control points is used if it is
+     * larger.
+     */
+    private static final int MIN_MAX_ITERATIONS = 1000;
+
+    /**
+     * Number of rows of the sparse matrix multiplied by a single task.
+     */
+    private static final int PARALLEL_CHUNK_SIZE = 256;
+
+    /**
+     * Support radius set by the user, or 0 for an automatic support radius.
+     */
+    private double supportRadius = 0;
+
+    /**
+     * Relative residual of the conjugate gradient iterations.
+     */
+    private double tolerance = DEFAULT_TOLERANCE;
+
+    /**
+     * Support radius used for the current coefficients.
+     */
+    private double radius;
+
+    /**
+     * Coefficients of the interpolation in x and y direction.
+     */
+    private double[] aCoeffArray, bCoeffArray;
+
+    /**
+     * Spatial index of the control points.
+     */
+    private PointIndex index;
+
+    /**
+     * Number of conjugate gradient iterations of the last solution for x and y.
+     */
+    private int iterations;
+
+    /**
+     * Buffers for the neighbours of a point, one per thread.
+     */
+    private static final ThreadLocal<Neighbours> NEIGHBOURS
+            = ThreadLocal.withInitial(Neighbours::new);
+
+    public WendlandInterpolation() {
+    }
+
+    /**
+     * Compute the coefficients for the interpolation.
+     *
+     * @param srcPoints The control point set of the start coordinate system.
+     * This set needs to be transformed to the destination coordinate system
+     * before calling this method.
+     * @param dstPoints The control points set of the destination coordinate
+     * system.
+     * @param exaggerationFactor Exaggeration factor for the differences
+     * between source and destination points.
+     */
+    public void solveCoefficients(double[][] srcPoints, double[][] dstPoints,
+            double exaggerationFactor) {
+
+        if (srcPoints.length == 0 || srcPoints.length != dstPoints.length) {
+            throw new IllegalArgumentException();
+        }
+
+        final int nbrPts = srcPoints.length;
+        double[] x = new double[nbrPts];
+        double[] y = new double[nbrPts];
+        double[] u = new double[nbrPts];   // differences in x direction
+        double[] w = new double[nbrPts];   // differences in y direction
+        for (int i = 0; i < nbrPts; i++) {
+            x[i] = srcPoints[i][0];
+            y[i] = srcPoints[i][1];
+            u[i] = (dstPoints[i][0] - srcPoints[i][0]) * exaggerationFactor;
+            w[i] = (dstPoints[i][1] - srcPoints[i][1]) * exaggerationFactor;
+        }
+        PointIndex pointIndex = new PointIndex(x, y);
+        final double r = supportRadius > 0 ? supportRadius
+                : automaticSupportRadius(pointIndex, x, y);
+
+        // sparse rows of the symmetric positive definite matrix
+        final int[][] cols = new int[nbrPts][];
+        final double[][] vals = new double[nbrPts][];
+        IntStream.range(0, nbrPts).parallel().forEach(i -> {
+            Neighbours nb = NEIGHBOURS.get();
+            final int n = nb.find(pointIndex, x[i], y[i], r);
+            // sort the neighbours by index
+            long[] sorted = new long[n];
+            for (int k = 0; k < n; k++) {
+                sorted[k] = (long) nb.indices[k] << 32 | k;
+            }
+            java.util.Arrays.sort(sorted);
+            cols[i] = new int[n];
+            vals[i] = new double[n];
+            for (int k = 0; k < n; k++) {
+                final int j = (int) (sorted[k] & 0xffffffffL);
+                cols[i][k] = nb.indices[j];
+                vals[i][k] = phi(Math.sqrt(nb.distSq[j]) / r);
+            }
+        });
+
+        iterations = 0;
+        IncompleteCholesky precond = new IncompleteCholesky(cols, vals);
+        double[] a = conjugateGradient(cols, vals, precond, u);
+        double[] b = conjugateGradient(cols, vals, precond, w);
+
+        this.index = pointIndex;
+        this.radius = r;
+        this.aCoeffArray = a;
+        this.bCoeffArray = b;
+    }
+
+    @Override
+    public WendlandInterpolation scaledCopy(double factor) {
+        WendlandInterpolation copy = new WendlandInterpolation();
+        copy.supportRadius = supportRadius;
+        copy.tolerance = tolerance;
+        copy.radius = radius;
+        copy.index = index;
+        copy.iterations = iterations;
+        copy.aCoeffArray = scale(aCoeffArray, factor);
+        copy.bCoeffArray = scale(bCoeffArray, factor);
+        return copy;
+    }
+
+    /**
+     * Returns the mean distance between the control points and their
+     * NBR_NEIGHBOURS-th nearest neighbour.
+     */
+    private static double automaticSupportRadius(PointIndex pointIndex,
+            double[] x, double[] y) {
+        final int nbrPts = x.length;
+        final int k = Math.min(NBR_NEIGHBOURS + 1, nbrPts);
+        int[] indices = new int[k];
+        double[] distSq = new double[k];
+        double sum = 0;
+        for (int i = 0; i < nbrPts; i++) {
+            final int n = pointIndex.kNearest(x[i], y[i], k, indices, distSq);
+            sum += Math.sqrt(distSq[n - 1]);
+        }
+        final double r = sum / nbrPts;
+        return r > 0 ? r : 1;
+    }
+
+    /**
+     * Wendland's function phi(3,1), which is twice continuously
+     * differentiable and positive definite in up to three dimensions.
+     *
+     * @param r Distance divided by the support radius.
+     * @return The function value.
+     */
+    private static double phi(double r) {
+        if (r >= 1) {
+            return 0;
+        }
+        final double t = 1 - r;
+        final double t2 = t * t;
+        return t2 * t2 * (4 * r + 1);
+    }
+
+    /**
+     * Solves a sparse symmetric positive definite system with conjugate
+     * gradients, preconditioned with an incomplete Cholesky factorization.
+     *
+     * @param cols Column indices of the non-zero elements of each row, sorted
+     * in increasing order.
+     * @param vals Values of the non-zero elements of each row.
+     * @param precond The incomplete Cholesky factorization of the matrix.
+     * @param rhs The right-hand side.
+     * @return The solution.
+     */
+    private double[] conjugateGradient(int[][] cols, double[][] vals,
+            IncompleteCholesky precond, double[] rhs) {
+        final int n = rhs.length;
+        final int maxIterations = Math.max(MIN_MAX_ITERATIONS, n);
+        double[] x = new double[n];
+        double[] r = rhs.clone();
+        double[] z = new double[n];
+        precond.solve(r, z);
+        double[] p = z.clone();
+        double[] q = new double[n];
+        final double rhsNorm = Math.sqrt(dot(rhs, rhs));
+        double rz = dot(r, z);
+        int it = 0;
+        while (Math.sqrt(dot(r, r)) > tolerance * rhsNorm) {
+            if (it++ == maxIterations) {
+                throw new RuntimeException("Conjugate gradient iterations did not converge.");
+            }
+            multiply(cols, vals, p, q);
+            final double alpha = rz / dot(p, q);
+            for (int i = 0; i < n; i++) {
+                x[i] += alpha * p[i];
+                r[i] -= alpha * q[i];
+            }
+            precond.solve(r, z);
+            final double rzNew = dot(r, z);
+            final double beta = rzNew / rz;
+            for (int i = 0; i < n; i++) {
+                p[i] = z[i] + beta * p[i];
+            }
+            rz = rzNew;
+        }
+        iterations += it;
+        return x;
+    }
+
+    /**
+     * Multiplies the sparse matrix with a vector using all available
+     * processors.
+     */
+    private static void multiply(int[][] cols, double[][] vals, double[] v, double[] result) {
+        final int n = v.length;
+        final int nbrChunks = (n + PARALLEL_CHUNK_SIZE - 1) / PARALLEL_CHUNK_SIZE;
+        IntStream.range(0, nbrChunks).parallel().forEach(chunk -> {
+            final int end = Math.min(n, (chunk + 1) * PARALLEL_CHUNK_SIZE);
+            for (int i = chunk * PARALLEL_CHUNK_SIZE; i < end; i++) {
+                final int[] c = cols[i];
+                final double[] a = vals[i];
+                double sum = 0;
+                for (int k = 0; k < c.length; k++) {
+                    sum += a[k] * v[c[k]];
+                }
+                result[i] = sum;
+            }
+        });
+    }
+
+    private static double dot(double[] v1, double[] v2) {
+        double sum = 0;
+        for (int i = 0; i < v1.length; i++) {
+            sum += v1[i] * v2[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the support radius set with setSupportRadius.
+     *
+     * @return the support radius, or 0 if the support radius is computed
+     * automatically.
+     */
+    public double getSupportRadius() {
+        return supportRadius;
+    }
+
+    /**
+     * Sets the support radius. A larger radius results in a smoother
+     * interpolation, but in more non-zero elements and slower computations.
+     * The new radius is used by the next call to solveCoefficients.
+     *
+     * @param supportRadius the support radius in units of the destination
+     * coordinate system, or 0 for a radius that is computed from the density
+     * of the control points.
+     */
+    public void setSupportRadius(double supportRadius) {
+        if (supportRadius < 0 || Double.isNaN(supportRadius)) {
+            throw new IllegalArgumentException("invalid support radius");
+        }
+        this.supportRadius = supportRadius;
+    }
+
+    /**
+     * Returns the support radius used for the current coefficients.
+     *
+     * @return the support radius, or 0 if no coefficients have been computed.
+     */
+    public double getEffectiveSupportRadius() {
+        return radius;
+    }
+
+    /**
+     * Returns the relative residual of the conjugate gradient iterations.
+     *
+     * @return the tolerance
+     */
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Sets the relative residual of the conjugate gradient iterations.
+     *
+     * @param tolerance the tolerance
+     */
+    public void setTolerance(double tolerance) {
+        if (!(tolerance > 0)) {
+            throw new IllegalArgumentException("invalid tolerance");
+        }
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Returns the total number of conjugate gradient iterations for the x and
+     * y coefficients of the last call to solveCoefficients.
+     *
+     * @return the number of iterations
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    @Override
+    protected void transform(double[][] points, int firstPt, int nbrPts) {
+        final int endPt = firstPt + nbrPts;
+        for (int i = firstPt; i < endPt; i++) {
+            addCorrection(points[i], 0);
+        }
+    }
+
+    @Override
+    protected void transform(double[] coords, int firstPt, int nbrPts) {
+        final int endPt = firstPt + nbrPts;
+        for (int i = firstPt; i < endPt; ++i) {
+            addCorrection(coords, i * 2);
+        }
+    }
+
+    /**
+     * Computes the interpolated displacement for a single point with the
+     * control points within the support radius, and adds it to the point.
+     *
+     * @param xy Array containing the point.
+     * @param offset Position of the x coordinate in xy. The y coordinate is
+     * at offset + 1.
+     */
+    private void addCorrection(double[] xy, int offset) {
+        final double x = xy[offset];
+        final double y = xy[offset + 1];
+        final Neighbours nb = NEIGHBOURS.get();
+        final int n = nb.find(index, x, y, radius);
+        final int[] indices = nb.indices;
+        final double[] distSq = nb.distSq;
+        double corrX = 0, corrY = 0;
+        for (int k = 0; k < n; k++) {
+            final double f = phi(Math.sqrt(distSq[k]) / radius);
+            corrX += aCoeffArray[indices[k]] * f;
+            corrY += bCoeffArray[indices[k]] * f;
+        }
+        xy[offset] = x + corrX;
+        xy[offset + 1] = y + corrY;
+    }
+
+    /**
+     * Incomplete Cholesky factorization without fill-in, which is used as a
+     * preconditioner. The factor L has the sparsity pattern of the lower
+     * triangle of the matrix. The incomplete factorization of a positive
+     * definite matrix can have negative pivots; the diagonal is then increased
+     * until the factorization succeeds.
+     */
+    private static final class IncompleteCholesky {
+
+        /**
+         * Column indices and values of the elements of L left of the diagonal.
+         */
+        private final int[][] lowerCols;
+        private final double[][] lowerVals;
+
+        /**
+         * Diagonal of L.
+         */
+        private final double[] diag;
+
+        private IncompleteCholesky(int[][] cols, double[][] vals) {
+            final int n = cols.length;
+            lowerCols = new int[n][];
+            lowerVals = new double[n][];
+            diag = new double[n];
+            for (int i = 0; i < n; i++) {
+                int k = 0;
+                while (k < cols[i].length && cols[i][k] < i) {
+                    k++;
+                }
+                lowerCols[i] = java.util.Arrays.copyOf(cols[i], k);
+            }
+            double shift = 0;
+            while (!factorize(cols, vals, shift)) {
+                shift = shift == 0 ? 1e-3 : shift * 2;
+            }
+        }
+
+        /**
+         * Computes the factorization of the matrix with a diagonal scaled by
+         * 1 + shift.
+         *
+         * @return false if a pivot is not positive.
+         */
+        private boolean factorize(int[][] cols, double[][] vals, double shift) {
+            final int n = cols.length;
+            for (int i = 0; i < n; i++) {
+                final int[] ci = lowerCols[i];
+                final double[] li = lowerVals[i] = new double[ci.length];
+                double aii = 0;
+                for (int k = 0; k < cols[i].length; k++) {
+                    if (cols[i][k] == i) {
+                        aii = vals[i][k] * (1 + shift);
+                    }
+                }
+                for (int k = 0; k < ci.length; k++) {
+                    final int j = ci[k];
+                    // sparse dot product of row i and row j of L left of j
+                    final int[] cj = lowerCols[j];
+                    final double[] lj = lowerVals[j];
+                    double sum = vals[i][k];
+                    for (int p = 0, q = 0; p < k && q < cj.length;) {
+                        if (ci[p] < cj[q]) {
+                            p++;
+                        } else if (ci[p] > cj[q]) {
+                            q++;
+                        } else {
+                            sum -= li[p++] * lj[q++];
+                        }
+                    }
+                    li[k] = sum / diag[j];
+                    aii -= li[k] * li[k];
+                }
+                if (!(aii > 0)) {
+                    return false;
+                }
+                diag[i] = Math.sqrt(aii);
+            }
+            return true;
+        }
+
+        /**
+         * Solves L L' z = r.
+         */
+        private void solve(double[] r, double[] z) {
+            final int n = r.length;
+            for (int i = 0; i < n; i++) {
+                final int[] ci = lowerCols[i];
+                final double[] li = lowerVals[i];
+                double sum = r[i];
+                for (int k = 0; k < ci.length; k++) {
+                    sum -= li[k] * z[ci[k]];
+                }
+                z[i] = sum / diag[i];
+            }
+            for (int i = n - 1; i >= 0; i--) {
+                final int[] ci = lowerCols[i];
+                final double[] li = lowerVals[i];
+                final double zi = z[i] /= diag[i];
+                for (int k = 0; k < ci.length; k++) {
+                    z[ci[k]] -= li[k] * zi;
+                }
+            }
+        }
+    }
+
+    /**
+     * Buffers for the result of a radius query, which grow when needed.
+     */
+    private static final class Neighbours {
+
+        private int[] indices = new int[64];
+        private double[] distSq = new double[64];
+
+        /**
+         * Finds the points within a radius and stores them in the buffers.
+         *
+         * @return The number of points found.
+         */
+        private int find(PointIndex pointIndex, double x, double y, double r) {
+            int n = pointIndex.withinRadius(x, y, r, indices, distSq);
+            if (n > indices.length) {
+                indices = new int[n * 2];
+                distSq = new double[n * 2];
+                n = pointIndex.withinRadius(x, y, r, indices, distSq);
+            }
+            return n;
+        }
+    }
+}
@@ -9,6 +9,7 @@ import java.io.*;
 import ika.utils.NumberFormatter;
 import ika.geo.*;
 import java.text.DecimalFormat;
+import java.util.stream.IntStream;
 
 /**
  * Base class for geometric 2D transformations between two sets of points, where
@@ -26,6 +27,12 @@ public abstract class Transformation implements Serializable {
      */
     protected static final double SCALE_TO_INVERT = 0.01;
 
+    /**
+     * Number of points transformed by a single task when points are
+     * transformed in parallel.
+     */
+    private static final int PARALLEL_CHUNK_SIZE = 1024;
+
     /**
      * The residuals between the two point sets, with the source set transformed
      * to the destination set. Only not null and valid after a call to init().
@@ -294,6 +301,28 @@ public abstract class Transformation implements Serializable {
         this.transform(points, 0, 1);
     }
 
+    /**
+     * Transforms an array of points using all available processors. The points
+     * are split into chunks that are transformed in parallel. The result is
+     * identical to the result of transform(double[][]).
+     *
+     * @param points The points to be transformed. X-coordinates are stored in
+     * the first column, y-coordinates in the second column. The transformed
+     * points overwrite the original values.
+     */
+    public void transformParallel(double[][] points) {
+        final int nbrPts = points.length;
+        final int nbrChunks = (nbrPts + PARALLEL_CHUNK_SIZE - 1) / PARALLEL_CHUNK_SIZE;
+        if (nbrChunks < 2) {
+            transform(points, 0, 1, 0, nbrPts);
+            return;
+        }
+        IntStream.range(0, nbrChunks).parallel().forEach(chunk -> {
+            final int firstPt = chunk * PARALLEL_CHUNK_SIZE;
+            transform(points, 0, 1, firstPt, Math.min(PARALLEL_CHUNK_SIZE, nbrPts - firstPt));
+        });
+    }
+
     public void transform(double[] coords, int nbrPts) {
         double[] pt = new double[2];
 
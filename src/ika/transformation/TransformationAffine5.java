@@ -532,13 +532,16 @@ public class TransformationAffine5 extends Transformation implements Serializabl
      * @param points The point to be transformed.
      * @param xid The column of points[] containing the x-coordinate.
      * @param yid The column of points[] containing the y-coordinate.
+     * @param firstPoint The row of the first point to be transformed.
+     * @param nbrPoints The number of points to be transformed.
      */
     @Override
-    public void transform(double[][] points, int xid, int yid) {
+    public void transform(double[][] points, int xid, int yid,
+            int firstPoint, int nbrPoints) {
         final double cosRot = Math.cos(this.params[ROT]);
         final double sinRot = Math.sin(this.params[ROT]);
         
-        for (int i = 0; i < points.length; i++) {
+        for (int i = firstPoint; i < firstPoint + nbrPoints; i++) {
             final double xSrc = points[i][xid] - this.cxSrc;
             final double ySrc = points[i][yid] - this.cySrc;
             points[i][xid] = cxDst
@@ -568,6 +571,29 @@ public class TransformationAffine5 extends Transformation implements Serializabl
         this.parameterTolerance = parameterTolerance;
     }
     
+    /**
+     * Transform an array of points from the coordinate system of the source set
+     * to the coordinate system of destination set without allocating memory.
+     * The transformed points overwrite the original values in the coords array.
+     * @param coords The points to be transformed, x and y alternating.
+     * @param nbrPts The number of points to be transformed.
+     */
+    @Override
+    public void transform(double[] coords, int nbrPts) {
+        final double cosRot = Math.cos(this.params[ROT]);
+        final double sinRot = Math.sin(this.params[ROT]);
+        final double sxCos = this.params[SCALEX] * cosRot;
+        final double sxSin = this.params[SCALEX] * sinRot;
+        final double syCos = this.params[SCALEY] * cosRot;
+        final double sySin = this.params[SCALEY] * sinRot;
+        for (int i = 0; i < nbrPts * 2; i += 2) {
+            final double xSrc = coords[i] - this.cxSrc;
+            final double ySrc = coords[i + 1] - this.cySrc;
+            coords[i] = cxDst + sxCos * xSrc - sySin * ySrc;
+            coords[i + 1] = cyDst + sxSin * xSrc + syCos * ySrc;
+        }
+    }
+    
     public java.awt.geom.AffineTransform getAffineTransform() {
         return null;
     }
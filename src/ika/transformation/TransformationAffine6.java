@@ -539,10 +539,13 @@ public class TransformationAffine6 extends Transformation implements Serializabl
      * @param points The point to be transformed.
      * @param xid The column of points[] containing the t-coordinate.
      * @param yid The column of points[] containing the y-coordinate.
+     * @param firstPoint The row of the first point to be transformed.
+     * @param nbrPoints The number of points to be transformed.
      */
     @Override
-    public void transform(double[][] points, int xid, int yid) {
-        for (int i = 0; i < points.length; i++) {
+    public void transform(double[][] points, int xid, int yid,
+            int firstPoint, int nbrPoints) {
+        for (int i = firstPoint; i < firstPoint + nbrPoints; i++) {
             final double x = points[i][xid];
             final double y = points[i][yid];
             points[i][xid] = a1 + a2 * x + a3 * y;
@@ -550,6 +553,23 @@ public class TransformationAffine6 extends Transformation implements Serializabl
         }
     }
     
+    /**
+     * Transform an array of points from the coordinate system of the source set
+     * to the coordinate system of destination set without allocating memory.
+     * The transformed points overwrite the original values in the coords array.
+     * @param coords The points to be transformed, x and y alternating.
+     * @param nbrPts The number of points to be transformed.
+     */
+    @Override
+    public void transform(double[] coords, int nbrPts) {
+        for (int i = 0; i < nbrPts * 2; i += 2) {
+            final double x = coords[i];
+            final double y = coords[i + 1];
+            coords[i] = a1 + a2 * x + a3 * y;
+            coords[i + 1] = b1 + b2 * x + b3 * y;
+        }
+    }
+    
     public java.awt.geom.AffineTransform getAffineTransform() {
        return null; 
     }
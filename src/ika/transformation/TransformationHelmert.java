@@ -381,9 +381,13 @@ public class TransformationHelmert extends Transformation implements Serializabl
      * @param points The point to be transformed.
      * @param xid The column of points[] containing the x-coordinate.
      * @param yid The column of points[] containing the y-coordinate.
+     * @param firstPoint The row of the first point to be transformed.
+     * @param nbrPoints The number of points to be transformed.
      */
-    public void transform(double[][] points, int xid, int yid) {
-        for (int i = 0; i < points.length; i++) {
+    @Override
+    public void transform(double[][] points, int xid, int yid,
+            int firstPoint, int nbrPoints) {
+        for (int i = firstPoint; i < firstPoint + nbrPoints; i++) {
             final double xSrc = points[i][xid] - this.cxSrc;
             final double ySrc = points[i][yid] - this.cySrc;
             points[i][xid] = this.a1*xSrc-this.a2*ySrc+this.cxDst;
@@ -391,6 +395,23 @@ public class TransformationHelmert extends Transformation implements Serializabl
         }
     }
     
+    /**
+     * Transform an array of points from the coordinate system of the source set
+     * to the coordinate system of destination set without allocating memory.
+     * The transformed points overwrite the original values in the coords array.
+     * @param coords The points to be transformed, x and y alternating.
+     * @param nbrPts The number of points to be transformed.
+     */
+    @Override
+    public void transform(double[] coords, int nbrPts) {
+        for (int i = 0; i < nbrPts * 2; i += 2) {
+            final double xSrc = coords[i] - this.cxSrc;
+            final double ySrc = coords[i + 1] - this.cySrc;
+            coords[i] = this.a1 * xSrc - this.a2 * ySrc + this.cxDst;
+            coords[i + 1] = this.a2 * xSrc + this.a1 * ySrc + this.cyDst;
+        }
+    }
+    
     public java.awt.geom.AffineTransform getAffineTransform() {
         java.awt.geom.AffineTransform trans = new java.awt.geom.AffineTransform();
         trans.setTransform(a1, -a2, cxDst-cxSrc, a2, a1, cyDst-cySrc);
@@ -623,6 +623,23 @@ public class TransformationRobustHelmert extends Transformation implements Seria
                     params[A2]*point[0]+params[A1]*point[1]+params[TRANSY]};
     }
     
+    /**
+     * Transform an array of points from the coordinate system of the source set
+     * to the coordinate system of destination set without allocating memory.
+     * The transformed points overwrite the original values in the coords array.
+     * @param coords The points to be transformed, x and y alternating.
+     * @param nbrPts The number of points to be transformed.
+     */
+    @Override
+    public void transform(double[] coords, int nbrPts) {
+        for (int i = 0; i < nbrPts * 2; i += 2) {
+            final double x = coords[i];
+            final double y = coords[i + 1];
+            coords[i] = params[A1] * x - params[A2] * y + params[TRANSX];
+            coords[i + 1] = params[A2] * x + params[A1] * y + params[TRANSY];
+        }
+    }
+    
     public java.awt.geom.AffineTransform getAffineTransform() {
        return null; 
     }
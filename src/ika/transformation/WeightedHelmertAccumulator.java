@@ -0,0 +1,217 @@
+/*
+ * WeightedHelmertAccumulator.java
+ */
+package ika.transformation;
+
+/**
+ * Least squares adjustment of a weighted planar Helmert transformation with
+ * four parameters, computed in closed form from weighted sums of the point
+ * coordinates. Pairs of points are added one after the other, and scale and
+ * rotation can be queried at any time. No memory is allocated, and the
+ * accumulator can be reset and reused, for example, for every node of a grid.
+ *
+ * X = tx + a1 * x - a2 * y
+ * Y = ty + a2 * x + a1 * y
+ *
+ * The results are identical to a least squares adjustment with normal
+ * equations, as in TransformationWeightedHelmert, up to rounding. Coordinates
+ * are accumulated relative to the first pair of points to reduce rounding
+ * errors.
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+public final class WeightedHelmertAccumulator {
+
+    /**
+     * Number of added pairs of points.
+     */
+    private int nbrPts;
+
+    /**
+     * Origin of the source and destination coordinates.
+     */
+    private double x0, y0, X0, Y0;
+
+    /**
+     * Sum of weights.
+     */
+    private double sw;
+
+    /**
+     * Weighted sums of source and destination coordinates.
+     */
+    private double sx, sy, sX, sY;
+
+    /**
+     * Weighted sums of x*x+y*y and X*X+Y*Y.
+     */
+    private double sxx, sXX;
+
+    /**
+     * Weighted sums of x*X+y*Y and x*Y-y*X.
+     */
+    private double sa, sb;
+
+    /**
+     * Creates an empty accumulator.
+     */
+    public WeightedHelmertAccumulator() {
+    }
+
+    /**
+     * Removes all points.
+     */
+    public void reset() {
+        nbrPts = 0;
+        sw = sx = sy = sX = sY = sxx = sXX = sa = sb = 0;
+    }
+
+    /**
+     * Adds a pair of points.
+     *
+     * @param x horizontal coordinate of the source point
+     * @param y vertical coordinate of the source point
+     * @param X horizontal coordinate of the destination point
+     * @param Y vertical coordinate of the destination point
+     * @param w weight of the pair, larger than 0
+     */
+    public void add(double x, double y, double X, double Y, double w) {
+        if (nbrPts == 0) {
+            x0 = x;
+            y0 = y;
+            X0 = X;
+            Y0 = Y;
+        }
+        x -= x0;
+        y -= y0;
+        X -= X0;
+        Y -= Y0;
+        sw += w;
+        sx += w * x;
+        sy += w * y;
+        sX += w * X;
+        sY += w * Y;
+        sxx += w * (x * x + y * y);
+        sXX += w * (X * X + Y * Y);
+        sa += w * (x * X + y * Y);
+        sb += w * (x * Y - y * X);
+        nbrPts++;
+    }
+
+    /**
+     * Returns the number of added pairs of points.
+     *
+     * @return the number of pairs
+     */
+    public int getNumberOfPoints() {
+        return nbrPts;
+    }
+
+    /**
+     * Weighted sum of squared distances of source points to their weighted
+     * centroid.
+     */
+    private double d() {
+        return sxx - (sx * sx + sy * sy) / sw;
+    }
+
+    /**
+     * Parameter a1 = scale * cos(rotation).
+     */
+    private double a1() {
+        return (sa - (sx * sX + sy * sY) / sw) / d();
+    }
+
+    /**
+     * Parameter a2 = scale * sin(rotation).
+     */
+    private double a2() {
+        return (sb - (sx * sY - sy * sX) / sw) / d();
+    }
+
+    /**
+     * Returns the scale factor.
+     *
+     * @return the scale factor, or NaN if fewer than 2 pairs of points have
+     * been added
+     */
+    public double getScale() {
+        if (nbrPts < 2) {
+            return Double.NaN;
+        }
+        final double a1 = a1();
+        final double a2 = a2();
+        return Math.sqrt(a1 * a1 + a2 * a2);
+    }
+
+    /**
+     * Returns the rotation angle.
+     *
+     * @return the counter-clockwise rotation in radians between 0 and 2*PI, or
+     * NaN if fewer than 2 pairs of points have been added
+     */
+    public double getRotation() {
+        if (nbrPts < 2) {
+            return Double.NaN;
+        }
+        final double rot = Math.atan2(a2(), a1());
+        return rot < 0 ? rot + Math.PI * 2 : rot;
+    }
+
+    /**
+     * Returns the standard deviation of unit weight.
+     *
+     * @return sigma 0, or NaN if fewer than 3 pairs of points have been added
+     */
+    public double getSigma0() {
+        if (nbrPts < 3) {
+            return Double.NaN;
+        }
+        final double d = d();
+        final double a = sa - (sx * sX + sy * sY) / sw;
+        final double b = sb - (sx * sY - sy * sX) / sw;
+        final double vTPv = sXX - (sX * sX + sY * sY) / sw - (a * a + b * b) / d;
+        return Math.sqrt(Math.max(0, vTPv) / (2 * nbrPts - 4));
+    }
+
+    /**
+     * Returns the standard deviation of the scale factor.
+     *
+     * @return the sigma of the scale, or NaN if fewer than 3 pairs of points
+     * have been added
+     */
+    public double getScaleSigma() {
+        return getSigma0() / Math.sqrt(d());
+    }
+
+    /**
+     * Returns the standard deviation of the rotation angle.
+     *
+     * @return the sigma of the rotation in radians, or NaN if fewer than 3
+     * pairs of points have been added
+     */
+    public double getRotationSigma() {
+        return getScaleSigma() / getScale();
+    }
+
+    /**
+     * Writes scale and rotation to an array in the format of
+     * TransformationWeightedHelmert.initWithPoints().
+     *
+     * @param scaleRot receives the scale factor and the rotation in degrees
+     * between 0 and 360. Both values are NaN if fewer than 2 pairs of points
+     * have been added.
+     */
+    public void getScaleAndRotation(float[] scaleRot) {
+        if (nbrPts < 2) {
+            scaleRot[0] = scaleRot[1] = Float.NaN;
+            return;
+        }
+        final double a1 = a1();
+        final double a2 = a2();
+        scaleRot[0] = (float) Math.sqrt(a1 * a1 + a2 * a2);
+        final float rotDegree = (float) Math.toDegrees(Math.atan2(a2, a1));
+        scaleRot[1] = (rotDegree < 0.f) ? rotDegree + 360.f : rotDegree;
+    }
+}
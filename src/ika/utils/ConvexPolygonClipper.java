@@ -0,0 +1,254 @@
+/*
+ * ConvexPolygonClipper.java
+ */
+package ika.utils;
+
+/**
+ * Clips polylines with a convex polygon. Each line segment is clipped with the
+ * Cyrus-Beck algorithm against the half-planes bounded by the polygon edges,
+ * which is a generalization of the Liang-Barsky algorithm for rectangles.
+ * Clipped lines are written to a reusable Lines buffer, such that clipping does
+ * not allocate memory once the buffer is large enough.
+ *
+ * The clipper is immutable and can be used concurrently by multiple threads,
+ * each with its own Lines buffer. GeometryUtils.clipPolylineWithPolygon()
+ * clips with polygons that are not convex.
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+public class ConvexPolygonClipper {
+
+    /**
+     * Lines resulting from clipping a polyline. The vertices of all lines are
+     * stored in a single array.
+     */
+    public static final class Lines {
+
+        /**
+         * Vertices of all lines, x and y alternating.
+         */
+        private double[] xy = new double[64];
+
+        /**
+         * Index of the first vertex of each line, with one additional element.
+         */
+        private int[] lineStart = new int[8];
+
+        /**
+         * Number of lines.
+         */
+        private int nbrLines = 0;
+
+        /**
+         * Number of vertices of all lines.
+         */
+        private int nbrPts = 0;
+
+        /**
+         * Returns the number of lines.
+         *
+         * @return The number of lines.
+         */
+        public int getNumberOfLines() {
+            return nbrLines;
+        }
+
+        /**
+         * Returns the number of vertices of a line.
+         *
+         * @param line The line index.
+         * @return The number of vertices.
+         */
+        public int getNumberOfPoints(int line) {
+            return lineStart[line + 1] - lineStart[line];
+        }
+
+        /**
+         * Returns the horizontal coordinate of a vertex.
+         *
+         * @param line The line index.
+         * @param pt The vertex index in the line.
+         * @return The x coordinate.
+         */
+        public double getX(int line, int pt) {
+            return xy[(lineStart[line] + pt) * 2];
+        }
+
+        /**
+         * Returns the vertical coordinate of a vertex.
+         *
+         * @param line The line index.
+         * @param pt The vertex index in the line.
+         * @return The y coordinate.
+         */
+        public double getY(int line, int pt) {
+            return xy[(lineStart[line] + pt) * 2 + 1];
+        }
+
+        /**
+         * Copies the vertices of a line to a new array.
+         *
+         * @param line The line index.
+         * @return The vertices as an array of xy-arrays.
+         */
+        public double[][] toArray(int line) {
+            double[][] a = new double[getNumberOfPoints(line)][2];
+            for (int i = 0; i < a.length; i++) {
+                a[i][0] = getX(line, i);
+                a[i][1] = getY(line, i);
+            }
+            return a;
+        }
+
+        private void clear() {
+            nbrLines = 0;
+            nbrPts = 0;
+            lineStart[0] = 0;
+        }
+
+        private void addPoint(double x, double y) {
+            if (xy.length < nbrPts * 2 + 2) {
+                xy = java.util.Arrays.copyOf(xy, xy.length * 2);
+            }
+            xy[nbrPts * 2] = x;
+            xy[nbrPts * 2 + 1] = y;
+            nbrPts++;
+        }
+
+        /**
+         * Ends the current line. Lines with fewer than 2 vertices are
+         * discarded.
+         */
+        private void endLine() {
+            if (nbrPts - lineStart[nbrLines] < 2) {
+                nbrPts = lineStart[nbrLines];
+                return;
+            }
+            if (lineStart.length < nbrLines + 2) {
+                lineStart = java.util.Arrays.copyOf(lineStart, lineStart.length * 2);
+            }
+            lineStart[++nbrLines] = nbrPts;
+        }
+    }
+
+    /**
+     * Inward pointing normals of the polygon edges.
+     */
+    private final double[] nx, ny;
+
+    /**
+     * Dot product of the normal with a point on the edge. A point is inside
+     * the half-plane of edge i if nx[i] * x + ny[i] * y &gt;= c[i].
+     */
+    private final double[] c;
+
+    /**
+     * Creates a clipper for a convex polygon.
+     *
+     * @param polygon The vertices of the convex polygon in clockwise or
+     * counter-clockwise order. The polygon can be closed, i.e. the first and
+     * the last vertex can be identical.
+     */
+    public ConvexPolygonClipper(double[][] polygon) {
+        if (polygon == null || polygon.length < 3) {
+            throw new IllegalArgumentException("invalid polygon");
+        }
+
+        // orient the normals towards the inside of the polygon
+        double area = 0;
+        for (int i = 0; i < polygon.length; i++) {
+            final double[] p0 = polygon[i];
+            final double[] p1 = polygon[(i + 1) % polygon.length];
+            area += p0[0] * p1[1] - p1[0] * p0[1];
+        }
+        final double orientation = area < 0 ? -1 : 1;
+
+        double[] edgeNX = new double[polygon.length];
+        double[] edgeNY = new double[polygon.length];
+        double[] edgeC = new double[polygon.length];
+        int nbrEdges = 0;
+        for (int i = 0; i < polygon.length; i++) {
+            final double[] p0 = polygon[i];
+            final double[] p1 = polygon[(i + 1) % polygon.length];
+            final double dx = p1[0] - p0[0];
+            final double dy = p1[1] - p0[1];
+            if (dx == 0 && dy == 0) {
+                continue;
+            }
+            edgeNX[nbrEdges] = -dy * orientation;
+            edgeNY[nbrEdges] = dx * orientation;
+            edgeC[nbrEdges] = edgeNX[nbrEdges] * p0[0] + edgeNY[nbrEdges] * p0[1];
+            nbrEdges++;
+        }
+        nx = java.util.Arrays.copyOf(edgeNX, nbrEdges);
+        ny = java.util.Arrays.copyOf(edgeNY, nbrEdges);
+        c = java.util.Arrays.copyOf(edgeC, nbrEdges);
+    }
+
+    /**
+     * Clips a polyline with the polygon. Vertices of the polyline inside the
+     * polygon are retained, and intersection points with the polygon border
+     * are inserted where the polyline enters or leaves the polygon.
+     *
+     * @param polyline The vertices of the polyline.
+     * @param nbrPts The number of vertices of the polyline.
+     * @param lines Receives the clipped lines. Previous content is replaced.
+     * @return The number of clipped lines.
+     */
+    public int clip(double[][] polyline, int nbrPts, Lines lines) {
+        lines.clear();
+        boolean inside = false;
+        for (int i = 1; i < nbrPts; i++) {
+            final double x0 = polyline[i - 1][0];
+            final double y0 = polyline[i - 1][1];
+            final double dx = polyline[i][0] - x0;
+            final double dy = polyline[i][1] - y0;
+
+            // parametric interval [tIn, tOut] of the segment inside all
+            // half-planes
+            double tIn = 0, tOut = 1;
+            for (int e = 0; e < c.length && tIn < tOut; e++) {
+                final double num = nx[e] * x0 + ny[e] * y0 - c[e];
+                final double den = nx[e] * dx + ny[e] * dy;
+                if (den == 0) {
+                    // segment parallel to edge
+                    if (num < 0) {
+                        tOut = -1;
+                    }
+                } else {
+                    final double t = -num / den;
+                    if (den > 0) {
+                        tIn = Math.max(tIn, t);
+                    } else {
+                        tOut = Math.min(tOut, t);
+                    }
+                }
+            }
+
+            if (tIn >= tOut) {
+                // segment outside or touching the polygon
+                if (inside) {
+                    lines.endLine();
+                    inside = false;
+                }
+                continue;
+            }
+            if (!inside) {
+                lines.addPoint(x0 + tIn * dx, y0 + tIn * dy);
+                inside = true;
+            }
+            if (tOut < 1) {
+                lines.addPoint(x0 + tOut * dx, y0 + tOut * dy);
+                lines.endLine();
+                inside = false;
+            } else {
+                lines.addPoint(polyline[i][0], polyline[i][1]);
+            }
+        }
+        if (inside) {
+            lines.endLine();
+        }
+        return lines.nbrLines;
+    }
+}
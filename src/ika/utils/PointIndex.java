@@ -0,0 +1,336 @@
+/*
+ * PointIndex.java
+ */
+package ika.utils;
+
+/**
+ * A spatial index for a set of points. The points are sorted into the cells of
+ * a regular grid, such that each cell contains a few points on average. The
+ * index answers nearest neighbour and radius queries without comparing with
+ * all points. The index is immutable and can be queried concurrently by
+ * multiple threads.
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+public class PointIndex {
+
+    /**
+     * Average number of points per grid cell.
+     */
+    private static final int POINTS_PER_CELL = 4;
+
+    /**
+     * Horizontal coordinates of the points.
+     */
+    private final double[] x;
+
+    /**
+     * Vertical coordinates of the points.
+     */
+    private final double[] y;
+
+    /**
+     * Western and southern border of the grid.
+     */
+    private final double west, south;
+
+    /**
+     * Largest horizontal and vertical coordinates of the points.
+     */
+    private final double east, north;
+
+    /**
+     * Size of a grid cell.
+     */
+    private final double cellSize;
+
+    /**
+     * Number of columns and rows of the grid.
+     */
+    private final int cols, rows;
+
+    /**
+     * Indices of the points sorted by grid cells. The points in cell c are
+     * cellPoints[cellStart[c]] to cellPoints[cellStart[c + 1] - 1].
+     */
+    private final int[] cellPoints;
+
+    /**
+     * Start of each cell in cellPoints, with one additional element.
+     */
+    private final int[] cellStart;
+
+    /**
+     * Creates an index for a set of points.
+     *
+     * @param points The points as an array of xy-arrays. The coordinates are
+     * copied.
+     */
+    public PointIndex(double[][] points) {
+        this(xCoordinates(points), yCoordinates(points));
+    }
+
+    /**
+     * Creates an index for a set of points.
+     *
+     * @param x Horizontal coordinates of the points. The array is not copied
+     * and must not be changed.
+     * @param y Vertical coordinates of the points. The array is not copied and
+     * must not be changed.
+     */
+    public PointIndex(double[] x, double[] y) {
+        if (x.length != y.length) {
+            throw new IllegalArgumentException();
+        }
+        this.x = x;
+        this.y = y;
+        final int nbrPts = x.length;
+
+        double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < nbrPts; i++) {
+            minX = Math.min(minX, x[i]);
+            maxX = Math.max(maxX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxY = Math.max(maxY, y[i]);
+        }
+        if (nbrPts == 0) {
+            minX = maxX = minY = maxY = 0;
+        }
+        final double w = maxX - minX;
+        final double h = maxY - minY;
+        final int nbrCells = Math.max(1, nbrPts / POINTS_PER_CELL);
+        double size = Math.sqrt(w * h / nbrCells);
+        if (!(size > 0)) {
+            // all points on a horizontal or vertical line, or a single point
+            size = Math.max(Math.max(w, h) / nbrCells, Double.MIN_NORMAL);
+        }
+        west = minX;
+        south = minY;
+        east = maxX;
+        north = maxY;
+        cellSize = size;
+        cols = Math.min((int) (w / size) + 1, nbrPts + 1);
+        rows = Math.min((int) (h / size) + 1, nbrPts + 1);
+
+        // counting sort of point indices by cell
+        cellStart = new int[cols * rows + 1];
+        int[] pointCell = new int[nbrPts];
+        for (int i = 0; i < nbrPts; i++) {
+            pointCell[i] = cell(col(x[i]), row(y[i]));
+            cellStart[pointCell[i] + 1]++;
+        }
+        for (int c = 0; c < cols * rows; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        cellPoints = new int[nbrPts];
+        int[] fill = new int[cols * rows];
+        for (int i = 0; i < nbrPts; i++) {
+            final int c = pointCell[i];
+            cellPoints[cellStart[c] + fill[c]++] = i;
+        }
+    }
+
+    private static double[] xCoordinates(double[][] points) {
+        double[] x = new double[points.length];
+        for (int i = 0; i < points.length; i++) {
+            x[i] = points[i][0];
+        }
+        return x;
+    }
+
+    private static double[] yCoordinates(double[][] points) {
+        double[] y = new double[points.length];
+        for (int i = 0; i < points.length; i++) {
+            y[i] = points[i][1];
+        }
+        return y;
+    }
+
+    private int col(double px) {
+        return Math.max(0, Math.min(cols - 1, (int) ((px - west) / cellSize)));
+    }
+
+    private int row(double py) {
+        return Math.max(0, Math.min(rows - 1, (int) ((py - south) / cellSize)));
+    }
+
+    private int cell(int col, int row) {
+        return row * cols + col;
+    }
+
+    /**
+     * Returns the number of indexed points.
+     *
+     * @return The number of points.
+     */
+    public int getNumberOfPoints() {
+        return x.length;
+    }
+
+    /**
+     * Finds the k nearest points to a location.
+     *
+     * @param px Horizontal coordinate of the location.
+     * @param py Vertical coordinate of the location.
+     * @param k The number of points to find.
+     * @param indices Receives the indices of the nearest points, sorted by
+     * increasing distance. Must have at least k elements.
+     * @param distSq Receives the squared distances of the nearest points. Must
+     * have at least k elements.
+     * @return The number of points found, which is smaller than k if there are
+     * fewer than k points.
+     */
+    public int kNearest(double px, double py, int k, int[] indices, double[] distSq) {
+        k = Math.min(k, x.length);
+        if (k <= 0) {
+            return 0;
+        }
+        final int c0 = col(px);
+        final int r0 = row(py);
+        int found = 0;
+
+        // search rings of cells around the cell containing the location
+        for (int ring = 0;; ring++) {
+            final int cMin = c0 - ring, cMax = c0 + ring;
+            final int rMin = r0 - ring, rMax = r0 + ring;
+            if (cMin < 0 && rMin < 0 && cMax >= cols && rMax >= rows) {
+                break;
+            }
+            for (int r = Math.max(0, rMin); r <= Math.min(rows - 1, rMax); r++) {
+                final boolean fullRow = r == rMin || r == rMax;
+                final int step = fullRow ? 1 : cMax - cMin;
+                for (int c = cMin; c <= cMax; c += step) {
+                    if (c < 0 || c >= cols) {
+                        continue;
+                    }
+                    final int cell = cell(c, r);
+                    for (int j = cellStart[cell]; j < cellStart[cell + 1]; j++) {
+                        final int i = cellPoints[j];
+                        final double dx = x[i] - px;
+                        final double dy = y[i] - py;
+                        found = insert(i, dx * dx + dy * dy, indices, distSq, found, k);
+                    }
+                }
+            }
+
+            // all points closer than the distance to the next ring are found
+            if (found == k
+                    && distSq[k - 1] <= distanceToNextRingSq(px, py, c0, r0, ring)) {
+                break;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds all points within a distance of a location. The points are not
+     * sorted by distance.
+     *
+     * @param px Horizontal coordinate of the location.
+     * @param py Vertical coordinate of the location.
+     * @param radius The search radius.
+     * @param indices Receives the indices of the found points.
+     * @param distSq Receives the squared distances of the found points. Must
+     * have the same length as indices.
+     * @return The number of points within the radius. If this is larger than
+     * the length of the arrays, only as many points as fit into the arrays
+     * are stored, and the search should be repeated with larger arrays.
+     */
+    public int withinRadius(double px, double py, double radius,
+            int[] indices, double[] distSq) {
+        final double radiusSq = radius * radius;
+        final int cMin = col(px - radius), cMax = col(px + radius);
+        final int rMin = row(py - radius), rMax = row(py + radius);
+        final int capacity = Math.min(indices.length, distSq.length);
+        int found = 0;
+        for (int r = rMin; r <= rMax; r++) {
+            final int first = cellStart[cell(cMin, r)];
+            final int last = cellStart[cell(cMax, r) + 1];
+            // the cells cMin to cMax of a row are consecutive in cellPoints
+            for (int j = first; j < last; j++) {
+                final int i = cellPoints[j];
+                final double dx = x[i] - px;
+                final double dy = y[i] - py;
+                final double d = dx * dx + dy * dy;
+                if (d <= radiusSq) {
+                    if (found < capacity) {
+                        indices[found] = i;
+                        distSq[found] = d;
+                    }
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the squared distance from a location to the closest cell of the
+     * ring following a ring of cells. Cells beyond the edge of the grid are
+     * ignored, as they contain no points. The distance is measured from the
+     * location itself, which may be outside of the grid, and not from the
+     * cell the location was clamped to.
+     */
+    private double distanceToNextRingSq(double px, double py, int c0, int r0, int ring) {
+        final int cMin = c0 - ring - 1, cMax = c0 + ring + 1;
+        final int rMin = r0 - ring - 1, rMax = r0 + ring + 1;
+        final int ca = Math.max(0, cMin), cb = Math.min(cols - 1, cMax);
+        final int ra = Math.max(0, rMin), rb = Math.min(rows - 1, rMax);
+        double d = Double.POSITIVE_INFINITY;
+        if (cMin >= 0) {
+            d = Math.min(d, distanceToCellsSq(px, py, cMin, ra, cMin, rb));
+        }
+        if (cMax < cols) {
+            d = Math.min(d, distanceToCellsSq(px, py, cMax, ra, cMax, rb));
+        }
+        if (rMin >= 0) {
+            d = Math.min(d, distanceToCellsSq(px, py, ca, rMin, cb, rMin));
+        }
+        if (rMax < rows) {
+            d = Math.min(d, distanceToCellsSq(px, py, ca, rMax, cb, rMax));
+        }
+        return d;
+    }
+
+    /**
+     * Returns the squared distance from a location to a block of cells. The
+     * cells along the eastern and northern edge of the grid extend to the
+     * largest coordinates of the points, as they contain all points beyond the
+     * grid.
+     */
+    private double distanceToCellsSq(double px, double py,
+            int c0, int r0, int c1, int r1) {
+        final double x0 = west + c0 * cellSize;
+        final double x1 = c1 == cols - 1 ? east
+                : west + (c1 + 1) * cellSize;
+        final double y0 = south + r0 * cellSize;
+        final double y1 = r1 == rows - 1 ? north
+                : south + (r1 + 1) * cellSize;
+        final double dx = px < x0 ? x0 - px : (px > x1 ? px - x1 : 0);
+        final double dy = py < y0 ? y0 - py : (py > y1 ? py - y1 : 0);
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Inserts a point into a sorted list of at most k nearest points.
+     *
+     * @return The new number of points in the list.
+     */
+    private static int insert(int i, double d, int[] indices, double[] distSq,
+            int found, int k) {
+        if (found == k && d >= distSq[k - 1]) {
+            return found;
+        }
+        int pos = found == k ? k - 1 : found;
+        while (pos > 0 && distSq[pos - 1] > d) {
+            indices[pos] = indices[pos - 1];
+            distSq[pos] = distSq[pos - 1];
+            pos--;
+        }
+        indices[pos] = i;
+        distSq[pos] = d;
+        return found == k ? k : found + 1;
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * PreparedPolygon.java
+ */
+package ika.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A polygon with an index of its edges for fast point-in-polygon tests and
+ * polyline clipping. The vertical extent of the polygon is divided into
+ * horizontal bands of equal height, and each band stores the edges that
+ * overlap it. A query only visits the edges of the bands it overlaps, which
+ * for detailed polygons with many short edges is a small fraction of all
+ * edges.
+ *
+ * Results are identical to GeometryUtils.pointInPolygon() and
+ * GeometryUtils.clipPolylineWithPolygon(). The prepared polygon is immutable
+ * and can be queried concurrently by multiple threads.
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+public class PreparedPolygon {
+
+    /**
+     * Average number of edges per band.
+     */
+    private static final int EDGES_PER_BAND = 2;
+
+    /**
+     * Maximum average number of bands overlapped by an edge. Polygons with
+     * many long edges use fewer bands to limit the size of the index.
+     */
+    private static final int MAX_BANDS_PER_EDGE = 8;
+
+    /**
+     * The vertices of the polygon.
+     */
+    private final double[][] polygon;
+
+    /**
+     * Start and end vertices of the edges, and their extents.
+     */
+    private final double[] x1, y1, x2, y2, minX, maxX, minY, maxY;
+
+    /**
+     * Southern and northern border of the polygon.
+     */
+    private final double south, north;
+
+    /**
+     * Height of the bands.
+     */
+    private final double bandHeight;
+
+    /**
+     * Number of bands.
+     */
+    private final int nbrBands;
+
+    /**
+     * Edges sorted by bands. The edges overlapping band b are
+     * bandEdges[bandStart[b]] to bandEdges[bandStart[b + 1] - 1].
+     */
+    private final int[] bandEdges;
+
+    /**
+     * Start of each band in bandEdges, with one additional element.
+     */
+    private final int[] bandStart;
+
+    /**
+     * Creates a prepared polygon.
+     *
+     * @param polygon The vertices of the polygon. The first and the last vertex
+     * may be identical. Degenerate polygons with fewer than 3 vertices are
+     * valid and contain no points. The array is not copied and must not be
+     * changed.
+     */
+    public PreparedPolygon(double[][] polygon) {
+        if (polygon == null || polygon.length < 1) {
+            throw new IllegalArgumentException("invalid polygon");
+        }
+        this.polygon = polygon;
+
+        // edge i connects vertex i - 1 and vertex i, edge 0 closes the polygon
+        final int nbrEdges = polygon.length;
+        x1 = new double[nbrEdges];
+        y1 = new double[nbrEdges];
+        x2 = new double[nbrEdges];
+        y2 = new double[nbrEdges];
+        minX = new double[nbrEdges];
+        maxX = new double[nbrEdges];
+        minY = new double[nbrEdges];
+        maxY = new double[nbrEdges];
+        double polygonMinY = Double.MAX_VALUE, polygonMaxY = -Double.MAX_VALUE;
+        double totalEdgeHeight = 0;
+        for (int i = 0; i < nbrEdges; i++) {
+            final double[] p1 = polygon[i == 0 ? nbrEdges - 1 : i - 1];
+            final double[] p2 = polygon[i];
+            x1[i] = p1[0];
+            y1[i] = p1[1];
+            x2[i] = p2[0];
+            y2[i] = p2[1];
+            minX[i] = Math.min(p1[0], p2[0]);
+            maxX[i] = Math.max(p1[0], p2[0]);
+            minY[i] = Math.min(p1[1], p2[1]);
+            maxY[i] = Math.max(p1[1], p2[1]);
+            polygonMinY = Math.min(polygonMinY, minY[i]);
+            polygonMaxY = Math.max(polygonMaxY, maxY[i]);
+            totalEdgeHeight += maxY[i] - minY[i];
+        }
+
+        // number of bands such that edges overlap a limited number of bands
+        final double h = polygonMaxY - polygonMinY;
+        int bands = Math.max(1, nbrEdges / EDGES_PER_BAND);
+        if (h > 0) {
+            final double maxBands = MAX_BANDS_PER_EDGE * nbrEdges * h
+                    / Math.max(totalEdgeHeight, Double.MIN_NORMAL);
+            bands = (int) Math.max(1, Math.min(bands, maxBands));
+        } else {
+            bands = 1;
+        }
+        nbrBands = bands;
+        south = polygonMinY;
+        north = polygonMaxY;
+        bandHeight = h > 0 ? h / bands : 1;
+
+        // counting sort of edges by bands
+        bandStart = new int[nbrBands + 1];
+        for (int i = 0; i < nbrEdges; i++) {
+            for (int b = band(minY[i]); b <= band(maxY[i]); b++) {
+                bandStart[b + 1]++;
+            }
+        }
+        for (int b = 0; b < nbrBands; b++) {
+            bandStart[b + 1] += bandStart[b];
+        }
+        bandEdges = new int[bandStart[nbrBands]];
+        int[] fill = Arrays.copyOf(bandStart, nbrBands);
+        for (int i = 0; i < nbrEdges; i++) {
+            for (int b = band(minY[i]); b <= band(maxY[i]); b++) {
+                bandEdges[fill[b]++] = i;
+            }
+        }
+    }
+
+    /**
+     * Returns the band containing a vertical coordinate. Coordinates outside
+     * the polygon are clamped to the first or last band.
+     */
+    private int band(double y) {
+        final int b = (int) ((y - south) / bandHeight);
+        return b < 0 ? 0 : (b >= nbrBands ? nbrBands - 1 : b);
+    }
+
+    /**
+     * Returns the vertices of the polygon.
+     *
+     * @return The vertices passed to the constructor.
+     */
+    public double[][] getPolygon() {
+        return polygon;
+    }
+
+    /**
+     * Tests whether a point is inside the polygon with the even-odd rule. The
+     * result is identical to GeometryUtils.pointInPolygon().
+     *
+     * @param x Horizontal coordinate of the point.
+     * @param y Vertical coordinate of the point.
+     * @return True if the point is inside the polygon.
+     */
+    public boolean contains(double x, double y) {
+        if (y < south || y > north) {
+            return false;
+        }
+        final int b = band(y);
+        boolean c = false;
+        for (int j = bandStart[b]; j < bandStart[b + 1]; j++) {
+            final int i = bandEdges[j];
+            if (((y2[i] <= y && y < y1[i]) || (y1[i] <= y && y < y2[i]))
+                    && x < (x1[i] - x2[i]) * (y - y2[i]) / (y1[i] - y2[i]) + x2[i]) {
+                c = !c;
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Clips a polyline with the polygon. The result is identical to
+     * GeometryUtils.clipPolylineWithPolygon().
+     *
+     * @param polyline The vertices of the polyline.
+     * @return The parts of the polyline inside the polygon.
+     */
+    public List<double[][]> clipPolyline(double[][] polyline) {
+        // the polyline with additional intersection points
+        ArrayList<double[]> points = new ArrayList<>(polyline.length * 2);
+        points.add(polyline[0]);
+        ArrayList<double[]> intersections = new ArrayList<>();
+        for (int i = 1; i < polyline.length; ++i) {
+            intersect(polyline[i - 1][0], polyline[i - 1][1],
+                    polyline[i][0], polyline[i][1], intersections);
+            points.addAll(intersections);
+            points.add(polyline[i]);
+        }
+
+        // collect the parts with the centre of segments inside the polygon
+        ArrayList<double[][]> lines = new ArrayList<>();
+        int first = -1;
+        for (int ptID = 0; ptID < points.size() - 1; ptID++) {
+            final double[] pt1 = points.get(ptID);
+            final double[] pt2 = points.get(ptID + 1);
+            final boolean in = contains((pt1[0] + pt2[0]) / 2, (pt1[1] + pt2[1]) / 2);
+            if (in && first < 0) {
+                first = ptID;
+            } else if (!in && first >= 0) {
+                lines.add(toArray(points, first, ptID));
+                first = -1;
+            }
+        }
+        if (first >= 0) {
+            lines.add(toArray(points, first, points.size() - 1));
+        }
+        return lines;
+    }
+
+    /**
+     * Copies a sequence of points to an array of xy-arrays.
+     */
+    private static double[][] toArray(List<double[]> points, int first, int last) {
+        double[][] line = new double[last - first + 1][];
+        for (int i = first; i <= last; i++) {
+            line[i - first] = points.get(i);
+        }
+        return line;
+    }
+
+    /**
+     * Intersects a line segment with the edges of the polygon.
+     *
+     * @param intersections Receives the intersection points ordered by
+     * increasing distance from the start of the segment. Previous content is
+     * replaced.
+     */
+    private void intersect(double sx1, double sy1, double sx2, double sy2,
+            ArrayList<double[]> intersections) {
+        intersections.clear();
+        final double sMinX = Math.min(sx1, sx2), sMaxX = Math.max(sx1, sx2);
+        final double sMinY = Math.min(sy1, sy2), sMaxY = Math.max(sy1, sy2);
+        if (sMaxY < south || sMinY > north) {
+            return;
+        }
+        final int firstBand = band(sMinY);
+        final int lastBand = band(sMaxY);
+        for (int b = firstBand; b <= lastBand; b++) {
+            for (int j = bandStart[b]; j < bandStart[b + 1]; j++) {
+                final int i = bandEdges[j];
+                // an edge overlapping multiple bands is only tested once
+                if (b != Math.max(firstBand, band(minY[i]))) {
+                    continue;
+                }
+                if (maxX[i] < sMinX || minX[i] > sMaxX
+                        || maxY[i] < sMinY || minY[i] > sMaxY) {
+                    continue;
+                }
+                double[] intersection = GeometryUtils.intersectLineSegments(
+                        sx1, sy1, sx2, sy2, x1[i], y1[i], x2[i], y2[i]);
+                if (intersection != null) {
+                    intersections.add(intersection);
+                }
+            }
+        }
+        if (intersections.size() > 1) {
+            intersections.sort((a, b) -> Double.compare(a[2], b[2]));
+        }
+    }
+}
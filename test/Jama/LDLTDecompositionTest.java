@@ -0,0 +1,179 @@
+package Jama;
+
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+public class LDLTDecompositionTest extends TestCase {
+
+    public LDLTDecompositionTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Test of solve with small matrices that require each kind of pivot:
+     * 1-by-1 without interchange, 1-by-1 with interchange, and 2-by-2.
+     */
+    public void testPivots() {
+        System.out.println("LDLTDecompositionTest: pivots");
+
+        // positive definite, no interchanges
+        double[][] a = {{4, 1, 0}, {1, 3, 1}, {0, 1, 2}};
+        int[] piv = assertSolve(new Matrix(a));
+        assertEquals(0, piv[0]);
+        assertEquals(1, piv[1]);
+        assertEquals(2, piv[2]);
+
+        // small diagonal element with a large diagonal element in row imax:
+        // 1-by-1 pivot with interchange
+        a = new double[][]{{0.01, 1, 0}, {1, 10, 1}, {0, 1, 1}};
+        piv = assertSolve(new Matrix(a));
+        assertEquals(1, piv[0]);
+
+        // zero diagonal: 2-by-2 pivot
+        a = new double[][]{{0, 1, 2}, {1, 0, 3}, {2, 3, 0}};
+        piv = assertSolve(new Matrix(a));
+        assertTrue(piv[0] < 0);
+        assertEquals(piv[0], piv[1]);
+
+        // 2-by-2 pivot with interchange of rows and columns k+1 and imax
+        a = new double[][]{{0, 1, 5}, {1, 0, 1}, {5, 1, 0}};
+        piv = assertSolve(new Matrix(a));
+        assertEquals(-3, piv[0]);
+        assertEquals(-3, piv[1]);
+    }
+
+    /**
+     * Test of solve with random symmetric indefinite matrices and with
+     * multiquadric matrices bordered by zeros, compared to LUDecomposition.
+     */
+    public void testSolve() {
+        System.out.println("LDLTDecompositionTest: solve");
+
+        Random random = new Random(3);
+        boolean interchange = false, block = false;
+        for (int n = 1; n < 60; n += 3) {
+            double[][] a = new double[n][n];
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j <= i; j++) {
+                    a[i][j] = a[j][i] = random.nextDouble() * 2 - 1;
+                }
+            }
+            int[] piv = assertSolve(new Matrix(a));
+            for (int k = 0; k < n; k++) {
+                interchange |= piv[k] >= 0 && piv[k] != k;
+                block |= piv[k] < 0;
+            }
+        }
+        assertTrue(interchange);
+        assertTrue(block);
+
+        // multiquadric matrix with polynomial terms as used by
+        // MultiquadricInterpolation: zero diagonal blocks
+        for (int pts = 3; pts < 50; pts += 7) {
+            final int n = pts + 3;
+            double[] x = new double[pts], y = new double[pts];
+            for (int i = 0; i < pts; i++) {
+                x[i] = random.nextDouble() * 100;
+                y[i] = random.nextDouble() * 100;
+            }
+            double[][] a = new double[n][n];
+            for (int i = 0; i < pts; i++) {
+                for (int j = 0; j < pts; j++) {
+                    final double dx = x[i] - x[j], dy = y[i] - y[j];
+                    a[i][j] = Math.sqrt(dx * dx + dy * dy + 10);
+                }
+                a[i][pts] = a[pts][i] = 1;
+                a[i][pts + 1] = a[pts + 1][i] = x[i];
+                a[i][pts + 2] = a[pts + 2][i] = y[i];
+            }
+            assertSolve(new Matrix(a));
+        }
+    }
+
+    /**
+     * Test of a singular matrix.
+     */
+    public void testSingular() {
+        System.out.println("LDLTDecompositionTest: singular");
+
+        double[][] a = {{1, 2, 0}, {2, 4, 0}, {0, 0, 0}};
+        LDLTDecomposition ldlt = new LDLTDecomposition(new Matrix(a));
+        assertFalse(ldlt.isNonsingular());
+        try {
+            ldlt.solve(new double[3]);
+            fail();
+        } catch (RuntimeException e) {
+        }
+    }
+
+    /**
+     * Test of the packed constructor.
+     */
+    public void testPacked() {
+        System.out.println("LDLTDecompositionTest: packed");
+
+        final int n = 4;
+        double[][] a = {{0, 1, 2, 3}, {1, 5, 6, 7}, {2, 6, 0, 8}, {3, 7, 8, 1}};
+        double[] ap = new double[LDLTDecomposition.packedLength(n)];
+        for (int j = 0; j < n; j++) {
+            for (int i = j; i < n; i++) {
+                ap[LDLTDecomposition.packedIndex(i, j, n)] = a[i][j];
+            }
+        }
+        double[] b = {1, 2, 3, 4};
+        new LDLTDecomposition(ap, n).solve(b);
+        Matrix x = new Matrix(a).solve(new Matrix(new double[]{1, 2, 3, 4}, n));
+        for (int i = 0; i < n; i++) {
+            assertEquals(x.get(i, 0), b[i], 1e-12);
+        }
+
+        try {
+            new LDLTDecomposition(new double[ap.length - 1], n);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+
+        // the largest dimension with a packed array
+        assertEquals(2147450880, LDLTDecomposition.packedLength(65535));
+        try {
+            LDLTDecomposition.packedLength(65536);
+            fail("packed length overflow");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * Solves a system with LDLTDecomposition and LUDecomposition and compares
+     * the solutions.
+     *
+     * @return the pivot vector of the LDL' decomposition
+     */
+    private static int[] assertSolve(Matrix A) {
+        final int n = A.getRowDimension();
+        Random random = new Random(n);
+        Matrix B = new Matrix(n, 2);
+        for (int i = 0; i < n; i++) {
+            B.set(i, 0, random.nextDouble());
+            B.set(i, 1, random.nextDouble() * 1000);
+        }
+        LDLTDecomposition ldlt = new LDLTDecomposition(A);
+        assertTrue(ldlt.isNonsingular());
+        Matrix X = ldlt.solve(B);
+        Matrix expected = new LUDecomposition(A).solve(B);
+        final double scale = expected.normInf();
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < 2; j++) {
+                assertEquals(expected.get(i, j), X.get(i, j), 1e-9 * scale);
+            }
+        }
+        // residual
+        final double residual = A.times(X).minus(B).normInf();
+        assertTrue(residual <= 1e-9 * A.normInf() * X.normInf());
+        return ldlt.getPivot();
+    }
+}
@@ -0,0 +1,178 @@
+package Jama;
+
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+public class LUDecompositionTest extends TestCase {
+
+    public LUDecompositionTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Test of the blocked decomposition, which is used for square matrices
+     * with at least 192 rows. solve() and det() are compared to the
+     * unblocked Crout algorithm.
+     */
+    public void testBlocked() {
+        System.out.println("LUDecompositionTest: blocked");
+
+        for (int n : new int[]{191, 192, 250}) {
+            Random random = new Random(n);
+            double[][] a = new double[n][n];
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    a[i][j] = random.nextDouble() * 2 - 1;
+                }
+            }
+            Matrix A = new Matrix(a);
+            Matrix B = new Matrix(n, 3);
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < 3; j++) {
+                    B.set(i, j, random.nextDouble());
+                }
+            }
+
+            LUDecomposition lu = new LUDecomposition(A);
+            Crout crout = new Crout(a);
+            assertTrue(lu.isNonsingular());
+
+            // A is not modified
+            assertEquals(a[n - 1][n - 1], A.get(n - 1, n - 1), 0);
+
+            int[] piv = lu.getPivot();
+            for (int i = 0; i < n; i++) {
+                assertEquals("pivot " + i, crout.piv[i], piv[i]);
+            }
+
+            final double det = crout.det();
+            assertEquals(det, lu.det(), Math.abs(det) * 1e-9);
+
+            Matrix X = lu.solve(B);
+            Matrix expected = crout.solve(B);
+            final double scale = expected.normInf();
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < 3; j++) {
+                    assertEquals(expected.get(i, j), X.get(i, j), scale * 1e-9);
+                }
+            }
+        }
+    }
+
+    /**
+     * Test of a singular matrix with the blocked decomposition.
+     */
+    public void testBlockedSingular() {
+        System.out.println("LUDecompositionTest: blocked singular");
+
+        final int n = 200;
+        Random random = new Random(1);
+        double[][] a = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                a[i][j] = random.nextDouble();
+            }
+        }
+        // column 100 is zero
+        for (int i = 0; i < n; i++) {
+            a[i][100] = 0;
+        }
+        LUDecomposition lu = new LUDecomposition(new Matrix(a));
+        assertFalse(lu.isNonsingular());
+        assertEquals(0, lu.det(), 0);
+        assertEquals(new Crout(a).piv[150], lu.getPivot()[150]);
+    }
+
+    /**
+     * Unblocked, left-looking Crout/Doolittle decomposition with partial
+     * pivoting, as in the original JAMA.
+     */
+    private static class Crout {
+
+        final double[][] LU;
+        final int[] piv;
+        final int n;
+        int pivsign = 1;
+
+        Crout(double[][] a) {
+            n = a.length;
+            LU = new double[n][];
+            piv = new int[n];
+            for (int i = 0; i < n; i++) {
+                LU[i] = a[i].clone();
+                piv[i] = i;
+            }
+            double[] LUcolj = new double[n];
+            for (int j = 0; j < n; j++) {
+                for (int i = 0; i < n; i++) {
+                    LUcolj[i] = LU[i][j];
+                }
+                for (int i = 0; i < n; i++) {
+                    double[] LUrowi = LU[i];
+                    int kmax = Math.min(i, j);
+                    double s = 0.0;
+                    for (int k = 0; k < kmax; k++) {
+                        s += LUrowi[k] * LUcolj[k];
+                    }
+                    LUrowi[j] = LUcolj[i] -= s;
+                }
+                int p = j;
+                for (int i = j + 1; i < n; i++) {
+                    if (Math.abs(LUcolj[i]) > Math.abs(LUcolj[p])) {
+                        p = i;
+                    }
+                }
+                if (p != j) {
+                    double[] t = LU[p];
+                    LU[p] = LU[j];
+                    LU[j] = t;
+                    int k = piv[p];
+                    piv[p] = piv[j];
+                    piv[j] = k;
+                    pivsign = -pivsign;
+                }
+                if (LU[j][j] != 0.0) {
+                    for (int i = j + 1; i < n; i++) {
+                        LU[i][j] /= LU[j][j];
+                    }
+                }
+            }
+        }
+
+        double det() {
+            double d = pivsign;
+            for (int j = 0; j < n; j++) {
+                d *= LU[j][j];
+            }
+            return d;
+        }
+
+        Matrix solve(Matrix B) {
+            final int nx = B.getColumnDimension();
+            double[][] X = B.getMatrix(piv, 0, nx - 1).getArrayCopy();
+            for (int k = 0; k < n; k++) {
+                for (int i = k + 1; i < n; i++) {
+                    for (int j = 0; j < nx; j++) {
+                        X[i][j] -= X[k][j] * LU[i][k];
+                    }
+                }
+            }
+            for (int k = n - 1; k >= 0; k--) {
+                for (int j = 0; j < nx; j++) {
+                    X[k][j] /= LU[k][k];
+                }
+                for (int i = 0; i < k; i++) {
+                    for (int j = 0; j < nx; j++) {
+                        X[i][j] -= X[k][j] * LU[i][k];
+                    }
+                }
+            }
+            return new Matrix(X);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package au.monash.fit.mapanalyst.warp;
+
+import ika.geo.GeoImage;
+import ika.mapanalyst.MultiquadricInterpolation;
+import ika.transformation.Transformation;
+import ika.transformation.TransformationHelmert;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+public class ImageWarperTest extends TestCase {
+
+    public ImageWarperTest(String testName) {
+        super(testName);
+    }
+
+    private static final double SRC_WEST = -10, SRC_NORTH = 80, SRC_PIXEL_SIZE = 0.25;
+
+    private double[][] newPoints;
+    private Transformation dstToSrcTransformation;
+    private MultiquadricInterpolation interpolation;
+    private BufferedImage srcImage;
+    private File dir;
+
+    @Override
+    protected void setUp() throws IOException {
+        // control points in the old map, and the new map with 100 times
+        // larger coordinates
+        java.util.Random random = new java.util.Random(5);
+        final int nbrPts = 40;
+        double[][] oldPoints = new double[nbrPts][2];
+        newPoints = new double[nbrPts][2];
+        for (int i = 0; i < nbrPts; i++) {
+            newPoints[i][0] = random.nextDouble() * 10000;
+            newPoints[i][1] = random.nextDouble() * 7000;
+            oldPoints[i][0] = 0.01 * newPoints[i][0] + random.nextGaussian() * 0.5;
+            oldPoints[i][1] = 0.01 * newPoints[i][1] + random.nextGaussian() * 0.5;
+        }
+        dstToSrcTransformation = new TransformationHelmert();
+        dstToSrcTransformation.init(oldPoints, newPoints);
+        double[][] transformedNewPoints = new double[nbrPts][];
+        for (int i = 0; i < nbrPts; i++) {
+            transformedNewPoints[i] = dstToSrcTransformation.transform(newPoints[i]);
+        }
+        interpolation = new MultiquadricInterpolation();
+        interpolation.solveCoefficients(transformedNewPoints, oldPoints, 1);
+
+        srcImage = SourceRasterTest.randomImage(BufferedImage.TYPE_INT_ARGB, 480, 360, 2);
+        dir = File.createTempFile("ImageWarperTest", "");
+        assertTrue(dir.delete() && dir.mkdir());
+    }
+
+    @Override
+    protected void tearDown() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private ImageWarper warper(GeoImage srcGeoImage, Resampling resampling) {
+        ImageWarper warper = new ImageWarper(dstToSrcTransformation,
+                interpolation, srcGeoImage, newPoints);
+        warper.setResampling(resampling);
+        return warper;
+    }
+
+    /**
+     * Test of warp(File, File) with a source GeoImage without an image. The
+     * streamed image must be identical to the image warped in memory, and the
+     * World file must contain the georeferencing of the warped image.
+     */
+    public void testWarpFile() throws IOException {
+        System.out.println("ImageWarperTest: warp file");
+
+        File srcFile = new File(dir, "src.png");
+        assertTrue(ImageIO.write(srcImage, "png", srcFile));
+        GeoImage georeference = new GeoImage();
+        georeference.setX(SRC_WEST);
+        georeference.setY(SRC_NORTH);
+        georeference.setPixelSizeX(SRC_PIXEL_SIZE);
+        georeference.setPixelSizeY(SRC_PIXEL_SIZE);
+        GeoImage srcGeoImage = new GeoImage(srcImage, SRC_WEST, SRC_NORTH, SRC_PIXEL_SIZE);
+
+        for (Resampling resampling : new Resampling[]{Resampling.NEAREST, Resampling.BICUBIC}) {
+            for (String extension : new String[]{"png", "tif"}) {
+                GeoImage expected = warper(srcGeoImage, resampling).warp();
+                File dstFile = new File(dir, "dst." + extension);
+                warper(georeference, resampling).warp(srcFile, dstFile);
+
+                BufferedImage expectedImage = expected.getBufferedImage();
+                BufferedImage image = read(dstFile);
+                assertEquals(expectedImage.getWidth(), image.getWidth());
+                assertEquals(expectedImage.getHeight(), image.getHeight());
+                for (int row = 0; row < image.getHeight(); row++) {
+                    for (int col = 0; col < image.getWidth(); col++) {
+                        assertEquals(resampling + " " + extension + " " + col + "/" + row,
+                                expectedImage.getRGB(col, row), image.getRGB(col, row));
+                    }
+                }
+
+                String worldFile = extension.equals("png") ? "dst.pgw" : "dst.tfw";
+                try (BufferedReader reader = new BufferedReader(
+                        new FileReader(new File(dir, worldFile)))) {
+                    assertEquals(expected.getPixelSizeX(), Double.parseDouble(reader.readLine()), 1e-9);
+                    reader.readLine();
+                    reader.readLine();
+                    assertEquals(-expected.getPixelSizeY(), Double.parseDouble(reader.readLine()), 1e-9);
+                    assertEquals(expected.getX(), Double.parseDouble(reader.readLine()), 1e-9);
+                    assertEquals(expected.getY(), Double.parseDouble(reader.readLine()), 1e-9);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads an image with the reader preferred by ImageWarper.
+     */
+    private static BufferedImage read(File file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            ImageReader reader = ImageWarper.preferred(ImageIO.getImageReaders(in),
+                    ImageReader::getOriginatingProvider);
+            try {
+                reader.setInput(in);
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Test of warp() with a source GeoImage without an image.
+     */
+    public void testWarpWithoutImage() {
+        System.out.println("ImageWarperTest: warp without image");
+
+        try {
+            warper(new GeoImage(), Resampling.BILINEAR).warp();
+            fail("warped without image");
+        } catch (IllegalStateException ex) {
+        }
+    }
+}
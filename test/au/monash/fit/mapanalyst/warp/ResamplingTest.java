@@ -0,0 +1,67 @@
+package au.monash.fit.mapanalyst.warp;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+public class ResamplingTest extends TestCase {
+
+    public ResamplingTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Test of the weights. The weights of each subpixel position must add up
+     * to 1 &lt;&lt; WEIGHT_BITS, and at a pixel centre the pixel must have the
+     * full weight.
+     */
+    public void testWeights() {
+        System.out.println("ResamplingTest: weights");
+
+        final int one = 1 << Resampling.WEIGHT_BITS;
+        for (Resampling resampling : Resampling.values()) {
+            final int taps = resampling.taps;
+            assertEquals((Resampling.SUBPIXELS + 1) * taps, resampling.weights.length);
+            assertEquals(taps / 2, resampling.radius());
+            for (int s = 0; s <= Resampling.SUBPIXELS; s++) {
+                int sum = 0;
+                for (int k = 0; k < taps; k++) {
+                    sum += resampling.weights[s * taps + k];
+                }
+                assertEquals(resampling + " subpixel " + s, one, sum);
+            }
+
+            // the pixel at the centre is tap taps / 2 - 1 at position 0, and
+            // tap taps / 2 at position SUBPIXELS
+            if (taps > 1) {
+                for (int k = 0; k < taps; k++) {
+                    assertEquals(k == taps / 2 - 1 ? one : 0, resampling.weights[k]);
+                    assertEquals(k == taps / 2 ? one : 0,
+                            resampling.weights[Resampling.SUBPIXELS * taps + k]);
+                }
+            }
+        }
+
+        // bilinear weights are linear
+        final int[] w = Resampling.BILINEAR.weights;
+        for (int s = 0; s <= Resampling.SUBPIXELS; s++) {
+            assertEquals((double) s / Resampling.SUBPIXELS * one, w[s * 2 + 1], 0.5);
+        }
+
+        // Catmull-Rom and Lanczos weights are symmetric
+        for (Resampling resampling : new Resampling[]{Resampling.BICUBIC, Resampling.LANCZOS}) {
+            final int taps = resampling.taps;
+            final int[] weights = resampling.weights;
+            for (int s = 0; s <= Resampling.SUBPIXELS; s++) {
+                final int mirror = Resampling.SUBPIXELS - s;
+                for (int k = 0; k < taps; k++) {
+                    assertEquals(weights[s * taps + k],
+                            weights[mirror * taps + taps - 1 - k], 1);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package au.monash.fit.mapanalyst.warp;
+
+import java.awt.image.BufferedImage;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+public class SourceRasterTest extends TestCase {
+
+    public SourceRasterTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Creates an image with random pixels.
+     */
+    static BufferedImage randomImage(int type, int width, int height, long seed) {
+        java.util.Random random = new java.util.Random(seed);
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                image.setRGB(col, row, random.nextInt());
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Test of argb. Colors must be identical to BufferedImage.getRGB() for
+     * all image types with direct access to the pixel array, for sub-images
+     * sharing the raster of a larger image, and for converted image types.
+     */
+    public void testArgb() {
+        System.out.println("SourceRasterTest: argb");
+
+        final int[] types = {
+            BufferedImage.TYPE_INT_ARGB,
+            BufferedImage.TYPE_INT_RGB,
+            BufferedImage.TYPE_3BYTE_BGR,
+            BufferedImage.TYPE_4BYTE_ABGR,
+            BufferedImage.TYPE_BYTE_INDEXED,
+            BufferedImage.TYPE_USHORT_565_RGB,
+            BufferedImage.TYPE_INT_BGR
+        };
+        for (int type : types) {
+            BufferedImage image = randomImage(type, 37, 23, type);
+            assertSameColors(image, new SourceRaster(image));
+            BufferedImage subimage = image.getSubimage(5, 3, 20, 11);
+            assertSameColors(subimage, new SourceRaster(subimage));
+        }
+    }
+
+    private static void assertSameColors(BufferedImage image, SourceRaster raster) {
+        assertEquals(image.getWidth(), raster.getWidth());
+        assertEquals(image.getHeight(), raster.getHeight());
+        for (int row = 0; row < image.getHeight(); row++) {
+            for (int col = 0; col < image.getWidth(); col++) {
+                assertEquals(image.getRGB(col, row), raster.argb(col, row));
+            }
+        }
+    }
+
+    /**
+     * Test of argb for gray images. Gray values are read without color space
+     * conversion.
+     */
+    public void testArgbGray() {
+        System.out.println("SourceRasterTest: argb gray");
+
+        BufferedImage image = new BufferedImage(17, 9, BufferedImage.TYPE_BYTE_GRAY);
+        java.util.Random random = new java.util.Random(3);
+        for (int row = 0; row < image.getHeight(); row++) {
+            for (int col = 0; col < image.getWidth(); col++) {
+                image.getRaster().setSample(col, row, 0, random.nextInt(256));
+            }
+        }
+        SourceRaster raster = new SourceRaster(image);
+        for (int row = 0; row < image.getHeight(); row++) {
+            for (int col = 0; col < image.getWidth(); col++) {
+                final int gray = image.getRaster().getSample(col, row, 0);
+                assertEquals(0xff000000 | gray << 16 | gray << 8 | gray,
+                        raster.argb(col, row));
+            }
+        }
+    }
+
+    /**
+     * Test of resample with nearest neighbour and bilinear resampling against
+     * a floating-point reference, including positions close to the borders.
+     * The fixed-point result is rounded, and positions are quantized to
+     * 1 / SUBPIXELS of a pixel, which changes a channel by at most 255 / 512
+     * per axis.
+     */
+    public void testResample() {
+        System.out.println("SourceRasterTest: resample");
+
+        final int w = 23, h = 17;
+        BufferedImage image = randomImage(BufferedImage.TYPE_INT_ARGB, w, h, 9);
+        for (BufferedImage img : new BufferedImage[]{image, toType(image,
+                BufferedImage.TYPE_4BYTE_ABGR), toType(image, BufferedImage.TYPE_BYTE_INDEXED)}) {
+            SourceRaster raster = new SourceRaster(img);
+            java.util.Random random = new java.util.Random(1);
+            for (int i = 0; i < 5000; i++) {
+                final double col = random.nextDouble() * w;
+                final double row = random.nextDouble() * h;
+
+                int nearest = img.getRGB(Math.min((int) Math.floor(col), w - 1),
+                        Math.min((int) Math.floor(row), h - 1));
+                assertEquals(nearest, raster.resample(col, row, Resampling.NEAREST));
+
+                final int bilinear = raster.resample(col, row, Resampling.BILINEAR);
+                final double u = col - 0.5, v = row - 0.5;
+                final int c0 = (int) Math.floor(u), r0 = (int) Math.floor(v);
+                final double fu = u - c0, fv = v - r0;
+                final double qu = Math.round(fu * Resampling.SUBPIXELS) / (double) Resampling.SUBPIXELS;
+                final double qv = Math.round(fv * Resampling.SUBPIXELS) / (double) Resampling.SUBPIXELS;
+                for (int shift = 0; shift < 32; shift += 8) {
+                    final int actual = (bilinear >>> shift) & 0xff;
+                    assertEquals(bilinear(img, c0, r0, qu, qv, shift), actual, 0.501);
+                    assertEquals(bilinear(img, c0, r0, fu, fv, shift), actual, 0.5 + 255. / 256);
+                }
+            }
+        }
+    }
+
+    /**
+     * Floating-point bilinear interpolation of one channel with clamped
+     * borders.
+     */
+    private static double bilinear(BufferedImage img, int c0, int r0,
+            double fu, double fv, int shift) {
+        double v = 0;
+        for (int j = 0; j < 2; j++) {
+            for (int k = 0; k < 2; k++) {
+                final int c = Math.max(0, Math.min(img.getWidth() - 1, c0 + k));
+                final int r = Math.max(0, Math.min(img.getHeight() - 1, r0 + j));
+                final double weight = (k == 0 ? 1 - fu : fu) * (j == 0 ? 1 - fv : fv);
+                v += weight * ((img.getRGB(c, r) >>> shift) & 0xff);
+            }
+        }
+        return v;
+    }
+
+    private static BufferedImage toType(BufferedImage image, int type) {
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), type);
+        for (int row = 0; row < image.getHeight(); row++) {
+            for (int col = 0; col < image.getWidth(); col++) {
+                copy.setRGB(col, row, image.getRGB(col, row));
+            }
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,146 @@
+package au.monash.fit.mapanalyst.warp;
+
+import ika.geo.GeoImage;
+import ika.mapanalyst.MultiquadricInterpolation;
+import ika.mapanalyst.RadialBasisFunctionInterpolation;
+import ika.mapanalyst.WendlandInterpolation;
+import ika.transformation.Transformation;
+import ika.transformation.TransformationHelmert;
+import java.awt.image.BufferedImage;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+public class WarpMeshTest extends TestCase {
+
+    public WarpMeshTest(String testName) {
+        super(testName);
+    }
+
+    private static final double DST_CELL_SIZE = 25;
+    private static final int DST_WIDTH = 411, DST_HEIGHT = 283;
+
+    private double[][] oldPoints, newPoints;
+    private Transformation dstToSrcTransformation;
+    private double[][] transformedNewPoints;
+    private GeoImage srcGeoImage;
+
+    @Override
+    protected void setUp() {
+        // control points in the old map with 0.25 units per pixel, and the
+        // new map with 25 units per pixel
+        java.util.Random random = new java.util.Random(11);
+        final int nbrPts = 60;
+        oldPoints = new double[nbrPts][2];
+        newPoints = new double[nbrPts][2];
+        for (int i = 0; i < nbrPts; i++) {
+            newPoints[i][0] = random.nextDouble() * DST_WIDTH * DST_CELL_SIZE;
+            newPoints[i][1] = random.nextDouble() * DST_HEIGHT * DST_CELL_SIZE;
+            final double a = 0.2 * newPoints[i][0] / 10000;
+            oldPoints[i][0] = 0.01 * (Math.cos(a) * newPoints[i][0] - Math.sin(a) * newPoints[i][1])
+                    + random.nextGaussian() * 0.5;
+            oldPoints[i][1] = 0.01 * (Math.sin(a) * newPoints[i][0] + Math.cos(a) * newPoints[i][1])
+                    + random.nextGaussian() * 0.5;
+        }
+        dstToSrcTransformation = new TransformationHelmert();
+        dstToSrcTransformation.init(oldPoints, newPoints);
+        transformedNewPoints = new double[nbrPts][];
+        for (int i = 0; i < nbrPts; i++) {
+            transformedNewPoints[i] = dstToSrcTransformation.transform(newPoints[i]);
+        }
+        BufferedImage image = new BufferedImage(4, 4, BufferedImage.TYPE_INT_ARGB);
+        srcGeoImage = new GeoImage(image, -20, 120, 0.25);
+    }
+
+    /**
+     * Computes the source pixel coordinates of a destination pixel without
+     * approximation.
+     */
+    private double[] exact(RadialBasisFunctionInterpolation interpolation,
+            int col, int row) {
+        double[] pt = new double[]{(col + 0.5) * DST_CELL_SIZE,
+            DST_HEIGHT * DST_CELL_SIZE - (row + 0.5) * DST_CELL_SIZE};
+        pt = dstToSrcTransformation.transform(pt);
+        interpolation.transform(pt, 1);
+        return new double[]{(pt[0] - srcGeoImage.getX()) / srcGeoImage.getPixelSizeX(),
+            (srcGeoImage.getY() - pt[1]) / srcGeoImage.getPixelSizeY()};
+    }
+
+    /**
+     * Computes all pixels of the destination image with a mesh in tiles, and
+     * compares them with the exact mapping.
+     *
+     * @return The largest deviation from the exact mapping.
+     */
+    private double maxError(RadialBasisFunctionInterpolation interpolation,
+            double tolerance, int tileSize) {
+        WarpMesh mesh = new WarpMesh(dstToSrcTransformation, interpolation,
+                srcGeoImage, 0, DST_HEIGHT * DST_CELL_SIZE, DST_CELL_SIZE,
+                DST_WIDTH, DST_HEIGHT, newPoints, tolerance);
+        double maxError = 0;
+        double[] coords = new double[tileSize * tileSize * 2];
+        for (int firstRow = 0; firstRow < DST_HEIGHT; firstRow += tileSize) {
+            for (int firstCol = 0; firstCol < DST_WIDTH; firstCol += tileSize) {
+                final int nbrCols = Math.min(tileSize, DST_WIDTH - firstCol);
+                final int nbrRows = Math.min(tileSize, DST_HEIGHT - firstRow);
+                mesh.sourcePixels(firstCol, firstRow, nbrCols, nbrRows, coords);
+                for (int r = 0; r < nbrRows; r++) {
+                    for (int c = 0; c < nbrCols; c++) {
+                        double[] expected = exact(interpolation, firstCol + c, firstRow + r);
+                        final int i = (r * nbrCols + c) * 2;
+                        maxError = Math.max(maxError, Math.abs(coords[i] - expected[0]));
+                        maxError = Math.max(maxError, Math.abs(coords[i + 1] - expected[1]));
+                    }
+                }
+            }
+        }
+        return maxError;
+    }
+
+    /**
+     * Test of sourcePixels. Source pixel coordinates must not deviate from
+     * the exact mapping by more than the tolerance, for an interpolation that
+     * is not differentiable at the control points, and for a differentiable
+     * interpolation.
+     */
+    public void testSourcePixels() {
+        System.out.println("WarpMeshTest: sourcePixels");
+
+        MultiquadricInterpolation mq = new MultiquadricInterpolation();
+        mq.solveCoefficients(transformedNewPoints, oldPoints, 1);
+        WendlandInterpolation wendland = new WendlandInterpolation();
+        wendland.solveCoefficients(transformedNewPoints, oldPoints, 1);
+        for (RadialBasisFunctionInterpolation interpolation
+                : new RadialBasisFunctionInterpolation[]{mq, wendland}) {
+            for (double tolerance : new double[]{ImageWarper.DEFAULT_MAX_ERROR, 0.5, 0.02}) {
+                final double err = maxError(interpolation, tolerance, WarpMesh.CELL_SIZE * 4);
+                assertTrue("error " + err + " for tolerance " + tolerance, err <= tolerance);
+            }
+        }
+
+        // tiles of one cell
+        final double err = maxError(mq, ImageWarper.DEFAULT_MAX_ERROR, WarpMesh.CELL_SIZE);
+        assertTrue(err <= ImageWarper.DEFAULT_MAX_ERROR);
+    }
+
+    /**
+     * Test of sourcePixels with tiles not aligned with the mesh.
+     */
+    public void testUnalignedTile() {
+        System.out.println("WarpMeshTest: unaligned tile");
+
+        MultiquadricInterpolation mq = new MultiquadricInterpolation();
+        mq.solveCoefficients(transformedNewPoints, oldPoints, 1);
+        WarpMesh mesh = new WarpMesh(dstToSrcTransformation, mq,
+                srcGeoImage, 0, DST_HEIGHT * DST_CELL_SIZE, DST_CELL_SIZE,
+                DST_WIDTH, DST_HEIGHT, newPoints, 0.1);
+        try {
+            mesh.sourcePixels(1, 0, 10, 10, new double[200]);
+            fail("unaligned tile accepted");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package ika.geo;
+
+import java.util.ArrayList;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+public class ContourerTest extends TestCase {
+
+    public ContourerTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Creates a grid with values equal to the distance from a centre.
+     */
+    private static GeoGrid cone(int size, double meshSize, double cx, double cy) {
+        GeoGrid grid = new GeoGrid(size, size, meshSize);
+        grid.setWest(0);
+        grid.setNorth(0);
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                final double dx = c * meshSize - cx;
+                final double dy = -r * meshSize - cy;
+                grid.setValue((float) Math.hypot(dx, dy), c, r);
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Test of contour for a single level. The contour of a cone is a single
+     * closed line with points at the distance of the level from the centre.
+     */
+    public void testContourLevel() {
+        System.out.println("ContourerTest: contour level");
+
+        Contourer contourer = new Contourer();
+        contourer.setGeoGrid(cone(101, 1, 50.3, -49.6));
+        ArrayList<double[][]> contours = contourer.contour(30);
+        assertEquals(1, contours.size());
+        double[][] line = contours.get(0);
+        assertTrue(line.length > 100);
+        assertEquals(line[0][0], line[line.length - 1][0]);
+        assertEquals(line[0][1], line[line.length - 1][1]);
+        for (double[] pt : line) {
+            assertEquals(30, Math.hypot(pt[0] - 50.3, pt[1] + 49.6), 0.1);
+        }
+    }
+
+    /**
+     * Test of contour for all levels. Lines crossing the border of the grid
+     * are open, and cells with missing values are not contoured.
+     */
+    public void testContour() {
+        System.out.println("ContourerTest: contour");
+
+        GeoGrid grid = cone(81, 0.5, 0, 0);
+        for (int r = 30; r < 40; r++) {
+            for (int c = 30; c < 40; c++) {
+                grid.setValue(Float.NaN, c, r);
+            }
+        }
+        Contourer contourer = new Contourer();
+        contourer.setGeoGrid(grid);
+        contourer.setInterval(5);
+        ArrayList<ArrayList<double[][]>> contours = contourer.contour();
+
+        // only level 25 is interrupted by the missing values, all other
+        // levels are single lines and not included
+        assertEquals(1, contours.size());
+        assertEquals(2, contours.get(0).size());
+        for (double[][] line : contours.get(0)) {
+            for (double[] pt : line) {
+                assertEquals(25, Math.hypot(pt[0], pt[1]), 0.1);
+            }
+        }
+        assertEquals(1, contourer.contour(20).size());
+        assertEquals(1, contourer.contour(30).size());
+    }
+
+    /**
+     * Test of contour with degree jumps. Rotation angles close to 0 and 360
+     * degrees must not result in contour lines along the jump.
+     */
+    public void testDegreeJump() {
+        System.out.println("ContourerTest: degree jump");
+
+        final int size = 50;
+        GeoGrid grid = new GeoGrid(size, size, 1);
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                // angles increasing from 350 to 360 and from 0 to 10 degrees
+                float angle = 350 + c * 20f / (size - 1);
+                grid.setValue(angle >= 360 ? angle - 360 : angle, c, r);
+            }
+        }
+        Contourer contourer = new Contourer();
+        contourer.setGeoGrid(grid);
+        contourer.setInterval(5);
+        contourer.setTreatDegreeJump(true);
+        ArrayList<ArrayList<double[][]>> contours = contourer.contour();
+        for (ArrayList<double[][]> levelContours : contours) {
+            for (double[][] line : levelContours) {
+                // all lines are vertical
+                for (double[] pt : line) {
+                    assertEquals(line[0][0], pt[0], 1e-4);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package ika.geo;
+
+import ika.utils.GeometryUtils;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+public class GridSpanMaskTest extends TestCase {
+
+    public GridSpanMaskTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Test of contains and intersects. The mask must be identical to
+     * GeometryUtils.pointInPolygon for a concave polygon with vertices on grid
+     * rows and columns, and for a polygon extending beyond the grid.
+     */
+    public void testContains() {
+        System.out.println("GridSpanMaskTest: contains");
+
+        final int cols = 120, rows = 90;
+        final double west = -3, north = 50, meshSize = 0.5;
+        java.util.Random random = new java.util.Random(11);
+        final int nbrVertices = 200;
+        double[][] star = new double[nbrVertices + 1][2];
+        for (int i = 0; i < nbrVertices; i++) {
+            final double angle = Math.PI * 2 * i / nbrVertices;
+            final double r = (i % 2 == 0 ? 20 : 8) + random.nextDouble() * 5;
+            // some vertices exactly on nodes
+            star[i][0] = Math.round((27 + r * Math.cos(angle)) * 2) / 2.;
+            star[i][1] = i % 3 == 0 ? Math.round((28 + r * Math.sin(angle)) * 2) / 2.
+                    : 28 + r * Math.sin(angle);
+        }
+        star[nbrVertices] = star[0].clone();
+        double[][] large = new double[][]{{-100, -100}, {100, -80}, {0, 200}};
+
+        for (double[][] polygon : new double[][][]{star, large}) {
+            GridSpanMask mask = new GridSpanMask(polygon, west, north, meshSize, cols, rows);
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    final double x = west + c * meshSize;
+                    final double y = north - r * meshSize;
+                    final boolean inside = GeometryUtils.pointInPolygon(x, y, polygon);
+                    assertEquals(inside, mask.contains(c, r));
+                    assertEquals(inside, mask.intersects(c, r, c, r));
+                }
+            }
+            assertFalse(mask.contains(0, -1));
+            assertFalse(mask.contains(0, rows));
+            assertEquals(polygon == large, mask.intersects(0, 0, 3, 3));
+            assertTrue(mask.intersects(0, 0, cols - 1, rows - 1));
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package ika.mapanalyst;
+
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+public class AdaptiveGridSamplerTest extends TestCase {
+
+    public AdaptiveGridSamplerTest(String testName) {
+        super(testName);
+    }
+
+    private static float value(int col, int row) {
+        return (float) (100 * Math.sin(col / 60.) * Math.cos(row / 45.) + col * 0.1);
+    }
+
+    /**
+     * Test of sample. Cells crossed by contour levels must have computed
+     * values at all corners, interpolated values must be close to the computed
+     * values, and nodes with missing values must remain missing.
+     */
+    public void testSample() {
+        System.out.println("AdaptiveGridSamplerTest: sample");
+
+        final int cols = 301, rows = 203;
+        final float interval = 20;
+        float[][] grid = new float[rows][cols];
+        for (float[] row : grid) {
+            Arrays.fill(row, Float.NaN);
+        }
+        final boolean[][] computed = new boolean[rows][cols];
+        AdaptiveGridSampler sampler = new AdaptiveGridSampler(new float[][][]{grid},
+                new float[]{interval}, new boolean[]{false});
+        sampler.sample((col, row, values) -> {
+            computed[row][col] = true;
+            values[0] = col + row < 40 ? Float.NaN : value(col, row);
+        });
+
+        int nbrComputed = 0;
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                final float v = value(c, r);
+                if (c + r < 40) {
+                    assertTrue(Float.isNaN(grid[r][c]));
+                    continue;
+                }
+                assertEquals(v, grid[r][c], interval * 0.05);
+                if (computed[r][c]) {
+                    nbrComputed++;
+                    assertEquals(v, grid[r][c], 0);
+                }
+                // corners of cells crossed by a contour level are computed
+                if (c > 0 && r > 0 && c + r > 41) {
+                    final float min = Math.min(Math.min(v, value(c - 1, r)),
+                            Math.min(value(c, r - 1), value(c - 1, r - 1)));
+                    final float max = Math.max(Math.max(v, value(c - 1, r)),
+                            Math.max(value(c, r - 1), value(c - 1, r - 1)));
+                    if (Math.ceil(min / interval) <= Math.floor(max / interval)) {
+                        assertTrue(computed[r][c] && computed[r - 1][c - 1]);
+                    }
+                }
+            }
+        }
+        assertTrue(nbrComputed < cols * rows / 2);
+    }
+}
@@ -0,0 +1,75 @@
+package ika.mapanalyst;
+
+import java.awt.geom.Rectangle2D;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+public class DisplacementFieldTest extends TestCase {
+
+    public DisplacementFieldTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Test of the accuracy of the approximation. Points inside the area must
+     * be transformed with an error not larger than the maximum error, and
+     * points outside the area must be transformed with the exact
+     * interpolation.
+     */
+    public void testMaxError() {
+        System.out.println("DisplacementFieldTest: maxError");
+
+        final int nbrCtrlPts = 200;
+        java.util.Random random = new java.util.Random(8);
+        double[][] srcPoints = new double[nbrCtrlPts][2];
+        double[][] dstPoints = new double[nbrCtrlPts][2];
+        for (int i = 0; i < nbrCtrlPts; i++) {
+            srcPoints[i][0] = random.nextDouble() * 10000;
+            srcPoints[i][1] = random.nextDouble() * 10000;
+            dstPoints[i][0] = srcPoints[i][0] + 30 * Math.sin(srcPoints[i][1] / 2000)
+                    + random.nextGaussian();
+            dstPoints[i][1] = srcPoints[i][1] + 30 * Math.cos(srcPoints[i][0] / 3000)
+                    + random.nextGaussian();
+        }
+        MultiquadricInterpolation mi = new MultiquadricInterpolation();
+        mi.solveCoefficients(srcPoints, dstPoints, 1);
+
+        Rectangle2D bounds = new Rectangle2D.Double(0, 0, 10000, 10000);
+        for (double maxError : new double[]{0.1, 0.5, 1}) {
+            for (DisplacementField.Lookup lookup : DisplacementField.Lookup.values()) {
+                DisplacementField field = new DisplacementField(mi, bounds,
+                        maxError, lookup);
+                assertTrue(field.getError() <= maxError);
+
+                // random points, and points close to control points, where
+                // the multiquadric interpolation is strongly curved
+                final int nbrPts = 40000;
+                double[] coords = new double[nbrPts * 2];
+                for (int i = 0; i < coords.length; i++) {
+                    coords[i] = random.nextDouble() * 12000 - 1000;
+                }
+                for (int i = 0; i < nbrCtrlPts * 50; i++) {
+                    coords[i * 2] = srcPoints[i % nbrCtrlPts][0] + random.nextGaussian() * 20;
+                    coords[i * 2 + 1] = srcPoints[i % nbrCtrlPts][1] + random.nextGaussian() * 20;
+                }
+                double[] input = coords.clone();
+                double[] exact = coords.clone();
+                mi.transform(exact, nbrPts);
+                field.transformParallel(coords, nbrPts);
+                for (int i = 0; i < coords.length; i += 2) {
+                    if (bounds.contains(input[i], input[i + 1])) {
+                        assertEquals(exact[i], coords[i], maxError);
+                        assertEquals(exact[i + 1], coords[i + 1], maxError);
+                    } else {
+                        assertEquals(exact[i], coords[i], 0);
+                        assertEquals(exact[i + 1], coords[i + 1], 0);
+                    }
+                }
+            }
+        }
+    }
+}
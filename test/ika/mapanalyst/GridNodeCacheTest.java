@@ -0,0 +1,204 @@
+package ika.mapanalyst;
+
+import ika.transformation.TransformationAffine6;
+import ika.transformation.TransformationHelmert;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+public class GridNodeCacheTest extends TestCase {
+
+    public GridNodeCacheTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * A multiquadric interpolation counting the transformed points.
+     */
+    private static class CountingInterpolation extends MultiquadricInterpolation {
+
+        private int nbrTransformed = 0;
+
+        @Override
+        public void transformParallel(double[][] points) {
+            nbrTransformed += points.length;
+            super.transformParallel(points);
+        }
+
+        private int getAndResetCount() {
+            final int n = nbrTransformed;
+            nbrTransformed = 0;
+            return n;
+        }
+    }
+
+    private static final double OFFSET_X = 3, OFFSET_Y = -7;
+
+    private double[][] oldPoints, newPoints;
+
+    @Override
+    protected void setUp() {
+        java.util.Random random = new java.util.Random(5);
+        final int nbrPts = 40;
+        oldPoints = new double[nbrPts][2];
+        newPoints = new double[nbrPts][2];
+        for (int i = 0; i < nbrPts; i++) {
+            newPoints[i][0] = random.nextDouble() * 10000;
+            newPoints[i][1] = random.nextDouble() * 7000;
+            oldPoints[i][0] = newPoints[i][0] * 0.01 + random.nextGaussian();
+            oldPoints[i][1] = newPoints[i][1] * 0.01 + random.nextGaussian();
+        }
+    }
+
+    /**
+     * Creates visualization parameters for the new map.
+     */
+    private VisualizationParameters params(double[][] oldPts, double[][] newPts,
+            ika.transformation.Transformation transformation,
+            MultiquadricInterpolation interpolation) {
+        return params(oldPts, newPts, transformation, interpolation, false);
+    }
+
+    private VisualizationParameters params(double[][] oldPts, double[][] newPts,
+            ika.transformation.Transformation transformation,
+            MultiquadricInterpolation interpolation, boolean analyzeOldMap) {
+        transformation.init(newPts, oldPts);
+        double[][] transformed = new double[oldPts.length][];
+        for (int i = 0; i < oldPts.length; i++) {
+            transformed[i] = transformation.transform(oldPts[i]);
+        }
+        interpolation.solveCoefficients(transformed, newPts, 1);
+        return new VisualizationParameters(transformation, oldPts, newPts,
+                null, null, transformed, analyzeOldMap, interpolation, null, null, null, false);
+    }
+
+    /**
+     * Returns the nodes of a grid with the affine transformation applied,
+     * columns first, as expected by GridNodeCache.transform().
+     */
+    private static double[][] grid(VisualizationParameters params, double meshSize,
+            int firstCol, int firstRow, int nbrCols, int nbrRows) {
+        double[][] grid = new double[nbrCols * nbrRows][];
+        for (int c = 0; c < nbrCols; c++) {
+            for (int r = 0; r < nbrRows; r++) {
+                grid[c * nbrRows + r] = new double[]{
+                    (firstCol + c) * meshSize + OFFSET_X,
+                    (firstRow + r) * meshSize + OFFSET_Y};
+            }
+        }
+        params.getTransformation().transformParallel(grid);
+        return grid;
+    }
+
+    /**
+     * Transforms a grid with the cache and compares the nodes with the nodes
+     * transformed without the cache.
+     *
+     * @return True if the nodes were taken from the cache. Nodes outside of
+     * the cached nodes along the border of the grid may be transformed.
+     */
+    private static boolean transform(GridNodeCache cache, VisualizationParameters params,
+            double exaggeration, double meshSize, double offsetX, double offsetY) {
+        // the grid covers the source points, which range from about -3 to 103
+        // horizontally and from -3 to 73 vertically
+        final int firstCol = (int) Math.floor(-5 / meshSize);
+        final int firstRow = (int) Math.floor(-5 / meshSize);
+        final int nbrCols = (int) Math.ceil(110 / meshSize);
+        final int nbrRows = (int) Math.ceil(80 / meshSize);
+        double[][] grid = grid(params, meshSize, firstCol, firstRow, nbrCols, nbrRows);
+        double[][] expected = new double[grid.length][];
+        for (int i = 0; i < grid.length; i++) {
+            expected[i] = grid[i].clone();
+        }
+        params.getInterpolation().transform(expected);
+        CountingInterpolation interpolation = (CountingInterpolation) params.getInterpolation();
+        interpolation.getAndResetCount();
+
+        cache.transform(params, exaggeration, meshSize, offsetX, offsetY,
+                firstCol, firstRow, nbrCols, nbrRows, grid);
+        for (int i = 0; i < grid.length; i++) {
+            assertEquals(expected[i][0], grid[i][0], 1e-9);
+            assertEquals(expected[i][1], grid[i][1], 1e-9);
+        }
+        return interpolation.getAndResetCount() < grid.length;
+    }
+
+    /**
+     * Test of transform. Cached nodes must be used when only the mesh size
+     * changes, and the cache must be invalidated after each kind of parameter
+     * change.
+     */
+    public void testTransform() {
+        System.out.println("GridNodeCacheTest: transform");
+
+        GridNodeCache cache = new GridNodeCache();
+        VisualizationParameters params = params(oldPoints, newPoints,
+                new TransformationHelmert(), new CountingInterpolation());
+
+        // first grid is transformed and cached
+        assertFalse(transform(cache, params, 1, 10, OFFSET_X, OFFSET_Y));
+        // identical grid and multiple of the mesh size are taken from the cache
+        assertTrue(transform(cache, params, 1, 10, OFFSET_X, OFFSET_Y));
+        assertTrue(transform(cache, params, 1, 20, OFFSET_X, OFFSET_Y));
+        // a finer mesh size is transformed, and a finer base mesh is cached
+        assertFalse(transform(cache, params, 1, 5, OFFSET_X, OFFSET_Y));
+        assertTrue(transform(cache, params, 1, 5, OFFSET_X, OFFSET_Y));
+        assertTrue(transform(cache, params, 1, 1.5, OFFSET_X, OFFSET_Y));
+        assertTrue(transform(cache, params, 1, 2.5, OFFSET_X, OFFSET_Y));
+        assertTrue(transform(cache, params, 1, 10, OFFSET_X, OFFSET_Y));
+
+        // changed exaggeration and offsets
+        assertFalse(transform(cache, params, 2, 10, OFFSET_X, OFFSET_Y));
+        assertTrue(transform(cache, params, 2, 10, OFFSET_X, OFFSET_Y));
+        assertFalse(transform(cache, params, 2, 10, OFFSET_X + 1, OFFSET_Y));
+        assertFalse(transform(cache, params, 2, 10, OFFSET_X + 1, OFFSET_Y + 1));
+        assertTrue(transform(cache, params, 2, 10, OFFSET_X + 1, OFFSET_Y + 1));
+        transform(cache, params, 1, 10, OFFSET_X, OFFSET_Y);
+
+        // equal parameters in new objects
+        double[][] oldPts = copy(oldPoints);
+        double[][] newPts = copy(newPoints);
+        params = params(oldPts, newPts, new TransformationHelmert(), new CountingInterpolation());
+        assertTrue(transform(cache, params, 1, 10, OFFSET_X, OFFSET_Y));
+
+        // changed source point
+        oldPts[3][0] += 0.5;
+        params = params(oldPts, newPts, new TransformationHelmert(), new CountingInterpolation());
+        assertFalse(transform(cache, params, 1, 10, OFFSET_X, OFFSET_Y));
+        assertTrue(transform(cache, params, 1, 10, OFFSET_X, OFFSET_Y));
+
+        // changed destination point
+        newPts[5][1] += 10;
+        params = params(oldPts, newPts, new TransformationHelmert(), new CountingInterpolation());
+        assertFalse(transform(cache, params, 1, 10, OFFSET_X, OFFSET_Y));
+        assertTrue(transform(cache, params, 1, 10, OFFSET_X, OFFSET_Y));
+
+        // changed transformation
+        params = params(oldPts, newPts, new TransformationAffine6(), new CountingInterpolation());
+        assertFalse(transform(cache, params, 1, 10, OFFSET_X, OFFSET_Y));
+        assertTrue(transform(cache, params, 1, 10, OFFSET_X, OFFSET_Y));
+
+        // changed interpolation class
+        CountingInterpolation interpolation = new CountingInterpolation() {
+        };
+        params = params(oldPts, newPts, new TransformationAffine6(), interpolation);
+        assertFalse(transform(cache, params, 1, 10, OFFSET_X, OFFSET_Y));
+        assertTrue(transform(cache, params, 1, 10, OFFSET_X, OFFSET_Y));
+
+        // changed map
+        params = params(oldPts, newPts, new TransformationAffine6(), interpolation, true);
+        assertFalse(transform(cache, params, 1, 10, OFFSET_X, OFFSET_Y));
+        assertTrue(transform(cache, params, 1, 10, OFFSET_X, OFFSET_Y));
+    }
+
+    private static double[][] copy(double[][] points) {
+        double[][] copy = new double[points.length][];
+        for (int i = 0; i < points.length; i++) {
+            copy[i] = points[i].clone();
+        }
+        return copy;
+    }
+}
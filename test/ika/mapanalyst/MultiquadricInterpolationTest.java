@@ -123,4 +123,330 @@ public class MultiquadricInterpolationTest extends TestCase {
 
     }
 
+    /**
+     * Test of MultiquadricTreeCode. Compares the hierarchical evaluation with
+     * the exact sum over all control points.
+     */
+    public void testTreeCode() {
+        System.out.println("MultiquadricInterpolationTest: tree code");
+
+        final int nbrCtrlPts = 3000;
+        java.util.Random random = new java.util.Random(1);
+        double[] x = new double[nbrCtrlPts];
+        double[] y = new double[nbrCtrlPts];
+        double[] a = new double[nbrCtrlPts];
+        double[] b = new double[nbrCtrlPts];
+        for (int i = 0; i < nbrCtrlPts; i++) {
+            x[i] = random.nextDouble() * 10000;
+            y[i] = random.nextDouble() * 5000;
+            a[i] = random.nextGaussian() * 1e-3;
+            b[i] = random.nextGaussian() * 1e-3;
+        }
+
+        final int nbrPts = 2000;
+        double[] coords = new double[nbrPts * 2];
+        for (int i = 0; i < nbrPts * 2; i += 2) {
+            coords[i] = random.nextDouble() * 14000 - 2000;
+            coords[i + 1] = random.nextDouble() * 9000 - 2000;
+        }
+
+        for (double tol : new double[]{1e-2, 1e-4, 1e-7}) {
+            MultiquadricTreeCode treeCode = new MultiquadricTreeCode(x, y, a, b,
+                    nbrCtrlPts, tol);
+            double[] approx = coords.clone();
+            treeCode.transform(approx, 0, nbrPts);
+
+            for (int i = 0; i < nbrPts; i++) {
+                double px = coords[i * 2];
+                double py = coords[i * 2 + 1];
+                double corrX = 0;
+                double corrY = 0;
+                for (int j = 0; j < nbrCtrlPts; j++) {
+                    double d = Math.hypot(px - x[j], py - y[j]);
+                    corrX += a[j] * d;
+                    corrY += b[j] * d;
+                }
+                assertEquals(px + corrX, approx[i * 2], tol);
+                assertEquals(py + corrY, approx[i * 2 + 1], tol);
+            }
+        }
+    }
+
+    /**
+     * Test of setTreeCodeTolerance. The tree code must not change transformed
+     * coordinates by more than the tolerance.
+     */
+    public void testTreeCodeTolerance() {
+        System.out.println("MultiquadricInterpolationTest: tree code tolerance");
+
+        final int nbrCtrlPts = 400;
+        java.util.Random random = new java.util.Random(2);
+        double[][] srcPoints = new double[nbrCtrlPts][2];
+        double[][] dstPoints = new double[nbrCtrlPts][2];
+        for (int i = 0; i < nbrCtrlPts; i++) {
+            srcPoints[i][0] = random.nextDouble() * 10000;
+            srcPoints[i][1] = random.nextDouble() * 10000;
+            dstPoints[i][0] = srcPoints[i][0] + random.nextGaussian() * 20;
+            dstPoints[i][1] = srcPoints[i][1] + random.nextGaussian() * 20;
+        }
+
+        MultiquadricInterpolation mi = new MultiquadricInterpolation();
+        mi.solveCoefficients(srcPoints, dstPoints, 1);
+        double[][] exact = new double[1000][2];
+        for (double[] pt : exact) {
+            pt[0] = random.nextDouble() * 10000;
+            pt[1] = random.nextDouble() * 10000;
+        }
+        double[][] approx = new double[exact.length][];
+        for (int i = 0; i < exact.length; i++) {
+            approx[i] = exact[i].clone();
+        }
+        mi.transform(exact);
+
+        final double tol = 0.001;
+        mi.setTreeCodeTolerance(tol);
+        mi.transform(approx);
+        for (int i = 0; i < exact.length; i++) {
+            assertEquals(exact[i][0], approx[i][0], tol);
+            assertEquals(exact[i][1], approx[i][1], tol);
+        }
+
+        // the control points are mapped onto the destination points
+        double[][] ctrlPts = new double[nbrCtrlPts][];
+        for (int i = 0; i < nbrCtrlPts; i++) {
+            ctrlPts[i] = srcPoints[i].clone();
+        }
+        mi.transform(ctrlPts);
+        for (int i = 0; i < nbrCtrlPts; i++) {
+            assertEquals(dstPoints[i][0], ctrlPts[i][0], 1e-3 + tol);
+            assertEquals(dstPoints[i][1], ctrlPts[i][1], 1e-3 + tol);
+        }
+    }
+
+    /**
+     * Test of transformParallel. The parallel transformation must return
+     * exactly the same coordinates as the sequential transformation.
+     */
+    public void testTransformParallel() {
+        System.out.println("MultiquadricInterpolationTest: transformParallel");
+
+        final int nbrCtrlPts = 200;
+        java.util.Random random = new java.util.Random(3);
+        double[][] srcPoints = new double[nbrCtrlPts][2];
+        double[][] dstPoints = new double[nbrCtrlPts][2];
+        for (int i = 0; i < nbrCtrlPts; i++) {
+            srcPoints[i][0] = random.nextDouble() * 10000;
+            srcPoints[i][1] = random.nextDouble() * 10000;
+            dstPoints[i][0] = srcPoints[i][0] + random.nextGaussian() * 20;
+            dstPoints[i][1] = srcPoints[i][1] + random.nextGaussian() * 20;
+        }
+        MultiquadricInterpolation mi = new MultiquadricInterpolation();
+        mi.solveCoefficients(srcPoints, dstPoints, 1);
+
+        // number of points is not a multiple of the chunk size
+        final int nbrPts = 5000;
+        double[] coords = new double[nbrPts * 2];
+        for (int i = 0; i < coords.length; i++) {
+            coords[i] = random.nextDouble() * 12000 - 1000;
+        }
+        double[] parallelCoords = coords.clone();
+        double[][] points = new double[nbrPts][];
+        double[][] parallelPoints = new double[nbrPts][];
+        for (int i = 0; i < nbrPts; i++) {
+            points[i] = new double[]{coords[i * 2], coords[i * 2 + 1]};
+            parallelPoints[i] = points[i].clone();
+        }
+
+        mi.transform(coords, nbrPts);
+        mi.transformParallel(parallelCoords, nbrPts);
+        mi.transform(points);
+        mi.transformParallel(parallelPoints);
+        for (int i = 0; i < nbrPts; i++) {
+            assertEquals(coords[i * 2], parallelCoords[i * 2], 0);
+            assertEquals(coords[i * 2 + 1], parallelCoords[i * 2 + 1], 0);
+            assertEquals(points[i][0], parallelPoints[i][0], 0);
+            assertEquals(points[i][1], parallelPoints[i][1], 0);
+        }
+    }
+
+    /**
+     * Test of solveCoefficients with a MultiquadricSolver. Single points are
+     * added, moved and removed, and the source points are rotated, scaled and
+     * shifted as a Helmert transformation would do. The updated coefficients
+     * must result in the same interpolation as newly computed coefficients.
+     */
+    public void testIncrementalSolve() {
+        System.out.println("MultiquadricInterpolationTest: incremental solve");
+
+        java.util.Random random = new java.util.Random(4);
+        java.util.ArrayList<double[]> src = new java.util.ArrayList<>();
+        java.util.ArrayList<double[]> dst = new java.util.ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            double x = random.nextDouble() * 10000;
+            double y = random.nextDouble() * 10000;
+            src.add(new double[]{x, y});
+            dst.add(new double[]{x + random.nextGaussian() * 20,
+                y + random.nextGaussian() * 20});
+        }
+        double[][] testPoints = new double[500][2];
+        for (double[] pt : testPoints) {
+            pt[0] = random.nextDouble() * 10000;
+            pt[1] = random.nextDouble() * 10000;
+        }
+
+        MultiquadricSolver solver = new MultiquadricSolver();
+        for (int step = 0; step < 12; step++) {
+            switch (step) {
+                case 2: // move a point
+                case 3: // move the same point again
+                    src.get(10)[0] += 50 * step;
+                    break;
+                case 4: // add a point at the end
+                    src.add(new double[]{5000, 5000});
+                    dst.add(new double[]{5010, 4990});
+                    break;
+                case 5: // add a point in the middle
+                    src.add(100, new double[]{2000, 7000});
+                    dst.add(100, new double[]{2005, 6990});
+                    break;
+                case 6: // remove an added point
+                    src.remove(100);
+                    dst.remove(100);
+                    break;
+                case 7: // remove a point
+                    src.remove(50);
+                    dst.remove(50);
+                    break;
+                case 8: // remove the first point
+                    src.remove(0);
+                    dst.remove(0);
+                    break;
+                case 9: // move the last point
+                    src.get(src.size() - 1)[1] -= 100;
+                    break;
+                case 10: // move three points
+                    src.get(1)[0] += 10;
+                    src.get(2)[0] += 10;
+                    src.get(3)[0] += 10;
+                    break;
+            }
+
+            // similarity transformation of the source points
+            double scale = 1 + step * 0.01;
+            double rot = step * 0.02;
+            double a = scale * Math.cos(rot);
+            double b = scale * Math.sin(rot);
+            double[][] srcPoints = new double[src.size()][];
+            double[][] dstPoints = new double[dst.size()][];
+            for (int i = 0; i < srcPoints.length; i++) {
+                double[] pt = src.get(i);
+                srcPoints[i] = new double[]{a * pt[0] - b * pt[1] + 100 * step,
+                    b * pt[0] + a * pt[1] - 30 * step};
+                pt = dst.get(i);
+                dstPoints[i] = new double[]{a * pt[0] - b * pt[1] + 100 * step,
+                    b * pt[0] + a * pt[1] - 30 * step};
+            }
+
+            double exaggeration = step == 1 ? 2 : 1;
+            MultiquadricInterpolation updated = new MultiquadricInterpolation();
+            updated.solveCoefficients(srcPoints, dstPoints, exaggeration, solver);
+            boolean expectIncremental = step > 0 && step != 10;
+            assertEquals(expectIncremental, solver.isLastSolveIncremental());
+
+            MultiquadricInterpolation exact = new MultiquadricInterpolation();
+            exact.solveCoefficients(srcPoints, dstPoints, exaggeration);
+
+            double[][] ptsUpdated = new double[testPoints.length][];
+            double[][] ptsExact = new double[testPoints.length][];
+            for (int i = 0; i < testPoints.length; i++) {
+                ptsUpdated[i] = testPoints[i].clone();
+                ptsExact[i] = testPoints[i].clone();
+            }
+            updated.transform(ptsUpdated);
+            exact.transform(ptsExact);
+            for (int i = 0; i < testPoints.length; i++) {
+                assertEquals(ptsExact[i][0], ptsUpdated[i][0], 1e-6);
+                assertEquals(ptsExact[i][1], ptsUpdated[i][1], 1e-6);
+            }
+        }
+    }
+
+    /**
+     * Test of solveCoefficients with a MultiquadricIterativeSolver. The
+     * iterative solution must result in the same interpolation as the direct
+     * solution.
+     */
+    public void testIterativeSolve() {
+        System.out.println("MultiquadricInterpolationTest: iterative solve");
+
+        final int nbrCtrlPts = 600;
+        java.util.Random random = new java.util.Random(5);
+        double[][] srcPoints = new double[nbrCtrlPts][2];
+        double[][] dstPoints = new double[nbrCtrlPts][2];
+        for (int i = 0; i < nbrCtrlPts; i++) {
+            srcPoints[i][0] = random.nextDouble() * 10000;
+            srcPoints[i][1] = random.nextDouble() * 10000;
+            dstPoints[i][0] = srcPoints[i][0] + random.nextGaussian() * 20;
+            dstPoints[i][1] = srcPoints[i][1] + random.nextGaussian() * 20;
+        }
+
+        MultiquadricInterpolation direct = new MultiquadricInterpolation();
+        direct.solveCoefficients(srcPoints, dstPoints, 1);
+        MultiquadricIterativeSolver solver = new MultiquadricIterativeSolver();
+        solver.setTolerance(1e-10);
+        MultiquadricInterpolation iterative = new MultiquadricInterpolation();
+        iterative.solveCoefficients(srcPoints, dstPoints, 1, solver);
+        assertTrue(solver.getConvergenceReport(), solver.isConverged());
+        assertTrue(solver.getIterations() < solver.getMaxIterations());
+
+        double[][] pts1 = new double[1000][2];
+        double[][] pts2 = new double[pts1.length][2];
+        for (int i = 0; i < pts1.length; i++) {
+            pts1[i][0] = pts2[i][0] = random.nextDouble() * 10000;
+            pts1[i][1] = pts2[i][1] = random.nextDouble() * 10000;
+        }
+        direct.transform(pts1);
+        iterative.transform(pts2);
+        for (int i = 0; i < pts1.length; i++) {
+            assertEquals(pts1[i][0], pts2[i][0], 1e-6);
+            assertEquals(pts1[i][1], pts2[i][1], 1e-6);
+        }
+    }
+
+    /**
+     * Test of scaledCopy. Scaling the coefficients must result in the same
+     * interpolation as solving with an exaggeration factor.
+     */
+    public void testScaledCopy() {
+        System.out.println("MultiquadricInterpolationTest: scaledCopy");
+
+        final int nbrCtrlPts = 300;
+        java.util.Random random = new java.util.Random(6);
+        double[][] srcPoints = new double[nbrCtrlPts][2];
+        double[][] dstPoints = new double[nbrCtrlPts][2];
+        for (int i = 0; i < nbrCtrlPts; i++) {
+            srcPoints[i][0] = random.nextDouble() * 10000;
+            srcPoints[i][1] = random.nextDouble() * 10000;
+            dstPoints[i][0] = srcPoints[i][0] + random.nextGaussian() * 20;
+            dstPoints[i][1] = srcPoints[i][1] + random.nextGaussian() * 20;
+        }
+        MultiquadricInterpolation exaggerated = new MultiquadricInterpolation();
+        exaggerated.solveCoefficients(srcPoints, dstPoints, 3);
+        MultiquadricInterpolation mi = new MultiquadricInterpolation();
+        mi.solveCoefficients(srcPoints, dstPoints, 1);
+        RadialBasisFunctionInterpolation scaled = mi.scaledCopy(3);
+
+        double[][] pts1 = new double[1000][2];
+        double[][] pts2 = new double[pts1.length][2];
+        for (int i = 0; i < pts1.length; i++) {
+            pts1[i][0] = pts2[i][0] = random.nextDouble() * 10000;
+            pts1[i][1] = pts2[i][1] = random.nextDouble() * 10000;
+        }
+        exaggerated.transform(pts1);
+        scaled.transform(pts2);
+        for (int i = 0; i < pts1.length; i++) {
+            assertEquals(pts1[i][0], pts2[i][0], 1e-6);
+            assertEquals(pts1[i][1], pts2[i][1], 1e-6);
+        }
+    }
 }
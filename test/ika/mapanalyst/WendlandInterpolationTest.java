@@ -0,0 +1,67 @@
+package ika.mapanalyst;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+public class WendlandInterpolationTest extends TestCase {
+
+    public WendlandInterpolationTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Test of solveCoefficients. The interpolation must transform the source
+     * control points to the destination control points, must not displace
+     * points farther than the support radius from all control points, and the
+     * parallel transformation must be identical to the sequential
+     * transformation.
+     */
+    public void testSolveCoefficients() {
+        System.out.println("WendlandInterpolationTest: solveCoefficients");
+
+        final int nbrCtrlPts = 2000;
+        java.util.Random random = new java.util.Random(7);
+        double[][] srcPoints = new double[nbrCtrlPts][2];
+        double[][] dstPoints = new double[nbrCtrlPts][2];
+        for (int i = 0; i < nbrCtrlPts; i++) {
+            srcPoints[i][0] = random.nextDouble() * 10000;
+            srcPoints[i][1] = random.nextDouble() * 10000;
+            dstPoints[i][0] = srcPoints[i][0] + random.nextGaussian() * 20;
+            dstPoints[i][1] = srcPoints[i][1] + random.nextGaussian() * 20;
+        }
+        WendlandInterpolation wi = new WendlandInterpolation();
+        wi.solveCoefficients(srcPoints, dstPoints, 1);
+        assertTrue(wi.getEffectiveSupportRadius() > 0);
+
+        double[][] pts = new double[nbrCtrlPts][];
+        for (int i = 0; i < nbrCtrlPts; i++) {
+            pts[i] = srcPoints[i].clone();
+        }
+        wi.transformParallel(pts);
+        for (int i = 0; i < nbrCtrlPts; i++) {
+            assertEquals(dstPoints[i][0], pts[i][0], 1e-6);
+            assertEquals(dstPoints[i][1], pts[i][1], 1e-6);
+        }
+
+        double[] far = new double[]{-10000, -10000};
+        wi.transform(far, 1);
+        assertEquals(-10000, far[0], 0);
+        assertEquals(-10000, far[1], 0);
+
+        final int nbrPts = 5000;
+        double[] coords = new double[nbrPts * 2];
+        for (int i = 0; i < coords.length; i++) {
+            coords[i] = random.nextDouble() * 12000 - 1000;
+        }
+        double[] parallelCoords = coords.clone();
+        wi.transform(coords, nbrPts);
+        wi.transformParallel(parallelCoords, nbrPts);
+        for (int i = 0; i < coords.length; i++) {
+            assertEquals(coords[i], parallelCoords[i], 0);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package ika.transformation;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+public class WeightedHelmertAccumulatorTest extends TestCase {
+
+    public WeightedHelmertAccumulatorTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Scale and rotation must be equal to the least squares adjustment of
+     * TransformationWeightedHelmert, and sigmas with unit weights must be
+     * equal to those of TransformationHelmert.
+     */
+    public void testScaleAndRotation() {
+        System.out.println("WeightedHelmertAccumulatorTest: scaleAndRotation");
+
+        final int nbrPts = 50;
+        java.util.Random random = new java.util.Random(3);
+        double[][] srcPoints = new double[nbrPts][3];
+        double[][] dstPoints = new double[nbrPts][2];
+        final double scale = 0.8, rot = Math.toRadians(290);
+        final double cos = Math.cos(rot) * scale, sin = Math.sin(rot) * scale;
+        for (int i = 0; i < nbrPts; i++) {
+            final double x = 600000 + random.nextDouble() * 10000;
+            final double y = 200000 + random.nextDouble() * 10000;
+            srcPoints[i][0] = x;
+            srcPoints[i][1] = y;
+            srcPoints[i][2] = random.nextDouble() + 0.01;
+            dstPoints[i][0] = 3000 + cos * x - sin * y + random.nextGaussian() * 20;
+            dstPoints[i][1] = -500 + sin * x + cos * y + random.nextGaussian() * 20;
+        }
+
+        WeightedHelmertAccumulator helmert = new WeightedHelmertAccumulator();
+        float[] scaleRot = new float[2];
+        helmert.getScaleAndRotation(scaleRot);
+        assertTrue(Float.isNaN(scaleRot[0]) && Float.isNaN(scaleRot[1]));
+
+        // weighted points
+        for (int i = 0; i < nbrPts; i++) {
+            helmert.add(srcPoints[i][0], srcPoints[i][1],
+                    dstPoints[i][0], dstPoints[i][1], srcPoints[i][2]);
+        }
+        float[] expected = new float[2];
+        new TransformationWeightedHelmert().initWithPoints(dstPoints, srcPoints,
+                nbrPts, expected);
+        helmert.getScaleAndRotation(scaleRot);
+        assertEquals(nbrPts, helmert.getNumberOfPoints());
+        assertEquals(expected[0], scaleRot[0], 1e-6);
+        assertEquals(expected[1], scaleRot[1], 1e-4);
+        assertEquals(scale, helmert.getScale(), 1e-3);
+        assertEquals(rot, helmert.getRotation(), 1e-3);
+
+        // points with unit weights
+        helmert.reset();
+        double[][] src = new double[nbrPts][];
+        for (int i = 0; i < nbrPts; i++) {
+            src[i] = new double[]{srcPoints[i][0], srcPoints[i][1]};
+            helmert.add(src[i][0], src[i][1], dstPoints[i][0], dstPoints[i][1], 1);
+        }
+        TransformationHelmert t = new TransformationHelmert();
+        t.init(dstPoints, src);
+        assertEquals(t.getScale(), helmert.getScale(), 1e-9);
+        assertEquals(t.getSigma0(), helmert.getSigma0(), 1e-6);
+        assertEquals(t.getScaleSigma(false), helmert.getScaleSigma(), 1e-9);
+        assertEquals(t.getRotationSigma(), helmert.getRotationSigma(), 1e-9);
+    }
+}
@@ -0,0 +1,106 @@
+package ika.utils;
+
+import java.util.Vector;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+public class ConvexPolygonClipperTest extends TestCase {
+
+    public ConvexPolygonClipperTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Creates a closed convex polygon with vertices on an ellipse.
+     */
+    private static double[][] convexPolygon(java.util.Random random, int nbrVertices,
+            boolean clockwise) {
+        double[] angles = new double[nbrVertices];
+        for (int i = 0; i < nbrVertices; i++) {
+            angles[i] = random.nextDouble() * Math.PI * 2;
+        }
+        java.util.Arrays.sort(angles);
+        double[][] polygon = new double[nbrVertices + 1][];
+        for (int i = 0; i < nbrVertices; i++) {
+            final double a = clockwise ? -angles[i] : angles[i];
+            polygon[i] = new double[]{300 + 200 * Math.cos(a), -100 + 120 * Math.sin(a)};
+        }
+        polygon[nbrVertices] = polygon[0].clone();
+        return polygon;
+    }
+
+    /**
+     * Test of clip. Clipped lines must be identical to the lines of
+     * GeometryUtils.clipPolylineWithPolygon() for random polylines crossing
+     * convex polygons in both orientations.
+     */
+    public void testClip() {
+        System.out.println("ConvexPolygonClipperTest: clip");
+
+        java.util.Random random = new java.util.Random(5);
+        ConvexPolygonClipper.Lines lines = new ConvexPolygonClipper.Lines();
+        for (int p = 0; p < 20; p++) {
+            double[][] polygon = convexPolygon(random, 3 + random.nextInt(30), p % 2 == 0);
+            ConvexPolygonClipper clipper = new ConvexPolygonClipper(polygon);
+            for (int l = 0; l < 50; l++) {
+                double[][] polyline = new double[2 + random.nextInt(20)][];
+                for (int i = 0; i < polyline.length; i++) {
+                    polyline[i] = new double[]{
+                        random.nextDouble() * 600, -300 + random.nextDouble() * 400};
+                }
+                Vector<?> expected = GeometryUtils.clipPolylineWithPolygon(polyline, polygon);
+                final int nbrLines = clipper.clip(polyline, polyline.length, lines);
+                assertEquals(expected.size(), nbrLines);
+                assertEquals(nbrLines, lines.getNumberOfLines());
+                for (int i = 0; i < nbrLines; i++) {
+                    double[][] expectedLine = (double[][]) expected.get(i);
+                    assertEquals(expectedLine.length, lines.getNumberOfPoints(i));
+                    double[][] line = lines.toArray(i);
+                    for (int j = 0; j < line.length; j++) {
+                        assertEquals(expectedLine[j][0], line[j][0], 1e-9);
+                        assertEquals(expectedLine[j][1], line[j][1], 1e-9);
+                        assertEquals(line[j][0], lines.getX(i, j), 0);
+                        assertEquals(line[j][1], lines.getY(i, j), 0);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Test of clip with a polyline entirely inside and entirely outside of a
+     * rectangle, and with a polygon without area.
+     */
+    public void testClipInsideOutside() {
+        System.out.println("ConvexPolygonClipperTest: clip inside outside");
+
+        double[][] square = {{0, 0}, {10, 0}, {10, 10}, {0, 10}};
+        ConvexPolygonClipper clipper = new ConvexPolygonClipper(square);
+        ConvexPolygonClipper.Lines lines = new ConvexPolygonClipper.Lines();
+
+        double[][] inside = {{1, 1}, {5, 2}, {9, 9}};
+        assertEquals(1, clipper.clip(inside, inside.length, lines));
+        assertEquals(3, lines.getNumberOfPoints(0));
+        assertEquals(9, lines.getX(0, 2), 0);
+
+        double[][] outside = {{-1, -1}, {-5, 20}, {20, 20}};
+        assertEquals(0, clipper.clip(outside, outside.length, lines));
+
+        // a line entering and leaving twice
+        double[][] zigzag = {{-5, 5}, {5, 5}, {5, 15}, {5, 20}, {5, -5}};
+        assertEquals(2, clipper.clip(zigzag, zigzag.length, lines));
+        assertEquals(0, lines.getX(0, 0), 1e-12);
+        assertEquals(10, lines.getY(0, 2), 1e-12);
+        assertEquals(10, lines.getY(1, 0), 1e-12);
+        assertEquals(0, lines.getY(1, 1), 1e-12);
+
+        // collinear vertices
+        double[][] line = {{0, 0}, {5, 5}, {10, 10}, {0, 0}};
+        clipper = new ConvexPolygonClipper(line);
+        assertEquals(0, clipper.clip(zigzag, zigzag.length, lines));
+    }
+}
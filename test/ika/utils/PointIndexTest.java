@@ -0,0 +1,58 @@
+package ika.utils;
+
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+public class PointIndexTest extends TestCase {
+
+    public PointIndexTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Test of kNearest. The distances must be equal to a brute force search,
+     * for locations inside and outside of the indexed points.
+     */
+    public void testKNearest() {
+        System.out.println("PointIndexTest: kNearest");
+
+        final int nbrPts = 2000;
+        java.util.Random random = new java.util.Random(7);
+        double[][] points = new double[nbrPts][2];
+        for (int i = 0; i < nbrPts; i++) {
+            points[i][0] = 1000 + random.nextDouble() * 500;
+            points[i][1] = -200 + random.nextDouble() * 300;
+        }
+        PointIndex index = new PointIndex(points);
+        assertEquals(nbrPts, index.getNumberOfPoints());
+
+        final int k = 7;
+        int[] indices = new int[k];
+        double[] distSq = new double[k];
+        double[] expected = new double[nbrPts];
+        for (int q = 0; q < 500; q++) {
+            // locations up to one extent beyond the points on each side
+            final double px = 500 + random.nextDouble() * 1500;
+            final double py = -500 + random.nextDouble() * 900;
+            for (int i = 0; i < nbrPts; i++) {
+                final double dx = points[i][0] - px;
+                final double dy = points[i][1] - py;
+                expected[i] = dx * dx + dy * dy;
+            }
+            Arrays.sort(expected);
+
+            assertEquals(k, index.kNearest(px, py, k, indices, distSq));
+            for (int i = 0; i < k; i++) {
+                assertEquals(expected[i], distSq[i], 0);
+                final double dx = points[indices[i]][0] - px;
+                final double dy = points[indices[i]][1] - py;
+                assertEquals(distSq[i], dx * dx + dy * dy, 0);
+            }
+        }
+    }
+}
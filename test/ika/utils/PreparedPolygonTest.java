@@ -0,0 +1,97 @@
+package ika.utils;
+
+import java.util.List;
+import java.util.Vector;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Bernhard Jenny, Faculty of Information Technology, Monash University,
+ * Melbourne, Australia
+ */
+public class PreparedPolygonTest extends TestCase {
+
+    public PreparedPolygonTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Creates a closed concave polygon with a star shape and some vertices
+     * with identical vertical coordinates.
+     */
+    private static double[][] star(java.util.Random random, int nbrVertices) {
+        double[][] polygon = new double[nbrVertices + 1][];
+        for (int i = 0; i < nbrVertices; i++) {
+            final double a = Math.PI * 2 * i / nbrVertices;
+            final double r = (i % 2 == 0 ? 50 : 20) + random.nextDouble() * 10;
+            final double y = 10 + r * Math.sin(a);
+            polygon[i] = new double[]{-40 + r * Math.cos(a),
+                i % 5 == 0 ? Math.round(y) : y};
+        }
+        polygon[nbrVertices] = polygon[0].clone();
+        return polygon;
+    }
+
+    /**
+     * Test of contains. The result must be identical to
+     * GeometryUtils.pointInPolygon() for random points and for points on
+     * vertices.
+     */
+    public void testContains() {
+        System.out.println("PreparedPolygonTest: contains");
+
+        java.util.Random random = new java.util.Random(13);
+        for (int nbrVertices : new int[]{3, 10, 500}) {
+            double[][] polygon = star(random, nbrVertices);
+            PreparedPolygon prepared = new PreparedPolygon(polygon);
+            assertSame(polygon, prepared.getPolygon());
+            for (int i = 0; i < 20000; i++) {
+                final double x = -110 + random.nextDouble() * 140;
+                // some points on rows of vertices
+                final double y = i % 10 == 0 ? Math.round(-50 + random.nextDouble() * 120)
+                        : -50 + random.nextDouble() * 120;
+                assertEquals(GeometryUtils.pointInPolygon(x, y, polygon),
+                        prepared.contains(x, y));
+            }
+            for (double[] vertex : polygon) {
+                assertEquals(GeometryUtils.pointInPolygon(vertex, polygon),
+                        prepared.contains(vertex[0], vertex[1]));
+            }
+        }
+
+        // degenerate polygons contain no points
+        double[][] point = {{1, 1}, {1, 1}};
+        assertFalse(new PreparedPolygon(point).contains(1, 1));
+    }
+
+    /**
+     * Test of clipPolyline. The clipped lines must be identical to
+     * GeometryUtils.clipPolylineWithPolygon().
+     */
+    public void testClipPolyline() {
+        System.out.println("PreparedPolygonTest: clipPolyline");
+
+        java.util.Random random = new java.util.Random(17);
+        double[][] polygon = star(random, 200);
+        PreparedPolygon prepared = new PreparedPolygon(polygon);
+        for (int l = 0; l < 200; l++) {
+            double[][] polyline = new double[2 + random.nextInt(10)][];
+            for (int i = 0; i < polyline.length; i++) {
+                polyline[i] = new double[]{
+                    -110 + random.nextDouble() * 140, -50 + random.nextDouble() * 120};
+            }
+            Vector<?> expected = GeometryUtils.clipPolylineWithPolygon(polyline, polygon);
+            List<double[][]> lines = prepared.clipPolyline(polyline);
+            assertEquals(expected.size(), lines.size());
+            for (int i = 0; i < lines.size(); i++) {
+                double[][] expectedLine = (double[][]) expected.get(i);
+                double[][] line = lines.get(i);
+                assertEquals(expectedLine.length, line.length);
+                for (int j = 0; j < line.length; j++) {
+                    assertEquals(expectedLine[j][0], line[j][0], 0);
+                    assertEquals(expectedLine[j][1], line[j][1], 0);
+                }
+            }
+        }
+    }
+}